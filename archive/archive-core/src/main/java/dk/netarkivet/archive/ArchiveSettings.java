@@ -101,12 +101,48 @@ public class ArchiveSettings {
      */
     public static String BITARCHIVE_BATCH_JOB_TIMEOUT = "settings.archive.bitarchive.batchMessageTimeout";
 
+    /**
+     * <b>settings.archive.bitarchive.batchResultFetchThreads</b>: <br>
+     * The number of batch results from bitarchives the BitarchiveMonitorServer fetches at the same time. The result of
+     * a bitarchive is fetched as soon as the bitarchive replies, while the monitor waits for the other bitarchives.
+     */
+    public static String BITARCHIVE_BATCH_RESULT_FETCH_THREADS = "settings.archive.bitarchive.batchResultFetchThreads";
+
     /**
      * <b>settings.archive.bitarchive.thisCredentials</b>: <br>
      * Credentials to enter in the GUI for "deleting" ARC files in this bit archive.
      */
     public static String ENVIRONMENT_THIS_CREDENTIALS = "settings.archive.bitarchive.thisCredentials";
 
+    /**
+     * <b>settings.archive.bitarchive.checksumScrub.enabled</b>: <br>
+     * Whether the bitarchive continuously verifies the checksums of its files in the background and keeps a record of
+     * the verified checksums. When enabled, GetAllChecksumsMessages are answered from this record instead of
+     * calculating the checksum of every file anew. Checksums calculated anew can still be had by running a ChecksumJob.
+     */
+    public static String BITARCHIVE_CHECKSUM_SCRUB_ENABLED = "settings.archive.bitarchive.checksumScrub.enabled";
+
+    /**
+     * <b>settings.archive.bitarchive.checksumScrub.cycleDays</b>: <br>
+     * The number of days the background verification takes to go through all the files of the bitarchive, i.e. the
+     * maximum age of a verified checksum in the record.
+     */
+    public static String BITARCHIVE_CHECKSUM_SCRUB_CYCLE_DAYS = "settings.archive.bitarchive.checksumScrub.cycleDays";
+
+    /**
+     * <b>settings.archive.bitarchive.checksumScrub.interval</b>: <br>
+     * The number of milliseconds between each round of background verification. Each round verifies the share of the
+     * files needed to complete the cycle in time, starting with the files verified longest ago.
+     */
+    public static String BITARCHIVE_CHECKSUM_SCRUB_INTERVAL = "settings.archive.bitarchive.checksumScrub.interval";
+
+    /**
+     * <b>settings.archive.bitarchive.checksumScrub.maxBytesPerSecond</b>: <br>
+     * The maximum number of bytes per second read by the background verification.
+     */
+    public static String BITARCHIVE_CHECKSUM_SCRUB_MAX_BYTES_PER_SECOND
+            = "settings.archive.bitarchive.checksumScrub.maxBytesPerSecond";
+
     /**
      * <b>settings.archive.bitpreservation.baseDir</b>: <br>
      * Absolute or relative path to dir containing results of file-list-batch-jobs and checksumming batch jobs for bit
@@ -293,6 +329,15 @@ public class ArchiveSettings {
      * The default is false
      */
     public static String CHECKSUM_USE_PRECOMPUTED_CHECKSUM_DURING_UPLOAD= "settings.archive.checksum.usePrecomputedChecksumDuringUpload";
+
+    /**
+     * <b>settings.archive.checksum.database.syncInterval</b>: <br>
+     * Only used by the DatabaseChecksumArchive. If 0, every upload is synchronously written to disk before it is
+     * acknowledged. If positive, uploads are committed without waiting for the disk, and the database is written to
+     * disk every this many milliseconds, so many uploads share one write. Uploads within the last interval may then be
+     * lost if the machine crashes.
+     */
+    public static String CHECKSUM_DATABASE_SYNC_INTERVAL = "settings.archive.checksum.database.syncInterval";
     
     
     /**
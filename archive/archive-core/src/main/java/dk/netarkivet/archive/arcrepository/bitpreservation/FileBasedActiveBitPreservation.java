@@ -22,15 +22,22 @@
  */
 package dk.netarkivet.archive.arcrepository.bitpreservation;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,6 +59,7 @@ import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.CleanupHook;
 import dk.netarkivet.common.utils.CleanupIF;
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.KeyValuePair;
 import dk.netarkivet.common.utils.StringUtils;
 import dk.netarkivet.common.utils.batch.ChecksumJob;
 
@@ -214,104 +222,115 @@ public class FileBasedActiveBitPreservation implements ActiveBitPreservation, Cl
      * Generate a map of checksums for these filenames in the bitarchives ( map ([filename] -> map ([replica] -> [list
      * of checksums]))). This takes a long time, as a batchjob will be sent out to all the bitarchives to compute
      * checksums for the files with these filenames.
+     * <p>
+     * All replicas are asked concurrently, with one request per replica for all the files.
      *
      * @param filenames The filenames to get the checksums for.
      * @return Map containing the output of checksum jobs from the bitarchives.
      */
-    private Map<String, Map<Replica, List<String>>> getChecksumMaps(Set<String> filenames) {
+    private Map<String, Map<Replica, List<String>>> getChecksumMaps(final Set<String> filenames) {
+        final Collection<Replica> replicas = Replica.getKnown();
 
         // checksummaps: map ([filename] -> map ([replica]
         // -> [list of checksums])).
         // This datastructure will contain for each filename the computed
         // checksums for the file with this filename on all replicas
-        // (bitarchives).
-        Map<String, Map<Replica, List<String>>> checksummaps = new HashMap<String, Map<Replica, List<String>>>();
-
-        // Only make one checksum job for each replica
-        for (Replica rep : Replica.getKnown()) {
-            // Get the checksum information from Replica 'rep' as
-            // a map ([filename]->[list of checksums]).
-            Map<String, List<String>> checksums = getChecksums(rep, filenames);
-            log.debug("Adding checksums for replica '{}' for filenames: {}", rep,
-                    StringUtils.conjoin(",", filenames, MAX_LIST_SIZE));
+        // (bitarchives). It is filled in completely before the replicas are
+        // asked, so each replica only adds checksums to its own lists.
+        final Map<String, Map<Replica, List<String>>> checksummaps = new HashMap<String, Map<Replica, List<String>>>();
+        for (String filename : filenames) {
+            Map<Replica, List<String>> replicaMap = new HashMap<Replica, List<String>>();
+            for (Replica rep : replicas) {
+                replicaMap.put(rep, new ArrayList<String>(1));
+            }
+            checksummaps.put(filename, replicaMap);
+        }
+        if (filenames.isEmpty()) {
+            return checksummaps;
+        }
 
-            for (String filename : filenames) {
-                // Update 'checksummaps' datastructure with the checksums
-                // received from Replica 'rep'.
-
-                // replicaMap: map ([replica]
-                // -> [list of checksums for one filename]).
-                Map<Replica, List<String>> replicaMap;
-                // Get current map in 'checksummaps' datastructure for filename,
-                // if it exists. Otherwise a new one is created, and
-                // stored.
-                if (checksummaps.containsKey(filename)) {
-                    replicaMap = checksummaps.get(filename);
-                } else {
-                    replicaMap = new HashMap<Replica, List<String>>();
-                    checksummaps.put(filename, replicaMap);
-                }
-                // Extract the list of checksums for the given filename from
-                // the 'checksums' datastructure.
-                List<String> checksumsForFileOnRep = checksums.get(filename);
-                if (checksumsForFileOnRep == null) {
-                    // If no checksums for file was available on replica 'ba'
-                    // just add an empty list of checksums.
-                    checksumsForFileOnRep = new ArrayList<String>();
-                }
-                // Add the list of checksums for the given file
-                // on replica 'rep' to datastructure 'replicaMap'.
-                replicaMap.put(rep, checksumsForFileOnRep);
+        ExecutorService executor = Executors.newFixedThreadPool(replicas.size());
+        try {
+            List<Future<?>> requests = new ArrayList<Future<?>>(replicas.size());
+            for (final Replica rep : replicas) {
+                requests.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        addChecksums(rep, filenames, checksummaps);
+                    }
+                }));
             }
+            for (Future<?> request : requests) {
+                request.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOFailure("Interrupted while waiting for checksums from the replicas", e);
+        } catch (ExecutionException e) {
+            throw new IOFailure("Failed to retrieve checksums from the replicas", e.getCause());
+        } finally {
+            executor.shutdownNow();
         }
         return checksummaps;
     }
 
     /**
-     * Get the checksum of a list of files in a replica (map ([filename] -> map ([replica] -> [list of checksums])).
+     * Get the checksums of a set of files in a replica with one request, and add them to the lists for the replica in
+     * the given map (map ([filename] -> map ([replica] -> [list of checksums])). The reply is read one line at a time,
+     * so no intermediate map is built for the replica.
      * <p>
      * Note that this method runs a batch job on the bitarchives, and therefore may take a long time, depending on
-     * network delays.
+     * network delays. If no checksums can be retrieved, the lists of the replica are left empty.
      *
      * @param rep The replica to ask for checksums.
      * @param filenames The names of the files to ask for checksums for.
-     * @return The MD5 checksums of the files, or the empty string if the file was not in the replica.
+     * @param checksummaps The map to add the checksums to, containing a list for every file and replica.
      * @see ChecksumJob#parseLine(String)
      */
-    private Map<String, List<String>> getChecksums(Replica rep, Set<String> filenames) {
-        // initialise the resulting map.
-        Map<String, List<String>> res = new HashMap<String, List<String>>();
-
+    private void addChecksums(Replica rep, Set<String> filenames,
+            Map<String, Map<Replica, List<String>>> checksummaps) {
+        File checksumFile = null;
         try {
             PreservationArcRepositoryClient arcClient = ArcRepositoryClientFactory.getPreservationInstance();
-            // for each file extract the checksum through a checksum message
-            // and then put it into the resulting map.
-            for (String file : filenames) {
-                // retrieve the checksum from the replica.
-                String checksum = arcClient.getChecksum(rep.getId(), file);
-
-                // put the checksum into a list, or make empty list if the
-                // checksum was not retrieved.
-                List<String> csList;
-                if (checksum == null || checksum.isEmpty()) {
-                    log.warn("The checksum for file '{}' from replica '{}' was invalid. Empty list returned", file, rep);
-                    csList = Collections.<String>emptyList();
-                } else {
-                    csList = new ArrayList<String>();
-                    csList.add(checksum);
+            checksumFile = arcClient.getChecksums(rep.getId(), filenames);
+            BufferedReader reader = new BufferedReader(new FileReader(checksumFile));
+            int found = 0;
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+                    KeyValuePair<String, String> entry;
+                    try {
+                        entry = ChecksumJob.parseLine(line);
+                    } catch (ArgumentNotValid e) {
+                        log.warn("Ignoring malformed checksum line '{}' while asking replica '{}'", line, rep, e);
+                        continue;
+                    }
+                    Map<Replica, List<String>> replicaMap = checksummaps.get(entry.getKey());
+                    if (replicaMap == null) {
+                        log.warn("Found unexpected file '{}' while asking replica '{}'", entry.getKey(), rep);
+                        continue;
+                    }
+                    replicaMap.get(rep).add(entry.getValue());
+                    found++;
                 }
-
-                // put the filename and list into the map.
-                res.put(file, csList);
+            } finally {
+                reader.close();
             }
-
-            log.debug("The map from a checksum archive: " + res.toString());
+            log.debug("Added {} checksums from replica '{}' for {} filenames: {}", found, rep, filenames.size(),
+                    StringUtils.conjoin(",", filenames, MAX_LIST_SIZE));
+        } catch (IOException e) {
+            log.warn("Could not read the checksums from replica '{}'.", rep, e);
         } catch (NetarkivetException e) {
             // This is not critical. Log and continue.
-            log.warn("The retrieval of checksums from a checksum archive was not successful.", e);
+            log.warn("The retrieval of checksums from replica '{}' was not successful.", rep, e);
+        } finally {
+            if (checksumFile != null) {
+                FileUtils.remove(checksumFile);
+            }
         }
-
-        return res;
     }
 
     /**
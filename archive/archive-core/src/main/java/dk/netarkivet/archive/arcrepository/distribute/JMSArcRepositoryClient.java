@@ -24,12 +24,18 @@ package dk.netarkivet.archive.arcrepository.distribute;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.archive.arcrepository.bitpreservation.AdminDataMessage;
 import dk.netarkivet.archive.bitarchive.distribute.BatchMessage;
+import dk.netarkivet.archive.bitarchive.distribute.BatchPartMessage;
 import dk.netarkivet.archive.bitarchive.distribute.BatchReplyMessage;
 import dk.netarkivet.archive.bitarchive.distribute.GetFileMessage;
 import dk.netarkivet.archive.bitarchive.distribute.GetMessage;
@@ -46,6 +52,7 @@ import dk.netarkivet.common.distribute.RemoteFile;
 import dk.netarkivet.common.distribute.RemoteFileFactory;
 import dk.netarkivet.common.distribute.Synchronizer;
 import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClient;
+import dk.netarkivet.common.distribute.arcrepository.BatchResultPartHandler;
 import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
 import dk.netarkivet.common.distribute.arcrepository.BitarchiveRecord;
 import dk.netarkivet.common.distribute.arcrepository.Replica;
@@ -97,6 +104,10 @@ public class JMSArcRepositoryClient extends Synchronizer implements ArcRepositor
     /** The length of time to wait for a get reply before giving up. */
     private long getTimeout;
 
+    /** The replies received for batch jobs whose results are wanted in parts. The key is the ID of the BatchMessage. */
+    private final Map<String, BlockingQueue<NetarkivetMessage>> partedBatches =
+            new ConcurrentHashMap<String, BlockingQueue<NetarkivetMessage>>();
+
     // NOTE: The constants defining setting names below are left non-final on
     // purpose! Otherwise, the static initialiser that loads default values
     // will not run.
@@ -346,8 +357,89 @@ public class JMSArcRepositoryClient extends Synchronizer implements ArcRepositor
                 throw new IOFailure(msg);
             }
         }
-        return new BatchStatus(brMsg.getFilesFailed(), brMsg.getNoOfFilesProcessed(), brMsg.getResultFile(),
-                job.getExceptions());
+        BatchStatus status = new BatchStatus(brMsg.getFilesFailed(), brMsg.getNoOfFilesProcessed(),
+                brMsg.getResultFile(), job.getExceptions());
+        status.setReplyTimes(brMsg.getReplyTimes());
+        return status;
+    }
+
+    /**
+     * Runs a batch job on each file in the ArcRepository, and hands the result of each bitarchive to the given handler
+     * as soon as it arrives. The results are not post processed.
+     *
+     * @param job An object that implements the FileBatchJob interface.
+     * @param replicaId The archive to execute the job on.
+     * @param partHandler The handler of the result of each bitarchive. It is called in this thread.
+     * @param args The arguments for the batchjob. This is allowed to be null.
+     * @return The status of the batch job after it ended. It has no result file.
+     * @throws ArgumentNotValid If the job or the handler is null, or the replicaId is either null or the empty string.
+     * @throws IOFailure If the batch job failed before any result arrived, or if interrupted while waiting.
+     */
+    @Override
+    public BatchStatus batch(FileBatchJob job, String replicaId, BatchResultPartHandler partHandler, String... args)
+            throws IOFailure, ArgumentNotValid {
+        ArgumentNotValid.checkNotNull(job, "FileBatchJob job");
+        ArgumentNotValid.checkNotNullOrEmpty(replicaId, "String replicaId");
+        ArgumentNotValid.checkNotNull(partHandler, "BatchResultPartHandler partHandler");
+
+        log.debug("Starting batchjob '{}' running on replica '{}' with results in parts", job, replicaId);
+        BatchMessage bMsg = new BatchMessage(Channels.getTheRepos(), replyQ, job, replicaId, args);
+        bMsg.setResultPartsWanted(true);
+        BlockingQueue<NetarkivetMessage> replies = new LinkedBlockingQueue<NetarkivetMessage>();
+        partedBatches.put(bMsg.getID(), replies);
+        try {
+            JMSConnectionFactory.getInstance().send(bMsg);
+            int parts = 0;
+            while (true) {
+                NetarkivetMessage reply = replies.take();
+                if (reply instanceof BatchPartMessage) {
+                    BatchPartMessage bpMsg = (BatchPartMessage) reply;
+                    log.debug("Received batch result of '{}' from bitarchive '{}'", job, bpMsg.getBitarchiveID());
+                    parts++;
+                    try {
+                        partHandler.handleResultPart(bpMsg.getBitarchiveID(), bpMsg.getResultFile());
+                    } finally {
+                        bpMsg.getResultFile().cleanup();
+                    }
+                } else {
+                    BatchReplyMessage brMsg = (BatchReplyMessage) reply;
+                    if (!brMsg.isOk()) {
+                        String msg = "The batch job '" + bMsg + "' resulted in the following " + "error: "
+                                + brMsg.getErrMsg();
+                        log.warn(msg);
+                        if (parts == 0) {
+                            // If no result is available at all, this is non-recoverable
+                            throw new IOFailure(msg);
+                        }
+                    }
+                    BatchStatus status = new BatchStatus(brMsg.getFilesFailed(), brMsg.getNoOfFilesProcessed(), null,
+                            job.getExceptions());
+                    status.setReplyTimes(brMsg.getReplyTimes());
+                    return status;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOFailure("Interrupted while waiting for the results of " + bMsg, e);
+        } finally {
+            partedBatches.remove(bMsg.getID());
+        }
+    }
+
+    /**
+     * Hands replies to batch jobs whose results are wanted in parts to the waiting call of
+     * {@link #batch(FileBatchJob, String, BatchResultPartHandler, String...)}. Other replies are handled as usual.
+     *
+     * @param naMsg The received reply.
+     */
+    @Override
+    protected void handleReply(NetarkivetMessage naMsg) {
+        BlockingQueue<NetarkivetMessage> replies = partedBatches.get(naMsg.getReplyOfId());
+        if (replies != null) {
+            replies.add(naMsg);
+        } else {
+            super.handleReply(naMsg);
+        }
     }
 
     /**
@@ -454,10 +546,41 @@ public class JMSArcRepositoryClient extends Synchronizer implements ArcRepositor
     public File getAllChecksums(String replicaId) throws IOFailure, ArgumentNotValid {
         ArgumentNotValid.checkNotNullOrEmpty(replicaId, "String replicaId");
         log.debug("Sending GetAllChecksumMessage to replica '{}'.", replicaId);
+        // make and send the message to the replica.
+        return sendChecksumsMessage(new GetAllChecksumsMessage(Channels.getTheRepos(), replyQ, replicaId));
+    }
+
+    /**
+     * Retrieves the checksums of the given files in the replica through a GetAllChecksumsMessage restricted to these
+     * files.
+     *
+     * @param replicaId The id of the replica from which the checksums should be retrieved.
+     * @param filenames The names of the files for whom the checksums should be retrieved.
+     * @return A file containing filename and checksum of the given files found in the replica in the same format as a
+     * ChecksumJob.
+     * @throws IOFailure If the reply is not of type GetAllChecksumsMessage or if the file could not properly be
+     * retrieved from the reply message or if the message timed out.
+     * @throws ArgumentNotValid If the replicaId is null or empty, or the filenames are null.
+     */
+    public File getChecksums(String replicaId, Collection<String> filenames) throws IOFailure, ArgumentNotValid {
+        ArgumentNotValid.checkNotNullOrEmpty(replicaId, "String replicaId");
+        ArgumentNotValid.checkNotNull(filenames, "Collection<String> filenames");
+        log.debug("Sending GetAllChecksumMessage to replica '{}' for {} files.", replicaId, filenames.size());
+        // make and send the message to the replica.
+        return sendChecksumsMessage(new GetAllChecksumsMessage(Channels.getTheRepos(), replyQ, replicaId, filenames));
+    }
+
+    /**
+     * Send a GetAllChecksumsMessage and wait for the reply.
+     *
+     * @param gacMsg The message to send.
+     * @return A file containing the checksums from the reply.
+     * @throws IOFailure If the reply is not of type GetAllChecksumsMessage or if the file could not properly be
+     * retrieved from the reply message or if the message timed out.
+     */
+    private File sendChecksumsMessage(GetAllChecksumsMessage gacMsg) throws IOFailure {
         // time this.
         long start = System.currentTimeMillis();
-        // make and send the message to the replica.
-        GetAllChecksumsMessage gacMsg = new GetAllChecksumsMessage(Channels.getTheRepos(), replyQ, replicaId);
         NetarkivetMessage replyNetMsg = sendAndWaitForOneReply(gacMsg, 0);
 
         // calculate and log the time spent on handling the message.
@@ -465,7 +588,7 @@ public class JMSArcRepositoryClient extends Synchronizer implements ArcRepositor
         log.debug("Reply received after {} seconds.", (timePassed / MILLISECONDS_PER_SECOND));
         // check whether the output was valid.
         if (replyNetMsg == null) {
-            throw new IOFailure("Request for all checksum timed out after " + (getTimeout / MILLISECONDS_PER_SECOND)
+            throw new IOFailure("Request for checksums timed out after " + (getTimeout / MILLISECONDS_PER_SECOND)
                     + " seconds.");
         }
         // convert to the correct type of message.
@@ -27,6 +27,10 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.archive.io.ArchiveReader;
 import org.archive.io.ArchiveReaderFactory;
@@ -34,6 +38,7 @@ import org.archive.io.ArchiveRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.archive.ArchiveSettings;
 import dk.netarkivet.common.distribute.RemoteFile;
 import dk.netarkivet.common.distribute.RemoteFileFactory;
 import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
@@ -43,7 +48,9 @@ import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.PermissionDenied;
 import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.batch.BatchLocalFiles;
+import dk.netarkivet.common.utils.batch.ChecksumJob;
 import dk.netarkivet.common.utils.batch.FileBatchJob;
 
 /**
@@ -55,6 +62,12 @@ public class Bitarchive {
     /** Administrative data for the current bitarchive. */
     private BitarchiveAdmin admin;
 
+    /** The record of verified checksums, or null if background verification of checksums is disabled. */
+    private VerifiedChecksumStore checksumStore;
+
+    /** The executor running the background verification of checksums, or null if it is disabled. */
+    private ScheduledExecutorService scrubExecutor;
+
     /** Logging output place. */
     protected static final Logger log = LoggerFactory.getLogger(Bitarchive.class);
 
@@ -70,12 +83,47 @@ public class Bitarchive {
     private Bitarchive() throws PermissionDenied {
         log.debug("Starting bit archive");
         admin = BitarchiveAdmin.getInstance();
+        if (Settings.getBoolean(ArchiveSettings.BITARCHIVE_CHECKSUM_SCRUB_ENABLED)) {
+            startChecksumScrub();
+        }
+    }
+
+    /**
+     * Open the record of verified checksums, and start the background verification of the checksums. The record is
+     * kept in the first of the bitarchive directories.
+     */
+    private void startChecksumScrub() {
+        File recordDir = new File(Settings.getAll(ArchiveSettings.BITARCHIVE_SERVER_FILEDIR)[0]);
+        checksumStore = new VerifiedChecksumStore(new File(recordDir, VerifiedChecksumStore.RECORD_FILE_NAME));
+        long interval = Settings.getLong(ArchiveSettings.BITARCHIVE_CHECKSUM_SCRUB_INTERVAL);
+        ChecksumScrubber scrubber = new ChecksumScrubber(admin, checksumStore,
+                Settings.getInt(ArchiveSettings.BITARCHIVE_CHECKSUM_SCRUB_CYCLE_DAYS), interval,
+                Settings.getLong(ArchiveSettings.BITARCHIVE_CHECKSUM_SCRUB_MAX_BYTES_PER_SECOND));
+        scrubExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ChecksumScrubber");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        scrubExecutor.scheduleWithFixedDelay(scrubber, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("Started background verification of checksums every {} ms", interval);
     }
 
     /**
      * Release all resources allocated by the bitarchive Ensures that all admin data and log data are flushed.
      */
     public void close() {
+        if (scrubExecutor != null) {
+            scrubExecutor.shutdownNow();
+            scrubExecutor = null;
+        }
+        if (checksumStore != null) {
+            checksumStore.close();
+            checksumStore = null;
+        }
         admin.close();
         instance = null;
     }
@@ -188,7 +236,7 @@ public class Bitarchive {
         ArgumentNotValid.checkNotNullOrEmpty(bitarchiveAppId, "String bitarchiveAppId");
         ArgumentNotValid.checkNotNull(job, "FileBatchJob job");
         log.info("Starting batch job on bitarchive application with id '{}': '{}', on filename-pattern: '{}'",
-                bitarchiveAppId, job.getClass().getName(), job.getFilenamePattern());
+                bitarchiveAppId, job.getClass().getName(), job.getFilenameFilterDescription());
         BatchStatus returnStatus;
 
         File tmpFile = null;
@@ -199,7 +247,15 @@ public class Bitarchive {
             try {
                 // Run the batch job
                 log.debug("Batch: Job {} started at {}", job, new Date());
-                File[] processFiles = admin.getFilesMatching(job.getFilenamePattern());
+                if (checksumStore != null && job instanceof ChecksumJob) {
+                    ((ChecksumJob) job).setVerifiedChecksumSource(checksumStore);
+                }
+                File[] processFiles;
+                if (job.getFilenames() != null) {
+                    processFiles = admin.getFilesNamed(job.getFilenames());
+                } else {
+                    processFiles = admin.getFilesMatching(job.getFilenamePattern());
+                }
 
                 final BatchLocalFiles localBatchRunner = new BatchLocalFiles(processFiles);
                 localBatchRunner.run(job, os);
@@ -214,6 +270,13 @@ public class Bitarchive {
                     log.warn("Failed to close outputstream in batch");
                 }
             }
+            if (job.hasSortedOutput()) {
+                // The bitarchive monitor merges the sorted output of the bitarchives.
+                File sortedFile = File.createTempFile("BatchOutput", "sorted", FileUtils.getTempDir());
+                FileUtils.sortFile(tmpFile, sortedFile);
+                FileUtils.remove(tmpFile);
+                tmpFile = sortedFile;
+            }
             // write output from batch job back to remote file
             returnStatus = new BatchStatus(bitarchiveAppId, job.getFilesFailed(), job.getNoOfFilesProcessed(),
                     RemoteFileFactory.getMovefileInstance(tmpFile), job.getExceptions());
@@ -223,7 +286,7 @@ public class Bitarchive {
         }
         log.info(
                 "Finished batch job on bitarchive application with id '{}': '{}', on filename-pattern: '{}' + with result: {}",
-                bitarchiveAppId, job.getClass().getName(), job.getFilenamePattern(), returnStatus);
+                bitarchiveAppId, job.getClass().getName(), job.getFilenameFilterDescription(), returnStatus);
         return returnStatus;
     }
 
@@ -31,6 +31,7 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
@@ -397,6 +398,31 @@ public final class BitarchiveAdmin {
         return files.toArray(new File[files.size()]);
     }
 
+    /**
+     * Return an array of the files in this archive with one of the given names.
+     *
+     * @param filenames The names of the files to find (sans paths).
+     * @return An array of the files in this bitarchive with one of the given names. Names not found in the archive are
+     * ignored.
+     */
+    public File[] getFilesNamed(final Set<String> filenames) {
+        ArgumentNotValid.checkNotNull(filenames, "Set<String> filenames");
+        // Ensure that the filelist is up to date.
+        verifyFilelistUpToDate();
+        List<File> files = new ArrayList<File>();
+        for (File archivePath : archivedFiles.keySet()) {
+            File archiveDir = new File(archivePath, Constants.FILE_DIRECTORY_NAME);
+            if (checkArchiveDir(archiveDir)) {
+                for (String filename : archivedFiles.get(archivePath)) {
+                    if (filenames.contains(filename)) {
+                        files.add(new File(archiveDir, filename));
+                    }
+                }
+            }
+        }
+        return files.toArray(new File[files.size()]);
+    }
+
     /**
      * Return the path that a given arc file can be found in.
      *
@@ -22,22 +22,43 @@
  */
 package dk.netarkivet.archive.bitarchive;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Observable;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,6 +81,13 @@ import dk.netarkivet.common.utils.batch.FileBatchJob;
  * Registers outgoing batchjobs to bitarchives, and handles replies from bitarchives, finally notifying observers when
  * all bitarchives have replied, or when the batch times out, after a time specified in settings.
  * <p>
+ * The result of each bitarchive is fetched as soon as the bitarchive replies, by a pool of fetching threads, so the
+ * results are fetched in parallel and while waiting for the slower bitarchives. If the batch job was registered with a
+ * {@link ResultPartListener}, then each fetched result is handed to it at once. Otherwise, when the batch ends, the
+ * fetched results are combined in one file by a pool of assembling threads before the observers are notified: they are
+ * merged if they are sorted, and else concatenated. Both pools have the size given by
+ * {@link ArchiveSettings#BITARCHIVE_BATCH_RESULT_FETCH_THREADS}.
+ * <p>
  * We wait for replies from bitarchives that are considered live when the batch begins. A bitarchive is considered live
  * if we have heard any activity from it within a time specified in settings.
  */
@@ -90,6 +118,24 @@ public class BitarchiveMonitor extends Observable implements CleanupIF {
     /** Logger for this class. */
     private static final Logger log = LoggerFactory.getLogger(BitarchiveMonitor.class);
 
+    /** How long to wait in milliseconds for the results of ended batch jobs to be combined when closing down. */
+    private static final long CLEANUP_TIMEOUT = 10000L;
+
+    /**
+     * The encoding used when merging sorted batch results. Each byte is a character, so lines are compared in the
+     * order of their bytes and written back unchanged.
+     */
+    private static final Charset MERGE_CHARSET = StandardCharsets.ISO_8859_1;
+
+    /** The threads fetching the results of the bitarchives. */
+    private final ExecutorService resultFetchers;
+
+    /** The threads combining the results of ended batch jobs and notifying the observers. */
+    private final ExecutorService resultAssemblers;
+
+    /** The IDs of the ended batch jobs whose results are being combined. */
+    private final Set<String> endedBatches = new HashSet<String>();
+
     /**
      * Initialises the bitarchive monitor. During this, the acceptable delay between signs of life and the timeout
      * setting for batchjobs are read and logged.
@@ -97,6 +143,24 @@ public class BitarchiveMonitor extends Observable implements CleanupIF {
     private BitarchiveMonitor() {
         acceptableSignOfLifeDelay = Settings.getLong(ArchiveSettings.BITARCHIVE_ACCEPTABLE_HEARTBEAT_DELAY);
         log.info("Bitarchive liveness times out after {} milliseconds.", acceptableSignOfLifeDelay);
+        int fetchThreads = Settings.getInt(ArchiveSettings.BITARCHIVE_BATCH_RESULT_FETCH_THREADS);
+        ArgumentNotValid.checkPositive(fetchThreads, ArchiveSettings.BITARCHIVE_BATCH_RESULT_FETCH_THREADS);
+        resultFetchers = Executors.newFixedThreadPool(fetchThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "BatchResultFetcher");
+                t.setDaemon(IS_DAEMON);
+                return t;
+            }
+        });
+        resultAssemblers = Executors.newFixedThreadPool(fetchThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "BatchResultAssembler");
+                t.setDaemon(IS_DAEMON);
+                return t;
+            }
+        });
     }
 
     /**
@@ -140,11 +204,29 @@ public class BitarchiveMonitor extends Observable implements CleanupIF {
      */
     public void registerBatch(String requestID, ChannelID requestReplyTo, String bitarchiveBatchID, long timeout)
             throws ArgumentNotValid {
+        registerBatch(requestID, requestReplyTo, bitarchiveBatchID, timeout, false, null);
+    }
+
+    /**
+     * Register a new batch sent to the bitarchives, whose results may be sorted or wanted as soon as they are fetched.
+     *
+     * @param requestID The ID of the batch request.
+     * @param requestReplyTo The replyTo channel of the batch request.
+     * @param bitarchiveBatchID The ID of the batch job sent on to the bit archives.
+     * @param timeout Timeout of specific batch job.
+     * @param sortedResults Whether the result from each bitarchive is sorted, so the results should be merged rather
+     * than concatenated. See {@link FileBatchJob#hasSortedOutput()}.
+     * @param partListener If not null, the result of each bitarchive is handed to this listener as soon as it has been
+     * fetched, and the results are not combined.
+     * @throws ArgumentNotValid If any argument is null, or either string is empty.
+     */
+    public void registerBatch(String requestID, ChannelID requestReplyTo, String bitarchiveBatchID, long timeout,
+            boolean sortedResults, ResultPartListener partListener) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNullOrEmpty(requestID, "String requestID");
         ArgumentNotValid.checkNotNull(requestReplyTo, "ChannelID requestReplyTo");
         ArgumentNotValid.checkNotNullOrEmpty(bitarchiveBatchID, "String bitarchiveBatchID");
         BatchJobStatus bjs = new BatchJobStatus(requestID, requestReplyTo, bitarchiveBatchID,
-                getRunningBitarchiveIDs(), timeout);
+                getRunningBitarchiveIDs(), timeout, sortedResults, partListener);
         runningBatchJobs.put(bitarchiveBatchID, bjs);
         log.info("Registered Batch job from {} with timeout {}. Number of outstanding batchjobs are now: {}",
                 requestID, timeout, runningBatchJobs.size());
@@ -223,26 +305,233 @@ public class BitarchiveMonitor extends Observable implements CleanupIF {
     }
 
     /**
-     * Notifies observers that the given batch job has ended.
+     * Notifies observers that the given batch job has ended. The results of the bitarchives are combined first, by one
+     * of the assembling threads, so the replies and timeouts of other batch jobs are not held up.
      *
      * @param batchJobStatus The batch job that has ended.
      */
-    private void notifyBatchEnded(BatchJobStatus batchJobStatus) {
-        runningBatchJobs.remove(batchJobStatus.bitarchiveBatchID);
-        // Notify observers that this batch is done
-        setChanged();
-        notifyObservers(batchJobStatus);
-        log.info("Batchjob '{}' finished. The number of outstanding batchjobs are now: {}",
-                batchJobStatus.bitarchiveBatchID, runningBatchJobs.size());
+    private void notifyBatchEnded(final BatchJobStatus batchJobStatus) {
+        final String batchID = batchJobStatus.bitarchiveBatchID;
+        runningBatchJobs.remove(batchID);
+        synchronized (endedBatches) {
+            endedBatches.add(batchID);
+        }
+        try {
+            resultAssemblers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        batchJobStatus.assembleResults();
+                        // Notify observers that this batch is done. Synchronized, so
+                        // the changed flag of one batch is not cleared by another.
+                        synchronized (BitarchiveMonitor.this) {
+                            setChanged();
+                            notifyObservers(batchJobStatus);
+                        }
+                        log.info("Batchjob '{}' finished. The number of outstanding batchjobs are now: {}", batchID,
+                                runningBatchJobs.size());
+                    } finally {
+                        batchAssembled(batchID);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("The bitarchive monitor is closing down. Batchjob '{}' will not be replied to", batchID);
+            batchAssembled(batchID);
+        }
+    }
+
+    /**
+     * Register that the results of an ended batch job have been combined, and wake up anyone waiting for it.
+     *
+     * @param batchID The ID of the batch job.
+     */
+    private void batchAssembled(String batchID) {
+        synchronized (endedBatches) {
+            endedBatches.remove(batchID);
+            endedBatches.notifyAll();
+        }
+    }
+
+    /**
+     * Wait until the results of all ended batch jobs have been combined and the observers notified.
+     *
+     * @param timeout The maximum time to wait in milliseconds.
+     * @return true if no ended batch jobs are left, false if the timeout elapsed first.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean waitForEndedBatches(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (endedBatches) {
+            while (!endedBatches.isEmpty()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                endedBatches.wait(remaining);
+            }
+        }
+        return true;
     }
 
     /**
-     * Closes this BitarchiveMonitor cleanly. Currently does nothing.
+     * Closes this BitarchiveMonitor cleanly. The results of ended batch jobs are still combined and the observers
+     * notified, if this can be done within a short time; then the fetching and combining of batch results is stopped.
      */
     public void cleanup() {
+        resultAssemblers.shutdown();
+        try {
+            if (!resultAssemblers.awaitTermination(CLEANUP_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                log.warn("Gave up waiting for the results of ended batch jobs to be combined");
+            }
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while waiting for the results of ended batch jobs to be combined");
+            Thread.currentThread().interrupt();
+        }
+        resultAssemblers.shutdownNow();
+        resultFetchers.shutdownNow();
         instance = null;
     }
 
+    /**
+     * Combine result files in one file, in the order given.
+     *
+     * @param parts The result files.
+     * @param target The file to write to.
+     * @throws IOException If a file cannot be read or written.
+     */
+    private static void concatenate(List<File> parts, File target) throws IOException {
+        FileOutputStream out = new FileOutputStream(target);
+        try {
+            FileChannel outChannel = out.getChannel();
+            for (File part : parts) {
+                FileInputStream in = new FileInputStream(part);
+                try {
+                    FileChannel inChannel = in.getChannel();
+                    long size = inChannel.size();
+                    long position = 0;
+                    while (position < size) {
+                        position += inChannel.transferTo(position, size - position, outChannel);
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Merge sorted result files line by line into one sorted file.
+     *
+     * @param parts The result files, each sorted in the order of the bytes of the lines.
+     * @param target The file to write to.
+     * @throws IOException If a file cannot be read or written.
+     */
+    private static void mergeSorted(List<File> parts, File target) throws IOException {
+        PriorityQueue<MergeSource> sources = new PriorityQueue<MergeSource>(Math.max(1, parts.size()),
+                new Comparator<MergeSource>() {
+                    @Override
+                    public int compare(MergeSource a, MergeSource b) {
+                        return a.line.compareTo(b.line);
+                    }
+                });
+        List<BufferedReader> readers = new ArrayList<BufferedReader>();
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(target), MERGE_CHARSET));
+        try {
+            for (File part : parts) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(part),
+                        MERGE_CHARSET));
+                readers.add(reader);
+                MergeSource source = new MergeSource(reader);
+                if (source.advance()) {
+                    sources.add(source);
+                }
+            }
+            while (!sources.isEmpty()) {
+                MergeSource source = sources.poll();
+                out.write(source.line);
+                out.write('\n');
+                if (source.advance()) {
+                    sources.add(source);
+                }
+            }
+        } finally {
+            for (BufferedReader reader : readers) {
+                IOUtils.closeQuietly(reader);
+            }
+            out.close();
+        }
+    }
+
+    /**
+     * The next line of a sorted result file being merged.
+     */
+    private static final class MergeSource {
+        /** The reader of the result file. */
+        private final BufferedReader reader;
+        /** The current line. */
+        private String line;
+
+        /**
+         * @param reader The reader of the result file.
+         */
+        private MergeSource(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * Read the next line.
+         *
+         * @return false, if there are no more lines.
+         * @throws IOException If the file cannot be read.
+         */
+        private boolean advance() throws IOException {
+            line = reader.readLine();
+            return line != null;
+        }
+    }
+
+    /**
+     * Receives the result of each bitarchive as soon as it has been fetched, for batch jobs whose results are handed
+     * on in parts rather than combined by the monitor.
+     */
+    public interface ResultPartListener {
+        /**
+         * Handle the fetched result of a bitarchive. This is called by the fetching threads, and the batch job does
+         * not end until it returns.
+         *
+         * @param bjs The status of the batch job.
+         * @param bitarchiveID The ID of the bitarchive.
+         * @param resultPart The local file with the result. The listener takes over the file, and must remove it.
+         */
+        void resultPartFetched(BatchJobStatus bjs, String bitarchiveID, File resultPart);
+    }
+
+    /**
+     * The result of one bitarchive, fetched to a local file.
+     */
+    private static final class ResultPart {
+        /** The ID of the bitarchive. */
+        private final String bitarchiveID;
+        /** The local file the result is fetched to. */
+        private final File file;
+        /** The fetching of the result. Gives whether the result was fetched. */
+        private final Future<Boolean> fetch;
+
+        /**
+         * @param bitarchiveID The ID of the bitarchive.
+         * @param file The local file the result is fetched to.
+         * @param fetch The fetching of the result.
+         */
+        private ResultPart(String bitarchiveID, File file, Future<Boolean> fetch) {
+            this.bitarchiveID = bitarchiveID;
+            this.file = file;
+            this.fetch = fetch;
+        }
+    }
+
     /**
      * Class handling state and updates in batch job status.
      * <p>
@@ -285,6 +574,21 @@ public class BitarchiveMonitor extends Observable implements CleanupIF {
         /** The timeout for batch jobs in milliseconds. */
         private long batchTimeout;
 
+        /** The time the batch job was registered. */
+        private final long startTime;
+
+        /** The time in milliseconds after the start each bitarchive replied, in the order of replies. */
+        private final Map<String, Long> replyTimes = new LinkedHashMap<String, Long>();
+
+        /** The results of the bitarchives, in the order of replies. */
+        private final List<ResultPart> resultParts = new ArrayList<ResultPart>();
+
+        /** Whether the results of the bitarchives are sorted, and should be merged. */
+        private final boolean sortedResults;
+
+        /** The listener the result of each bitarchive is handed to, or null if the results are combined. */
+        private final ResultPartListener partListener;
+
         /**
          * Initialise the status on a fresh batch request. Apart from the given values, a file is created to store batch
          * results in. <b>Sideeffect</b>: BatchTimeout is started here
@@ -294,10 +598,16 @@ public class BitarchiveMonitor extends Observable implements CleanupIF {
          * @param bitarchiveBatchID The ID of the job sent to bitarchives.
          * @param missingRespondents List of all live bitarchives, used to know which bitarchives to await reply from.
          * @param timeout Timeout for Batch job
+         * @param sortedResults Whether the results of the bitarchives are sorted, and should be merged.
+         * @param partListener The listener the result of each bitarchive is handed to, or null to combine them.
          * @throws IOFailure if a file for batch results cannot be made.
          */
         private BatchJobStatus(String originalRequestID, ChannelID originalRequestReplyTo, String bitarchiveBatchID,
-                Set<String> missingRespondents, long timeout) throws IOFailure {
+                Set<String> missingRespondents, long timeout, boolean sortedResults, ResultPartListener partListener)
+                throws IOFailure {
+            this.startTime = System.currentTimeMillis();
+            this.sortedResults = sortedResults;
+            this.partListener = partListener;
             this.originalRequestID = originalRequestID;
             this.originalRequestReplyTo = originalRequestReplyTo;
             this.bitarchiveBatchID = bitarchiveBatchID;
@@ -326,7 +636,7 @@ public class BitarchiveMonitor extends Observable implements CleanupIF {
          *
          * @param errMsg A message describing what went wrong.
          */
-        public void appendError(String errMsg) {
+        public synchronized void appendError(String errMsg) {
             if (this.errorMessages == null) {
                 this.errorMessages = errMsg;
             } else {
@@ -369,7 +679,12 @@ public class BitarchiveMonitor extends Observable implements CleanupIF {
                 this.filesFailed.addAll(failedFiles);
             }
 
-            appendRemoteFileToAggregateFile(remoteFile);
+            long replyTime = System.currentTimeMillis() - startTime;
+            replyTimes.put(bitarchiveID, replyTime);
+            log.info("Bitarchive '{}' replied to batch job '{}' after {} ms", bitarchiveID, bitarchiveBatchID,
+                    replyTime);
+
+            fetchResult(bitarchiveID, remoteFile);
             this.exceptions.addAll(this.exceptions);
 
             // In case the batch reply contains an error, the final
@@ -387,44 +702,130 @@ public class BitarchiveMonitor extends Observable implements CleanupIF {
         }
 
         /**
-         * Append a remotefile to the batch result aggregate file. Adds info on errors while concatenating to the batch
+         * Start fetching the result of a bitarchive to a local file. Errors while fetching are added to the batch
          * status.
          *
-         * @param rf A remotefile to read from
+         * @param bitarchiveID The ID of the bitarchive.
+         * @param rf A remotefile to read from. Might be null if the job was not OK.
          */
-        private void appendRemoteFileToAggregateFile(RemoteFile rf) {
-            if (rf != null) {
-                OutputStream aggregateStream = null;
-                try {
-                    aggregateStream = new FileOutputStream(batchResultFile, true);
-                    rf.appendTo(aggregateStream);
-
+        private void fetchResult(final String bitarchiveID, final RemoteFile rf) {
+            if (rf == null) {
+                return;
+            }
+            final File partFile;
+            try {
+                partFile = File.createTempFile(bitarchiveBatchID, "batch_part", FileUtils.getTempDir());
+            } catch (IOException e) {
+                appendError("Exception while aggregating batch output for " + rf.getName() + ": "
+                        + ExceptionUtils.getStackTrace(e));
+                return;
+            }
+            Future<Boolean> fetch = resultFetchers.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    long start = System.currentTimeMillis();
+                    try {
+                        rf.copyTo(partFile);
+                    } catch (Exception e) {
+                        appendError("Exception while aggregating batch output for " + rf.getName() + ": "
+                                + ExceptionUtils.getStackTrace(e));
+                        FileUtils.remove(partFile);
+                        return false;
+                    }
+                    log.debug("Fetched batch output '{}' of {} bytes in {} ms", rf.getName(), partFile.length(),
+                            System.currentTimeMillis() - start);
                     try {
                         rf.cleanup();
                     } catch (IOFailure e) {
                         log.warn("Could not remove remotefile '{}'", rf, e);
                         // Harmless, though. Continue
                     }
-                } catch (IOFailure e) {
-                    String errMsg = "Exception while aggregating batch output for " + rf.getName() + ": "
-                            + ExceptionUtils.getStackTrace(e);
-                    appendError(errMsg);
-                } catch (IOException e) {
-                    String errMsg = "Exception while aggregating batch output for " + rf.getName() + ": "
-                            + ExceptionUtils.getStackTrace(e);
-                    appendError(errMsg);
-                } finally {
-                    if (aggregateStream != null) {
+                    if (partListener != null) {
+                        // Cancelled when the batch job gave up waiting for this result.
+                        if (Thread.currentThread().isInterrupted()) {
+                            FileUtils.remove(partFile);
+                            return false;
+                        }
                         try {
-                            aggregateStream.close();
-                        } catch (IOException e) {
-                            String errMsg = "Exception while aggregating batch output for " + rf.getName() + ": "
-                                    + ExceptionUtils.getStackTrace(e);
-                            appendError(errMsg);
+                            partListener.resultPartFetched(BatchJobStatus.this, bitarchiveID, partFile);
+                        } catch (Exception e) {
+                            appendError("Exception while handing on batch output from " + bitarchiveID + ": "
+                                    + ExceptionUtils.getStackTrace(e));
+                            FileUtils.remove(partFile);
+                            return false;
                         }
                     }
+                    return true;
                 }
+            });
+            resultParts.add(new ResultPart(bitarchiveID, partFile, fetch));
+        }
+
+        /**
+         * Wait for the results of the bitarchives to be fetched. Unless they have been handed to a part listener, they
+         * are then combined in the batch result file: merged if they are sorted, and else concatenated in the order the
+         * bitarchives replied. A result not fetched within the timeout of the batch job is left out. Adds info on
+         * errors while combining to the batch status.
+         */
+        private void assembleResults() {
+            List<ResultPart> parts;
+            synchronized (this) {
+                parts = new ArrayList<ResultPart>(resultParts);
             }
+            List<File> fetched = new ArrayList<File>();
+            long deadline = System.currentTimeMillis() + batchTimeout;
+            try {
+                for (ResultPart part : parts) {
+                    try {
+                        if (part.fetch.get(Math.max(0, deadline - System.currentTimeMillis()),
+                                TimeUnit.MILLISECONDS)) {
+                            fetched.add(part.file);
+                        }
+                    } catch (ExecutionException e) {
+                        appendError("Exception while fetching batch output from " + part.bitarchiveID + ": "
+                                + ExceptionUtils.getStackTrace(e.getCause()));
+                    } catch (TimeoutException e) {
+                        part.fetch.cancel(true);
+                        appendError("Timed out after " + batchTimeout + " ms fetching batch output from "
+                                + part.bitarchiveID);
+                    }
+                }
+                if (partListener == null) {
+                    if (sortedResults) {
+                        mergeSorted(fetched, batchResultFile);
+                    } else {
+                        concatenate(fetched, batchResultFile);
+                    }
+                }
+            } catch (InterruptedException e) {
+                appendError("Interrupted while aggregating batch output: " + ExceptionUtils.getStackTrace(e));
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                appendError("Exception while aggregating batch output: " + ExceptionUtils.getStackTrace(e));
+            } finally {
+                // With a part listener, each result is removed by the listener or by its fetching thread.
+                if (partListener == null) {
+                    for (ResultPart part : parts) {
+                        FileUtils.remove(part.file);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return Whether the results of the bitarchives have been handed to a part listener, rather than combined in
+         * the batch result file.
+         */
+        public boolean hasResultParts() {
+            return partListener != null;
+        }
+
+        /**
+         * @return The time in milliseconds after the batch job was sent each bitarchive replied, in the order of
+         * replies.
+         */
+        public synchronized Map<String, Long> getReplyTimes() {
+            return new LinkedHashMap<String, Long>(replyTimes);
         }
 
         /**
@@ -0,0 +1,151 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * Background verification of the checksums of the files in a bitarchive. Each run verifies the share of the files
+ * needed to verify every file once per cycle, starting with the files without a valid record and then the files
+ * verified longest ago. Files are read no faster than a given rate, so the verification does not starve the
+ * bitarchive of disk bandwidth.
+ * <p>
+ * The verified checksums are kept in a {@link VerifiedChecksumStore}.
+ */
+public class ChecksumScrubber implements Runnable {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(ChecksumScrubber.class);
+
+    /** Pattern matching all files. */
+    private static final Pattern ALL_FILES = Pattern.compile(".*");
+
+    /** The administration of the bitarchive files. */
+    private final BitarchiveAdmin admin;
+    /** The record of verified checksums. */
+    private final VerifiedChecksumStore store;
+    /** The length of a verification cycle in milliseconds. */
+    private final long cycleMillis;
+    /** The time between runs in milliseconds. */
+    private final long intervalMillis;
+    /** The maximum number of bytes read per second. */
+    private final long maxBytesPerSecond;
+
+    /**
+     * Create a scrubber.
+     *
+     * @param admin The administration of the bitarchive files.
+     * @param store The record of verified checksums.
+     * @param cycleDays The number of days to verify every file in.
+     * @param intervalMillis The time between runs in milliseconds.
+     * @param maxBytesPerSecond The maximum number of bytes read per second, or 0 for no limit.
+     * @throws ArgumentNotValid If admin or store is null, or cycleDays or intervalMillis is not positive, or
+     * maxBytesPerSecond is negative.
+     */
+    public ChecksumScrubber(BitarchiveAdmin admin, VerifiedChecksumStore store, int cycleDays, long intervalMillis,
+            long maxBytesPerSecond) {
+        ArgumentNotValid.checkNotNull(admin, "BitarchiveAdmin admin");
+        ArgumentNotValid.checkNotNull(store, "VerifiedChecksumStore store");
+        ArgumentNotValid.checkPositive(cycleDays, "int cycleDays");
+        ArgumentNotValid.checkPositive(intervalMillis, "long intervalMillis");
+        ArgumentNotValid.checkNotNegative(maxBytesPerSecond, "long maxBytesPerSecond");
+        this.admin = admin;
+        this.store = store;
+        this.cycleMillis = TimeUnit.DAYS.toMillis(cycleDays);
+        this.intervalMillis = intervalMillis;
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    /**
+     * Verify the next share of the files. Errors are logged, so later runs are not prevented.
+     */
+    @Override
+    public void run() {
+        try {
+            scrub();
+        } catch (Throwable t) {
+            log.warn("Error during verification of checksums", t);
+        }
+    }
+
+    /**
+     * Verify the next share of the files.
+     *
+     * @return The number of files verified.
+     */
+    public int scrub() {
+        File[] files = admin.getFilesMatching(ALL_FILES);
+        Set<String> names = new HashSet<String>();
+        for (File f : files) {
+            names.add(f.getName());
+        }
+        store.retainOnly(names);
+
+        final long[] verifiedTimes = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            VerifiedChecksumStore.Record record = store.getValidRecord(files[i]);
+            verifiedTimes[i] = record == null ? Long.MIN_VALUE : record.getVerifiedTime();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(verifiedTimes[a], verifiedTimes[b]);
+            }
+        });
+
+        int share = (int) Math.min(files.length, (files.length * intervalMillis + cycleMillis - 1) / cycleMillis);
+        long start = System.currentTimeMillis();
+        int verified = 0;
+        for (int i = 0; i < share; i++) {
+            File file = files[order[i]];
+            try {
+                store.verify(file, maxBytesPerSecond);
+                verified++;
+            } catch (InterruptedIOException e) {
+                log.info("Verification of checksums interrupted after {} files", verified);
+                break;
+            } catch (IOException e) {
+                log.warn("Could not verify the checksum of '{}'", file.getAbsolutePath(), e);
+            }
+        }
+        log.info("Verified the checksums of {} of {} files in {} ms", verified, files.length,
+                System.currentTimeMillis() - start);
+        return verified;
+    }
+
+}
@@ -0,0 +1,402 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.KeyValuePair;
+import dk.netarkivet.common.utils.NotificationType;
+import dk.netarkivet.common.utils.NotificationsFactory;
+import dk.netarkivet.common.utils.batch.ChecksumJob;
+
+/**
+ * A persistent record of the last verified MD5 checksum of each file in a bitarchive, together with the size and
+ * modification time of the file when it was verified, and the time of verification.
+ * <p>
+ * A record is only valid as long as the size and modification time of the file are unchanged; a changed file is
+ * verified anew when its checksum is asked for.
+ * <p>
+ * The records are kept in memory and persisted in a log file, to which a line is appended for each verification. On
+ * startup the log is read, the last line for a file being the valid one, and the log is rewritten when it has grown
+ * to hold many superseded lines.
+ */
+public class VerifiedChecksumStore implements ChecksumJob.VerifiedChecksumSource {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(VerifiedChecksumStore.class);
+
+    /** The name of the record file. */
+    public static final String RECORD_FILE_NAME = "verifiedchecksums.txt";
+
+    /** The separator between the fields of a line in the record file. */
+    private static final String SEPARATOR = ChecksumJob.STRING_FILENAME_SEPARATOR;
+
+    /** The number of superseded lines allowed in the record file before it is rewritten. */
+    private static final int MIN_LINES_BEFORE_COMPACTION = 10000;
+
+    /** The size of the buffer used when reading files. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The file the records are persisted in. */
+    private final File recordFile;
+
+    /** The records, by filename. */
+    private final Map<String, Record> records = new ConcurrentHashMap<String, Record>();
+
+    /** The writer appending to the record file. */
+    private Writer writer;
+
+    /** The number of lines in the record file. */
+    private int lines;
+
+    /**
+     * Open a record of verified checksums persisted in the given file. The file is created if it does not exist.
+     *
+     * @param recordFile The file to persist the records in.
+     * @throws ArgumentNotValid If recordFile is null.
+     * @throws IOFailure If the record file cannot be read or opened for writing.
+     */
+    public VerifiedChecksumStore(File recordFile) {
+        ArgumentNotValid.checkNotNull(recordFile, "File recordFile");
+        this.recordFile = recordFile;
+        if (recordFile.exists()) {
+            load();
+        }
+        openWriter();
+        log.info("Loaded {} verified checksums from '{}'", records.size(), recordFile.getAbsolutePath());
+    }
+
+    /**
+     * A verified checksum of a file.
+     */
+    public static final class Record {
+
+        /** The MD5 checksum. */
+        private final String checksum;
+        /** The size of the file when verified. */
+        private final long size;
+        /** The modification time of the file when verified. */
+        private final long lastModified;
+        /** The time of verification. */
+        private final long verifiedTime;
+
+        /**
+         * Create a record.
+         *
+         * @param checksum The MD5 checksum.
+         * @param size The size of the file when verified.
+         * @param lastModified The modification time of the file when verified.
+         * @param verifiedTime The time of verification.
+         */
+        Record(String checksum, long size, long lastModified, long verifiedTime) {
+            this.checksum = checksum;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.verifiedTime = verifiedTime;
+        }
+
+        /** @return The MD5 checksum. */
+        public String getChecksum() {
+            return checksum;
+        }
+
+        /** @return The time of verification, in milliseconds since the epoch. */
+        public long getVerifiedTime() {
+            return verifiedTime;
+        }
+
+        /**
+         * @param file A file.
+         * @return true, if the size and modification time of the file are the same as when the record was made.
+         */
+        public boolean isValidFor(File file) {
+            return file.length() == size && file.lastModified() == lastModified;
+        }
+    }
+
+    /**
+     * Get the record for a file, if it is still valid.
+     *
+     * @param file A file in the bitarchive.
+     * @return The record of the file, or null if the file has no record or has changed since it was verified.
+     */
+    public Record getValidRecord(File file) {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        Record record = records.get(file.getName());
+        if (record == null || !record.isValidFor(file)) {
+            return null;
+        }
+        return record;
+    }
+
+    /**
+     * @return The number of files with a record.
+     */
+    public int size() {
+        return records.size();
+    }
+
+    /**
+     * Get the checksum of a file, as last verified. If the file has no valid record, it is verified now.
+     *
+     * @param file A file in the bitarchive.
+     * @return The checksum of the file and the time it was verified.
+     * @throws IOException If the file cannot be read.
+     */
+    @Override
+    public KeyValuePair<String, Long> getVerifiedChecksum(File file) throws IOException {
+        Record record = getValidRecord(file);
+        if (record == null) {
+            record = verify(file, 0);
+        }
+        return new KeyValuePair<String, Long>(record.getChecksum(), record.getVerifiedTime());
+    }
+
+    /**
+     * Calculate the checksum of a file and record it. If the file has not changed since it was last verified, but the
+     * checksum has, the file is corrupt, which is reported.
+     *
+     * @param file A file in the bitarchive.
+     * @param maxBytesPerSecond The maximum number of bytes per second to read from the file, or 0 for no limit.
+     * @return The new record for the file.
+     * @throws IOException If the file cannot be read, or the thread is interrupted while waiting to read.
+     */
+    public Record verify(File file, long maxBytesPerSecond) throws IOException {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        long size = file.length();
+        long lastModified = file.lastModified();
+        String checksum = calculateMd5(file, maxBytesPerSecond);
+        Record record = new Record(checksum, size, lastModified, System.currentTimeMillis());
+
+        Record previous = records.get(file.getName());
+        if (previous != null && previous.size == size && previous.lastModified == lastModified
+                && !previous.checksum.equals(checksum)) {
+            String errMsg = "The checksum of the unchanged file '" + file.getAbsolutePath() + "' has changed from '"
+                    + previous.checksum + "' to '" + checksum + "' since it was verified at "
+                    + new Date(previous.verifiedTime);
+            log.warn(errMsg);
+            NotificationsFactory.getInstance().notify(errMsg, NotificationType.WARNING);
+        }
+        records.put(file.getName(), record);
+        append(file.getName(), record);
+        return record;
+    }
+
+    /**
+     * Forget the records of all files except the given ones.
+     *
+     * @param filenames The names of the files still in the bitarchive.
+     */
+    public void retainOnly(Set<String> filenames) {
+        ArgumentNotValid.checkNotNull(filenames, "Set<String> filenames");
+        Iterator<String> it = records.keySet().iterator();
+        while (it.hasNext()) {
+            if (!filenames.contains(it.next())) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Close the record file.
+     */
+    public synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                log.warn("Could not close the record file '{}'", recordFile, e);
+            }
+            writer = null;
+        }
+    }
+
+    /**
+     * Calculate the MD5 checksum of a file, reading no more than the given number of bytes per second.
+     *
+     * @param file The file.
+     * @param maxBytesPerSecond The maximum number of bytes per second, or 0 for no limit.
+     * @return The checksum.
+     * @throws IOException If the file cannot be read, or the thread is interrupted while waiting to read.
+     */
+    private static String calculateMd5(File file, long maxBytesPerSecond) throws IOException {
+        MessageDigest digest = ChecksumCalculator.getMessageDigest(ChecksumCalculator.MD5);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long start = System.currentTimeMillis();
+        long bytesRead = 0;
+        InputStream in = new FileInputStream(file);
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                bytesRead += read;
+                if (maxBytesPerSecond > 0) {
+                    long wait = bytesRead * 1000L / maxBytesPerSecond - (System.currentTimeMillis() - start);
+                    if (wait > 0) {
+                        try {
+                            Thread.sleep(wait);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("Interrupted while verifying " + file);
+                        }
+                    }
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return ChecksumCalculator.toHex(digest.digest());
+    }
+
+    /**
+     * Read the record file.
+     *
+     * @throws IOFailure If the file cannot be read.
+     */
+    private void load() {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(recordFile), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines++;
+                    String[] parts = line.split(SEPARATOR);
+                    if (parts.length != 5) {
+                        log.warn("Ignoring malformed line '{}' in '{}'", line, recordFile);
+                        continue;
+                    }
+                    try {
+                        records.put(parts[0], new Record(parts[1], Long.parseLong(parts[2]), Long.parseLong(parts[3]),
+                                Long.parseLong(parts[4])));
+                    } catch (NumberFormatException e) {
+                        log.warn("Ignoring malformed line '{}' in '{}'", line, recordFile);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Could not read verified checksums from '" + recordFile + "'", e);
+        }
+    }
+
+    /**
+     * Append a record to the record file, rewriting the file if it holds too many superseded lines.
+     *
+     * @param filename The name of the file.
+     * @param record The record.
+     * @throws IOFailure If the record file cannot be written.
+     */
+    private synchronized void append(String filename, Record record) {
+        if (writer == null) {
+            throw new IOFailure("The record file '" + recordFile + "' is closed");
+        }
+        try {
+            writer.write(toLine(filename, record));
+            writer.flush();
+        } catch (IOException e) {
+            throw new IOFailure("Could not write to '" + recordFile + "'", e);
+        }
+        lines++;
+        if (lines > MIN_LINES_BEFORE_COMPACTION && lines > 2 * records.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrite the record file with only the current records.
+     *
+     * @throws IOFailure If the record file cannot be written.
+     */
+    private void compact() {
+        close();
+        File tmpFile = new File(recordFile.getParentFile(), recordFile.getName() + ".tmp");
+        try {
+            Writer tmpWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8"));
+            try {
+                for (Map.Entry<String, Record> entry : records.entrySet()) {
+                    tmpWriter.write(toLine(entry.getKey(), entry.getValue()));
+                }
+            } finally {
+                tmpWriter.close();
+            }
+        } catch (IOException e) {
+            openWriter();
+            throw new IOFailure("Could not rewrite '" + recordFile + "'", e);
+        }
+        FileUtils.remove(recordFile);
+        if (!tmpFile.renameTo(recordFile)) {
+            throw new IOFailure("Could not move '" + tmpFile + "' to '" + recordFile + "'");
+        }
+        lines = records.size();
+        openWriter();
+        log.debug("Rewrote '{}' with {} verified checksums", recordFile, lines);
+    }
+
+    /**
+     * Open the writer appending to the record file.
+     *
+     * @throws IOFailure If the file cannot be opened.
+     */
+    private synchronized void openWriter() {
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(recordFile, true), "UTF-8"));
+        } catch (IOException e) {
+            throw new IOFailure("Could not open '" + recordFile + "' for writing", e);
+        }
+    }
+
+    /**
+     * @param filename The name of a file.
+     * @param record The record of the file.
+     * @return The line for the record file.
+     */
+    private static String toLine(String filename, Record record) {
+        return filename + SEPARATOR + record.checksum + SEPARATOR + record.size + SEPARATOR + record.lastModified
+                + SEPARATOR + record.verifiedTime + "\n";
+    }
+
+}
@@ -50,6 +50,8 @@ public class BatchMessage extends ArchiveMessage {
     private List<String> args;
     /** The ID for the batch process. */
     private String batchID;
+    /** Whether the result of each bitarchive should be sent back as soon as it is ready. */
+    private boolean resultPartsWanted;
 
     /**
      * Creates a BatchMessage object which can be used to initiate a batch job. This is used by BitarchiveMonitorServer
@@ -149,6 +151,26 @@ public class BatchMessage extends ArchiveMessage {
         return batchID;
     }
 
+    /**
+     * Returns whether the result of each bitarchive should be sent back in a BatchPartMessage as soon as it is ready,
+     * instead of in one result file with the BatchReplyMessage.
+     *
+     * @return Whether the results are wanted in parts.
+     */
+    public boolean isResultPartsWanted() {
+        return resultPartsWanted;
+    }
+
+    /**
+     * Sets whether the result of each bitarchive should be sent back in a BatchPartMessage as soon as it is ready. The
+     * results are then not post processed, and the BatchReplyMessage that ends the batch job has no result file.
+     *
+     * @param resultPartsWanted Whether the results are wanted in parts.
+     */
+    public void setResultPartsWanted(boolean resultPartsWanted) {
+        this.resultPartsWanted = resultPartsWanted;
+    }
+
     /**
      * Should be implemented as a part of the visitor pattern. fx.: public void accept(ArchiveMessageVisitor v) {
      * v.visit(this); }
@@ -167,6 +189,6 @@ public class BatchMessage extends ArchiveMessage {
      */
     public String toString() {
         return super.toString() + " Job: " + job.getClass().getName() + ", on filename-pattern: "
-                + job.getFilenamePattern() + ", for replica: " + replicaId;
+                + job.getFilenameFilterDescription() + ", for replica: " + replicaId;
     }
 }
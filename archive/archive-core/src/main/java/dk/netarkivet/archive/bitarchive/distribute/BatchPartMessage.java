@@ -0,0 +1,101 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive.distribute;
+
+import dk.netarkivet.archive.distribute.ArchiveMessage;
+import dk.netarkivet.archive.distribute.ArchiveMessageVisitor;
+import dk.netarkivet.common.distribute.ChannelID;
+import dk.netarkivet.common.distribute.RemoteFile;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * Message class used by the bit archive monitor to send the result of one bitarchive for a batch job, whose results
+ * are wanted in parts, as soon as it is ready. The messages of a batch job all arrive before its BatchReplyMessage.
+ *
+ * @see BatchMessage#setResultPartsWanted(boolean)
+ */
+@SuppressWarnings({"serial"})
+public class BatchPartMessage extends ArchiveMessage {
+    /** The application ID of the bitarchive, that made the result. */
+    private String bitarchiveID;
+    /** The result of the bitarchive. */
+    private RemoteFile resultFile;
+
+    /**
+     * Message to send the result of one bitarchive for the batch job identified by originatingBatchMsgId.
+     *
+     * @param to The queue to which this message is to be sent. This is the queue the batch job was sent from.
+     * @param replyTo The queue that should receive replies.
+     * @param originatingBatchMsgId The Id of the BatchMessage which gave rise to this message.
+     * @param bitarchiveID The application ID of the bitarchive, that made the result.
+     * @param resultFile The RemoteFile containing the output of the bitarchive.
+     * @throws ArgumentNotValid if any argument is null, or a string is empty.
+     */
+    public BatchPartMessage(ChannelID to, ChannelID replyTo, String originatingBatchMsgId, String bitarchiveID,
+            RemoteFile resultFile) throws ArgumentNotValid {
+        super(to, replyTo);
+        ArgumentNotValid.checkNotNullOrEmpty(originatingBatchMsgId, "String originatingBatchMsgId");
+        ArgumentNotValid.checkNotNullOrEmpty(bitarchiveID, "String bitarchiveID");
+        ArgumentNotValid.checkNotNull(resultFile, "RemoteFile resultFile");
+        this.replyOfId = originatingBatchMsgId;
+        this.bitarchiveID = bitarchiveID;
+        this.resultFile = resultFile;
+    }
+
+    /**
+     * Returns the application ID of the bitarchive, that made the result.
+     *
+     * @return The bitarchive application ID.
+     */
+    public String getBitarchiveID() {
+        return bitarchiveID;
+    }
+
+    /**
+     * Returns the RemoteFile that contains the output of the bitarchive.
+     *
+     * @return The result of the bitarchive.
+     */
+    public RemoteFile getResultFile() {
+        return resultFile;
+    }
+
+    /**
+     * Should be implemented as a part of the visitor pattern. fx.: public void accept(ArchiveMessageVisitor v) {
+     * v.visit(this); }
+     *
+     * @param v A message visitor
+     */
+    public void accept(ArchiveMessageVisitor v) {
+        v.visit(this);
+    }
+
+    /**
+     * Retrieval of a string representing the instance.
+     *
+     * @return A string representing this instance.
+     */
+    public String toString() {
+        return "BatchPartMessage for batch job " + replyOfId + " from " + bitarchiveID + "\n" + super.toString();
+    }
+}
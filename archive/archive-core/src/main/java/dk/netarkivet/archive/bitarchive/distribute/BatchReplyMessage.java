@@ -26,6 +26,8 @@ package dk.netarkivet.archive.bitarchive.distribute;
 import java.io.File;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import dk.netarkivet.archive.distribute.ArchiveMessage;
 import dk.netarkivet.archive.distribute.ArchiveMessageVisitor;
@@ -44,6 +46,8 @@ public class BatchReplyMessage extends ArchiveMessage {
     private HashSet<File> filesFailed;
     /** The result of the BatchJob. */
     private RemoteFile resultFile;
+    /** The time in milliseconds each bitarchive took to reply, in the order of replies. */
+    private LinkedHashMap<String, Long> replyTimes = new LinkedHashMap<String, Long>();
 
     /**
      * Message to signal from BitarchiveMonitorServer that the batch job identified by originatingBatchMsgId is
@@ -104,6 +108,27 @@ public class BatchReplyMessage extends ArchiveMessage {
         return resultFile;
     }
 
+    /**
+     * Returns the time each bitarchive took to reply to the batch job.
+     *
+     * @return Map from bitarchive application ID to the time in milliseconds from the batch job was sent until the
+     * bitarchive replied.
+     */
+    public Map<String, Long> getReplyTimes() {
+        return replyTimes;
+    }
+
+    /**
+     * Set the time each bitarchive took to reply to the batch job.
+     *
+     * @param replyTimes Map from bitarchive application ID to reply time in milliseconds.
+     * @throws ArgumentNotValid If replyTimes is null.
+     */
+    public void setReplyTimes(Map<String, Long> replyTimes) {
+        ArgumentNotValid.checkNotNull(replyTimes, "Map<String, Long> replyTimes");
+        this.replyTimes = new LinkedHashMap<String, Long>(replyTimes);
+    }
+
     /**
      * Should be implemented as a part of the visitor pattern. fx.: public void accept(ArchiveMessageVisitor v) {
      * v.visit(this); }
@@ -87,6 +87,17 @@ public class BitarchiveMonitorServer extends ArchiveMessageHandler implements Ob
     /** Object that handles logical operations. */
     private BitarchiveMonitor bamon;
 
+    /** Sends the result of each bitarchive back, for batch jobs whose results are wanted in parts. */
+    private final BitarchiveMonitor.ResultPartListener partSender = new BitarchiveMonitor.ResultPartListener() {
+        @Override
+        public void resultPartFetched(BitarchiveMonitor.BatchJobStatus bjs, String bitarchiveID, File resultPart) {
+            BatchPartMessage bpMsg = new BatchPartMessage(bjs.originalRequestReplyTo, Channels.getTheBamon(),
+                    bjs.originalRequestID, bitarchiveID, RemoteFileFactory.getMovefileInstance(resultPart));
+            con.send(bpMsg);
+            log.debug("BatchPartMessage: '{}' sent from BA monitor to queue: '{}'", bpMsg, bpMsg.getTo());
+        }
+    };
+
     /** Map for managing the messages, which are made into batchjobs. The String is the ID of the message. */
     private Map<String, NetarkivetMessage> batchConversions = new HashMap<String, NetarkivetMessage>();
 
@@ -142,7 +153,8 @@ public class BitarchiveMonitorServer extends ArchiveMessageHandler implements Ob
      * A new BatchMessage is created with the same Job as the incoming BatchMessage and sent off to all live
      * bitarchives.
      * <p>
-     * The incoming and outgoing batch messages are then registered at the bitarchive monitor.
+     * The incoming and outgoing batch messages are then registered at the bitarchive monitor. If the results are wanted
+     * in parts, the result of each bitarchive is sent back in a BatchPartMessage as soon as it has been fetched.
      *
      * @param inbMsg The message received
      * @throws ArgumentNotValid If the BatchMessage is null.
@@ -160,7 +172,8 @@ public class BitarchiveMonitorServer extends ArchiveMessageHandler implements Ob
             if (batchTimeout <= 0) {
                 batchTimeout = Settings.getLong(ArchiveSettings.BITARCHIVE_BATCH_JOB_TIMEOUT);
             }
-            bamon.registerBatch(inbMsg.getID(), inbMsg.getReplyTo(), outbMsg.getID(), batchTimeout);
+            bamon.registerBatch(inbMsg.getID(), inbMsg.getReplyTo(), outbMsg.getID(), batchTimeout, inbMsg.getJob()
+                    .hasSortedOutput(), inbMsg.isResultPartsWanted() ? partSender : null);
             batchjobs.put(inbMsg.getID(), inbMsg.getJob());
         } catch (Exception e) {
             log.warn("Trouble while handling batch request '{}'", inbMsg, e);
@@ -335,7 +348,8 @@ public class BitarchiveMonitorServer extends ArchiveMessageHandler implements Ob
 
     /**
      * Method for handling the GetAllChecksumsMessage. This message will be made into a batchjob, which will executed on
-     * the bitarchives. The reply to the batchjob will be handled and uses as reply to the GetAllChecksumsMessage.
+     * the bitarchives. The reply to the batchjob will be handled and uses as reply to the GetAllChecksumsMessage. If the
+     * message is restricted to a set of files, the batchjob only runs on these files.
      *
      * @param msg The GetAllChecksumsMessage, which will be made into a batchjob and sent to the bitarchives.
      * @throws ArgumentNotValid If the GetAllChecksumsMessage is null.
@@ -347,6 +361,12 @@ public class BitarchiveMonitorServer extends ArchiveMessageHandler implements Ob
 
         // Create batchjob for the GetAllChecksumsMessage.
         ChecksumJob cj = new ChecksumJob();
+        // Bitarchives keeping a record of verified checksums may answer from it.
+        cj.setAcceptVerifiedChecksums(true);
+        // If the message is restricted to certain files, only run on these.
+        if (msg.getFilenames() != null) {
+            cj.processOnlyFilesNamed(msg.getFilenames());
+        }
 
         // Execute the batchjob.
         executeConvertedBatch(cj, msg);
@@ -467,12 +487,43 @@ public class BitarchiveMonitorServer extends ArchiveMessageHandler implements Ob
      * This method sends a reply based on the information from bitarchives received and stored in the given batch job
      * status.
      * <p>
-     * It will concatenate the results from all the bitarchives in one file, and construct a reply to the originating
-     * requester with all information.
+     * It will post process the combined results from all the bitarchives, and construct a reply to the originating
+     * requester with all information. If the results have been sent back in parts, there is no result to post process,
+     * and the reply has no result file.
      *
      * @param bjs Status of received messages from bitarchives.
      */
     private void doBatchReply(BitarchiveMonitor.BatchJobStatus bjs) {
+        RemoteFile resultsFile = null;
+        if (bjs.hasResultParts()) {
+            batchjobs.remove(bjs.originalRequestID);
+            tryAndDeleteTemporaryFile(bjs.batchResultFile);
+        } else {
+            resultsFile = makeBatchResult(bjs);
+        }
+
+        // Make batch reply message
+        BatchReplyMessage brMsg = new BatchReplyMessage(bjs.originalRequestReplyTo, Channels.getTheBamon(),
+                bjs.originalRequestID, bjs.noOfFilesProcessed, bjs.filesFailed, resultsFile);
+        brMsg.setReplyTimes(bjs.getReplyTimes());
+        if (bjs.errorMessages != null) {
+            brMsg.setNotOk(bjs.errorMessages);
+        }
+
+        // Send the batch reply message.
+        con.send(brMsg);
+
+        log.info("BatchReplyMessage: '{}' sent from BA monitor to queue: '{}'", brMsg, brMsg.getTo());
+    }
+
+    /**
+     * Post process the combined results from all the bitarchives. If the post processing fails, the combined results
+     * are used as they are.
+     *
+     * @param bjs Status of received messages from bitarchives.
+     * @return The remote file with the result of the batch job, or null if it could not be made.
+     */
+    private RemoteFile makeBatchResult(BitarchiveMonitor.BatchJobStatus bjs) {
         RemoteFile resultsFile = null;
         try {
             // Post process the file.
@@ -505,18 +556,7 @@ public class BitarchiveMonitorServer extends ArchiveMessageHandler implements Ob
             log.warn("Make remote file from {}", bjs.batchResultFile, e);
             bjs.appendError("Could not append batch results: " + e);
         }
-
-        // Make batch reply message
-        BatchReplyMessage brMsg = new BatchReplyMessage(bjs.originalRequestReplyTo, Channels.getTheBamon(),
-                bjs.originalRequestID, bjs.noOfFilesProcessed, bjs.filesFailed, resultsFile);
-        if (bjs.errorMessages != null) {
-            brMsg.setNotOk(bjs.errorMessages);
-        }
-
-        // Send the batch reply message.
-        con.send(brMsg);
-
-        log.info("BatchReplyMessage: '{}' sent from BA monitor to queue: '{}'", brMsg, brMsg.getTo());
+        return resultsFile;
     }
 
     /**
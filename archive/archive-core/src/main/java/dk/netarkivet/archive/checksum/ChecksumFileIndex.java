@@ -0,0 +1,235 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.checksum;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A hash index from filenames to the offsets of their records in a checksum file. Only a 64 bit hash of each filename
+ * is stored together with the offset, so the filename of the record at an offset found for a hash must be compared
+ * by the caller. The slots are kept in direct buffers outside the Java heap, at 16 bytes per slot.
+ * <p>
+ * Entries can be added and their offsets changed, but not removed. The index is not thread safe.
+ */
+final class ChecksumFileIndex {
+
+    /** The number of bytes in a slot: the hash followed by the offset plus one. */
+    private static final int SLOT_SIZE = 16;
+    /** The base 2 logarithm of the number of slots in a full page. */
+    private static final int PAGE_BITS = 16;
+    /** The number of slots in a full page. */
+    private static final int PAGE_SLOTS = 1 << PAGE_BITS;
+    /** The number of slots in a new index. */
+    private static final long INITIAL_CAPACITY = 1024;
+
+    /** The pages of slots. */
+    private ByteBuffer[] pages;
+    /** The number of slots, always a power of two. */
+    private long capacity;
+    /** The number of entries. */
+    private long size;
+
+    /**
+     * Create an empty index.
+     */
+    ChecksumFileIndex() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Calculate the hash of a filename used in the index.
+     *
+     * @param filename A filename.
+     * @return The 64 bit FNV-1a hash of the characters of the filename.
+     */
+    static long hash(String filename) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < filename.length(); i++) {
+            hash ^= filename.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * @return The number of entries in the index.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Find the slots holding a given hash. The first slot is found with <code>find(hash, startSlot(hash))</code> and
+     * the following with <code>find(hash, slot + 1)</code>.
+     *
+     * @param hash The hash of a filename.
+     * @param fromSlot The slot to start looking from.
+     * @return The first slot at or after fromSlot holding the hash, or -1 if there are no more.
+     */
+    long find(long hash, long fromSlot) {
+        for (long slot = fromSlot & (capacity - 1);; slot = (slot + 1) & (capacity - 1)) {
+            if (storedOffset(slot) == 0) {
+                return -1;
+            }
+            if (storedHash(slot) == hash) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * @param hash The hash of a filename.
+     * @return The slot where looking for the hash starts.
+     */
+    long startSlot(long hash) {
+        // Spread the bits of the hash, as only the lowest bits select the slot.
+        long h = hash;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h & (capacity - 1);
+    }
+
+    /**
+     * @param slot A slot found with {@link #find(long, long)}.
+     * @return The offset stored in the slot.
+     */
+    long getOffset(long slot) {
+        return storedOffset(slot) - 1;
+    }
+
+    /**
+     * Change the offset stored in a slot.
+     *
+     * @param slot A slot found with {@link #find(long, long)}.
+     * @param offset The new offset.
+     */
+    void setOffset(long slot, long offset) {
+        page(slot).putLong(position(slot) + 8, offset + 1);
+    }
+
+    /**
+     * Add an entry. The caller must make sure the filename is not already in the index.
+     *
+     * @param hash The hash of the filename.
+     * @param offset The offset of the record of the filename.
+     */
+    void add(long hash, long offset) {
+        // Keep the load below 3/4, so the probe sequences stay short.
+        if ((size + 1) * 4 > capacity * 3) {
+            grow();
+        }
+        insert(hash, offset + 1);
+        size++;
+    }
+
+    /**
+     * Check whether the index holds the given offset for the given hash, i.e. whether the record at the offset is the
+     * current record of its filename.
+     *
+     * @param hash The hash of the filename of the record.
+     * @param offset The offset of the record.
+     * @return true, if the offset is in the index.
+     */
+    boolean contains(long hash, long offset) {
+        for (long slot = find(hash, startSlot(hash)); slot >= 0; slot = find(hash, slot + 1)) {
+            if (getOffset(slot) == offset) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remove all entries.
+     */
+    void clear() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Replace the slots with new, empty slots.
+     *
+     * @param newCapacity The number of slots.
+     */
+    private void allocate(long newCapacity) {
+        int pageSlots = (int) Math.min(newCapacity, PAGE_SLOTS);
+        pages = new ByteBuffer[(int) (newCapacity / pageSlots)];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = ByteBuffer.allocateDirect(pageSlots * SLOT_SIZE);
+        }
+        capacity = newCapacity;
+        size = 0;
+    }
+
+    /**
+     * Double the number of slots and move the entries to the new slots.
+     */
+    private void grow() {
+        ByteBuffer[] oldPages = pages;
+        long oldSize = size;
+        allocate(capacity * 2);
+        for (ByteBuffer page : oldPages) {
+            for (int position = 0; position < page.capacity(); position += SLOT_SIZE) {
+                long storedOffset = page.getLong(position + 8);
+                if (storedOffset != 0) {
+                    insert(page.getLong(position), storedOffset);
+                }
+            }
+        }
+        size = oldSize;
+    }
+
+    /**
+     * Put a hash and a stored offset in the first free slot for the hash.
+     *
+     * @param hash The hash.
+     * @param storedOffset The offset plus one.
+     */
+    private void insert(long hash, long storedOffset) {
+        long slot = startSlot(hash);
+        while (storedOffset(slot) != 0) {
+            slot = (slot + 1) & (capacity - 1);
+        }
+        ByteBuffer page = page(slot);
+        page.putLong(position(slot), hash);
+        page.putLong(position(slot) + 8, storedOffset);
+    }
+
+    private long storedHash(long slot) {
+        return page(slot).getLong(position(slot));
+    }
+
+    private long storedOffset(long slot) {
+        return page(slot).getLong(position(slot) + 8);
+    }
+
+    private ByteBuffer page(long slot) {
+        return pages[(int) (slot >>> PAGE_BITS)];
+    }
+
+    private int position(long slot) {
+        return (int) (slot & (PAGE_SLOTS - 1)) * SLOT_SIZE;
+    }
+
+}
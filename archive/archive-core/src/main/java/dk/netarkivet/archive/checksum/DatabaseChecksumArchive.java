@@ -22,11 +22,21 @@
  */
 package dk.netarkivet.archive.checksum;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
@@ -36,6 +46,7 @@ import com.sleepycat.bind.EntryBinding;
 import com.sleepycat.bind.serial.SerialBinding;
 import com.sleepycat.bind.serial.StoredClassCatalog;
 import com.sleepycat.je.Cursor;
+import com.sleepycat.je.CursorConfig;
 import com.sleepycat.je.Database;
 import com.sleepycat.je.DatabaseConfig;
 import com.sleepycat.je.DatabaseEntry;
@@ -61,6 +72,10 @@ import dk.netarkivet.common.utils.batch.ChecksumJob;
 /**
  * A ChecksumArchive persisted with a Berkeley DB JE Database. Migrating from the {@link FileChecksumArchive} to the
  * DatabaseChecksumArchive is done with the {@link LoadDatabaseChecksumArchive} tool.
+ * <p>
+ * Filenames are stored as their UTF-8 bytes, and MD5 checksums as their 16 bytes, each preceded by a tag byte. Older
+ * versions stored both as serialized Java Strings in another database; such a database is migrated to the compact form
+ * when the archive is opened.
  */
 public class DatabaseChecksumArchive implements ChecksumArchive {
 
@@ -74,22 +89,31 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
     /** The subdirectory to the databaseBaseDir, where the database is located. */
     private static final String DATABASE_SUBDIR = "DB";
     /** The name of the database. */
-    private static final String DATABASE_NAME = "CHECKSUM";
+    private static final String DATABASE_NAME = "CHECKSUMS";
+    /** The name of the database with serialized Strings used by older versions. */
+    private static final String LEGACY_DATABASE_NAME = "CHECKSUM";
+    /** The name of the class database used by older versions. */
+    private static final String CLASS_DATABASE_NAME = "CLASS";
+    /** The number of entries migrated from the legacy database in each transaction. */
+    private static final int MIGRATION_BATCH_SIZE = 10000;
     /** The Database environment. */
     private Environment env;
     /** The Checksum Database itself */
     private Database checksumDB;
 
-    /** The Database to store class information. */
-    private Database classDB;
-    /** The name of the class database. */
-    private static final String CLASS_DATABASE_NAME = "CLASS";
+    /** The tag byte of a checksum stored as the 16 bytes of an MD5 digest. */
+    private static final byte MD5_TAG = 1;
+    /** The tag byte of a checksum stored as UTF-8. */
+    private static final byte STRING_TAG = 0;
+    /** The length of an MD5 digest in bytes. */
+    private static final int MD5_LENGTH = 16;
+    /** The checksums that can be stored as MD5 digests without changing their string form. */
+    private static final Pattern MD5_HEX = Pattern.compile("[0-9a-f]{32}");
+    /** The size of the buffer used when writing the contents of the database to a file. */
+    private static final int DUMP_BUFFER_SIZE = 1 << 16;
 
-    /**
-     * The Berkeley DB binder for the data object and keyObject in our database, i.e. Url and Long, respectively.
-     */
-    private EntryBinding objectBinding;
-    private EntryBinding keyBinding;
+    /** The executor writing the database to disk, when uploads are not synchronously written. */
+    private ScheduledExecutorService syncExecutor;
 
     /** The minSpaceLeft value. */
     private long minSpaceLeft;
@@ -168,9 +192,15 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
         }
         log.info("Opening ChecksumDB-environment in: {}", homeDirectory.getAbsolutePath());
 
+        long syncInterval = Settings.getLong(ArchiveSettings.CHECKSUM_DATABASE_SYNC_INTERVAL);
         EnvironmentConfig envConfig = new EnvironmentConfig();
         envConfig.setTransactional(true);
         envConfig.setAllowCreate(true);
+        if (syncInterval > 0) {
+            // Commits are written to the log, but not synchronously to disk. The sync task below writes all commits
+            // since the last sync in one go.
+            envConfig.setTxnWriteNoSync(true);
+        }
 
         DatabaseConfig dbConfig = new DatabaseConfig();
         dbConfig.setTransactional(true);
@@ -179,14 +209,92 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
         Transaction nullTransaction = null;
         env = new Environment(homeDirectory, envConfig);
         checksumDB = env.openDatabase(nullTransaction, DATABASE_NAME, dbConfig);
-        // Open the database that stores your class information.
+        if (env.getDatabaseNames().contains(LEGACY_DATABASE_NAME)) {
+            migrateLegacyDatabase(dbConfig);
+        }
 
-        classDB = env.openDatabase(nullTransaction, CLASS_DATABASE_NAME, dbConfig);
-        StoredClassCatalog classCatalog = new StoredClassCatalog(classDB);
+        if (syncInterval > 0) {
+            startSyncTask(syncInterval);
+        }
+    }
+
+    /**
+     * Copy the entries of the database with serialized Strings used by older versions to the compact database, and
+     * remove the old database afterwards. The entries are copied in batches, each in its own transaction, so an
+     * interrupted migration is just repeated the next time the archive is opened.
+     *
+     * @param dbConfig The configuration to open the old databases with.
+     * @throws DatabaseException If the migration fails.
+     */
+    private void migrateLegacyDatabase(DatabaseConfig dbConfig) throws DatabaseException {
+        log.info("Migrating checksums from database '{}' to database '{}'", LEGACY_DATABASE_NAME, DATABASE_NAME);
+        long start = System.currentTimeMillis();
+        long migrated = 0;
+        Database legacyDB = env.openDatabase(null, LEGACY_DATABASE_NAME, dbConfig);
+        Database classDB = env.openDatabase(null, CLASS_DATABASE_NAME, dbConfig);
+        try {
+            EntryBinding binding = new SerialBinding(new StoredClassCatalog(classDB), String.class);
+            DatabaseEntry key = new DatabaseEntry();
+            DatabaseEntry data = new DatabaseEntry();
+            Cursor cursor = legacyDB.openCursor(null, CursorConfig.READ_UNCOMMITTED);
+            Transaction txn = null;
+            try {
+                txn = env.beginTransaction(null, null);
+                int inBatch = 0;
+                while (cursor.getNext(key, data, LockMode.READ_UNCOMMITTED) == OperationStatus.SUCCESS) {
+                    checksumDB.put(txn, encodeFilename((String) binding.entryToObject(key)),
+                            encodeChecksum((String) binding.entryToObject(data)));
+                    migrated++;
+                    if (++inBatch == MIGRATION_BATCH_SIZE) {
+                        txn.commit();
+                        txn = env.beginTransaction(null, null);
+                        inBatch = 0;
+                        log.info("Migrated {} checksums", migrated);
+                    }
+                }
+                txn.commit();
+                txn = null;
+            } finally {
+                if (txn != null) {
+                    txn.abort();
+                }
+                cursor.close();
+            }
+        } finally {
+            legacyDB.close();
+            classDB.close();
+        }
+        env.removeDatabase(null, LEGACY_DATABASE_NAME);
+        env.removeDatabase(null, CLASS_DATABASE_NAME);
+        log.info("Migrated {} checksums to database '{}' in {} ms", migrated, DATABASE_NAME,
+                System.currentTimeMillis() - start);
+    }
 
-        // Create the binding
-        objectBinding = new SerialBinding(classCatalog, String.class);
-        keyBinding = new SerialBinding(classCatalog, String.class);
+    /**
+     * Start writing the database to disk at a fixed interval.
+     *
+     * @param syncInterval The interval in milliseconds.
+     */
+    private void startSyncTask(long syncInterval) {
+        syncExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ChecksumDB-sync");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        syncExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    env.sync();
+                } catch (Throwable t) {
+                    log.warn("Could not write the checksum database to disk", t);
+                }
+            }
+        }, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+        log.info("Writing the checksum database to disk every {} ms", syncInterval);
     }
 
     @Override
@@ -297,8 +405,7 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
 
         Transaction nullTransaction = null;
         LockMode nullLockMode = null;
-        DatabaseEntry key = new DatabaseEntry();
-        keyBinding.objectToEntry(filename, key);
+        DatabaseEntry key = encodeFilename(filename);
         DatabaseEntry data = new DatabaseEntry();
 
         OperationStatus status = null;
@@ -310,7 +417,7 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
 
         String resultChecksum = null;
         if (status == OperationStatus.SUCCESS) {
-            resultChecksum = (String) objectBinding.entryToObject(data);
+            resultChecksum = decodeChecksum(data);
         }
 
         return resultChecksum;
@@ -322,7 +429,7 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
     }
 
     @Override
-    public synchronized void upload(RemoteFile file, String filename) {
+    public void upload(RemoteFile file, String filename) {
         ArgumentNotValid.checkNotNull(file, "RemoteFile file");
         ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
 
@@ -330,54 +437,53 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
 
         try {
             input = file.getInputStream();
-            String newChecksum = calculateChecksum(input);
-            if (hasEntry(filename)) {
-                // fetch already stored checksum
-                String oldChecksum = getChecksum(filename);
-                if (newChecksum.equals(oldChecksum)) {
-                    log.warn(
-                            "Cannot upload archivefile '{}', " + "it is already archived with the same checksum: '{}'",
-                            filename, oldChecksum);
-                } else {
-                    throw new IllegalState("Cannot upload archivefile '" + filename
-                            + "', it is already archived with different checksum." + " Archive checksum: '"
-                            + oldChecksum + "' and the uploaded file has: '" + newChecksum + "'.");
-                }
-                // It is considered a success that it already is within the archive,
-                // thus do not throw an exception.
-                return;
-            } else {
-                put(filename, newChecksum);
-            }
+            insert(filename, calculateChecksum(input));
         } finally {
             if (input != null) {
                 IOUtils.closeQuietly(input);
             }
         }
     }
-    
-    public synchronized void upload(String checksum, String filename) {
-    	ArgumentNotValid.checkNotNullOrEmpty(checksum, "String checksum");
-    	ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
-
-    	if (hasEntry(filename)) {
-    		// fetch already stored checksum
-    		String oldChecksum = getChecksum(filename);
-    		if (checksum.equals(oldChecksum)) {
-    			log.warn(
-    					"Cannot upload archivefile '{}', " + "it is already archived with the same checksum: '{}'",
-    					filename, oldChecksum);
-    		} else {
-    			throw new IllegalState("Cannot upload archivefile '" + filename
-    					+ "', it is already archived with different checksum." + " Archive checksum: '"
-    					+ oldChecksum + "' and the uploaded file has: '" + checksum + "'.");
-    		}
-    		// It is considered a success that it already is within the archive,
-    		// thus do not throw an exception.
-    		return;
-    	} else {
-    		put(filename, checksum);
-    	}
+
+    @Override
+    public void upload(String checksum, String filename) {
+        ArgumentNotValid.checkNotNullOrEmpty(checksum, "String checksum");
+        ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
+        insert(filename, checksum);
+    }
+
+    /**
+     * Add a new filename and its checksum to the database. If the filename is already in the database with the same
+     * checksum, this is logged and considered a success. The check and the insertion are done as one atomic
+     * operation, so concurrent uploads need no further synchronization.
+     *
+     * @param filename The name of the uploaded file.
+     * @param checksum The checksum of the uploaded file.
+     * @throws IllegalState If the filename is already in the database with another checksum.
+     * @throws IOFailure If the database cannot be accessed.
+     */
+    private void insert(String filename, String checksum) {
+        OperationStatus status;
+        try {
+            status = checksumDB.putNoOverwrite(null, encodeFilename(filename), encodeChecksum(checksum));
+        } catch (DatabaseException e) {
+            throw new IOFailure("Database exception occuring during ingest", e);
+        }
+        if (status == OperationStatus.SUCCESS) {
+            return;
+        }
+        // fetch already stored checksum
+        String oldChecksum = getChecksum(filename);
+        if (checksum.equals(oldChecksum)) {
+            log.warn("Cannot upload archivefile '{}', " + "it is already archived with the same checksum: '{}'",
+                    filename, oldChecksum);
+        } else {
+            throw new IllegalState("Cannot upload archivefile '" + filename
+                    + "', it is already archived with different checksum." + " Archive checksum: '" + oldChecksum
+                    + "' and the uploaded file has: '" + checksum + "'.");
+        }
+        // It is considered a success that it already is within the archive,
+        // thus do not throw an exception.
     }
 
     /**
@@ -390,14 +496,10 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
         ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
         ArgumentNotValid.checkNotNullOrEmpty(checksum, "String checksum");
 
-        DatabaseEntry theKey = new DatabaseEntry();
-        DatabaseEntry theData = new DatabaseEntry();
-        keyBinding.objectToEntry(filename, theKey);
-        objectBinding.objectToEntry(checksum, theData);
         Transaction nullTransaction = null;
 
         try {
-            checksumDB.put(nullTransaction, theKey, theData);
+            checksumDB.put(nullTransaction, encodeFilename(filename), encodeChecksum(checksum));
         } catch (DatabaseException e) {
             throw new IOFailure("Database exception occuring during ingest", e);
         }
@@ -429,42 +531,41 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
     }
 
     /**
-     * Write the contents of the database to the given file.
+     * Write the contents of the database to the given file. The database is read without locking, so uploads are not
+     * blocked by the dump; entries uploaded during the dump may or may not be included.
      *
      * @param outputFile The outputfile whereto the data is written.
      * @param writeOnlyFilenames If true, we only write the filenames to the files, not the checksums
      * @throws IOException If unable to write to file for some reason
      */
-    private void dumpDatabaseToFile(File tempFile, boolean writeOnlyFilenames) throws IOException {
+    private void dumpDatabaseToFile(File outputFile, boolean writeOnlyFilenames) throws IOException {
         Cursor cursor = null;
-        File resultFile = tempFile;
 
-        FileWriter fw = new FileWriter(resultFile);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(outputFile.toPath()),
+                StandardCharsets.UTF_8), DUMP_BUFFER_SIZE);
         try {
-            cursor = checksumDB.openCursor(null, null);
+            cursor = checksumDB.openCursor(null, CursorConfig.READ_UNCOMMITTED);
 
             DatabaseEntry foundKey = new DatabaseEntry();
             DatabaseEntry foundData = new DatabaseEntry();
+            if (writeOnlyFilenames) {
+                // Do not read the checksums at all.
+                foundData.setPartial(0, 0, true);
+            }
 
-            while (cursor.getNext(foundKey, foundData, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
-                String keyString = new String(foundKey.getData());
-                String dataString = new String(foundData.getData());
-                if (writeOnlyFilenames) {
-                    fw.append(keyString);
-                } else {
-                    fw.append(keyString);
-                    fw.append(ChecksumJob.STRING_FILENAME_SEPARATOR);
-                    fw.append(dataString);
+            while (cursor.getNext(foundKey, foundData, LockMode.READ_UNCOMMITTED) == OperationStatus.SUCCESS) {
+                writer.write(decodeFilename(foundKey));
+                if (!writeOnlyFilenames) {
+                    writer.write(ChecksumJob.STRING_FILENAME_SEPARATOR);
+                    writer.write(decodeChecksum(foundData));
                 }
-                fw.append('\n'); // end with newline
+                writer.write('\n'); // end with newline
             }
-            fw.flush();
+            writer.flush();
         } catch (DatabaseException de) {
             throw new IOFailure("Error accessing database." + de);
         } finally {
-            if (fw != null) {
-                IOUtils.closeQuietly(fw);
-            }
+            IOUtils.closeQuietly(writer);
             if (cursor != null) {
                 try {
                     cursor.close();
@@ -493,14 +594,93 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
         return tempFile;
     }
 
+    /**
+     * Encode a filename as a database key.
+     *
+     * @param filename The filename.
+     * @return The UTF-8 bytes of the filename.
+     */
+    static DatabaseEntry encodeFilename(String filename) {
+        return new DatabaseEntry(filename.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a database key.
+     *
+     * @param entry A key from {@link #encodeFilename(String)}.
+     * @return The filename.
+     */
+    static String decodeFilename(DatabaseEntry entry) {
+        return new String(entry.getData(), entry.getOffset(), entry.getSize(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encode a checksum as a database value. Lower case hexadecimal MD5 checksums are stored as the 16 bytes of the
+     * digest, other checksums as UTF-8. A tag byte in front tells the two apart.
+     *
+     * @param checksum The checksum.
+     * @return The encoded checksum.
+     */
+    static DatabaseEntry encodeChecksum(String checksum) {
+        byte[] bytes;
+        if (MD5_HEX.matcher(checksum).matches()) {
+            bytes = new byte[MD5_LENGTH + 1];
+            bytes[0] = MD5_TAG;
+            for (int i = 0; i < MD5_LENGTH; i++) {
+                bytes[i + 1] = (byte) Integer.parseInt(checksum.substring(2 * i, 2 * i + 2), 16);
+            }
+        } else {
+            byte[] utf8 = checksum.getBytes(StandardCharsets.UTF_8);
+            bytes = new byte[utf8.length + 1];
+            bytes[0] = STRING_TAG;
+            System.arraycopy(utf8, 0, bytes, 1, utf8.length);
+        }
+        return new DatabaseEntry(bytes);
+    }
+
+    /**
+     * Decode a database value.
+     *
+     * @param entry A value from {@link #encodeChecksum(String)}.
+     * @return The checksum.
+     */
+    static String decodeChecksum(DatabaseEntry entry) {
+        byte[] data = entry.getData();
+        int offset = entry.getOffset();
+        if (data[offset] == MD5_TAG) {
+            byte[] digest = new byte[MD5_LENGTH];
+            System.arraycopy(data, offset + 1, digest, 0, MD5_LENGTH);
+            return ChecksumCalculator.toHex(digest);
+        }
+        return new String(data, offset + 1, entry.getSize() - 1, StandardCharsets.UTF_8);
+    }
+
     @Override
     public void cleanup() {
+        if (syncExecutor != null) {
+            syncExecutor.shutdownNow();
+            syncExecutor = null;
+            try {
+                env.sync();
+            } catch (DatabaseException e) {
+                log.warn("Unable to write the database to disk. The error was :", e);
+            }
+        }
         if (checksumDB != null) {
             try {
                 checksumDB.close();
             } catch (DatabaseException e) {
                 log.warn("Unable to close database. The error was :", e);
             }
+            checksumDB = null;
+        }
+        if (env != null) {
+            try {
+                env.close();
+            } catch (DatabaseException e) {
+                log.warn("Unable to close the database environment. The error was :", e);
+            }
+            env = null;
         }
     }
 }
@@ -22,17 +22,27 @@
  */
 package dk.netarkivet.archive.checksum;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Collections;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
@@ -55,11 +65,16 @@ import dk.netarkivet.common.utils.batch.ChecksumJob;
 /**
  * A checksum archive in the form of a file (as alternative to a database).<br>
  * <p>
- * Each entry in the file is on its own line, thus the number of lines is the number of entries.<br>
- * The entries on a line is in the format of a ChecksumJob: <br>
+ * Each entry in the file is on its own line. The entries on a line is in the format of a ChecksumJob: <br>
  * <b>'filename' + ## + 'checksum'</b> <br>
  * The lines are not sorted.
  * <p>
+ * The file is only appended to. A corrected entry is appended as a new line, and the last line of a filename is the
+ * current entry. The superseded and invalid lines are removed by rewriting the file, when they make up more than half
+ * of it. The archive is not kept in memory; instead an index from a hash of each filename to the offset of its current
+ * entry is kept outside the Java heap (see {@link ChecksumFileIndex}). Lines appended to the file by others are indexed
+ * when the archive is next used, without reading the rest of the file again.
+ * <p>
  * If no file exists when the class is instantiated then it will be created, and if an 'admin.data' file exists, then it
  * will be loaded and put into the archive file.
  */
@@ -81,6 +96,12 @@ public final class FileChecksumArchive implements ChecksumArchive {
     private static final String WRONG_FILENAME_PREFIX = "removed_";
     /** The suffix to the removedEntryFile. */
     private static final String WRONG_FILENAME_SUFFIX = ".checksum";
+    /** The size of the buffers used when reading and copying the checksum file. */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** The number of bytes read at a time when reading a single entry. */
+    private static final int ENTRY_READ_SIZE = 256;
+    /** The number of superseded or invalid lines needed before the checksum file is rewritten while in use. */
+    private static final long MIN_OBSOLETE_LINES_FOR_COMPACTION = 10000;
 
     /** The logger used by this class. */
     private static final Logger log = LoggerFactory.getLogger(FileChecksumArchive.class);
@@ -98,19 +119,23 @@ public final class FileChecksumArchive implements ChecksumArchive {
      */
     private File wrongEntryFile;
 
-    /**
-     * The last modified date for the checksum file. This variable is used for determining whether to reload the archive
-     * from the checksum file, when they are synchronized. This has to be updated whenever the checksum file is changed.
-     */
-    private long lastModifiedChecksumFile;
+    /** Access to the checksum file, for reading entries at given offsets and appending new entries. */
+    private RandomAccessFile checksumAccess;
 
     /**
-     * This map consists of the archive loaded into the memory. It is faster to use a memory archive than the the
-     * checksum file, though all entries must exist both in the file and the memory.
-     * <p>
-     * Map(file -> checksum).
+     * The identity of the file opened as {@link #checksumAccess}, used to notice that the checksum file has been
+     * replaced. Null if the file system does not provide one.
      */
-    private Map<String, String> checksumArchive = Collections.synchronizedMap(new HashMap<String, String>());
+    private Object openedFileKey;
+
+    /** The index of the offset of the current entry of each filename in the checksum file. */
+    private ChecksumFileIndex index;
+
+    /** The length of the part of the checksum file which has been indexed. This always ends with a newline. */
+    private long indexedLength;
+
+    /** The number of superseded or invalid lines in the indexed part of the checksum file. */
+    private long obsoleteLines;
 
     /** The minimum space left. */
     private long minSpaceLeft;
@@ -199,7 +224,7 @@ public final class FileChecksumArchive implements ChecksumArchive {
 
     /**
      * Method for initializing the files. Starts by initializing the removedEntryFile before initializing the
-     * checksumFile. If the checksum file already exists, then it is loaded into memory.
+     * checksumFile. If the checksum file already exists, then it is indexed.
      */
     private void initializeFiles() {
         // Extract the dir-name and create the dir (if it does not yet exist).
@@ -229,78 +254,266 @@ public final class FileChecksumArchive implements ChecksumArchive {
         if (!checksumFile.exists()) {
             try {
                 checksumFile.createNewFile();
-                lastModifiedChecksumFile = checksumFile.lastModified();
             } catch (IOException e) {
                 String msg = "Cannot create checksum archive file!";
                 log.error(msg);
                 throw new IOFailure(msg, e);
             }
-        } else {
-            // If the archive file already exists, then it must consist of the
-            // archive for this replica. It must therefore be loaded into the
-            // memory.
-            loadFile();
+        }
+
+        // If the archive file already exists, then it must consist of the
+        // archive for this replica. It must therefore be indexed.
+        openChecksumFile();
+        index = new ChecksumFileIndex();
+        indexedLength = 0;
+        obsoleteLines = 0;
+        prepareForAppend();
+
+        // If a bad or superseded entry is found, then the archive file should
+        // be rewritten. Otherwise the bad entries would be reported again
+        // next time the FileChecksumArchive is initialized/restarted.
+        if (obsoleteLines > 0) {
+            compact();
         }
 
         // If the archive is new or otherwise empty, then try to load admin.data
-        if (checksumArchive.isEmpty()) {
+        if (index.size() == 0) {
             loadAdminData();
         }
     }
 
     /**
-     * Loads an existing checksum archive file into the memory. This will go through every line, and if the line is
-     * valid, then it is loaded into the checksumArchive map in the memory. If the line is invalid then a warning is
-     * issued and the line is put into the wrongEntryFile.
+     * Open the checksum file for reading and appending.
+     *
+     * @throws IOFailure If the file cannot be opened.
+     */
+    private void openChecksumFile() {
+        try {
+            checksumAccess = new RandomAccessFile(checksumFile, "rw");
+            openedFileKey = readFileKey();
+        } catch (IOException e) {
+            throw new IOFailure("Cannot open checksum archive file '" + checksumFile.getAbsolutePath() + "'", e);
+        }
+    }
+
+    /**
+     * Read the identity of the file currently at the path of the checksum file.
+     *
+     * @return The file key, or null if the file does not exist or the file system does not provide one.
+     */
+    private Object readFileKey() {
+        try {
+            return Files.readAttributes(checksumFile.toPath(), BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Check whether the checksum file at the path is no longer the file opened as {@link #checksumAccess}, e.g.
+     * because another process has moved a new file on top of it. The file identity is compared where the file system
+     * provides one. Otherwise the length of the file at the path is compared with the length of the open file, which
+     * can only differ if they are different files.
+     *
+     * @return Whether the checksum file has been replaced or removed.
+     * @throws IOException If the length of the open file cannot be read.
+     */
+    private boolean isChecksumFileReplaced() throws IOException {
+        if (!checksumFile.isFile()) {
+            return true;
+        }
+        if (openedFileKey != null) {
+            return !openedFileKey.equals(readFileKey());
+        }
+        return checksumFile.length() != checksumAccess.length();
+    }
+
+    /**
+     * Index the lines appended to the checksum file since it was last read. Only the new part of the file is read. If
+     * the file has been replaced or has become shorter, then it is opened again and all of it is indexed anew.
      * <p>
-     * If a bad entry is found, then the archive file has to be recreated afterwards, since the bad entry otherwise
-     * still would be in the archive file.
+     * Every valid line is indexed as the current entry of its filename. If a line is invalid then a warning is issued
+     * and the line is put into the wrongEntryFile. An incomplete last line is left for later.
+     *
+     * @throws IOFailure If the checksum file cannot be read.
      */
-    private void loadFile() {
-        // Checks whether a bad entry was found, to decide whether the archive
-        // file should be recreated.
-        boolean recreate = false;
+    private void readNewEntries() {
+        try {
+            if (isChecksumFileReplaced()) {
+                log.warn("The checksum file '{}' has been replaced. It is opened and indexed anew.",
+                        checksumFile.getAbsolutePath());
+                IOUtils.closeQuietly(checksumAccess);
+                openChecksumFile();
+                index.clear();
+                indexedLength = 0;
+                obsoleteLines = 0;
+            }
+            long length = checksumAccess.length();
+            if (length < indexedLength) {
+                log.warn("The checksum file '{}' has shrunk from {} to {} bytes. It is indexed anew.",
+                        checksumFile.getAbsolutePath(), indexedLength, length);
+                index.clear();
+                indexedLength = 0;
+                obsoleteLines = 0;
+            }
+            if (length == indexedLength) {
+                return;
+            }
+            LineReader reader = new LineReader(checksumFile, indexedLength);
+            try {
+                while (reader.next()) {
+                    indexLine(reader.getLine(), reader.getLineStart());
+                    indexedLength = reader.getLineEnd();
+                }
+            } finally {
+                IOUtils.closeQuietly(reader);
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Cannot read the checksum file '" + checksumFile.getAbsolutePath() + "'", e);
+        }
+    }
 
-        // extract all the data from the file.
-        List<String> entries;
+    /**
+     * Index the new lines of the checksum file, and make sure the file ends with a newline, so the next entry can be
+     * appended at the end of the indexed part. An incomplete last line, e.g. from an interrupted write, is completed
+     * and then indexed like any other line.
+     *
+     * @throws IOFailure If the checksum file cannot be read or written.
+     */
+    private void prepareForAppend() {
+        readNewEntries();
+        try {
+            long length = checksumAccess.length();
+            if (length > indexedLength) {
+                log.warn("The checksum file '{}' ends with an incomplete line. A newline is appended to it.",
+                        checksumFile.getAbsolutePath());
+                checksumAccess.seek(length);
+                checksumAccess.write('\n');
+                readNewEntries();
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Cannot complete the last line of the checksum file '"
+                    + checksumFile.getAbsolutePath() + "'", e);
+        }
+    }
 
-        // This should be synchronized to prevent reading the file while it is
-        // being written.
-        synchronized (checksumFile) {
-            entries = FileUtils.readListFromFile(checksumFile);
+    /**
+     * Index a line of the checksum file as the current entry of its filename.
+     *
+     * @param line The line.
+     * @param offset The offset of the line in the checksum file.
+     */
+    private void indexLine(String line, long offset) {
+        KeyValuePair<String, String> entry;
+        try {
+            entry = ChecksumJob.parseLine(line);
+        } catch (IllegalState e) {
+            log.warn("An invalid entry in the loaded file: '{}' This will be put in the wrong entry file.", line, e);
+            // put into wrongEntryFile!
+            appendWrongRecordToWrongEntryFile(line);
+            obsoleteLines++;
+            return;
         }
+        setCurrentEntry(entry.getKey(), offset);
+    }
 
-        String filename;
-        String checksum;
+    /**
+     * Make the entry at the given offset the current entry of the filename in the index.
+     *
+     * @param filename The filename of the entry.
+     * @param offset The offset of the entry in the checksum file.
+     */
+    private void setCurrentEntry(String filename, long offset) {
+        long hash = ChecksumFileIndex.hash(filename);
+        long slot = findSlot(filename, hash);
+        if (slot < 0) {
+            index.add(hash, offset);
+        } else {
+            index.setOffset(slot, offset);
+            obsoleteLines++;
+        }
+    }
 
-        // go through all entries and extract their filename and checksum.
-        for (String record : entries) {
-            try {
-                KeyValuePair<String, String> entry = ChecksumJob.parseLine(record);
-                // extract the filename and checksum
-                filename = entry.getKey();
-                checksum = entry.getValue();
-                // If their are extracted correct, then they will be put
-                // into the archive.
-                checksumArchive.put(filename, checksum);
-            } catch (IllegalState e) {
-                log.warn("An invalid entry in the loaded file: '{}' This will be put in the wrong entry file.", record,
-                        e);
-                // put into wrongEntryFile!
-                appendWrongRecordToWrongEntryFile(record);
-                recreate = true;
+    /**
+     * Find the slot in the index of the current entry of a filename.
+     *
+     * @param filename The filename.
+     * @param hash The hash of the filename.
+     * @return The slot, or -1 if there is no entry for the filename.
+     */
+    private long findSlot(String filename, long hash) {
+        for (long slot = index.find(hash, index.startSlot(hash)); slot >= 0; slot = index.find(hash, slot + 1)) {
+            if (filename.equals(readEntry(index.getOffset(slot)).getKey())) {
+                return slot;
             }
         }
+        return -1;
+    }
 
-        // If a bad entry is found, then the archive file should be recreated.
-        // Otherwise the bad entries might still be in the archive file next
-        // time the FileChecksumArchive is initialized/restarted.
-        if (recreate) {
-            recreateArchiveFile();
+    /**
+     * Find the current checksum of a filename.
+     *
+     * @param filename The filename.
+     * @return The checksum, or null if there is no entry for the filename.
+     */
+    private String findChecksum(String filename) {
+        long slot = findSlot(filename, ChecksumFileIndex.hash(filename));
+        if (slot < 0) {
+            return null;
+        }
+        return readEntry(index.getOffset(slot)).getValue();
+    }
+
+    /**
+     * Read the entry on the line at the given offset of the checksum file.
+     *
+     * @param offset The offset of a line in the indexed part of the checksum file.
+     * @return The filename and the checksum of the entry.
+     * @throws IOFailure If the entry cannot be read.
+     */
+    private KeyValuePair<String, String> readEntry(long offset) {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(ENTRY_READ_SIZE);
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_READ_SIZE);
+        FileChannel channel = checksumAccess.getChannel();
+        long position = offset;
+        try {
+            while (position < indexedLength) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                byte[] bytes = buffer.array();
+                for (int i = 0; i < read; i++) {
+                    if (bytes[i] == '\n') {
+                        line.write(bytes, 0, i);
+                        return ChecksumJob.parseLine(decodeLine(line.toByteArray(), line.size()));
+                    }
+                }
+                line.write(bytes, 0, read);
+                position += read;
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Cannot read the entry at offset " + offset + " of the checksum file '"
+                    + checksumFile.getAbsolutePath() + "'", e);
         }
+        throw new IOFailure("No complete entry at offset " + offset + " of the checksum file '"
+                + checksumFile.getAbsolutePath() + "'");
+    }
 
-        // retrieve the 'last modified' from the checksum file.
-        lastModifiedChecksumFile = checksumFile.lastModified();
+    /**
+     * Decode a line of the checksum file.
+     *
+     * @param bytes The bytes of the line, without the newline.
+     * @param length The number of bytes of the line.
+     * @return The line.
+     */
+    private static String decodeLine(byte[] bytes, int length) {
+        int end = length;
+        if (end > 0 && bytes[end - 1] == '\r') {
+            end--;
+        }
+        return new String(bytes, 0, end, StandardCharsets.UTF_8);
     }
 
     /**
@@ -323,7 +536,6 @@ public final class FileChecksumArchive implements ChecksumArchive {
 
         // line length;
         final int lineLength = 4;
-        boolean recreate = false;
 
         BufferedReader in = null;
         try {
@@ -356,11 +568,7 @@ public final class FileChecksumArchive implements ChecksumArchive {
                     String uploadState = entryData[2];
 
                     if (uploadState.equals(ReplicaStoreState.UPLOAD_COMPLETED.toString())) {
-                        if (checksumArchive.containsKey(filename)) {
-                            recreate = true;
-                        }
-                        checksumArchive.put(filename, checksum);
-                        appendEntryToFile(filename, checksum);
+                        setCurrentEntry(filename, appendEntryToFile(filename, checksum));
                         log.debug("AdminData line inserted: {}", line);
                     } else {
                         log.trace("AdminData line ignored: {}", line);
@@ -377,59 +585,107 @@ public final class FileChecksumArchive implements ChecksumArchive {
         }
 
         // If a entry have been written twice, then recreate the archive file.
-        if (recreate) {
-            recreateArchiveFile();
+        if (obsoleteLines > 0) {
+            compact();
         }
 
         log.info("Finished loading admin data.");
     }
 
     /**
-     * Recreates the archive file from the memory. Makes a new file which contains the entire archive, and then move the
-     * new archive file on top of the old one. This is used when to recreate the archive file, when an record has been
-     * removed.
+     * Recreates the archive file with only the current entries. Makes a new file which contains the current entry of
+     * every filename, and then move the new archive file on top of the old one. This is used to remove the superseded
+     * and invalid lines from the archive file.
      *
      * @throws IOFailure If a problem occur when writing the new file.
      */
-    private void recreateArchiveFile() throws IOFailure {
+    private void compact() throws IOFailure {
+        // Handle the case, when there is not enough space left for
+        // recreating the archive file.
+        if (!hasEnoughSpaceForRecreate()) {
+            log.error("Not enough space left to recreate the checksum file.");
+            throw new IOFailure("Not enough space left to recreate the checksum file.");
+        }
+        log.info("Recreating the checksum file '{}' without {} superseded or invalid lines",
+                checksumFile.getAbsolutePath(), obsoleteLines);
+
+        File recreateFile = new File(checksumFile.getParentFile(), makeRecreateFileName());
+        ChecksumFileIndex newIndex = new ChecksumFileIndex();
+        long newLength;
         try {
-            // Handle the case, when there is not enough space left for
-            // recreating the
-            if (!hasEnoughSpaceForRecreate()) {
-                log.error("Not enough space left to recreate the checksum file.");
-                throw new IOFailure("Not enough space left to recreate the checksum file.");
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(recreateFile), BUFFER_SIZE);
+            try {
+                newLength = copyCurrentEntries(out, false, newIndex);
+            } finally {
+                out.close();
             }
+            checksumAccess.close();
+        } catch (IOException e) {
+            String errMsg = "The checksum file has not been recreated as attempted.";
+            log.error(errMsg, e);
+            throw new IOFailure(errMsg, e);
+        }
 
-            // This should be synchronized, so no new entries can be made
-            // while recreating the archive file.
-            synchronized (checksumFile) {
-                // initialize and create the file.
-                File recreateFile = new File(checksumFile.getParentFile(), makeRecreateFileName());
-                if (!recreateFile.createNewFile()) {
-                    log.warn("Cannot create new file. The recreate checksum file did already exist.");
-                }
+        try {
+            // Move the file.
+            FileUtils.moveFile(recreateFile, checksumFile);
+            index = newIndex;
+            indexedLength = newLength;
+            obsoleteLines = 0;
+        } finally {
+            openChecksumFile();
+        }
+    }
 
-                // put the archive into the file.
-                FileWriter fw = new FileWriter(recreateFile);
+    /**
+     * Recreate the archive file if the superseded and invalid lines make up more than half of it.
+     */
+    private void compactIfWorthwhile() {
+        if (obsoleteLines >= MIN_OBSOLETE_LINES_FOR_COMPACTION && obsoleteLines > index.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Write the current entries of the indexed part of the archive file to a stream, in the order of the file.
+     *
+     * @param out The stream to write to.
+     * @param writeOnlyFilenames If true, only the filenames of the entries are written.
+     * @param newIndex If not null, the entries are added to this index with their offsets in the written stream.
+     * @return The number of bytes written.
+     * @throws IOException If the archive file cannot be read or the stream cannot be written.
+     */
+    private long copyCurrentEntries(OutputStream out, boolean writeOnlyFilenames, ChecksumFileIndex newIndex)
+            throws IOException {
+        long written = 0;
+        LineReader reader = new LineReader(checksumFile, 0);
+        try {
+            while (reader.next() && reader.getLineStart() < indexedLength) {
+                KeyValuePair<String, String> entry;
                 try {
-                    for (Map.Entry<String, String> entry : checksumArchive.entrySet()) {
-                        String record = entry.getKey() + CHECKSUM_SEPARATOR + entry.getValue();
-                        fw.append(record + "\n");
+                    entry = ChecksumJob.parseLine(reader.getLine());
+                } catch (IllegalState e) {
+                    continue;
+                }
+                long hash = ChecksumFileIndex.hash(entry.getKey());
+                if (!index.contains(hash, reader.getLineStart())) {
+                    continue;
+                }
+                if (writeOnlyFilenames) {
+                    byte[] filename = (entry.getKey() + "\n").getBytes(StandardCharsets.UTF_8);
+                    out.write(filename);
+                    written += filename.length;
+                } else {
+                    if (newIndex != null) {
+                        newIndex.add(hash, written);
                     }
-                } finally {
-                    fw.flush();
-                    fw.close();
+                    written += reader.writeLine(out);
                 }
-
-                // Move the file.
-                FileUtils.moveFile(recreateFile, checksumFile);
             }
-        } catch (IOException e) {
-            String errMsg = "The checksum file has not been recreated as attempted. "
-                    + "The archive in memory and the one on file are no longer identical.";
-            log.error(errMsg, e);
-            throw new IOFailure(errMsg, e);
+        } finally {
+            IOUtils.closeQuietly(reader);
         }
+        return written;
     }
 
     /**
@@ -484,38 +740,26 @@ public final class FileChecksumArchive implements ChecksumArchive {
 
     /**
      * Appending an checksum archive entry to the checksum file. The record string is created and appended to the file.
+     * The file must have been prepared with {@link #prepareForAppend()}, and the entry is not indexed.
      *
      * @param filename The name of the file to add.
      * @param checksum The checksum of the file to add.
+     * @return The offset of the entry in the checksum file.
      * @throws IOFailure If something is wrong when writing to the file.
      */
-    private synchronized void appendEntryToFile(String filename, String checksum) throws IOFailure {
+    private long appendEntryToFile(String filename, String checksum) throws IOFailure {
         // initialise the record.
-        String record = filename + CHECKSUM_SEPARATOR + checksum + "\n";
-
-        // get a filewriter for the checksum file, and append the record.
-        boolean appendToFile = true;
+        byte[] record = (filename + CHECKSUM_SEPARATOR + checksum + "\n").getBytes(StandardCharsets.UTF_8);
 
-        // Synchronize to ensure that the file is not overridden during the
-        // appending of the new entry.
-        synchronized (checksumFile) {
-            try {
-                FileWriter fwrite = new FileWriter(checksumFile, appendToFile);
-                try {
-                    fwrite.append(record);
-                } finally {
-                    // close fileWriter.
-                    fwrite.flush();
-                    fwrite.close();
-                }
-            } catch (IOException e) {
-                throw new IOFailure("An error occurred while appending an entry to the archive file.", e);
-            }
-
-            // The checksum file has been updated and so has its timestamp.
-            // Thus update the last modified date for the checksum file.
-            lastModifiedChecksumFile = checksumFile.lastModified();
+        long offset = indexedLength;
+        try {
+            checksumAccess.seek(offset);
+            checksumAccess.write(record);
+        } catch (IOException e) {
+            throw new IOFailure("An error occurred while appending an entry to the archive file.", e);
         }
+        indexedLength = offset + record.length;
+        return offset;
     }
 
     /**
@@ -556,32 +800,12 @@ public final class FileChecksumArchive implements ChecksumArchive {
         // Validate arguments.
         ArgumentNotValid.checkNotNull(file, "RemoteFile file");
         ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
-        
+
         InputStream input = null;
 
         try {
             input = file.getInputStream();
-            synchronizeMemoryWithFile();
-            String checksum = calculateChecksum(input);
-
-            if (checksumArchive.containsKey(filename)) {
-                if (checksumArchive.get(filename).equals(checksum)) {
-                    log.warn("Cannot upload arcfile '{}', it is already archived with the same checksum: '{}",
-                            filename, checksum);
-                } else {
-                    throw new IllegalState("Cannot upload arcfile '" + filename
-                            + "', it is already archived with different checksum." + " Archive checksum: '"
-                            + checksumArchive.get(filename) + "' and the uploaded file has: '" + checksum + "'.");
-                }
-
-                // It is considered a success that it already is within the archive,
-                // thus do not throw an exception.
-                return;
-            }
-
-            // otherwise put the file into memory and file.
-            appendEntryToFile(filename, checksum);
-            checksumArchive.put(filename, checksum);
+            insert(filename, calculateChecksum(input));
         } finally {
             if (input != null) {
                 IOUtils.closeQuietly(input);
@@ -589,31 +813,42 @@ public final class FileChecksumArchive implements ChecksumArchive {
         }
 
     }
-    
+
     public void upload(String checksum, String filename) throws ArgumentNotValid, IllegalState {
         // Validate arguments.
         ArgumentNotValid.checkNotNull(checksum, "String checksum");
         ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
 
-        synchronizeMemoryWithFile();
-        if (checksumArchive.containsKey(filename)) {
-        	if (checksumArchive.get(filename).equals(checksum)) {
-        		log.warn("Cannot upload arcfile '{}', it is already archived with the same checksum: '{}",
-        				filename, checksum);
-        	} else {
-        		throw new IllegalState("Cannot upload arcfile '" + filename
-        				+ "', it is already archived with different checksum." + " Archive checksum: '"
-        				+ checksumArchive.get(filename) + "' and the uploaded file has: '" + checksum + "'.");
-        	}
+        insert(filename, checksum);
+    }
+
+    /**
+     * Add an entry to the archive, unless the file is already archived.
+     *
+     * @param filename The name of the arcFile.
+     * @param checksum The checksum of the file.
+     * @throws IllegalState If the file already within the archive but with a different checksum.
+     */
+    private synchronized void insert(String filename, String checksum) throws IllegalState {
+        prepareForAppend();
+        String archivedChecksum = findChecksum(filename);
+        if (archivedChecksum != null) {
+            if (archivedChecksum.equals(checksum)) {
+                log.warn("Cannot upload arcfile '{}', it is already archived with the same checksum: '{}",
+                        filename, checksum);
+            } else {
+                throw new IllegalState("Cannot upload arcfile '" + filename
+                        + "', it is already archived with different checksum." + " Archive checksum: '"
+                        + archivedChecksum + "' and the uploaded file has: '" + checksum + "'.");
+            }
 
-        	// It is considered a success that it already is within the archive,
-        	// thus do not throw an exception.
-        	return;
+            // It is considered a success that it already is within the archive,
+            // thus do not throw an exception.
+            return;
         }
 
-        // otherwise put the file into memory and file.
-        appendEntryToFile(filename, checksum);
-        checksumArchive.put(filename, checksum);
+        // otherwise put the file into the file and the index.
+        index.add(ChecksumFileIndex.hash(filename), appendEntryToFile(filename, checksum));
     }
 
     /**
@@ -624,14 +859,14 @@ public final class FileChecksumArchive implements ChecksumArchive {
      * @throws ArgumentNotValid If the filename is not valid (null or empty).
      */
     @Override
-    public String getChecksum(String filename) throws ArgumentNotValid {
+    public synchronized String getChecksum(String filename) throws ArgumentNotValid {
         // validate the argument
         ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
 
-        synchronizeMemoryWithFile();
+        readNewEntries();
 
         // Return the checksum of the record.
-        return checksumArchive.get(filename);
+        return findChecksum(filename);
     }
 
     /**
@@ -641,11 +876,13 @@ public final class FileChecksumArchive implements ChecksumArchive {
      * @return Whether an entry with the filename was found.
      */
     @Override
-    public boolean hasEntry(String filename) {
+    public synchronized boolean hasEntry(String filename) {
         ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
 
+        readNewEntries();
+
         // Return whether the archive contains an entry with the filename.
-        return checksumArchive.containsKey(filename);
+        return findSlot(filename, ChecksumFileIndex.hash(filename)) >= 0;
     }
 
     /**
@@ -674,8 +911,7 @@ public final class FileChecksumArchive implements ChecksumArchive {
 
     /**
      * Method for correcting a bad entry from the archive. The current incorrect entry is put into the wrongEntryFile.
-     * Then it calculates the checksum and corrects the entry for the file, and then the checksum file is recreated from
-     * the archive in the memory.
+     * Then it calculates the checksum and appends the corrected entry for the file to the checksum file.
      *
      * @param filename The name of the file whose record should be removed.
      * @param correctFile The file that should replace the current entry
@@ -687,22 +923,23 @@ public final class FileChecksumArchive implements ChecksumArchive {
      * incorrectChecksum.
      */
     @Override
-    public File correct(String filename, File correctFile) throws IOFailure, ArgumentNotValid, IllegalState {
+    public synchronized File correct(String filename, File correctFile) throws IOFailure, ArgumentNotValid,
+            IllegalState {
         ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
         ArgumentNotValid.checkNotNull(correctFile, "File correctFile");
 
-        // synchronize the memory.
-        synchronizeMemoryWithFile();
+        prepareForAppend();
 
         // If no file entry exists, then IllegalState
-        if (!checksumArchive.containsKey(filename)) {
+        long slot = findSlot(filename, ChecksumFileIndex.hash(filename));
+        if (slot < 0) {
             String errMsg = "No file entry for file '" + filename + "'.";
             log.error(errMsg);
             throw new IllegalState(errMsg);
         }
 
         // retrieve the checksum
-        String currentChecksum = checksumArchive.get(filename);
+        String currentChecksum = readEntry(index.getOffset(slot)).getValue();
 
         // Calculate the new checksum and verify that it is different.
         String newChecksum = calculateChecksum(correctFile);
@@ -716,13 +953,11 @@ public final class FileChecksumArchive implements ChecksumArchive {
         String badEntry = ChecksumJob.makeLine(filename, currentChecksum);
         appendWrongRecordToWrongEntryFile(badEntry);
 
-        // Correct the bad entry, by changing the value to the newChecksum.'
-        // Since the checksumArchive is a hashmap, then putting an existing
-        // entry with a new value will override the existing one.
-        checksumArchive.put(filename, newChecksum);
-
-        // Recreate the archive file.
-        recreateArchiveFile();
+        // Correct the bad entry, by appending an entry with the newChecksum,
+        // which supersedes the existing one.
+        index.setOffset(slot, appendEntryToFile(filename, newChecksum));
+        obsoleteLines++;
+        compactIfWorthwhile();
 
         // Make the file containing the bad entry be returned in the
         // CorrectMessage.
@@ -750,26 +985,12 @@ public final class FileChecksumArchive implements ChecksumArchive {
      * Method for retrieving the archive as a temporary file containing the checksum entries. Each line should contain
      * one checksum entry in the format produced by the ChecksumJob.
      *
-     * @return A temporary checksum file, which is a copy of the archive file.
+     * @return A temporary checksum file, which contains the current entries of the archive file.
      * @throws IOFailure If problems occurs during the creation of the file.
      */
     @Override
-    public File getArchiveAsFile() throws IOFailure {
-        synchronizeMemoryWithFile();
-
-        try {
-            // create new temporary file of the archive.
-            File tempFile = File.createTempFile("tmp", "tmp", FileUtils.getTempDir());
-            synchronized (checksumFile) {
-                FileUtils.copyFile(checksumFile, tempFile);
-            }
-
-            return tempFile;
-        } catch (IOException e) {
-            String msg = "Cannot create the output file containing all the entries of this archive.";
-            log.warn(msg);
-            throw new IOFailure(msg);
-        }
+    public synchronized File getArchiveAsFile() throws IOFailure {
+        return copyCurrentEntriesToTempFile(false);
     }
 
     /**
@@ -779,63 +1000,135 @@ public final class FileChecksumArchive implements ChecksumArchive {
      * @throws IOFailure If problems occurs during the creation of the file.
      */
     @Override
-    public File getAllFilenames() throws IOFailure {
-        synchronizeMemoryWithFile();
+    public synchronized File getAllFilenames() throws IOFailure {
+        return copyCurrentEntriesToTempFile(true);
+    }
+
+    /**
+     * Write the current entries of the archive to a temporary file.
+     *
+     * @param writeOnlyFilenames If true, only the filenames of the entries are written.
+     * @return The temporary file.
+     * @throws IOFailure If problems occurs during the creation of the file.
+     */
+    private File copyCurrentEntriesToTempFile(boolean writeOnlyFilenames) throws IOFailure {
+        readNewEntries();
 
         try {
             File tempFile = File.createTempFile("tmp", "tmp", FileUtils.getTempDir());
-            FileWriter fw = new FileWriter(tempFile);
-
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE);
             try {
-                // put the content into the file.
-                for (String filename : checksumArchive.keySet()) {
-                    fw.append(filename);
-                    fw.append("\n");
-                }
-
+                copyCurrentEntries(out, writeOnlyFilenames, null);
             } finally {
                 // flush and close the file, before returning it.
-                fw.flush();
-                fw.close();
+                out.close();
             }
             return tempFile;
         } catch (IOException e) {
-            String msg = "Cannot create the output file containing the filenames of all the entries of this archive.";
-            log.warn(msg);
-            throw new IOFailure(msg);
+            String msg = "Cannot create the output file containing the entries of this archive.";
+            log.warn(msg, e);
+            throw new IOFailure(msg, e);
         }
     }
 
     /**
-     * Ensures that the file and memory archives are identical.
-     * <p>
-     * The timestamp of last communication with the file (read/write) will be checked whether it corresponds the 'last
-     * modified' date of the file. If they are different, then the memory archive is reloaded from the file.
+     * The method for cleaning up when done. It closes the checksum file, and sets the checksum file and the instance to
+     * null.
      */
-    private synchronized void synchronizeMemoryWithFile() {
-        log.debug("Synchronizing memory archive with file archive.");
-
-        // Check if the checksum file has changed since last access.
-        if (checksumFile.lastModified() > lastModifiedChecksumFile) {
-            log.warn("Archive in memory out of sync with archive in file.");
-
-            // The archive is then reloaded by clearing the current memory
-            // archive and loading the file again.
-            checksumArchive.clear();
-            // The 'last modified' is reset during loading.
-            loadFile();
+    @Override
+    public synchronized void cleanup() {
+        if (checksumAccess != null) {
+            IOUtils.closeQuietly(checksumAccess);
+            checksumAccess = null;
         }
+        checksumFile = null;
+        index = null;
+        instance = null;
     }
 
     /**
-     * The method for cleaning up when done. It sets the checksum file and the instance to null.
+     * Reads the lines of a file from a given offset, keeping track of the offset of each line.
      */
-    @Override
-    public void cleanup() {
-        checksumFile = null;
-        instance = null;
-        if (checksumArchive != null) {
-            checksumArchive.clear();
+    private static final class LineReader implements Closeable {
+        /** The file being read. */
+        private final InputStream in;
+        /** The bytes of the current line, without the newline. */
+        private byte[] line = new byte[ENTRY_READ_SIZE];
+        /** The number of bytes in the current line. */
+        private int length;
+        /** The offset of the current line. */
+        private long lineStart;
+        /** The offset after the newline of the current line. */
+        private long lineEnd;
+
+        /**
+         * Start reading a file.
+         *
+         * @param file The file.
+         * @param start The offset of the first line to read.
+         * @throws IOException If the file cannot be opened.
+         */
+        LineReader(File file, long start) throws IOException {
+            FileInputStream input = new FileInputStream(file);
+            input.getChannel().position(start);
+            in = new BufferedInputStream(input, BUFFER_SIZE);
+            lineEnd = start;
+        }
+
+        /**
+         * Read the next line.
+         *
+         * @return false, if there are no more complete lines.
+         * @throws IOException If the file cannot be read.
+         */
+        boolean next() throws IOException {
+            lineStart = lineEnd;
+            length = 0;
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b == '\n') {
+                    lineEnd = lineStart + length + 1;
+                    return true;
+                }
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, length * 2);
+                }
+                line[length++] = (byte) b;
+            }
+            return false;
+        }
+
+        /** @return The current line. */
+        String getLine() {
+            return decodeLine(line, length);
+        }
+
+        /** @return The offset of the current line. */
+        long getLineStart() {
+            return lineStart;
+        }
+
+        /** @return The offset after the newline of the current line. */
+        long getLineEnd() {
+            return lineEnd;
+        }
+
+        /**
+         * Write the current line as it is in the file.
+         *
+         * @param out The stream to write to.
+         * @return The number of bytes written.
+         * @throws IOException If the stream cannot be written.
+         */
+        int writeLine(OutputStream out) throws IOException {
+            out.write(line, 0, length);
+            out.write('\n');
+            return length + 1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
         }
     }
 
@@ -23,6 +23,10 @@
 package dk.netarkivet.archive.checksum.distribute;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,6 +40,7 @@ import dk.netarkivet.common.distribute.JMSConnectionFactory;
 import dk.netarkivet.common.distribute.RemoteFile;
 import dk.netarkivet.common.distribute.RemoteFileFactory;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.IllegalState;
 import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.FileUtils;
@@ -43,6 +48,7 @@ import dk.netarkivet.common.utils.NotificationType;
 import dk.netarkivet.common.utils.NotificationsFactory;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.SystemUtils;
+import dk.netarkivet.common.utils.batch.ChecksumJob;
 
 /**
  * The server for the ChecksumFileApplication. Used for communication between the ArcRepository and the checksum
@@ -340,7 +346,8 @@ public class ChecksumFileServer extends ChecksumArchiveServer {
     }
 
     /**
-     * Method for retrieving a map containing all the checksums and their corresponding filenames within the archive.
+     * Method for retrieving a map containing all the checksums and their corresponding filenames within the archive. If
+     * the message is restricted to a set of files, only the checksums of these files are retrieved.
      *
      * @param msg The GetAllChecksumMessage.
      * @throws ArgumentNotValid If the GetAllChecksumMessage is null.
@@ -350,7 +357,11 @@ public class ChecksumFileServer extends ChecksumArchiveServer {
         log.debug("Receiving GetAllChecksumsMessage: {}", msg.toString());
 
         try {
-            msg.setFile(cs.getArchiveAsFile());
+            if (msg.getFilenames() == null) {
+                msg.setFile(cs.getArchiveAsFile());
+            } else {
+                msg.setFile(getChecksumsAsFile(msg.getFilenames()));
+            }
         } catch (Throwable e) {
             log.warn("Cannot retrieve all the checksums.", e);
             msg.setNotOk(e);
@@ -361,4 +372,32 @@ public class ChecksumFileServer extends ChecksumArchiveServer {
         }
     }
 
+    /**
+     * Write the checksums of the given files to a temporary file in the format of a ChecksumJob. Files without an entry
+     * in the archive are left out.
+     *
+     * @param filenames The names of the files.
+     * @return The file with the checksums.
+     * @throws IOFailure If the file cannot be written.
+     */
+    private File getChecksumsAsFile(Collection<String> filenames) throws IOFailure {
+        File res = null;
+        try {
+            res = File.createTempFile("checksums", ".txt", FileUtils.getTempDir());
+            List<String> lines = new ArrayList<String>();
+            for (String filename : filenames) {
+                if (cs.hasEntry(filename)) {
+                    lines.add(ChecksumJob.makeLine(filename, cs.getChecksum(filename)));
+                }
+            }
+            FileUtils.writeCollectionToFile(res, lines);
+            return res;
+        } catch (IOException e) {
+            if (res != null) {
+                FileUtils.remove(res);
+            }
+            throw new IOFailure("Could not write checksums to file", e);
+        }
+    }
+
 }
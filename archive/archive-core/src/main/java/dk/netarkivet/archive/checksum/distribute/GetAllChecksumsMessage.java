@@ -23,6 +23,10 @@
 package dk.netarkivet.archive.checksum.distribute;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,6 +44,10 @@ import dk.netarkivet.common.exceptions.IOFailure;
  * corresponding to the reply file of a ChecksumJob.
  * <p>
  * This is checksum replica alternative to sending a ChecksumBatchJob.
+ * <p>
+ * The message can be restricted to a given set of filenames, in which case only the checksums of these files are
+ * retrieved. This allows a bitpreservation check of many files to be done with one message per replica instead of one
+ * GetChecksumMessage per file.
  */
 @SuppressWarnings({"serial"})
 public class GetAllChecksumsMessage extends ArchiveMessage {
@@ -50,6 +58,8 @@ public class GetAllChecksumsMessage extends ArchiveMessage {
     private RemoteFile rf;
     /** The id for the replica where this message should be sent. */
     private String replicaId;
+    /** The names of the files to retrieve checksums for, or null if all checksums are wanted. */
+    private ArrayList<String> filenames;
 
     /**
      * Constructor.
@@ -63,6 +73,22 @@ public class GetAllChecksumsMessage extends ArchiveMessage {
         this.replicaId = repId;
     }
 
+    /**
+     * Constructor for a message restricted to the given files.
+     *
+     * @param to Where this message is headed.
+     * @param replyTo Where the reply on this message is sent.
+     * @param repId The replica where the job involved in this message is to be performed.
+     * @param filenames The names of the files to retrieve the checksums for.
+     * @throws ArgumentNotValid If <b>filenames</b> is null.
+     */
+    public GetAllChecksumsMessage(ChannelID to, ChannelID replyTo, String repId, Collection<String> filenames)
+            throws ArgumentNotValid {
+        this(to, replyTo, repId);
+        ArgumentNotValid.checkNotNull(filenames, "Collection<String> filenames");
+        this.filenames = new ArrayList<String>(filenames);
+    }
+
     /**
      * Method for setting the resulting file. This file will be retrieved from the caller of this message. This should
      * be a movable instance since the temporary file should be removed after is has been retrieved.
@@ -111,13 +137,29 @@ public class GetAllChecksumsMessage extends ArchiveMessage {
         return replicaId;
     }
 
+    /**
+     * Method for retrieving the names of the files this message is restricted to.
+     *
+     * @return The names of the files to retrieve checksums for, or null if the checksums of all files are wanted.
+     */
+    public List<String> getFilenames() {
+        if (filenames == null) {
+            return null;
+        }
+        return Collections.unmodifiableList(filenames);
+    }
+
     /**
      * Generate String representation of this object.
      *
      * @return String representation of this object
      */
     public String toString() {
-        return super.toString() + " replicaid: " + replicaId;
+        String res = super.toString() + " replicaid: " + replicaId;
+        if (filenames != null) {
+            res += " filenames: " + filenames.size();
+        }
+        return res;
     }
 
     /**
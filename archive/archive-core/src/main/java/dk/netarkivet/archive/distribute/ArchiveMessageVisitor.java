@@ -26,6 +26,7 @@ import dk.netarkivet.archive.arcrepository.bitpreservation.AdminDataMessage;
 import dk.netarkivet.archive.arcrepository.distribute.StoreMessage;
 import dk.netarkivet.archive.bitarchive.distribute.BatchEndedMessage;
 import dk.netarkivet.archive.bitarchive.distribute.BatchMessage;
+import dk.netarkivet.archive.bitarchive.distribute.BatchPartMessage;
 import dk.netarkivet.archive.bitarchive.distribute.BatchReplyMessage;
 import dk.netarkivet.archive.bitarchive.distribute.GetFileMessage;
 import dk.netarkivet.archive.bitarchive.distribute.GetMessage;
@@ -61,6 +62,13 @@ public interface ArchiveMessageVisitor {
      */
     void visit(BatchMessage msg);
 
+    /**
+     * This method should be overridden to handle the receipt of a message.
+     *
+     * @param msg A received message.
+     */
+    void visit(BatchPartMessage msg);
+
     /**
      * This method should be overridden to handle the receipt of a message.
      *
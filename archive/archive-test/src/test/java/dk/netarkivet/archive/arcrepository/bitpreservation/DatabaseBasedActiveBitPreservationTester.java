@@ -39,6 +39,7 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -60,6 +61,7 @@ import dk.netarkivet.common.distribute.ChannelsTesterHelper;
 import dk.netarkivet.common.distribute.RemoteFileFactory;
 import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClient;
 import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClientFactory;
+import dk.netarkivet.common.distribute.arcrepository.BatchResultPartHandler;
 import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
 import dk.netarkivet.common.distribute.arcrepository.BitarchiveRecord;
 import dk.netarkivet.common.distribute.arcrepository.Replica;
@@ -492,6 +494,13 @@ public class DatabaseBasedActiveBitPreservationTester {
             }
         }
 
+        public BatchStatus batch(FileBatchJob job, String locationName, BatchResultPartHandler partHandler,
+                String... args) {
+            BatchStatus status = batch(job, locationName, args);
+            status.handOverResult(partHandler);
+            return status;
+        }
+
         public void updateAdminData(String fileName, String bitarchiveId, ReplicaStoreState newval) {
             UpdateableAdminData adminData = AdminData.getUpdateableInstance();
             if (!adminData.hasEntry(fileName)) {
@@ -537,6 +546,22 @@ public class DatabaseBasedActiveBitPreservationTester {
             }
         }
 
+        @Override
+        public File getChecksums(String replicaId, Collection<String> filenames) {
+            try {
+                ChecksumJob job = new ChecksumJob();
+                job.processOnlyFilesNamed(new ArrayList<String>(filenames));
+                File output = File.createTempFile("checksum", ".some", TestInfo.WORKING_DIR);
+                File[] in_files = TestInfo.GOOD_ARCHIVE_FILE_DIR.listFiles();
+                FileOutputStream os = new FileOutputStream(output);
+                new BatchLocalFiles(in_files).run(job, os);
+                os.close();
+                return output;
+            } catch (IOException e) {
+                throw new IOFailure("", e);
+            }
+        }
+
         @Override
         public File getAllFilenames(String replicaId) {
             try {
@@ -39,6 +39,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -74,6 +75,7 @@ import dk.netarkivet.common.distribute.StringRemoteFile;
 import dk.netarkivet.common.distribute.TestRemoteFile;
 import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClient;
 import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClientFactory;
+import dk.netarkivet.common.distribute.arcrepository.BatchResultPartHandler;
 import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
 import dk.netarkivet.common.distribute.arcrepository.BitarchiveRecord;
 import dk.netarkivet.common.distribute.arcrepository.Replica;
@@ -434,22 +436,31 @@ public class FileBasedActiveBitPreservationTester {
                 }
             }
 
-            public String getChecksum(String replicaId, String filename) {
+            public File getChecksums(String replicaId, Collection<String> filenames) {
+                List<String> lines = new ArrayList<String>();
                 if (results.containsKey(Replica.getReplicaFromId(replicaId))) {
                     try {
                         String res = results.get(Replica.getReplicaFromId(replicaId));
                         KeyValuePair<String, String> kvp = ChecksumJob.parseLine(res);
-                        if (kvp.getKey().equals(filename)) {
-                            return kvp.getValue();
+                        if (filenames.contains(kvp.getKey())) {
+                            lines.add(res);
+                        } else {
+                            log.warn("Found unexpected file '" + kvp.getKey() + "' while asking replica '"
+                                    + Replica.getReplicaFromId(replicaId) + "' for files " + filenames);
                         }
-                        log.warn("Found unexpected file '" + kvp.getKey() + "' while asking replica '"
-                                + Replica.getReplicaFromId(replicaId) + "' for file '" + filename + "'");
                     } catch (ArgumentNotValid e) {
                         log.warn("Unexpected error '" + e + "' while asking " + "replica '"
-                                + Replica.getReplicaFromId(replicaId) + "' for file '" + filename + "'");
+                                + Replica.getReplicaFromId(replicaId) + "' for files " + filenames);
                     }
                 }
-                return null;
+                try {
+                    File result = File.createTempFile("some", ".checksum", TestInfo.WORKING_DIR);
+                    FileUtils.writeCollectionToFile(result, lines);
+                    return result;
+                } catch (IOException e) {
+                    fail("Got the following error: " + e);
+                    return null;
+                }
             }
         };
         results.put(ONE, "foobar##md5-1");
@@ -648,6 +659,13 @@ public class FileBasedActiveBitPreservationTester {
             }
         }
 
+        public BatchStatus batch(FileBatchJob job, String locationName, BatchResultPartHandler partHandler,
+                String... args) {
+            BatchStatus status = batch(job, locationName, args);
+            status.handOverResult(partHandler);
+            return status;
+        }
+
         public void updateAdminData(String fileName, String bitarchiveId, ReplicaStoreState newval) {
             UpdateableAdminData adminData = AdminData.getUpdateableInstance();
             if (!adminData.hasEntry(fileName)) {
@@ -691,6 +709,21 @@ public class FileBasedActiveBitPreservationTester {
             return null;
         }
 
+        public File getChecksums(String replicaId, Collection<String> filenames) {
+            try {
+                ChecksumJob job = new ChecksumJob();
+                job.processOnlyFilesNamed(new ArrayList<String>(filenames));
+                BatchStatus bs = batch(job, replicaId);
+                File result = File.createTempFile("some", ".checksum", TestInfo.WORKING_DIR);
+                bs.copyResults(result);
+                return result;
+            } catch (IOException e) {
+                fail("Got the following error: " + e);
+            }
+            // This cannot happen!
+            return null;
+        }
+
         public File getAllFilenames(String replicaId) {
             try {
                 BatchStatus bs = batch(new FileListJob(), replicaId);
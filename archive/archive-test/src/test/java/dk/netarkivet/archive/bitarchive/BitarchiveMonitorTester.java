@@ -26,11 +26,21 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Before;
@@ -40,9 +50,14 @@ import dk.netarkivet.archive.ArchiveSettings;
 import dk.netarkivet.archive.bitarchive.distribute.BatchMessage;
 import dk.netarkivet.common.CommonSettings;
 import dk.netarkivet.common.distribute.Channels;
+import dk.netarkivet.common.distribute.RemoteFile;
+import dk.netarkivet.common.distribute.TestRemoteFile;
 import dk.netarkivet.common.distribute.arcrepository.Replica;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.testutils.ClassAsserts;
+import dk.netarkivet.testutils.StringAsserts;
 import dk.netarkivet.testutils.preconfigured.MockupJMS;
 import dk.netarkivet.testutils.preconfigured.ReloadSettings;
 
@@ -145,4 +160,230 @@ public class BitarchiveMonitorTester {
         assertTrue("The map should have been cleaned.", bl.isEmpty());
         bamon.cleanup();
     }
+
+    /**
+     * Checks that the results from several bitarchives are concatenated in the order the bitarchives replied, and that
+     * the reply time of each bitarchive is recorded.
+     */
+    @Test
+    public void testResultsAreConcatenatedInReplyOrder() throws Exception {
+        File dir = new File(TestInfo.WORKING_DIR, "batchresults");
+        FileUtils.createDir(dir);
+        File first = new File(dir, "first");
+        FileUtils.writeBinaryFile(first, "a\nc\ne\n".getBytes());
+        File second = new File(dir, "second");
+        FileUtils.writeBinaryFile(second, "b\nd\n".getBytes());
+
+        BitarchiveMonitor bamon = BitarchiveMonitor.getInstance();
+        BatchEndedObserver observer = new BatchEndedObserver();
+        bamon.addObserver(observer);
+        try {
+            bamon.signOfLife("BA1");
+            bamon.signOfLife("BA2");
+            bamon.registerBatch("request", Channels.getError(), "batch", 60000L);
+            bamon.bitarchiveReply("batch", "BA2", 2, null, new TestRemoteFile(second, false, false, false), null,
+                    null);
+            bamon.bitarchiveReply("batch", "BA1", 3, null, new TestRemoteFile(first, false, false, false), null,
+                    null);
+
+            assertTrue("The batch job should end when both bitarchives have replied",
+                    observer.latch.await(10, TimeUnit.SECONDS));
+            assertTrue("No ended batch jobs should be left", bamon.waitForEndedBatches(1000L));
+            assertEquals("The results should be concatenated in reply order", "b\nd\na\nc\ne\n",
+                    FileUtils.readFile(observer.ended.batchResultFile));
+            assertEquals("The reply times should be recorded in the order of replies", Arrays.asList("BA2", "BA1"),
+                    new ArrayList<String>(observer.ended.getReplyTimes().keySet()));
+        } finally {
+            bamon.deleteObservers();
+            bamon.cleanup();
+            FileUtils.removeRecursively(dir);
+        }
+    }
+
+    /**
+     * Checks that sorted results from several bitarchives are merged into one sorted result.
+     */
+    @Test
+    public void testSortedResultsAreMerged() throws Exception {
+        File dir = new File(TestInfo.WORKING_DIR, "batchresults");
+        FileUtils.createDir(dir);
+        File first = new File(dir, "first");
+        FileUtils.writeBinaryFile(first, "a\nc\ne\n".getBytes());
+        File second = new File(dir, "second");
+        FileUtils.writeBinaryFile(second, "B\nb\nd\n".getBytes());
+
+        BitarchiveMonitor bamon = BitarchiveMonitor.getInstance();
+        BatchEndedObserver observer = new BatchEndedObserver();
+        bamon.addObserver(observer);
+        try {
+            bamon.signOfLife("BA1");
+            bamon.signOfLife("BA2");
+            bamon.registerBatch("request", Channels.getError(), "sortedbatch", 60000L, true, null);
+            bamon.bitarchiveReply("sortedbatch", "BA2", 2, null, new TestRemoteFile(second, false, false, false),
+                    null, null);
+            bamon.bitarchiveReply("sortedbatch", "BA1", 3, null, new TestRemoteFile(first, false, false, false),
+                    null, null);
+
+            assertTrue("The batch job should end when both bitarchives have replied",
+                    observer.latch.await(10, TimeUnit.SECONDS));
+            assertEquals("The results should be merged in the order of their bytes", "B\na\nb\nc\nd\ne\n",
+                    FileUtils.readFile(observer.ended.batchResultFile));
+        } finally {
+            bamon.deleteObservers();
+            bamon.cleanup();
+            FileUtils.removeRecursively(dir);
+        }
+    }
+
+    /**
+     * Checks that the result of each bitarchive is handed to the part listener before the batch job ends, and is not
+     * combined in the batch result file.
+     */
+    @Test
+    public void testResultPartsAreHandedToListener() throws Exception {
+        File dir = new File(TestInfo.WORKING_DIR, "batchresults");
+        FileUtils.createDir(dir);
+        File first = new File(dir, "first");
+        FileUtils.writeBinaryFile(first, "a\n".getBytes());
+        File second = new File(dir, "second");
+        FileUtils.writeBinaryFile(second, "b\n".getBytes());
+        final Map<String, String> parts = new ConcurrentHashMap<String, String>();
+        final List<Boolean> endedBeforePart = Collections.synchronizedList(new ArrayList<Boolean>());
+        final BatchEndedObserver observer = new BatchEndedObserver();
+        BitarchiveMonitor.ResultPartListener listener = new BitarchiveMonitor.ResultPartListener() {
+            @Override
+            public void resultPartFetched(BitarchiveMonitor.BatchJobStatus bjs, String bitarchiveID, File resultPart) {
+                endedBeforePart.add(observer.latch.getCount() == 0);
+                parts.put(bitarchiveID, new String(FileUtils.readBinaryFile(resultPart)));
+                FileUtils.remove(resultPart);
+            }
+        };
+
+        BitarchiveMonitor bamon = BitarchiveMonitor.getInstance();
+        bamon.addObserver(observer);
+        try {
+            bamon.signOfLife("BA1");
+            bamon.signOfLife("BA2");
+            bamon.registerBatch("request", Channels.getError(), "partbatch", 60000L, false, listener);
+            bamon.bitarchiveReply("partbatch", "BA1", 1, null, new TestRemoteFile(first, false, false, false), null,
+                    null);
+            bamon.bitarchiveReply("partbatch", "BA2", 1, null, new TestRemoteFile(second, false, false, false),
+                    null, null);
+
+            assertTrue("The batch job should end when both bitarchives have replied",
+                    observer.latch.await(10, TimeUnit.SECONDS));
+            assertEquals("Each result should be handed to the listener", "a\n", parts.get("BA1"));
+            assertEquals("Each result should be handed to the listener", "b\n", parts.get("BA2"));
+            assertEquals("The results should be handed on before the batch job ended", Arrays.asList(false, false),
+                    endedBeforePart);
+            assertTrue("The results should be reported as handed on", observer.ended.hasResultParts());
+            assertEquals("The results should not be combined", 0, observer.ended.batchResultFile.length());
+        } finally {
+            bamon.deleteObservers();
+            bamon.cleanup();
+            FileUtils.removeRecursively(dir);
+        }
+    }
+
+    /**
+     * Checks that a result that cannot be fetched within the timeout of the batch job is left out with an error,
+     * instead of holding up the reply to the batch job.
+     */
+    @Test
+    public void testResultFetchTimesOut() throws Exception {
+        File dir = new File(TestInfo.WORKING_DIR, "batchresults");
+        FileUtils.createDir(dir);
+        File result = new File(dir, "result");
+        FileUtils.writeBinaryFile(result, "a\n".getBytes());
+        final CountDownLatch release = new CountDownLatch(1);
+        RemoteFile blocking = new TestRemoteFile(result, false, false, false) {
+            @Override
+            public void copyTo(File destFile) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOFailure("Interrupted", e);
+                }
+                super.copyTo(destFile);
+            }
+        };
+
+        BitarchiveMonitor bamon = BitarchiveMonitor.getInstance();
+        BatchEndedObserver observer = new BatchEndedObserver();
+        bamon.addObserver(observer);
+        try {
+            bamon.signOfLife("BA1");
+            bamon.registerBatch("request", Channels.getError(), "blockedbatch", 200L);
+            bamon.bitarchiveReply("blockedbatch", "BA1", 1, null, blocking, null, null);
+
+            assertTrue("The batch job should end although its result is not fetched",
+                    observer.latch.await(10, TimeUnit.SECONDS));
+            StringAsserts.assertStringContains("The timeout should be reported", "Timed out",
+                    observer.ended.errorMessages);
+            assertEquals("The result should be left out", 0, observer.ended.batchResultFile.length());
+        } finally {
+            release.countDown();
+            bamon.deleteObservers();
+            bamon.cleanup();
+            FileUtils.removeRecursively(dir);
+        }
+    }
+
+    /**
+     * Checks that closing the monitor waits for ended batch jobs to be replied to.
+     */
+    @Test
+    public void testCleanupFinishesEndedBatches() throws Exception {
+        File dir = new File(TestInfo.WORKING_DIR, "batchresults");
+        FileUtils.createDir(dir);
+        File result = new File(dir, "result");
+        FileUtils.writeBinaryFile(result, "a\n".getBytes());
+        RemoteFile slow = new TestRemoteFile(result, false, false, false) {
+            @Override
+            public void copyTo(File destFile) {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    throw new IOFailure("Interrupted", e);
+                }
+                super.copyTo(destFile);
+            }
+        };
+
+        BitarchiveMonitor bamon = BitarchiveMonitor.getInstance();
+        BatchEndedObserver observer = new BatchEndedObserver();
+        bamon.addObserver(observer);
+        try {
+            bamon.signOfLife("BA1");
+            bamon.registerBatch("request", Channels.getError(), "slowbatch", 60000L);
+            bamon.bitarchiveReply("slowbatch", "BA1", 1, null, slow, null, null);
+        } finally {
+            bamon.cleanup();
+            bamon.deleteObservers();
+        }
+        try {
+            assertEquals("The observers should have been notified before cleanup returned", 0,
+                    observer.latch.getCount());
+            assertEquals("The result should be fetched", "a\n", FileUtils.readFile(observer.ended.batchResultFile));
+            assertTrue("No ended batch jobs should be left", bamon.waitForEndedBatches(0L));
+        } finally {
+            FileUtils.removeRecursively(dir);
+        }
+    }
+
+    /**
+     * Remembers the first batch job status the monitor notifies about.
+     */
+    private static class BatchEndedObserver implements Observer {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile BitarchiveMonitor.BatchJobStatus ended;
+
+        @Override
+        public void update(Observable o, Object arg) {
+            if (ended == null) {
+                ended = (BitarchiveMonitor.BatchJobStatus) arg;
+            }
+            latch.countDown();
+        }
+    }
 }
@@ -0,0 +1,109 @@
+/*
+ * #%L
+ * Netarchivesuite - archive - test
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.batch.ChecksumJob;
+
+/**
+ * Unit tests for the VerifiedChecksumStore.
+ */
+public class VerifiedChecksumStoreTester {
+
+    private static final File STORE_DIR = new File(TestInfo.WORKING_DIR, "verifiedchecksums");
+    private static final File RECORD_FILE = new File(STORE_DIR, VerifiedChecksumStore.RECORD_FILE_NAME);
+    private static final File ARCHIVE_FILE = new File(STORE_DIR, "test.arc");
+
+    private VerifiedChecksumStore store;
+
+    @Before
+    public void setUp() {
+        FileUtils.removeRecursively(STORE_DIR);
+        FileUtils.createDir(STORE_DIR);
+        FileUtils.writeBinaryFile(ARCHIVE_FILE, "some content".getBytes());
+        store = new VerifiedChecksumStore(RECORD_FILE);
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+        FileUtils.removeRecursively(STORE_DIR);
+    }
+
+    @Test
+    public void testVerifiedChecksumIsRecordedAndReloaded() throws Exception {
+        assertNull("Should have no record before verification", store.getValidRecord(ARCHIVE_FILE));
+        VerifiedChecksumStore.Record record = store.verify(ARCHIVE_FILE, 0);
+        assertEquals("Should record the MD5 of the file", ChecksumCalculator.calculateMd5(ARCHIVE_FILE),
+                record.getChecksum());
+
+        store.close();
+        store = new VerifiedChecksumStore(RECORD_FILE);
+        VerifiedChecksumStore.Record reloaded = store.getValidRecord(ARCHIVE_FILE);
+        assertNotNull("Should have the record after reopening", reloaded);
+        assertEquals("Should keep the verification time", record.getVerifiedTime(), reloaded.getVerifiedTime());
+    }
+
+    @Test
+    public void testChangedFileIsVerifiedAnew() throws Exception {
+        store.verify(ARCHIVE_FILE, 0);
+        FileUtils.writeBinaryFile(ARCHIVE_FILE, "some other, longer content".getBytes());
+        assertNull("Should not trust the record of a changed file", store.getValidRecord(ARCHIVE_FILE));
+        assertEquals("Should give the checksum of the changed file", ChecksumCalculator.calculateMd5(ARCHIVE_FILE),
+                store.getVerifiedChecksum(ARCHIVE_FILE).getKey());
+    }
+
+    @Test
+    public void testChecksumJobUsesVerifiedChecksumsOnlyWhenAccepted() throws Exception {
+        VerifiedChecksumStore.Record record = store.verify(ARCHIVE_FILE, 0);
+
+        ChecksumJob job = new ChecksumJob();
+        job.setVerifiedChecksumSource(store);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        job.processFile(ARCHIVE_FILE, os);
+        assertNull("Should calculate the checksum anew by default", ChecksumJob.parseVerifiedTime(os.toString()
+                .trim()));
+
+        job.setAcceptVerifiedChecksums(true);
+        os = new ByteArrayOutputStream();
+        job.processFile(ARCHIVE_FILE, os);
+        String line = os.toString().trim();
+        assertEquals("Should give the verified checksum", record.getChecksum(), ChecksumJob.parseLine(line)
+                .getValue());
+        assertEquals("Should give the verification time", Long.valueOf(record.getVerifiedTime()),
+                ChecksumJob.parseVerifiedTime(line));
+    }
+
+}
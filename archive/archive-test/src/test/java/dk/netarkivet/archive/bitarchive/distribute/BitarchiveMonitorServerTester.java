@@ -188,7 +188,7 @@ public class BitarchiveMonitorServerTester {
         synchronized (this) {
             wait(400);
         }
-        ((JMSConnectionMockupMQ) JMSConnectionFactory.getInstance()).waitForConcurrentTasksToFinish();
+        waitForBatchReplies();
 
         // check results
         assertEquals("Should list no failed jobs", null, brf.failed);
@@ -199,6 +199,17 @@ public class BitarchiveMonitorServerTester {
         assertBatchResultIs(client, 1, "job1", BlockingRF.STD_CONTENT);
     }
 
+    /**
+     * Wait for the messages sent to be delivered, for the monitor to combine the results of the batch jobs that have
+     * ended and reply to them, and for the replies to be delivered.
+     */
+    private void waitForBatchReplies() throws InterruptedException {
+        con.waitForConcurrentTasksToFinish();
+        assertTrue("The ended batch jobs should be replied to",
+                BitarchiveMonitor.getInstance().waitForEndedBatches(10000L));
+        con.waitForConcurrentTasksToFinish();
+    }
+
     /**
      * @return A batch message from THE_PRES with a job that does nothing.
      */
@@ -315,11 +326,7 @@ public class BitarchiveMonitorServerTester {
         NetarkivetMessage bem = new BatchEndedMessage(THE_BAMON, ba_App_Id, bitarchive.getLastMessage().getID(), null);
 
         con.send(bem);
-        con.waitForConcurrentTasksToFinish();
-
-        synchronized (this) {
-            wait(50);
-        }
+        waitForBatchReplies();
 
         if (arcrepos.getLastBatchReplyMessage() == null) {
             fail("BA Monitor never sent a BatchReplyMessage.");
@@ -817,11 +824,7 @@ public class BitarchiveMonitorServerTester {
         bam_server.visit(mbb.replyForLatestJob(RemoteFileFactory
                 .getMovefileInstance(TestInfo.BATCH_ONE_CHECKSUM_OUTPUT_FILE)));
 
-        synchronized (this) {
-            wait(200);
-        }
-
-        con.waitForConcurrentTasksToFinish();
+        waitForBatchReplies();
 
         assertEquals("The listener should have one message", 1, listener.getNumReceived());
         NetarkivetMessage msg = listener.getReceived();
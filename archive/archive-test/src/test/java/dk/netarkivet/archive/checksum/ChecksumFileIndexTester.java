@@ -0,0 +1,74 @@
+/*
+ * #%L
+ * Netarchivesuite - archive - test
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.checksum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the ChecksumFileIndex.
+ */
+public class ChecksumFileIndexTester {
+
+    @Test
+    public void testAddAndFindThroughGrowth() {
+        ChecksumFileIndex index = new ChecksumFileIndex();
+        int entries = 100000;
+        for (int i = 0; i < entries; i++) {
+            index.add(ChecksumFileIndex.hash("file" + i + ".arc"), i * 100L);
+        }
+        assertEquals("Should contain all added entries", entries, index.size());
+        for (int i = 0; i < entries; i++) {
+            long hash = ChecksumFileIndex.hash("file" + i + ".arc");
+            assertTrue("Should find the offset of entry " + i, index.contains(hash, i * 100L));
+            assertFalse("Should not find another offset for entry " + i, index.contains(hash, i * 100L + 1));
+        }
+    }
+
+    @Test
+    public void testSetOffsetAndCollidingHashes() {
+        ChecksumFileIndex index = new ChecksumFileIndex();
+        long hash = 42L;
+        index.add(hash, 0L);
+        index.add(hash, 10L);
+
+        long first = index.find(hash, index.startSlot(hash));
+        long second = index.find(hash, first + 1);
+        assertTrue("Should find both entries with the same hash", first >= 0 && second >= 0);
+        assertEquals("Should find no more entries with the hash", -1, index.find(hash, second + 1));
+
+        long oldOffset = index.getOffset(first);
+        index.setOffset(first, 20L);
+        assertTrue("Should find the changed offset", index.contains(hash, 20L));
+        assertFalse("Should no longer find the old offset", index.contains(hash, oldOffset));
+        assertEquals("Changing an offset should not add an entry", 2, index.size());
+
+        index.clear();
+        assertEquals("Should be empty after clear", 0, index.size());
+        assertEquals("Should find nothing after clear", -1, index.find(hash, index.startSlot(hash)));
+    }
+
+}
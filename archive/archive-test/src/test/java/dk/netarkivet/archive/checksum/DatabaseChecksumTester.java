@@ -22,13 +22,57 @@
  */
 package dk.netarkivet.archive.checksum;
 
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 
+import com.sleepycat.bind.EntryBinding;
+import com.sleepycat.bind.serial.SerialBinding;
+import com.sleepycat.bind.serial.StoredClassCatalog;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseEntry;
 import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+import com.sleepycat.je.Transaction;
+
+import dk.netarkivet.archive.ArchiveSettings;
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
 
 @SuppressWarnings({"unused"})
 public class DatabaseChecksumTester {
 
+    /** More entries than are migrated in one transaction. */
+    private static final int LEGACY_ENTRIES = 10005;
+
+    private final File baseDir = new File(TestInfo.WORKING_DIR, "database");
+
+    ReloadSettings rs = new ReloadSettings();
+
+    @Before
+    public void setUp() {
+        rs.setUp();
+        FileUtils.removeRecursively(baseDir);
+        Settings.set(ArchiveSettings.CHECKSUM_BASEDIR, baseDir.getAbsolutePath());
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(baseDir);
+        rs.tearDown();
+    }
+
     /**
      * @param args
      * @throws Exception
@@ -40,6 +84,115 @@ public class DatabaseChecksumTester {
     @Test
     public void testConstructor() throws DatabaseException {
         DatabaseChecksumArchive dca = new DatabaseChecksumArchive();
+        dca.cleanup();
+    }
+
+    /**
+     * Test that a database written by older versions, with filenames and checksums stored as serialized Strings, is
+     * migrated entry by entry when the archive is opened, and that the old database is removed so the migration is
+     * not repeated.
+     */
+    @Test
+    public void testMigrateLegacyDatabase() throws DatabaseException {
+        Map<String, String> checksums = new LinkedHashMap<String, String>();
+        for (int i = 0; i < LEGACY_ENTRIES; i++) {
+            checksums.put(i + "-1-20140101000000-00000-test.arc",
+                    ChecksumCalculator.calculateMd5(Integer.toString(i).getBytes()));
+        }
+        checksums.put("1-2-20140101-\u00e6\u00f8\u00e5.arc", "D41D8CD98F00B204E9800998ECF8427E");
+        checksums.put("not-an-md5.arc", "abc");
+        File homeDir = new File(baseDir, "DB");
+        writeLegacyDatabase(homeDir, checksums);
+
+        DatabaseChecksumArchive dca = new DatabaseChecksumArchive();
+        try {
+            for (Map.Entry<String, String> entry : checksums.entrySet()) {
+                assertEquals("Wrong checksum of '" + entry.getKey() + "' after migration", entry.getValue(),
+                        dca.getChecksum(entry.getKey()));
+            }
+            dca.put("0-1-20140101000000-00000-test.arc", "d41d8cd98f00b204e9800998ecf8427e");
+        } finally {
+            dca.cleanup();
+        }
+
+        Environment env = new Environment(homeDir, new EnvironmentConfig());
+        try {
+            assertEquals("Only the new database should be left after migration", Arrays.asList("CHECKSUMS"),
+                    env.getDatabaseNames());
+        } finally {
+            env.close();
+        }
+
+        dca = new DatabaseChecksumArchive();
+        try {
+            assertEquals("The migration should not be repeated, overwriting later changes",
+                    "d41d8cd98f00b204e9800998ecf8427e", dca.getChecksum("0-1-20140101000000-00000-test.arc"));
+            assertEquals("Migrated entries should survive reopening", checksums.get("not-an-md5.arc"),
+                    dca.getChecksum("not-an-md5.arc"));
+        } finally {
+            dca.cleanup();
+        }
+    }
+
+    /**
+     * Write a checksum database the way older versions did: a CHECKSUM database of serialized Strings, with the
+     * class catalog in a CLASS database.
+     *
+     * @param homeDir The directory of the database environment.
+     * @param checksums The checksums to write, by filename.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static void writeLegacyDatabase(File homeDir, Map<String, String> checksums) throws DatabaseException {
+        FileUtils.createDir(homeDir);
+        EnvironmentConfig envConfig = new EnvironmentConfig();
+        envConfig.setTransactional(true);
+        envConfig.setAllowCreate(true);
+        DatabaseConfig dbConfig = new DatabaseConfig();
+        dbConfig.setTransactional(true);
+        dbConfig.setAllowCreate(true);
+
+        Environment env = new Environment(homeDir, envConfig);
+        try {
+            Database checksumDB = env.openDatabase(null, "CHECKSUM", dbConfig);
+            Database classDB = env.openDatabase(null, "CLASS", dbConfig);
+            try {
+                EntryBinding binding = new SerialBinding(new StoredClassCatalog(classDB), String.class);
+                Transaction txn = env.beginTransaction(null, null);
+                for (Map.Entry<String, String> entry : checksums.entrySet()) {
+                    DatabaseEntry key = new DatabaseEntry();
+                    DatabaseEntry data = new DatabaseEntry();
+                    binding.objectToEntry(entry.getKey(), key);
+                    binding.objectToEntry(entry.getValue(), data);
+                    checksumDB.put(txn, key, data);
+                }
+                txn.commit();
+            } finally {
+                checksumDB.close();
+                classDB.close();
+            }
+        } finally {
+            env.close();
+        }
+    }
+
+    @Test
+    public void testChecksumEncoding() {
+        String md5 = "d41d8cd98f00b204e9800998ecf8427e";
+        DatabaseEntry entry = DatabaseChecksumArchive.encodeChecksum(md5);
+        assertEquals("MD5 checksums should be stored as a tag byte and the digest", 17, entry.getSize());
+        assertEquals(md5, DatabaseChecksumArchive.decodeChecksum(entry));
+
+        for (String checksum : new String[] {"D41D8CD98F00B204E9800998ECF8427E", "abc", "fifteen chars!!", ""}) {
+            assertEquals("Other checksums should be kept as they are", checksum,
+                    DatabaseChecksumArchive.decodeChecksum(DatabaseChecksumArchive.encodeChecksum(checksum)));
+        }
+    }
+
+    @Test
+    public void testFilenameEncoding() {
+        String filename = "1-2-20140101-\u00e6\u00f8\u00e5.arc";
+        assertEquals(filename, DatabaseChecksumArchive.decodeFilename(DatabaseChecksumArchive
+                .encodeFilename(filename)));
     }
 
 }
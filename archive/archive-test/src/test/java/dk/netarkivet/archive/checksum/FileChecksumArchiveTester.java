@@ -30,6 +30,8 @@ import static org.junit.Assert.fail;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -199,6 +201,122 @@ public class FileChecksumArchiveTester {
                 wrongEntryContent.contains("TEST2.arc" + "##" + TestInfo.TEST2_CHECKSUM));
     }
 
+    /**
+     * Lines appended to the checksum file by others are indexed when the archive is next used, and an incomplete last
+     * line is left until it has been completed.
+     *
+     * @throws IOException If the checksum file cannot be written.
+     */
+    @Test
+    public void testReadsAppendedEntries() throws IOException {
+        fca.upload("checksum1", "TEST1.arc");
+        appendToChecksumFile("TEST2.arc##checksum2\nTEST1.arc##checksum3\nTEST3.arc##check");
+
+        assertEquals("An appended entry should be found", "checksum2", fca.getChecksum("TEST2.arc"));
+        assertEquals("An appended entry should supersede the earlier one", "checksum3", fca.getChecksum("TEST1.arc"));
+        assertFalse("An incomplete line should not be indexed", fca.hasEntry("TEST3.arc"));
+
+        appendToChecksumFile("sum4\n");
+        assertEquals("The completed line should be indexed", "checksum4", fca.getChecksum("TEST3.arc"));
+        assertEquals("The archive should hold one entry per file", 3,
+                FileUtils.readListFromFile(fca.getAllFilenames()).size());
+    }
+
+    /**
+     * Correcting an existing entry supersedes it, moves the old entry to the wrong entry file, and the old entry is
+     * removed from the checksum file when the archive is opened again.
+     *
+     * @throws IOException If a file cannot be read.
+     */
+    @Test
+    public void testCorrectExistingEntry() throws IOException {
+        fca.upload("checksum1", "TEST1.arc");
+        fca.upload("checksum2", "TEST2.arc");
+
+        File removed = fca.correct("TEST1.arc", TestInfo.UPLOAD_FILE_1);
+        assertEquals("The removed entry should be returned", "TEST1.arc##checksum1", FileUtils.readFile(removed).trim());
+        assertEquals("The entry should have the new checksum", TestInfo.TEST1_CHECKSUM, fca.getChecksum("TEST1.arc"));
+        assertEquals("Other entries should be unchanged", "checksum2", fca.getChecksum("TEST2.arc"));
+        assertTrue("The old entry should be in the wrong entry file",
+                FileUtils.readFile(new File(fca.getWrongEntryFilename())).contains("TEST1.arc##checksum1"));
+        assertEquals("The archive should hold one entry per file", 2,
+                FileUtils.readListFromFile(fca.getArchiveAsFile()).size());
+
+        fca.cleanup();
+        fca = FileChecksumArchive.getInstance();
+        List<String> lines = FileUtils.readListFromFile(new File(fca.getFileName()));
+        assertEquals("The superseded line should be removed on restart", 2, lines.size());
+        assertTrue("The corrected entry should be kept", lines.contains("TEST1.arc##" + TestInfo.TEST1_CHECKSUM));
+        assertEquals("The corrected entry should be found", TestInfo.TEST1_CHECKSUM, fca.getChecksum("TEST1.arc"));
+    }
+
+    /**
+     * The checksum file is rewritten while in use, when the superseded lines make up most of it.
+     *
+     * @throws IOException If the checksum file cannot be written.
+     */
+    @Test
+    public void testCompaction() throws IOException {
+        fca.upload("checksum1", "TEST1.arc");
+        fca.upload("checksum2", "TEST2.arc");
+        StringBuilder superseded = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            superseded.append("TEST1.arc##old").append(i).append('\n');
+        }
+        appendToChecksumFile(superseded.toString());
+
+        fca.correct("TEST1.arc", TestInfo.UPLOAD_FILE_1);
+        List<String> lines = FileUtils.readListFromFile(new File(fca.getFileName()));
+        assertEquals("The checksum file should only hold the current entries", 2, lines.size());
+        assertTrue(lines.contains("TEST1.arc##" + TestInfo.TEST1_CHECKSUM));
+        assertTrue(lines.contains("TEST2.arc##checksum2"));
+
+        fca.upload("checksum3", "TEST3.arc");
+        appendToChecksumFile("TEST4.arc##checksum4\n");
+        assertEquals(TestInfo.TEST1_CHECKSUM, fca.getChecksum("TEST1.arc"));
+        assertEquals("checksum2", fca.getChecksum("TEST2.arc"));
+        assertEquals("checksum3", fca.getChecksum("TEST3.arc"));
+        assertEquals("checksum4", fca.getChecksum("TEST4.arc"));
+    }
+
+    /**
+     * A checksum file moved on top of the one in use is opened and indexed anew, also when it has the same length.
+     *
+     * @throws IOException If the checksum file cannot be written.
+     */
+    @Test
+    public void testReplacedChecksumFile() throws IOException {
+        fca.upload("checksum1", "TEST1.arc");
+        assertTrue(fca.hasEntry("TEST1.arc"));
+
+        File replacement = new File(TestInfo.WORKING_DIR, "replacement.md5");
+        FileUtils.writeBinaryFile(replacement, "TEST2.arc##checksum2\n".getBytes());
+        Files.move(replacement.toPath(), new File(fca.getFileName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        assertFalse("The entry of the old file should be gone", fca.hasEntry("TEST1.arc"));
+        assertEquals("The entry of the new file should be found", "checksum2", fca.getChecksum("TEST2.arc"));
+
+        fca.upload("checksum3", "TEST3.arc");
+        List<String> lines = FileUtils.readListFromFile(new File(fca.getFileName()));
+        assertEquals("New entries should be appended to the new file", 2, lines.size());
+        assertEquals("checksum3", fca.getChecksum("TEST3.arc"));
+    }
+
+    /**
+     * Append text to the checksum file, as another process would.
+     *
+     * @param text The text to append.
+     * @throws IOException If the file cannot be written.
+     */
+    private void appendToChecksumFile(String text) throws IOException {
+        FileWriter fw = new FileWriter(fca.getFileName(), true);
+        try {
+            fw.write(text);
+        } finally {
+            fw.close();
+        }
+    }
+
     /**
      * Checks how the archive handles it, when there is an admin.data file.
      *
@@ -37,6 +37,7 @@ import dk.netarkivet.archive.arcrepository.bitpreservation.AdminDataMessage;
 import dk.netarkivet.archive.arcrepository.distribute.StoreMessage;
 import dk.netarkivet.archive.bitarchive.distribute.BatchEndedMessage;
 import dk.netarkivet.archive.bitarchive.distribute.BatchMessage;
+import dk.netarkivet.archive.bitarchive.distribute.BatchPartMessage;
 import dk.netarkivet.archive.bitarchive.distribute.BatchReplyMessage;
 import dk.netarkivet.archive.bitarchive.distribute.GetFileMessage;
 import dk.netarkivet.archive.bitarchive.distribute.GetMessage;
@@ -119,6 +120,24 @@ public class ArchiveMessageHandlerTester {
         }
     }
 
+    /*
+     * Class under test for void visit(BatchPartMessage)
+     */
+    @Test
+    public final void testVisitBatchPartMessage() throws IOException {
+        File fil = new File(FileUtils.getTempDir(), "X");
+        String f = fil.getAbsolutePath();
+        try {
+            fil.createNewFile();
+            tmh.visit(new BatchPartMessage(Channels.getTheRepos(), Channels.getTheBamon(), "x", "y",
+                    RemoteFileFactory.getInstance(fil, true, false, true)));
+            fail("Should have thrown a permission denied for " + f);
+        } catch (PermissionDenied e) {
+            // Expected
+            FileUtils.remove(fil);
+        }
+    }
+
     /*
      * Class under test for void visit(BatchReplyMessage)
      */
@@ -63,7 +63,8 @@ public class CommonSettings {
     /**
      * <b>settings.common.remoteFile.class</b>: <br>
      * The class to use for RemoteFile objects (for transferring files around). This class must implement the
-     * dk.netarkivet.common.distribute.RemoteFile interface.
+     * dk.netarkivet.common.distribute.RemoteFile interface. With dk.netarkivet.common.distribute.HTTPRecordRemoteFile,
+     * large records fetched from a bitarchive are streamed from the archive file instead of being copied first.
      */
     public static String REMOTE_FILE_CLASS = "settings.common.remoteFile.class";
 
@@ -151,6 +152,13 @@ public class CommonSettings {
      */
     public static String CACHE_DIR = "settings.common.cacheDir";
 
+    /**
+     * <b>settings.common.cdxLookup.blockCacheSize</b>: <br>
+     * The number of megabytes of sorted CDX files kept in memory for lookups with
+     * dk.netarkivet.common.utils.cdx.BinSearch. The cache is shared by all the files looked up in, and 0 disables it.
+     */
+    public static String CDX_LOOKUP_BLOCK_CACHE_SIZE = "settings.common.cdxLookup.blockCacheSize";
+
     // TODO Currently only used by heritrix shutdown - move to harvester
     // settings?
     /**
@@ -0,0 +1,320 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLConnection;
+
+import org.archive.io.ArchiveReader;
+import org.archive.io.ArchiveReaderFactory;
+import org.archive.io.ArchiveRecord;
+import org.archive.io.arc.ARCRecord;
+import org.archive.io.warc.WARCRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.SystemUtils;
+
+/**
+ * A remote file for a record in an ARC or WARC file, served with point-to-point HTTP communication like
+ * {@link HTTPRemoteFile}. The record is not copied when the remote file is made: it is read from the archive file at
+ * its offset when the remote file is read, and streamed to the recipient, so the recipient can start reading at once
+ * and neither end holds more than a buffer of the record. If the archive file is on the same host, it is read directly.
+ * <p>
+ * The remote file is made by the factory method {@link #getInstance(ArchiveRecord)}, which is used for records when
+ * this class is the remote file class in the settings. Other files are delegated to {@link HTTPRemoteFile}.
+ * <p>
+ * The remote file may be read once, after which it is cleaned up. The archive file is never deleted.
+ */
+@SuppressWarnings({"serial"})
+public class HTTPRecordRemoteFile extends AbstractRemoteFile {
+
+    /** The logger for this class. */
+    private static final transient Logger log = LoggerFactory.getLogger(HTTPRecordRemoteFile.class);
+
+    /** The name of the host this record originated on. */
+    protected final String hostname;
+    /** The url that exposes this record. */
+    protected final URL url;
+    /** The offset of the record in the archive file. */
+    private final long offset;
+    /** The length of the payload of the record. */
+    private final long length;
+
+    /**
+     * Initialises a remote file for a record.
+     *
+     * @param file The ARC or WARC file containing the record.
+     * @param offset The offset of the record in the file.
+     * @param length The length of the payload of the record.
+     * @throws ArgumentNotValid if file is null, or not a readable file.
+     */
+    protected HTTPRecordRemoteFile(File file, long offset, long length) {
+        super(file, false, false, false);
+        this.hostname = SystemUtils.getLocalHostName();
+        this.offset = offset;
+        this.length = length;
+        this.url = length > 0 ? getRegistry().registerRecord(file, offset) : null;
+    }
+
+    /**
+     * Create a remote file for an ARC or WARC record. Unfortunately the reflection we use to find the factory method
+     * cannot find this method directly because the runtime-class of the parameter is not ArchiveRecord. Therefore we
+     * also define the two specific overloaded factory methods for ARCRecords and WARCRecord.
+     * <p>
+     * If the archive file of the record cannot be found, the record is copied to a temporary file, which is served by
+     * {@link HTTPRemoteFile}.
+     *
+     * @param record The record. It is not read or closed.
+     * @return The remote file.
+     * @throws ArgumentNotValid if the record is null or neither an ARC nor a WARC record.
+     * @throws IOFailure if the record has to be copied, and it cannot be.
+     */
+    public static RemoteFile getInstance(ArchiveRecord record) {
+        ArgumentNotValid.checkNotNull(record, "ArchiveRecord record");
+        long length;
+        if (record instanceof ARCRecord) {
+            length = record.getHeader().getLength();
+        } else if (record instanceof WARCRecord) {
+            length = record.getHeader().getLength() - record.getHeader().getContentBegin();
+        } else {
+            throw new ArgumentNotValid("Unknown type of ArchiveRecord: " + record.getClass());
+        }
+        File file = new File(record.getHeader().getReaderIdentifier());
+        if (file.isFile() && file.canRead()) {
+            return new HTTPRecordRemoteFile(file, record.getHeader().getOffset(), length);
+        }
+        log.debug("The archive file '{}' is not readable, copying the record to a temporary file", file);
+        File tmpFile = null;
+        try {
+            tmpFile = File.createTempFile("HTTPRecordRemoteFile-" + file.getName(), ".tmp", FileUtils.getTempDir());
+            OutputStream out = new FileOutputStream(tmpFile);
+            try {
+                record.dump(out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            if (tmpFile != null) {
+                FileUtils.remove(tmpFile);
+            }
+            throw new IOFailure("Unable to copy the record at " + record.getHeader().getOffset() + " in '" + file
+                    + "' to a temporary file", e);
+        }
+        return HTTPRemoteFile.getInstance(tmpFile, false, true, false);
+    }
+
+    /**
+     * Create a remote file for an ARC record.
+     *
+     * @param record The record.
+     * @return The remote file.
+     * @see #getInstance(ArchiveRecord)
+     */
+    public static RemoteFile getInstance(ARCRecord record) {
+        return getInstance((ArchiveRecord) record);
+    }
+
+    /**
+     * Create a remote file for a WARC record.
+     *
+     * @param record The record.
+     * @return The remote file.
+     * @see #getInstance(ArchiveRecord)
+     */
+    public static RemoteFile getInstance(WARCRecord record) {
+        return getInstance((ArchiveRecord) record);
+    }
+
+    /**
+     * Create a remote file for a file, by {@link HTTPRemoteFile#getInstance(File, Boolean, Boolean, Boolean)}.
+     *
+     * @param f The file to make a remote file for
+     * @param useChecksums Whether communications are checksummed.
+     * @param fileDeletable if true, the file given to this method is deletable, once it is transferred.
+     * @param multipleDownloads if true, the file may be transferred more than once.
+     * @return The remote file.
+     */
+    public static RemoteFile getInstance(File f, Boolean useChecksums, Boolean fileDeletable, Boolean multipleDownloads) {
+        return HTTPRemoteFile.getInstance(f, useChecksums, fileDeletable, multipleDownloads);
+    }
+
+    /**
+     * Open a stream of the payload of a record in an ARC or WARC file.
+     *
+     * @param file The file.
+     * @param offset The offset of the record in the file.
+     * @return A stream of the payload of the record. Closing it closes the file.
+     * @throws IOException If the file cannot be read.
+     */
+    static InputStream openRecord(File file, long offset) throws IOException {
+        final ArchiveReader reader = ArchiveReaderFactory.get(file, offset);
+        try {
+            final ArchiveRecord record = reader.get();
+            return new FilterInputStream(record) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        record.close();
+                    } finally {
+                        reader.close();
+                    }
+                }
+            };
+        } catch (IOException e) {
+            reader.close();
+            throw e;
+        } catch (RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the webserver registry for this class of files.
+     *
+     * @return The registry.
+     */
+    protected HTTPRemoteFileRegistry getRegistry() {
+        return HTTPRemoteFileRegistry.getInstance();
+    }
+
+    /**
+     * Get an input stream of the payload of the record. If the archive file is on the current machine, the record is
+     * read from it directly. Otherwise, it is transferred over http. The close method of the input stream will cleanup
+     * this remote file.
+     *
+     * @return An input stream of the payload of the record.
+     * @throws IOFailure on I/O trouble reading the record.
+     */
+    @Override
+    public InputStream getInputStream() {
+        if (length == 0) {
+            return new ByteArrayInputStream(new byte[] {});
+        }
+        InputStream in;
+        try {
+            if (isLocal()) {
+                in = openRecord(file, offset);
+            } else {
+                URLConnection urlConnection = getRegistry().openConnection(url);
+                urlConnection.setUseCaches(false);
+                in = urlConnection.getInputStream();
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Unable to get inputstream for the record at " + offset + " in '" + file + "' from '"
+                    + url + "'", e);
+        }
+        return new FilterInputStream(in) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    cleanup();
+                }
+            }
+        };
+    }
+
+    /**
+     * Make the record unavailable, by asking the remote registry to remove the url for it. This method does not throw
+     * exceptions, but will warn on errors.
+     */
+    @Override
+    public void cleanup() {
+        if (length == 0) {
+            return;
+        }
+        try {
+            URLConnection urlConnection = getRegistry().openConnection(getRegistry().getCleanupUrl(url));
+            urlConnection.setUseCaches(false);
+            urlConnection.connect();
+            urlConnection.getInputStream().close();
+        } catch (IOException e) {
+            log.warn("Unable to cleanup the record at {} in '{}' with URL '{}'", offset, file.getAbsolutePath(), url,
+                    e);
+        }
+    }
+
+    /**
+     * Checksums are not calculated for records.
+     *
+     * @return null.
+     */
+    @Override
+    public String getChecksum() {
+        return null;
+    }
+
+    /**
+     * Retrieval of the number of retries for retrieving a record. A record is only transferred once.
+     *
+     * @return 1.
+     */
+    @Override
+    public int getNumberOfRetries() {
+        return 1;
+    }
+
+    /**
+     * @return The length of the payload of the record.
+     */
+    @Override
+    public long getSize() {
+        return length;
+    }
+
+    /**
+     * @return The name of the archive file and the offset of the record.
+     */
+    @Override
+    public String getName() {
+        return file.getName() + "_" + offset;
+    }
+
+    /**
+     * Helper method to determine if the archive file is on the local machine.
+     *
+     * @return true if the archive file is on the local machine, false otherwise.
+     */
+    protected boolean isLocal() {
+        return SystemUtils.getLocalHostName().equals(hostname) && file.isFile() && file.canRead();
+    }
+
+    @Override
+    public String toString() {
+        return "Record=" + file.getName() + ":" + offset + ", length=" + length;
+    }
+
+}
@@ -24,6 +24,8 @@ package dk.netarkivet.common.distribute;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
@@ -36,6 +38,7 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.io.IOUtils;
 import org.mortbay.jetty.Request;
 import org.mortbay.jetty.Server;
 
@@ -161,6 +164,37 @@ public class HTTPRemoteFileRegistry implements CleanupIF {
         if (!file.isFile() && file.canRead()) {
             throw new ArgumentNotValid("File '" + file + "' is not a readable file");
         }
+        return register(new FileInfo(file, deletable, -1));
+    }
+
+    /**
+     * Register a record in an ARC or WARC file for serving to an endpoint. The record is read from the file when it is
+     * served, and the file is never deleted.
+     *
+     * @param file The ARC or WARC file.
+     * @param offset The offset of the record in the file.
+     * @return The URL it will be served as. It will be uniquely generated.
+     * @throws ArgumentNotValid on null or unreadable file, or negative offset.
+     * @throws IOFailure on any trouble registerring the record
+     */
+    public URL registerRecord(File file, long offset) {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        ArgumentNotValid.checkNotNegative(offset, "long offset");
+        if (!file.isFile() || !file.canRead()) {
+            throw new ArgumentNotValid("File '" + file + "' is not a readable file");
+        }
+        return register(new FileInfo(file, false, offset));
+    }
+
+    /**
+     * Register a file or record under a new URL.
+     *
+     * @param fileInfo The file or record.
+     * @return The URL it will be served as.
+     * @throws IOFailure on any trouble creating the URL
+     */
+    private URL register(FileInfo fileInfo) {
+        File file = fileInfo.file;
         String path;
         URL url;
         // ensure we get a random and unique URL.
@@ -173,8 +207,8 @@ public class HTTPRemoteFileRegistry implements CleanupIF {
                         + localHostName + "', '" + port + "', '" + path + "''", e);
             }
         } while (registeredFiles.containsKey(url));
-        registeredFiles.put(url, new FileInfo(file, deletable));
-        log.debug("Registered file '{}' with URL '{}'", file.getPath(), url);
+        registeredFiles.put(url, fileInfo);
+        log.debug("Registered {} with URL '{}'", fileInfo, url);
         return url;
     }
 
@@ -206,16 +240,45 @@ public class HTTPRemoteFileRegistry implements CleanupIF {
         final File file;
         /** Whether it should be deleted on cleanup. */
         final boolean deletable;
+        /** The offset of the record to serve from the file, or -1 to serve the whole file. */
+        final long recordOffset;
 
         /**
          * Initialise pair.
          *
          * @param file The file.
          * @param deletable Whether it should be deleted on cleanup.
+         * @param recordOffset The offset of the record to serve from the file, or -1 to serve the whole file.
          */
-        FileInfo(File file, boolean deletable) {
+        FileInfo(File file, boolean deletable, long recordOffset) {
             this.file = file;
             this.deletable = deletable;
+            this.recordOffset = recordOffset;
+        }
+
+        /**
+         * Write the file or record to a stream.
+         *
+         * @param out The stream.
+         * @throws IOException If the file cannot be read or the stream cannot be written.
+         */
+        void writeTo(OutputStream out) throws IOException {
+            if (recordOffset < 0) {
+                FileUtils.writeFileToStream(file, out);
+            } else {
+                InputStream in = HTTPRecordRemoteFile.openRecord(file, recordOffset);
+                try {
+                    IOUtils.copyLarge(in, out);
+                } finally {
+                    IOUtils.closeQuietly(in);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return recordOffset < 0 ? "file '" + file.getPath() + "'" : "record '" + file.getPath() + ":"
+                    + recordOffset + "'";
         }
     }
 
@@ -276,9 +339,9 @@ public class HTTPRemoteFileRegistry implements CleanupIF {
                 FileInfo fileInfo = registeredFiles.get(url);
                 if (fileInfo != null) {
                     httpServletResponse.setStatus(200);
-                    FileUtils.writeFileToStream(fileInfo.file, httpServletResponse.getOutputStream());
+                    fileInfo.writeTo(httpServletResponse.getOutputStream());
                     request.setHandled(true);
-                    log.debug("Served file '{}' with URL '{}'", fileInfo.file.getPath(), url);
+                    log.debug("Served {} with URL '{}'", fileInfo, url);
                 } else {
                     httpServletResponse.sendError(404);
                     log.debug("File not found for URL '{}'", url);
@@ -62,7 +62,16 @@ public class Synchronizer implements MessageListener {
      */
     public void onMessage(Message msg) {
         ArgumentNotValid.checkNotNull(msg, "msg");
-        NetarkivetMessage naMsg = JMSConnection.unpack(msg);
+        handleReply(JMSConnection.unpack(msg));
+    }
+
+    /**
+     * Hands a received reply to the blocked call in sendAndWaitForOneReply(), which sent the message it is a reply of.
+     * Subclasses may override this to handle other replies.
+     *
+     * @param naMsg The received reply.
+     */
+    protected void handleReply(NetarkivetMessage naMsg) {
         NetarkivetMessage requestMsg;
         synchronized (requests) {
             requestMsg = requests.get(naMsg.getReplyOfId());
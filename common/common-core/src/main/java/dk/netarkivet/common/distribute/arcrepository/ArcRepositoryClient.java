@@ -83,6 +83,20 @@ public interface ArcRepositoryClient extends HarvesterArcRepositoryClient, Viewe
      */
     BatchStatus batch(FileBatchJob job, String replicaId, String... args);
 
+    /**
+     * Runs a batch job on each file in the ArcRepository, handing the result of each bitarchive over as soon as that
+     * bitarchive has finished, rather than one combined result when the last one has. The results are not post
+     * processed.
+     *
+     * @param job The batch job. Its postProcess() method is not called.
+     * @param replicaId The archive to execute the job on.
+     * @param partHandler The handler of the results of the bitarchives.
+     * @param args The arguments for the batchjob.
+     * @return The status of the batch job after it ended. It has no result file, as the results have been given to the
+     * partHandler.
+     */
+    BatchStatus batch(FileBatchJob job, String replicaId, BatchResultPartHandler partHandler, String... args);
+
     /**
      * Updates the administrative data in the ArcRepository for a given file and replica.
      *
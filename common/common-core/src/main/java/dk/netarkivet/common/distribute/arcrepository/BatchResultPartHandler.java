@@ -0,0 +1,43 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute.arcrepository;
+
+import dk.netarkivet.common.distribute.RemoteFile;
+
+/**
+ * Receives the results of a batch job one part at a time, as the bitarchives running the job finish. It is given to
+ * the batch method of {@link ViewerArcRepositoryClient} that takes a BatchResultPartHandler.
+ */
+public interface BatchResultPartHandler {
+
+    /**
+     * Handle the result of a batch job from one bitarchive. This is called while the other bitarchives are still
+     * running the job, in the thread that started the batch job. The result is cleaned up after this method returns.
+     *
+     * @param bitarchiveID The ID of the bitarchive the result comes from.
+     * @param resultPart The result of the batch job on that bitarchive. If the job has sorted output, then each part is
+     * sorted.
+     */
+    void handleResultPart(String bitarchiveID, RemoteFile resultPart);
+
+}
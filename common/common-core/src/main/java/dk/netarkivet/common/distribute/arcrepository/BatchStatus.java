@@ -25,7 +25,10 @@ package dk.netarkivet.common.distribute.arcrepository;
 import java.io.File;
 import java.io.OutputStream;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import dk.netarkivet.common.distribute.RemoteFile;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
@@ -50,6 +53,9 @@ public class BatchStatus {
     /** A list of exceptions caught during the execution of the batchJob. */
     private final List<ExceptionOccurrence> exceptions;
 
+    /** The time in milliseconds from the batch job was sent until each bitarchive replied, in the order of replies. */
+    private Map<String, Long> replyTimes = Collections.emptyMap();
+
     /**
      * Create a new BatchStatus object for a specific bitarchive.
      *
@@ -127,6 +133,28 @@ public class BatchStatus {
         return exceptions;
     }
 
+    /**
+     * Get the time each bitarchive took to reply to the batch job. This is only known for batch jobs run on a
+     * distributed replica; otherwise the map is empty.
+     *
+     * @return Map from the application ID of each bitarchive that replied to the time in milliseconds from the batch
+     * job was sent until the bitarchive replied, in the order the bitarchives replied.
+     */
+    public Map<String, Long> getReplyTimes() {
+        return replyTimes;
+    }
+
+    /**
+     * Set the time each bitarchive took to reply to the batch job.
+     *
+     * @param replyTimes Map from the application ID of each bitarchive that replied to its reply time in milliseconds.
+     * @throws ArgumentNotValid If replyTimes is null.
+     */
+    public void setReplyTimes(Map<String, Long> replyTimes) {
+        ArgumentNotValid.checkNotNull(replyTimes, "Map<String, Long> replyTimes");
+        this.replyTimes = Collections.unmodifiableMap(new LinkedHashMap<String, Long>(replyTimes));
+    }
+
     /**
      * Copy the results of a batch job into a local file. This deletes the file from the remote server as appropriate.
      * Note that this method or appendResults can only be called once on a given object. If hasResultFile() returns
@@ -174,6 +202,27 @@ public class BatchStatus {
         }
     }
 
+    /**
+     * Hand the result file over to a handler of batch results as a single part, and clean it up afterwards. This is
+     * used by clients which cannot hand over the results of the bitarchives one at a time. Does nothing if there is no
+     * result file.
+     *
+     * @param partHandler The handler of the result.
+     * @throws ArgumentNotValid If partHandler is null.
+     */
+    public void handOverResult(BatchResultPartHandler partHandler) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNull(partHandler, "BatchResultPartHandler partHandler");
+        if (resultFile != null) {
+            RemoteFile tmpResultFile = resultFile;
+            resultFile = null;
+            try {
+                partHandler.handleResultPart(bitArchiveAppId, tmpResultFile);
+            } finally {
+                tmpResultFile.cleanup();
+            }
+        }
+    }
+
     /**
      * Returns true if this object has a result file. There is no result file if no bitarchives succeeded in processing
      * any files, or if the result file sent has already been deleted (e.g., by calling copyResults or appendResults).
@@ -89,7 +89,10 @@ public class BitarchiveRecord implements Serializable {
      * record metadata is not included with the BitarchiveRecord, only the payload of the record.
      * <p>
      * If the length of the record is higher than Settings .BITARCHIVE_LIMIT_FOR_RECORD_DATATRANSFER_IN_FILE the data is
-     * stored in a RemoteFile, otherwise the data is stored in a byte array.
+     * stored in a RemoteFile, otherwise the data is stored in a byte array. If the RemoteFile class can be made from an
+     * ArchiveRecord, the RemoteFile is made from the record without a local copy; with
+     * {@link dk.netarkivet.common.distribute.HTTPRecordRemoteFile} the data is only read from the archive file when the
+     * RemoteFile is read.
      *
      * @param record the ArchiveRecord that the data should come from. We do not close the ArchiveRecord.
      * @param filename The filename of the ArchiveFile
@@ -120,7 +123,12 @@ public class BitarchiveRecord implements Serializable {
                 File localTmpFile = null;
                 try {
                     localTmpFile = File.createTempFile("BitarchiveRecord-" + fileName, ".tmp", FileUtils.getTempDir());
-                    record.dump(new FileOutputStream(localTmpFile));
+                    OutputStream out = new FileOutputStream(localTmpFile);
+                    try {
+                        record.dump(out);
+                    } finally {
+                        out.close();
+                    }
                     objectAsRemoteFile = RemoteFileFactory.getMovefileInstance(localTmpFile);
                     isStoredAsRemoteFile = true;
                 } catch (IOException e) {
@@ -30,8 +30,8 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
-import java.util.regex.Pattern;
 
 import org.archive.io.ArchiveReader;
 import org.archive.io.ArchiveReaderFactory;
@@ -211,9 +211,7 @@ public class LocalArcRepositoryClient implements ArcRepositoryClient {
             List<File> files = new ArrayList<File>();
             final FilenameFilter filenameFilter = new FilenameFilter() {
                 public boolean accept(File dir, String name) {
-                    Pattern filenamePattern = job.getFilenamePattern();
-                    return new File(dir, name).isFile()
-                            && (filenamePattern == null || filenamePattern.matcher(name).matches());
+                    return new File(dir, name).isFile() && job.matchesFilename(name);
                 }
             };
             for (File dir : storageDirs) {
@@ -235,10 +233,38 @@ public class LocalArcRepositoryClient implements ArcRepositoryClient {
                 }
             }
         }
+        if (job.hasSortedOutput()) {
+            File sortedFile = new File(resultFile.getPath() + ".sorted");
+            FileUtils.sortFile(resultFile, sortedFile);
+            FileUtils.remove(resultFile);
+            resultFile = sortedFile;
+        }
         return new BatchStatus(replicaId, job.getFilesFailed(), job.getNoOfFilesProcessed(), new FileRemoteFile(
                 resultFile), job.getExceptions());
     }
 
+    /**
+     * Runs a batch job on each file in the ArcRepository. As all the files are processed here, the result is handed
+     * over as one part when the job has ended.
+     *
+     * @param job The batch job.
+     * @param replicaId The archive to execute the job on.
+     * @param partHandler The handler of the result.
+     * @param args The arguments for the batchjob. This can be null.
+     * @return The status of the batch job after it ended, without a result file.
+     * @throws ArgumentNotValid If the job or the partHandler is null, or the replicaId is either null or the empty
+     * string.
+     * @throws IOFailure If a problem occurs during processing the batchjob.
+     */
+    @Override
+    public BatchStatus batch(FileBatchJob job, String replicaId, BatchResultPartHandler partHandler, String... args)
+            throws ArgumentNotValid, IOFailure {
+        ArgumentNotValid.checkNotNull(partHandler, "BatchResultPartHandler partHandler");
+        BatchStatus status = batch(job, replicaId, args);
+        status.handOverResult(partHandler);
+        return status;
+    }
+
     /**
      * Updates the administrative data in the ArcRepository for a given file and replica. This implementation does
      * nothing.
@@ -353,6 +379,38 @@ public class LocalArcRepositoryClient implements ArcRepositoryClient {
         }
     }
 
+    /**
+     * Method for retrieving the checksums of the given files of the replica.
+     *
+     * @param replicaId Inherited dummy argument.
+     * @param filenames The names of the files to calculate checksums for.
+     * @return A file containing the names and checksum of the given files found in the system.
+     * @throws ArgumentNotValid If the replicaId is either null or the empty string, or the filenames are null.
+     * @throws IOFailure If an unexpected IOException is caught.
+     */
+    @Override
+    public File getChecksums(String replicaId, Collection<String> filenames) throws IOFailure, ArgumentNotValid {
+        ArgumentNotValid.checkNotNullOrEmpty(replicaId, "String replicaId");
+        ArgumentNotValid.checkNotNull(filenames, "Collection<String> filenames");
+
+        try {
+            List<String> checksums = new ArrayList<String>();
+            for (String filename : filenames) {
+                File entry = findFile(filename);
+                if (entry != null) {
+                    checksums.add(ChecksumJob.makeLine(filename, ChecksumCalculator.calculateMd5(entry)));
+                }
+            }
+
+            // create a file with the results.
+            File res = File.createTempFile("some", "checksums", FileUtils.getTempDir());
+            FileUtils.writeCollectionToFile(res, checksums);
+            return res;
+        } catch (IOException e) {
+            throw new IOFailure("Received unexpected IOFailure: ", e);
+        }
+    }
+
     /**
      * Method for retrieving all the filenames of the replica.
      *
@@ -23,6 +23,7 @@
 package dk.netarkivet.common.distribute.arcrepository;
 
 import java.io.File;
+import java.util.Collection;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
@@ -131,6 +132,20 @@ public interface PreservationArcRepositoryClient {
      */
     String getChecksum(String replicaId, String filename);
 
+    /**
+     * Retrieves the checksums of the given files in one request to the replica, through a GetAllChecksumsMessage
+     * restricted to these files.
+     * <p>
+     * This replaces one getChecksum call per file when checking many files.
+     *
+     * @param replicaId The id of the replica from which the checksums should be retrieved.
+     * @param filenames The names of the files for whom the checksums should be retrieved.
+     * @return A file containing filename and checksum of the given files found in the replica, in the same format as a
+     * ChecksumJob. Files not found in the replica are absent from the file.
+     * @see dk.netarkivet.archive.checksum.distribute.GetAllChecksumsMessage
+     */
+    File getChecksums(String replicaId, Collection<String> filenames);
+
     /**
      * Retrieves the names of all the files in the replica through a GetAllFilenamesMessage.
      * <p>
@@ -26,7 +26,11 @@ import java.io.File;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,6 +47,11 @@ import dk.netarkivet.common.exceptions.UnknownID;
  * specified by the system property {@link #SETTINGS_FILE_PROPERTY}, multiple files can be separated by
  * {@link File#pathSeparator}, that is ':' on linux and ';' on windows; or if that property is not set, the default
  * location is {@link #DEFAULT_SETTINGS_FILEPATH}.
+ * <p>
+ * The values of all loaded settings files are flattened into an immutable snapshot whenever the settings change, so
+ * reading a setting is a map lookup without locking. The typed getters cache the parsed values in the snapshot. Long
+ * lived components that keep values derived from the settings can register a {@link Listener} to be told when the
+ * settings change.
  */
 public class Settings {
 
@@ -61,14 +70,30 @@ public class Settings {
      */
     private static final List<SimpleXml> defaultClasspathSettingsXmlList;
 
+    /** The values of the settings xml files, replaced as a whole whenever the settings change. */
+    private static volatile Snapshot snapshot;
+
+    /** The listeners told about changes of the settings. */
+    private static final List<Listener> listeners;
+
     static {
         // All static initialization in one place
         fileSettingsXmlList = Collections.synchronizedList(new ArrayList<SimpleXml>());
         defaultClasspathSettingsXmlList = Collections.synchronizedList(new ArrayList<SimpleXml>());
+        listeners = new CopyOnWriteArrayList<Listener>();
         // Perform an initial loading of the settings.
         reload();
     }
 
+    /** Receives notice of changes of the settings. */
+    public interface Listener {
+        /**
+         * Called after the settings have changed, i.e. after a reload, a call to {@link Settings#set} or the addition
+         * of default classpath settings. The new values are available when this is called.
+         */
+        void settingsChanged();
+    }
+
     /**
      * This system property specifies alternative position(s) to look for settings files. If more files are specified,
      * they should be separated by {@link File#pathSeparatorChar}
@@ -131,22 +156,12 @@ public class Settings {
             return val;
         }
 
-        // Key not in System.properties try loaded data instead
-        synchronized (fileSettingsXmlList) {
-            for (SimpleXml settingsXml : fileSettingsXmlList) {
-                if (settingsXml.hasKey(key)) {
-                    return settingsXml.getString(key);
-                }
-            }
-        }
-
-        // Key not in file based settings, try classpath settings instead
-        synchronized (defaultClasspathSettingsXmlList) {
-            for (SimpleXml settingsXml : defaultClasspathSettingsXmlList) {
-                if (settingsXml.hasKey(key)) {
-                    return settingsXml.getString(key);
-                }
-            }
+        // Key not in System.properties try loaded data instead. The
+        // snapshot holds the values of the file based settings before
+        // those of the classpath settings.
+        val = snapshot.strings.get(key);
+        if (val != null) {
+            return val;
         }
         throw new UnknownID("No match for key '" + key + "' in settings");
     }
@@ -160,9 +175,16 @@ public class Settings {
      * @throws UnknownID if no setting loaded matches key
      */
     public static int getInt(String key) throws UnknownID, ArgumentNotValid {
+        Snapshot current = snapshot;
+        Object cached = current.parsed.get(key);
+        if (cached instanceof Integer && System.getProperty(key) == null) {
+            return (Integer) cached;
+        }
         String value = get(key);
         try {
-            return Integer.parseInt(value);
+            int result = Integer.parseInt(value);
+            current.cache(key, value, result);
+            return result;
         } catch (NumberFormatException e) {
             String msg = "Invalid setting. Value '" + value + "' for key '" + key
                     + "' could not be parsed as an integer.";
@@ -179,9 +201,16 @@ public class Settings {
      * @throws UnknownID if no setting loaded matches key
      */
     public static long getLong(String key) throws UnknownID, ArgumentNotValid {
+        Snapshot current = snapshot;
+        Object cached = current.parsed.get(key);
+        if (cached instanceof Long && System.getProperty(key) == null) {
+            return (Long) cached;
+        }
         String value = get(key);
         try {
-            return Long.parseLong(value);
+            long result = Long.parseLong(value);
+            current.cache(key, value, result);
+            return result;
         } catch (NumberFormatException e) {
             String msg = "Invalid setting. Value '" + value + "' for key '" + key + "' could not be parsed as a long.";
             throw new ArgumentNotValid(msg, e);
@@ -197,9 +226,16 @@ public class Settings {
      * @throws UnknownID if no setting loaded matches key
      */
     public static double getDouble(String key) throws UnknownID, ArgumentNotValid {
+        Snapshot current = snapshot;
+        Object cached = current.parsed.get(key);
+        if (cached instanceof Double && System.getProperty(key) == null) {
+            return (Double) cached;
+        }
         String value = get(key);
         try {
-            return Double.parseDouble(value);
+            double result = Double.parseDouble(value);
+            current.cache(key, value, result);
+            return result;
         } catch (NumberFormatException e) {
             String msg = "Invalid setting. Value '" + value + "' for key '" + key
                     + "' could not be parsed as a double.";
@@ -230,8 +266,15 @@ public class Settings {
      */
     public static boolean getBoolean(String key) throws UnknownID, ArgumentNotValid {
         ArgumentNotValid.checkNotNullOrEmpty(key, "String key");
+        Snapshot current = snapshot;
+        Object cached = current.parsed.get(key);
+        if (cached instanceof Boolean && System.getProperty(key) == null) {
+            return (Boolean) cached;
+        }
         String value = get(key);
-        return Boolean.parseBoolean(value);
+        boolean result = Boolean.parseBoolean(value);
+        current.cache(key, value, result);
+        return result;
     }
 
     /**
@@ -258,31 +301,12 @@ public class Settings {
             System.out.print("The list of loaded data settings is empty. Is this OK?");
         }
         // Key not in System.properties try loaded data instead
-        synchronized (fileSettingsXmlList) {
-            for (SimpleXml settingsXml : fileSettingsXmlList) {
-                List<String> result = settingsXml.getList(key);
-                if (result.size() == 0) {
-                    continue;
-                }
-                if (log.isDebugEnabled()) {
-                    log.debug("Value found in loaded data: {}", StringUtils.conjoin(",", result));
-                }
-                return result.toArray(new String[result.size()]);
-            }
-        }
-
-        // Key not in file based settings, try settings from classpath
-        synchronized (defaultClasspathSettingsXmlList) {
-            for (SimpleXml settingsXml : defaultClasspathSettingsXmlList) {
-                List<String> result = settingsXml.getList(key);
-                if (result.size() == 0) {
-                    continue;
-                }
-                if (log.isDebugEnabled()) {
-                    log.debug("Value found in classpath data: {}", StringUtils.conjoin(",", result));
-                }
-                return result.toArray(new String[result.size()]);
+        List<String> result = snapshot.lists.get(key);
+        if (result != null) {
+            if (log.isDebugEnabled()) {
+                log.debug("Value found in loaded data: {}", StringUtils.conjoin(",", result));
             }
+            return result.toArray(new String[result.size()]);
         }
         throw new UnknownID("No match for key '" + key + "' in settings");
     }
@@ -298,19 +322,22 @@ public class Settings {
      * @throws ArgumentNotValid if key or values are null
      * @throws UnknownID if the key does not already exist
      */
-    public static void set(String key, String... values) {
+    public static synchronized void set(String key, String... values) {
         ArgumentNotValid.checkNotNullOrEmpty(key, "key");
         ArgumentNotValid.checkNotNull(values, "values");
 
-        if (fileSettingsXmlList.isEmpty()) {
-            fileSettingsXmlList.add(new SimpleXml("settings"));
-        }
-        SimpleXml simpleXml = fileSettingsXmlList.get(0);
-        if (simpleXml.hasKey(key)) {
-            simpleXml.update(key, values);
-        } else {
-            simpleXml.add(key, values);
+        synchronized (fileSettingsXmlList) {
+            if (fileSettingsXmlList.isEmpty()) {
+                fileSettingsXmlList.add(new SimpleXml("settings"));
+            }
+            SimpleXml simpleXml = fileSettingsXmlList.get(0);
+            if (simpleXml.hasKey(key)) {
+                simpleXml.update(key, values);
+            } else {
+                simpleXml.add(key, values);
+            }
         }
+        publishSnapshot();
     }
 
     /**
@@ -339,6 +366,7 @@ public class Settings {
             fileSettingsXmlList.clear();
             fileSettingsXmlList.addAll(simpleXmlList);
         }
+        publishSnapshot();
     }
 
     /**
@@ -346,12 +374,13 @@ public class Settings {
      *
      * @param defaultClasspathSettingsPath the given default classpath setting.
      */
-    public static void addDefaultClasspathSettings(String defaultClasspathSettingsPath) {
+    public static synchronized void addDefaultClasspathSettings(String defaultClasspathSettingsPath) {
         ArgumentNotValid.checkNotNullOrEmpty(defaultClasspathSettingsPath, "String defaultClasspathSettingsPath");
         InputStream stream = Thread.currentThread().getContextClassLoader()
                 .getResourceAsStream(defaultClasspathSettingsPath);
         if (stream != null) {
             defaultClasspathSettingsXmlList.add(new SimpleXml(stream));
+            publishSnapshot();
         } else {
             log.warn("Unable to read the settings file represented by path: '{}'", defaultClasspathSettingsPath);
         }
@@ -384,4 +413,87 @@ public class Settings {
         throw new UnknownID("No match for key '" + path + "' in settings");
     }
 
+    /**
+     * Register a listener to be told when the settings change.
+     *
+     * @param listener The listener.
+     * @throws ArgumentNotValid if listener is null
+     */
+    public static void addListener(Listener listener) {
+        ArgumentNotValid.checkNotNull(listener, "Listener listener");
+        listeners.add(listener);
+    }
+
+    /**
+     * Stop telling a listener when the settings change.
+     *
+     * @param listener The listener.
+     */
+    public static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Make a new snapshot of the loaded settings available to readers and tell the listeners.
+     */
+    private static synchronized void publishSnapshot() {
+        Map<String, String> strings = new HashMap<String, String>();
+        Map<String, List<String>> lists = new HashMap<String, List<String>>();
+        synchronized (fileSettingsXmlList) {
+            for (SimpleXml settingsXml : fileSettingsXmlList) {
+                settingsXml.addEntries(strings, lists);
+            }
+        }
+        synchronized (defaultClasspathSettingsXmlList) {
+            for (SimpleXml settingsXml : defaultClasspathSettingsXmlList) {
+                settingsXml.addEntries(strings, lists);
+            }
+        }
+        snapshot = new Snapshot(strings, lists);
+        for (Listener listener : listeners) {
+            try {
+                listener.settingsChanged();
+            } catch (RuntimeException e) {
+                log.warn("Settings listener {} failed", listener, e);
+            }
+        }
+    }
+
+    /**
+     * The values of the loaded settings at one point in time. The values of the file based settings take precedence
+     * over the values of the classpath settings. Immutable, except for the cache of parsed values.
+     */
+    private static final class Snapshot {
+        /** Map from keys to the trimmed value of the first matching element. */
+        private final Map<String, String> strings;
+        /** Map from keys to the values of all matching elements. */
+        private final Map<String, List<String>> lists;
+        /** Map from keys to their values parsed by the typed getters. */
+        private final Map<String, Object> parsed = new ConcurrentHashMap<String, Object>();
+
+        /**
+         * Create a snapshot.
+         *
+         * @param strings Map from keys to the trimmed value of the first matching element.
+         * @param lists Map from keys to the values of all matching elements.
+         */
+        private Snapshot(Map<String, String> strings, Map<String, List<String>> lists) {
+            this.strings = strings;
+            this.lists = lists;
+        }
+
+        /**
+         * Cache a parsed value, unless the value was read from a system property.
+         *
+         * @param key The key of the setting.
+         * @param value The value that was parsed.
+         * @param result The parsed value.
+         */
+        private void cache(String key, String value, Object result) {
+            if (value.equals(strings.get(key)) && System.getProperty(key) == null) {
+                parsed.put(key, result);
+            }
+        }
+    }
+
 }
@@ -28,6 +28,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -279,6 +280,56 @@ public class SimpleXml {
         return results;
     }
 
+    /**
+     * Add all entries of this document to maps from keys to values, as they would be returned by
+     * {@link #getString(String)} and {@link #getList(String)}. Keys already in the maps are left unchanged, so the
+     * entries of documents added first take precedence.
+     *
+     * @param strings Map from keys to the trimmed value of the first matching element.
+     * @param lists Map from keys to the values of all matching elements.
+     */
+    void addEntries(Map<String, String> strings, Map<String, List<String>> lists) {
+        Element root = xmlDoc.getRootElement();
+        Map<String, List<Element>> elements = new LinkedHashMap<String, List<Element>>();
+        collectElements(root, root.getName(), root.getNamespaceURI(), elements);
+        for (Map.Entry<String, List<Element>> entry : elements.entrySet()) {
+            if (strings.containsKey(entry.getKey())) {
+                continue;
+            }
+            List<Element> nodes = entry.getValue();
+            List<String> values = new ArrayList<String>(nodes.size());
+            for (Element node : nodes) {
+                values.add(node.getText());
+            }
+            strings.put(entry.getKey(), nodes.get(0).getStringValue().trim());
+            lists.put(entry.getKey(), Collections.unmodifiableList(values));
+        }
+    }
+
+    /**
+     * Collect an element and its descendants under their dotted paths, in document order. Like the XPaths from
+     * {@link #getXPath(String)}, only descendants in the namespace of the root element are included.
+     *
+     * @param element The element.
+     * @param key The dotted path of the element.
+     * @param namespaceURI The namespace of the root element.
+     * @param elements The map to collect the elements in.
+     */
+    private void collectElements(Element element, String key, String namespaceURI,
+            Map<String, List<Element>> elements) {
+        List<Element> keyElements = elements.get(key);
+        if (keyElements == null) {
+            keyElements = new ArrayList<Element>(1);
+            elements.put(key, keyElements);
+        }
+        keyElements.add(element);
+        for (Element child : (List<Element>) element.elements()) {
+            if (namespaceURI.equals(child.getNamespaceURI())) {
+                collectElements(child, key + "." + child.getName(), namespaceURI, elements);
+            }
+        }
+    }
+
     /**
      * Save the current settings as an XML file.
      *
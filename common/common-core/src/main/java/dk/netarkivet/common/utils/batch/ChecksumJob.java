@@ -38,6 +38,11 @@ import dk.netarkivet.common.utils.KeyValuePair;
 
 /**
  * Class responsible for checksumming a list of files.
+ * <p>
+ * By default, the checksum of every file is calculated anew. A job may be marked as accepting verified checksums, in
+ * which case a bitarchive that keeps a record of recently verified checksums (see {@link VerifiedChecksumSource}) may
+ * answer from this record instead of reading the files. Such answers have the time of verification appended to the
+ * output line, as <b>filename</b>##<b>checksum</b>##<b>verification time in milliseconds since the epoch</b>.
  */
 @SuppressWarnings({"serial"})
 public class ChecksumJob extends FileBatchJob {
@@ -50,6 +55,12 @@ public class ChecksumJob extends FileBatchJob {
      */
     public static final String STRING_FILENAME_SEPARATOR = "##";
 
+    /** Whether checksums from a record of verified checksums may be used instead of calculating them anew. */
+    private boolean acceptVerifiedChecksums = false;
+
+    /** The record of verified checksums given by the bitarchive running this job, if any. */
+    private transient VerifiedChecksumSource verifiedChecksumSource;
+
     /** The constructor. */
     public ChecksumJob() {
         // Keep the batchJobTimeout at default (-1) so it will be overridden
@@ -77,6 +88,11 @@ public class ChecksumJob extends FileBatchJob {
     public boolean processFile(File file, OutputStream os) {
         ArgumentNotValid.checkNotNull(file, "file");
         try {
+            if (acceptVerifiedChecksums && verifiedChecksumSource != null) {
+                KeyValuePair<String, Long> verified = verifiedChecksumSource.getVerifiedChecksum(file);
+                os.write((makeLine(file.getName(), verified.getKey(), verified.getValue()) + "\n").getBytes());
+                return true;
+            }
             os.write((file.getName() + STRING_FILENAME_SEPARATOR + ChecksumCalculator.calculateMd5(file) + "\n")
                     .getBytes());
         } catch (IOException e) {
@@ -109,19 +125,108 @@ public class ChecksumJob extends FileBatchJob {
     }
 
     /**
-     * Parse a line of output into a key-value pair.
+     * Create a line in checksum job format from a filename, a checksum and the time the checksum was verified.
+     *
+     * @param filename A filename (no path)
+     * @param checksum An MD5 checksum
+     * @param verifiedTime The time the checksum was last verified against the file, in milliseconds since the epoch.
+     * @return A string of the correct format for a checksum job output.
+     */
+    public static String makeLine(String filename, String checksum, long verifiedTime) {
+        return makeLine(filename, checksum) + STRING_FILENAME_SEPARATOR + verifiedTime;
+    }
+
+    /**
+     * Parse a line of output into a key-value pair. A verification time at the end of the line is ignored.
      *
-     * @param line The line to parse, of the form <b>filename</b>##<b>checksum</b>
+     * @param line The line to parse, of the form <b>filename</b>##<b>checksum</b> or
+     * <b>filename</b>##<b>checksum</b>##<b>verification time</b>
      * @return The filename->checksum mapping.
      * @throws ArgumentNotValid if the line is not on the correct form.
      */
     public static KeyValuePair<String, String> parseLine(String line) throws ArgumentNotValid {
+        String[] parts = splitLine(line);
+        return new KeyValuePair<String, String>(parts[0], parts[1]);
+    }
+
+    /**
+     * Get the time the checksum on a line of output was verified.
+     *
+     * @param line The line to parse, of the form <b>filename</b>##<b>checksum</b> or
+     * <b>filename</b>##<b>checksum</b>##<b>verification time</b>
+     * @return The verification time in milliseconds since the epoch, or null if the checksum was calculated by the job
+     * itself.
+     * @throws ArgumentNotValid if the line is not on the correct form.
+     */
+    public static Long parseVerifiedTime(String line) throws ArgumentNotValid {
+        String[] parts = splitLine(line);
+        if (parts.length == 2) {
+            return null;
+        }
+        return Long.valueOf(parts[2]);
+    }
+
+    /**
+     * Split and validate a line of output.
+     *
+     * @param line The line to split.
+     * @return The two or three parts of the line.
+     * @throws ArgumentNotValid if the line is not on the correct form.
+     */
+    private static String[] splitLine(String line) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNull(line, "checksum line");
         String[] parts = line.split(STRING_FILENAME_SEPARATOR);
+        if (parts.length == 3 && !parts[1].isEmpty() && parts[2].matches("\\d+")) {
+            return parts;
+        }
         if (parts.length != 2) {
             throw new ArgumentNotValid("String '" + line + "' is not on checksum output form");
         }
-        return new KeyValuePair<String, String>(parts[0], parts[1]);
+        return parts;
+    }
+
+    /**
+     * Allow or disallow this job to use checksums from a record of verified checksums, instead of calculating every
+     * checksum anew. By default, this is not allowed.
+     *
+     * @param acceptVerifiedChecksums Whether verified checksums may be used.
+     */
+    public void setAcceptVerifiedChecksums(boolean acceptVerifiedChecksums) {
+        this.acceptVerifiedChecksums = acceptVerifiedChecksums;
+    }
+
+    /**
+     * @return Whether this job may use checksums from a record of verified checksums.
+     */
+    public boolean isAcceptingVerifiedChecksums() {
+        return acceptVerifiedChecksums;
+    }
+
+    /**
+     * Give this job the record of verified checksums of the archive it runs on. Called by the archive before running
+     * the job; the record is only used if the job accepts verified checksums.
+     *
+     * @param source The record of verified checksums, or null for none.
+     */
+    public void setVerifiedChecksumSource(VerifiedChecksumSource source) {
+        this.verifiedChecksumSource = source;
+    }
+
+    /**
+     * A record of the verified checksums of the files in an archive.
+     */
+    public interface VerifiedChecksumSource {
+
+        /**
+         * Get the checksum of a file, as last verified. If the file has no verified checksum, or has changed since it
+         * was verified, the checksum is calculated and recorded before it is returned.
+         *
+         * @param file A file in the archive.
+         * @return The checksum of the file and the time it was verified, in milliseconds since the epoch.
+         * @throws IOException If the checksum of the file cannot be calculated.
+         */
+        KeyValuePair<String, Long> getVerifiedChecksum(File file) throws IOException;
+
     }
 
     /**
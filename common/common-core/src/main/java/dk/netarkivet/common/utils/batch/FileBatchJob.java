@@ -28,7 +28,9 @@ import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.regex.Pattern;
@@ -60,6 +62,13 @@ public abstract class FileBatchJob implements Serializable {
      */
     private Pattern filesToProcess = Pattern.compile(EVERYTHING_REGEXP);
 
+    /**
+     * The explicit names of the files to process with this job, or null if the files are selected by the pattern
+     * alone. When set, filenames are matched by a set lookup, and the pattern is only built if asked for, as matching
+     * a regular expression of thousands of alternatives against every file in an archive is very slow.
+     */
+    private LinkedHashSet<String> filenamesToProcess;
+
     /** The total number of files processed (including any that generated errors). */
     protected int noOfFilesProcessed = 0;
 
@@ -109,11 +118,8 @@ public abstract class FileBatchJob implements Serializable {
      */
     public void processOnlyFilesNamed(List<String> specifiedFilenames) {
         if (specifiedFilenames != null) {
-            List<String> quoted = new ArrayList<String>();
-            for (String name : specifiedFilenames) {
-                quoted.add(Pattern.quote(name));
-            }
-            processOnlyFilesMatching(quoted);
+            filenamesToProcess = new LinkedHashSet<String>(specifiedFilenames);
+            filesToProcess = null;
         } else {
             processOnlyFilesMatching(EVERYTHING_REGEXP);
         }
@@ -151,17 +157,65 @@ public abstract class FileBatchJob implements Serializable {
     public void processOnlyFilesMatching(String specifiedPattern) {
         ArgumentNotValid.checkNotNullOrEmpty(specifiedPattern, "specificedPattern");
         filesToProcess = Pattern.compile(specifiedPattern);
+        filenamesToProcess = null;
     }
 
     /**
-     * Get the pattern for files that should be processed.
+     * Get the pattern for files that should be processed. If the job has been restricted to a set of named files, a
+     * pattern matching exactly these names is returned.
      *
      * @return A pattern for files to process.
      */
     public Pattern getFilenamePattern() {
+        if (filesToProcess == null) {
+            List<String> quoted = new ArrayList<String>(filenamesToProcess.size());
+            for (String name : filenamesToProcess) {
+                quoted.add(Pattern.quote(name));
+            }
+            filesToProcess = Pattern.compile("(" + StringUtils.conjoin("|", quoted) + ")");
+        }
         return filesToProcess;
     }
 
+    /**
+     * Get the explicit names of the files that should be processed.
+     *
+     * @return The names given to {@link #processOnlyFilesNamed(List)}, or null if the files to process are given by a
+     * pattern.
+     */
+    public Set<String> getFilenames() {
+        if (filenamesToProcess == null) {
+            return null;
+        }
+        return Collections.unmodifiableSet(filenamesToProcess);
+    }
+
+    /**
+     * Get a short description of which files this job processes, suitable for logging. Unlike the pattern, this does
+     * not list every name when the job is restricted to a large set of named files.
+     *
+     * @return A description of the files to process.
+     */
+    public String getFilenameFilterDescription() {
+        if (filenamesToProcess != null) {
+            return filenamesToProcess.size() + " named files";
+        }
+        return filesToProcess.pattern();
+    }
+
+    /**
+     * Check whether a file with the given name should be processed by this job.
+     *
+     * @param filename The name of a file, without path.
+     * @return true, if the file should be processed.
+     */
+    public boolean matchesFilename(String filename) {
+        if (filenamesToProcess != null) {
+            return filenamesToProcess.contains(filename);
+        }
+        return filesToProcess.matcher(filename).matches();
+    }
+
     /**
      * Return the number of files processed in this job.
      *
@@ -204,6 +258,18 @@ public abstract class FileBatchJob implements Serializable {
         return false;
     }
 
+    /**
+     * Tells whether the output of this job should be sorted. If so, each bitarchive sorts its output line by line in
+     * the order of the bytes of the lines, as Unix sort does with LANG=C, and the outputs of the bitarchives are merged
+     * instead of concatenated. Then the combined output given to {@link #postProcess(InputStream, OutputStream)} is
+     * sorted as well. This is intended to be overridden by batchjobs whose output is wanted sorted.
+     *
+     * @return Whether the output should be sorted. By default false.
+     */
+    public boolean hasSortedOutput() {
+        return false;
+    }
+
     /**
      * Record an exception that occurred during the processFile of this job and that should be returned with the result.
      * If maxExceptionsReached() returns true, this method silently does nothing.
@@ -0,0 +1,582 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+package dk.netarkivet.common.utils.cdx;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.Settings;
+
+/**
+ * A sorted CDX file opened for prefix lookups. The file is read in blocks of {@link #BLOCK_SIZE} bytes, which are kept
+ * in a cache shared by all files and lookups, and a lookup is a binary search over the first lines of the blocks
+ * followed by a forward scan. The size of the cache is given by {@link CommonSettings#CDX_LOOKUP_BLOCK_CACHE_SIZE}. The
+ * position and start of the first line of the blocks visited in the top {@link #SAMPLED_LEVELS} levels of the binary
+ * search are kept as a sparse sample of the keys of the file, so most lookups only read the few blocks near the lines
+ * they find.
+ * <p>
+ * Lines are compared and returned as bytes decoded as ISO-8859-1, i.e. in the byte order of the Unix sort command with
+ * LC_ALL=C. A line ends at a newline, and a carriage return before the newline is not part of the line.
+ * <p>
+ * The iterators returned hold no resources, so they need not be read to the end. The opened files are kept in a small
+ * cache, and a file is reopened if its length or modification time changes.
+ */
+final class CachedCDXFile {
+
+    /** The logger. */
+    private static final Logger log = LoggerFactory.getLogger(CachedCDXFile.class);
+
+    /** The size in bytes of the blocks read from the files. */
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    /** The number of blocks in the shared block cache. */
+    private static final int CACHED_BLOCKS = (int) Math.min(Integer.MAX_VALUE,
+            Settings.getLong(CommonSettings.CDX_LOOKUP_BLOCK_CACHE_SIZE) * 1024 * 1024 / BLOCK_SIZE);
+
+    /** The number of files kept open. */
+    private static final int OPEN_FILES = 32;
+
+    /** The number of levels of the binary search whose keys are kept in the key sample. */
+    private static final int SAMPLED_LEVELS = 12;
+
+    /**
+     * The most keys kept in the key sample of a file, which is the number of blocks in the top {@link #SAMPLED_LEVELS}
+     * levels of the binary search. With keys of at most {@link #SAMPLED_KEY_LENGTH} bytes, this is about 1 MB.
+     */
+    private static final int MAX_SAMPLED_KEYS = (1 << SAMPLED_LEVELS) - 1;
+
+    /** The number of bytes of the first line of a block kept in the key sample. */
+    private static final int SAMPLED_KEY_LENGTH = 256;
+
+    /** The character set of the lines. */
+    private static final String CHARSET = "ISO-8859-1";
+
+    /** The source of unique IDs for opened files, used to tell their blocks apart in the block cache. */
+    private static final AtomicLong nextId = new AtomicLong();
+
+    /** The shared block cache, least recently used first. */
+    private static final Map<BlockKey, byte[]> blockCache = new LinkedHashMap<BlockKey, byte[]>(Math.min(
+            CACHED_BLOCKS, 1024) + 1, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<BlockKey, byte[]> eldest) {
+            return size() > CACHED_BLOCKS;
+        }
+    };
+
+    /** The opened files by absolute path, least recently used first. */
+    private static final Map<File, CachedCDXFile> openFiles = new LinkedHashMap<File, CachedCDXFile>(OPEN_FILES, 0.75f,
+            true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, CachedCDXFile> eldest) {
+            if (size() > OPEN_FILES) {
+                eldest.getValue().close();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /** The unique ID of this opened file. */
+    private final long id;
+    /** The file. */
+    private final File file;
+    /** The length of the file when it was opened. */
+    private final long length;
+    /** The modification time of the file when it was opened. */
+    private final long lastModified;
+    /** The open file, closed when this file is removed from the cache of open files. */
+    private final RandomAccessFile raf;
+    /** The channel of the open file. */
+    private final FileChannel channel;
+    /** The key sample, by block number. It holds at most {@link #MAX_SAMPLED_KEYS} keys. */
+    private final Map<Long, KeySample> keySample = new ConcurrentHashMap<Long, KeySample>();
+
+    /**
+     * Open a file.
+     *
+     * @param file The file.
+     * @throws IOException If the file cannot be opened.
+     */
+    private CachedCDXFile(File file) throws IOException {
+        this.id = nextId.getAndIncrement();
+        this.file = file;
+        this.lastModified = file.lastModified();
+        this.raf = new RandomAccessFile(file, "r");
+        this.channel = raf.getChannel();
+        this.length = raf.length();
+    }
+
+    /**
+     * Get a file opened for lookups, opening it if it is not open or has changed since it was opened.
+     *
+     * @param file The file.
+     * @return The opened file.
+     * @throws IOException If the file cannot be opened.
+     */
+    static CachedCDXFile get(File file) throws IOException {
+        File key = file.getAbsoluteFile();
+        synchronized (openFiles) {
+            CachedCDXFile cached = openFiles.get(key);
+            if (cached != null && cached.length == file.length() && cached.lastModified == file.lastModified()) {
+                return cached;
+            }
+            if (cached != null) {
+                log.debug("The CDX file '{}' has changed, reopening it", file);
+                openFiles.remove(key);
+                cached.close();
+            }
+            cached = new CachedCDXFile(file);
+            openFiles.put(key, cached);
+            return cached;
+        }
+    }
+
+    /**
+     * Return an iterable of the lines in the file starting with a prefix, in order. The lines are read lazily.
+     *
+     * @param prefix The prefix.
+     * @return The lines starting with the prefix, or an empty iterable if there are none.
+     * @throws IOException If the file cannot be read.
+     */
+    Iterable<String> getLinesWithPrefix(String prefix) throws IOException {
+        final byte[] prefixBytes = prefix.getBytes(CHARSET);
+        Cursor cursor = new Cursor();
+        cursor.seek(findStart(prefixBytes));
+        // Skip the lines before the prefix.
+        long lineStart;
+        int cmp;
+        do {
+            lineStart = cursor.position();
+            if (!cursor.readLine()) {
+                return Collections.emptyList();
+            }
+            cmp = cursor.compareLine(prefixBytes);
+        } while (cmp < 0);
+        if (cmp > 0) {
+            return Collections.emptyList();
+        }
+        final long firstMatch = lineStart;
+        return new Iterable<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new PrefixIterator(firstMatch, prefixBytes);
+            }
+        };
+    }
+
+    /**
+     * Find the start of a line at or before the first line starting with a prefix, by a binary search for the last
+     * block whose first line is before the prefix.
+     *
+     * @param prefix The prefix.
+     * @return The start of the line.
+     * @throws IOException If the file cannot be read.
+     */
+    private long findStart(byte[] prefix) throws IOException {
+        long low = 1;
+        long high = (length - 1) / BLOCK_SIZE;
+        long start = 0;
+        int level = 0;
+        Cursor cursor = new Cursor();
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            KeySample sample = getKeySample(mid, level++ < SAMPLED_LEVELS, cursor);
+            if (sample != null && sample.compare(prefix, cursor) < 0) {
+                start = sample.lineStart;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Get the start and key of the first line starting in or after a block.
+     *
+     * @param block The block number.
+     * @param keep Whether to keep the sample in the key sample.
+     * @param cursor A cursor to read the file with.
+     * @return The sample, or null if no line starts in or after the block.
+     * @throws IOException If the file cannot be read.
+     */
+    private KeySample getKeySample(long block, boolean keep, Cursor cursor) throws IOException {
+        KeySample sample = keySample.get(block);
+        if (sample != null) {
+            return sample;
+        }
+        cursor.seek(block * BLOCK_SIZE - 1);
+        // Skip the rest of the line the block starts in.
+        cursor.readLine();
+        long lineStart = cursor.position();
+        if (!cursor.readLine()) {
+            return null;
+        }
+        sample = new KeySample(lineStart, cursor.copyLine(SAMPLED_KEY_LENGTH), cursor.lineLength() <= SAMPLED_KEY_LENGTH);
+        // The top levels of the search hold no more blocks than this, but the sample must stay bounded regardless.
+        if (keep && keySample.size() < MAX_SAMPLED_KEYS) {
+            keySample.put(block, sample);
+        }
+        return sample;
+    }
+
+    /**
+     * Get a block of the file, from the block cache if possible.
+     *
+     * @param block The block number.
+     * @return The bytes of the block.
+     * @throws IOException If the file cannot be read.
+     */
+    private byte[] getBlock(long block) throws IOException {
+        BlockKey key = new BlockKey(id, block);
+        synchronized (blockCache) {
+            byte[] bytes = blockCache.get(key);
+            if (bytes != null) {
+                return bytes;
+            }
+        }
+        long position = block * BLOCK_SIZE;
+        byte[] bytes = new byte[(int) Math.min(BLOCK_SIZE, length - position)];
+        try {
+            readFully(channel, bytes, position);
+        } catch (ClosedChannelException e) {
+            // The file was closed by another lookup, so read it on its own.
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                readFully(in.getChannel(), bytes, position);
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+        synchronized (blockCache) {
+            blockCache.put(key, bytes);
+        }
+        return bytes;
+    }
+
+    private void readFully(FileChannel in, byte[] bytes, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file at " + (position + buffer.position()) + " in '" + file
+                        + "'");
+            }
+        }
+    }
+
+    /**
+     * Close the file. Lookups still reading the file open it again.
+     */
+    private void close() {
+        IOUtils.closeQuietly(raf);
+    }
+
+    /**
+     * Compare the start of a line to a prefix, as String.compareTo compares the line, cut to the length of the prefix,
+     * to the prefix.
+     *
+     * @param line The bytes of the line.
+     * @param lineLength The length of the line.
+     * @param prefix The prefix.
+     * @return A negative number, zero or a positive number if the line is before, starts with or is after the prefix.
+     */
+    private static int compare(byte[] line, int lineLength, byte[] prefix) {
+        int n = Math.min(lineLength, prefix.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (line[i] & 0xff) - (prefix[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return lineLength < prefix.length ? -1 : 0;
+    }
+
+    /**
+     * The start and the first bytes of the first line of a block.
+     */
+    private static final class KeySample {
+        /** The start of the line. */
+        private final long lineStart;
+        /** The first bytes of the line. */
+        private final byte[] key;
+        /** Whether the key is the entire line. */
+        private final boolean complete;
+
+        KeySample(long lineStart, byte[] key, boolean complete) {
+            this.lineStart = lineStart;
+            this.key = key;
+            this.complete = complete;
+        }
+
+        /**
+         * Compare the line to a prefix.
+         *
+         * @param prefix The prefix.
+         * @param cursor A cursor to read the line with, if the key is too short to compare.
+         * @return As {@link CachedCDXFile#compare(byte[], int, byte[])}.
+         * @throws IOException If the file cannot be read.
+         */
+        int compare(byte[] prefix, Cursor cursor) throws IOException {
+            if (complete || key.length >= prefix.length) {
+                return CachedCDXFile.compare(key, key.length, prefix);
+            }
+            cursor.seek(lineStart);
+            cursor.readLine();
+            return cursor.compareLine(prefix);
+        }
+    }
+
+    /**
+     * The key of a block in the block cache.
+     */
+    private static final class BlockKey {
+        /** The ID of the opened file. */
+        private final long fileId;
+        /** The block number. */
+        private final long block;
+
+        BlockKey(long fileId, long block) {
+            this.fileId = fileId;
+            this.block = block;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BlockKey)) {
+                return false;
+            }
+            BlockKey other = (BlockKey) o;
+            return fileId == other.fileId && block == other.block;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (fileId * 31 + (block ^ (block >>> 32)));
+        }
+    }
+
+    /**
+     * A position in the file, from which lines are read through the block cache.
+     */
+    private final class Cursor {
+        /** The current block, or null. */
+        private byte[] block;
+        /** The number of the current block. */
+        private long blockNumber = -1;
+        /** The position in the current block. */
+        private int offset;
+        /** The bytes of the last line read. */
+        private byte[] line = new byte[256];
+        /** The length of the last line read. */
+        private int lineLength;
+
+        /**
+         * @param position The new position in the file.
+         */
+        void seek(long position) {
+            long newBlockNumber = position / BLOCK_SIZE;
+            if (newBlockNumber != blockNumber) {
+                block = null;
+                blockNumber = newBlockNumber;
+            }
+            offset = (int) (position % BLOCK_SIZE);
+        }
+
+        /**
+         * @return The position in the file.
+         */
+        long position() {
+            return blockNumber * BLOCK_SIZE + offset;
+        }
+
+        /**
+         * Read the line starting at the position, and move the position to the start of the next line.
+         *
+         * @return false if the position is at the end of the file.
+         * @throws IOException If the file cannot be read.
+         */
+        boolean readLine() throws IOException {
+            if (position() >= length) {
+                return false;
+            }
+            lineLength = 0;
+            while (position() < length) {
+                if (block == null || offset == block.length) {
+                    if (block != null) {
+                        blockNumber++;
+                        offset = 0;
+                    }
+                    block = getBlock(blockNumber);
+                }
+                int end = offset;
+                while (end < block.length && block[end] != '\n') {
+                    end++;
+                }
+                append(block, offset, end - offset);
+                if (end < block.length) {
+                    offset = end + 1;
+                    break;
+                }
+                offset = end;
+            }
+            if (lineLength > 0 && line[lineLength - 1] == '\r') {
+                lineLength--;
+            }
+            return true;
+        }
+
+        /**
+         * @param prefix A prefix.
+         * @return The comparison of the last line read to the prefix, as {@link CachedCDXFile#compare(byte[], int,
+         * byte[])}.
+         */
+        int compareLine(byte[] prefix) {
+            return compare(line, lineLength, prefix);
+        }
+
+        /**
+         * @return The length of the last line read.
+         */
+        int lineLength() {
+            return lineLength;
+        }
+
+        /**
+         * @param maxLength The maximum number of bytes to copy.
+         * @return The first bytes of the last line read.
+         */
+        byte[] copyLine(int maxLength) {
+            byte[] copy = new byte[Math.min(maxLength, lineLength)];
+            System.arraycopy(line, 0, copy, 0, copy.length);
+            return copy;
+        }
+
+        /**
+         * @return The last line read.
+         */
+        String lineAsString() {
+            try {
+                return new String(line, 0, lineLength, CHARSET);
+            } catch (IOException e) {
+                throw new IOFailure("Unsupported character set " + CHARSET, e);
+            }
+        }
+
+        private void append(byte[] bytes, int from, int count) {
+            if (lineLength + count > line.length) {
+                byte[] newLine = new byte[Math.max(line.length * 2, lineLength + count)];
+                System.arraycopy(line, 0, newLine, 0, lineLength);
+                line = newLine;
+            }
+            System.arraycopy(bytes, from, line, lineLength, count);
+            lineLength += count;
+        }
+    }
+
+    /**
+     * An iterator of the lines starting with a prefix, which stops (not skips) at the first line not starting with the
+     * prefix.
+     */
+    private final class PrefixIterator implements Iterator<String> {
+        /** The cursor reading the lines. */
+        private final Cursor cursor = new Cursor();
+        /** The prefix. */
+        private final byte[] prefix;
+        /** The next line, or null if it has not been read. */
+        private String nextLine;
+        /** Whether there are no more lines. */
+        private boolean finished;
+
+        /**
+         * @param start The start of the first line starting with the prefix.
+         * @param prefix The prefix.
+         */
+        PrefixIterator(long start, byte[] prefix) {
+            this.prefix = prefix;
+            cursor.seek(start);
+        }
+
+        /**
+         * Check whether there is a next element. Implementation note: This method has the sideeffect of reading a line
+         * into its own buffer, if none is already read.
+         *
+         * @return True if there is a next element to be had.
+         * @throws IOFailure if there is an error reading the file.
+         */
+        @Override
+        public boolean hasNext() {
+            if (nextLine != null) {
+                return true;
+            }
+            if (finished) {
+                return false;
+            }
+            try {
+                if (!cursor.readLine() || cursor.compareLine(prefix) != 0) {
+                    finished = true;
+                    return false;
+                }
+            } catch (IOException e) {
+                String message = "IOException reading file '" + file + "'";
+                log.warn(message, e);
+                throw new IOFailure(message, e);
+            }
+            nextLine = cursor.lineAsString();
+            return true;
+        }
+
+        @Override
+        public String next() {
+            if (nextLine == null && !hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String line = nextLine;
+            nextLine = null;
+            return line;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
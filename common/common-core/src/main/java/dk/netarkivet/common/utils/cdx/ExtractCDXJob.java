@@ -174,6 +174,17 @@ public class ExtractCDXJob extends ARCBatchJob {
         }
     }
 
+    /**
+     * The CDX lines are sorted, so the CDX of the bitarchives can be merged into one sorted CDX.
+     *
+     * @return true
+     * @see dk.netarkivet.common.utils.batch.FileBatchJob#hasSortedOutput()
+     */
+    @Override
+    public boolean hasSortedOutput() {
+        return true;
+    }
+
     /**
      * @return Humanly readable description of this instance.
      */
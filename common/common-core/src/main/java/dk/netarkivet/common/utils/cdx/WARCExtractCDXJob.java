@@ -215,6 +215,17 @@ public class WARCExtractCDXJob extends WARCBatchJob {
         }
     }
 
+    /**
+     * The CDX lines are sorted, so the CDX of the bitarchives can be merged into one sorted CDX.
+     *
+     * @return true
+     * @see dk.netarkivet.common.utils.batch.FileBatchJob#hasSortedOutput()
+     */
+    @Override
+    public boolean hasSortedOutput() {
+        return true;
+    }
+
     /**
      * @return Humanly readable description of this instance.
      */
@@ -26,7 +26,16 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.lang.reflect.Constructor;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.cli.Option;
 import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
@@ -34,9 +43,12 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
 import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.TieredMergePolicy;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.archive.util.ArchiveUtils;
@@ -87,9 +99,37 @@ public class DigestIndexer {
     /** Both URL and hash are indexed. * */
     public static final String MODE_BOTH = "BOTH";
 
+    /** The default size in MB of the RAM buffer of the index writer. */
+    public static final double DEFAULT_RAM_BUFFER_SIZE_MB = IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
+
+    /** Field type of fields that are stored, but not indexed. */
+    private static final FieldType STORED_NOT_INDEXED = new FieldType(StringField.TYPE_STORED);
+    /** Field type of fields that are stored and indexed, but not analyzed. */
+    private static final FieldType STORED_NOT_ANALYZED = new FieldType(StringField.TYPE_STORED);
+    static {
+        STORED_NOT_INDEXED.setIndexed(false);
+        STORED_NOT_INDEXED.freeze();
+        STORED_NOT_ANALYZED.setOmitNorms(false);
+        STORED_NOT_ANALYZED.freeze();
+    }
+
+    /** Patterns used by {@link #stripURL(String)}. */
+    private static final Pattern WWW_PATTERN = Pattern.compile("www[0-9]*\\.");
+    private static final Pattern PARAMETERS_PATTERN = Pattern.compile("\\?.*$");
+    private static final Pattern TRAILING_SLASH_PATTERN = Pattern.compile("/$");
+
     /** Lucene Storage used by the indexwriter. */
     private Directory luceneDirectory;
 
+    /** The size in MB of the RAM buffer of the index writer. */
+    private final double ramBufferSizeMB;
+
+    /**
+     * If true, no segments are merged while documents are added. The merging is deferred until
+     * {@link #forceMerge(int)} is called.
+     */
+    private final boolean bulkLoad;
+
     /** The index being manipulated. * */
     private IndexWriter index;
 
@@ -129,6 +169,29 @@ public class DigestIndexer {
      */
     public DigestIndexer(String indexLocation, String indexingMode, boolean includeNormalizedURL,
             boolean includeTimestamp, boolean includeEtag, boolean addToExistingIndex) throws IOException {
+        this(indexLocation, indexingMode, includeNormalizedURL, includeTimestamp, includeEtag, addToExistingIndex,
+                DEFAULT_RAM_BUFFER_SIZE_MB, false);
+    }
+
+    /**
+     * Each instance of this class wraps one Lucene index for writing deduplication information to it.
+     *
+     * @param indexLocation The location of the index (path).
+     * @param indexingMode Index {@link #MODE_URL}, {@link #MODE_HASH} or {@link #MODE_BOTH}.
+     * @param includeNormalizedURL Should a normalized version of the URL be added to the index. See
+     * {@link #stripURL(String)}.
+     * @param includeTimestamp Should a timestamp be included in the index.
+     * @param includeEtag Should an Etag be included in the index.
+     * @param addToExistingIndex Are we opening up an existing index. Setting this to false will cause any index at
+     * <code>indexLocation</code> to be overwritten.
+     * @param ramBufferSizeMB The amount of RAM in MB used to buffer documents before they are flushed to the index.
+     * @param bulkLoad If true, merging of segments is deferred until {@link #forceMerge(int)} is called. This makes
+     * loading faster, but leaves many small segments behind if forceMerge is not called before closing.
+     * @throws IOException If an error occurs opening the index.
+     */
+    public DigestIndexer(String indexLocation, String indexingMode, boolean includeNormalizedURL,
+            boolean includeTimestamp, boolean includeEtag, boolean addToExistingIndex, double ramBufferSizeMB,
+            boolean bulkLoad) throws IOException {
 
         this.etag = includeEtag;
         this.equivalent = includeNormalizedURL;
@@ -140,17 +203,50 @@ public class DigestIndexer {
             indexURL = false;
         }
 
+        this.ramBufferSizeMB = ramBufferSizeMB;
+        this.bulkLoad = bulkLoad;
+
         // Set up the index writer
+        luceneDirectory = FSDirectory.open(new File(indexLocation));
+        index = new IndexWriter(luceneDirectory, createConfig(addToExistingIndex ? OpenMode.CREATE_OR_APPEND
+                : OpenMode.CREATE, bulkLoad));
+    }
+
+    /**
+     * Create the configuration of an index writer for this index.
+     *
+     * @param openMode How to open the index.
+     * @param deferMerges If true, segments are never merged.
+     * @return The configuration.
+     */
+    private IndexWriterConfig createConfig(OpenMode openMode, boolean deferMerges) {
         IndexWriterConfig config = new IndexWriterConfig(Constants.LUCENE_VERSION, new WhitespaceAnalyzer(
                 Constants.LUCENE_VERSION));
-        // TODO Possibly change the default MergePolicy, see NAS-2119
-        if (!addToExistingIndex) {
-            config.setOpenMode(OpenMode.CREATE);
+        config.setOpenMode(openMode);
+        config.setRAMBufferSizeMB(ramBufferSizeMB);
+        if (deferMerges) {
+            config.setMergePolicy(NoMergePolicy.COMPOUND_FILES);
         } else {
-            config.setOpenMode(OpenMode.CREATE_OR_APPEND);
+            config.setMergePolicy(new TieredMergePolicy());
         }
-        luceneDirectory = FSDirectory.open(new File(indexLocation));
-        index = new IndexWriter(luceneDirectory, config);
+        return config;
+    }
+
+    /**
+     * Merge the index down to at most the given number of segments. In bulk load mode, this is where the deferred
+     * merging happens; the index writer is reopened with the normal merge policy, and documents can still be added
+     * afterwards, though they will be merged as they are added.
+     *
+     * @param maxSegments The maximum number of segments left in the index.
+     * @throws IOException If an error occurs merging the index.
+     */
+    public void forceMerge(int maxSegments) throws IOException {
+        if (bulkLoad && index.getConfig().getMergePolicy() instanceof NoMergePolicy) {
+            index.close(true);
+            index = new IndexWriter(luceneDirectory, createConfig(OpenMode.APPEND, false));
+        }
+        index.forceMerge(maxSegments);
+        index.commit();
     }
 
     /**
@@ -191,82 +287,161 @@ public class DigestIndexer {
      */
     public long writeToIndex(CrawlDataIterator dataIt, String mimefilter, boolean blacklist, String defaultOrigin,
             boolean verbose, boolean skipDuplicates) throws IOException {
-        int count = 0;
-        int skipped = 0;
+        long[] counts = feedIndex(dataIt, Pattern.compile(mimefilter), blacklist, defaultOrigin, verbose,
+                skipDuplicates);
+        index.commit();
+        if (verbose) {
+            System.out.println("Indexed " + counts[0] + " items (skipped " + counts[1] + ")");
+        }
+        return counts[0];
+    }
+
+    /**
+     * Writes the contents of several {@link CrawlDataIterator}s to this index, feeding the index from several threads
+     * at once. Each iterator is read by one thread.
+     *
+     * @param iterators The CrawlDataIterators that provide the data to index. They are not closed by this method.
+     * @param mimefilter A regular expression that is used as a filter on the mimetypes to include in the index.
+     * @param blacklist If true then the <code>mimefilter</code> is used as a blacklist for mimetypes. If false then the
+     * <code>mimefilter</code> is treated as a whitelist.
+     * @param defaultOrigin If an item is missing an origin, this default value will be assigned to it. Can be null if
+     * no default origin value should be assigned.
+     * @param skipDuplicates Do not add URLs that are marked as duplicates to the index
+     * @param threads The maximum number of threads feeding the index.
+     * @return The number of items added to the index.
+     * @throws IOException If an error occurs reading the data or writing the index.
+     */
+    public long writeToIndex(List<CrawlDataIterator> iterators, String mimefilter, final boolean blacklist,
+            final String defaultOrigin, final boolean skipDuplicates, int threads) throws IOException {
+        final Pattern mimePattern = Pattern.compile(mimefilter);
+        final AtomicLong count = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, iterators.size())));
+        try {
+            List<Future<?>> results = new ArrayList<Future<?>>();
+            for (final CrawlDataIterator dataIt : iterators) {
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        count.addAndGet(feedIndex(dataIt, mimePattern, blacklist, defaultOrigin, false,
+                                skipDuplicates)[0]);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                try {
+                    result.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while indexing", e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new IOException("Error while indexing", e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        index.commit();
+        return count.get();
+    }
+
+    /**
+     * Add the items of an iterator to the index without committing. May be called from several threads at once, as
+     * each call builds its documents with a builder of its own.
+     *
+     * @param dataIt The CrawlDataIterator that provides the data to index.
+     * @param mimePattern The filter on the mimetypes to include in the index.
+     * @param blacklist If true then the <code>mimePattern</code> is used as a blacklist for mimetypes.
+     * @param defaultOrigin If an item is missing an origin, this default value will be assigned to it.
+     * @param verbose If true then progress information will be sent to System.out.
+     * @param skipDuplicates Do not add URLs that are marked as duplicates to the index
+     * @return The number of items added and skipped.
+     * @throws IOException If an error occurs reading the data or writing the index.
+     */
+    private long[] feedIndex(CrawlDataIterator dataIt, Pattern mimePattern, boolean blacklist, String defaultOrigin,
+            boolean verbose, boolean skipDuplicates) throws IOException {
+        DocumentBuilder builder = new DocumentBuilder();
+        Matcher mimeMatcher = mimePattern.matcher("");
+        long count = 0;
+        long skipped = 0;
         while (dataIt.hasNext()) {
             CrawlDataItem item = dataIt.next();
-            if (!(skipDuplicates && item.duplicate) && item.mimetype.matches(mimefilter) != blacklist) {
+            if (!(skipDuplicates && item.duplicate) && mimeMatcher.reset(item.mimetype).matches() != blacklist) {
                 // Ok, we wish to index this URL/Digest
                 count++;
                 if (verbose && count % 10000 == 0) {
                     System.out.println("Indexed " + count + " - Last URL " + "from " + item.getTimestamp());
                 }
-
-                Document doc = createDocument(item, defaultOrigin);
-                index.addDocument(doc);
-                // needed with new IndexWriter (see line 144)
-                // index.commit();
+                index.addDocument(builder.build(item, defaultOrigin));
             } else {
                 skipped++;
             }
         }
-        index.commit();
-        if (verbose) {
-            System.out.println("Indexed " + count + " items (skipped " + skipped + ")");
-        }
-        return count;
+        return new long[] {count, skipped};
     }
 
     /**
-     * Create Lucene Document for given CrawlDataItem.
-     * @param item A CrawlDataItem
-     * @param defaultOrigin
-     * @return Lucene Document for the given CrawlDataItem
+     * Builds Lucene Documents for CrawlDataItems. The same Document and Field objects are reused for every item, so a
+     * builder must only be used by one thread, and a Document must be added to the index before the next is built.
      */
-    private Document createDocument(CrawlDataItem item, String defaultOrigin) {
-        Document doc = new Document();
-
-        FieldType storedNotIndexed = new FieldType(StringField.TYPE_STORED);
-        storedNotIndexed.setIndexed(false);
-
-        FieldType storedNotAnalyzed = new FieldType(StringField.TYPE_STORED);
-        storedNotAnalyzed.setOmitNorms(false);
-
-        // Add URL to index.
-        if (indexURL) {
-            doc.add(new Field(FIELD_URL, item.getURL(), storedNotAnalyzed));
+    private class DocumentBuilder {
+        private final Document doc = new Document();
+        private final Field url = new Field(FIELD_URL, "", indexURL ? STORED_NOT_ANALYZED : STORED_NOT_INDEXED);
+        private final Field urlNormalized = new Field(FIELD_URL_NORMALIZED, "", indexURL ? STORED_NOT_ANALYZED
+                : STORED_NOT_INDEXED);
+        private final Field digest = new Field(FIELD_DIGEST, "", indexDigest ? STORED_NOT_ANALYZED
+                : STORED_NOT_INDEXED);
+        private final Field date = new Field(FIELD_TIMESTAMP, "", STORED_NOT_INDEXED);
+        private final Field etagField = new Field(FIELD_ETAG, "", STORED_NOT_INDEXED);
+        private final Field origin = new Field(FIELD_ORIGIN, "", STORED_NOT_INDEXED);
+
+        /**
+         * Create Lucene Document for given CrawlDataItem.
+         *
+         * @param item A CrawlDataItem
+         * @param defaultOrigin The origin to use if the item has none, or null to leave out the origin.
+         * @return Lucene Document for the given CrawlDataItem, valid until the next call.
+         */
+        Document build(CrawlDataItem item, String defaultOrigin) {
+            List<IndexableField> fields = doc.getFields();
+            fields.clear();
+
+            // Add URL to index.
+            url.setStringValue(item.getURL());
+            fields.add(url);
             if (equivalent) {
-                doc.add(new Field(FIELD_URL_NORMALIZED, stripURL(item.getURL()), storedNotAnalyzed));
+                urlNormalized.setStringValue(stripURL(item.getURL()));
+                fields.add(urlNormalized);
             }
-        } else {
-            doc.add(new Field(FIELD_URL, item.getURL(), storedNotIndexed));
-            if (equivalent) {
-                doc.add(new Field(FIELD_URL_NORMALIZED, stripURL(item.getURL()), storedNotIndexed));
+            // Add digest to index
+            digest.setStringValue(item.getContentDigest());
+            fields.add(digest);
+            // Add timestamp to index
+            if (timestamp) {
+                date.setStringValue(item.getTimestamp());
+                fields.add(date);
             }
-        }
-
-        // Add digest to index
-        if (indexDigest) {
-            doc.add(new Field(FIELD_DIGEST, item.getContentDigest(), storedNotAnalyzed));
-        } else {
-            doc.add(new Field(FIELD_DIGEST, item.getContentDigest(), storedNotIndexed));
-        }
-        // Add timestamp to index
-        if (timestamp) {
-            doc.add(new Field(FIELD_TIMESTAMP, item.getTimestamp(), storedNotIndexed));
-        }
-        // Add etag to index
-        if (etag && item.getEtag() != null) {
-            doc.add(new Field(FIELD_ETAG, item.getEtag(), storedNotIndexed));
-        }
-        if (defaultOrigin != null) {
-            String tmp = item.getOrigin();
-            if (tmp == null) {
-                tmp = defaultOrigin;
+            // Add etag to index
+            if (etag && item.getEtag() != null) {
+                etagField.setStringValue(item.getEtag());
+                fields.add(etagField);
+            }
+            if (defaultOrigin != null) {
+                String tmp = item.getOrigin();
+                if (tmp == null) {
+                    tmp = defaultOrigin;
+                }
+                origin.setStringValue(tmp);
+                fields.add(origin);
             }
-            doc.add(new Field(FIELD_ORIGIN, tmp, storedNotIndexed));
+            return doc;
         }
-        return doc;
     }
 
     /**
@@ -289,9 +464,9 @@ public class DigestIndexer {
      * @return A normalized URL.
      */
     public static String stripURL(String url) {
-        url = url.replaceAll("www[0-9]*\\.", "");
-        url = url.replaceAll("\\?.*$", "");
-        url = url.replaceAll("/$", "");
+        url = WWW_PATTERN.matcher(url).replaceAll("");
+        url = PARAMETERS_PATTERN.matcher(url).replaceAll("");
+        url = TRAILING_SLASH_PATTERN.matcher(url).replaceAll("");
         return url;
     }
 
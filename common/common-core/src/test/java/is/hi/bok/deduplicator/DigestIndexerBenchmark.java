@@ -0,0 +1,135 @@
+/* DigestIndexerBenchmark
+ *
+ * This file is part of the DeDuplicator (Heritrix add-on module).
+ *
+ * DeDuplicator is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * DeDuplicator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with DeDuplicator; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package is.hi.bok.deduplicator;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * A simple benchmark of the {@link DigestIndexer} write path. It indexes a number of synthetic crawl log entries and
+ * reports the number of documents indexed per second and the time spent in garbage collection per million entries.
+ * <p>
+ * Usage: <code>DigestIndexerBenchmark [entries] [threads] [ramBufferSizeMB] [bulkLoad]</code>. The defaults are
+ * 1000000 entries, 1 thread, the default RAM buffer size and bulk load enabled.
+ */
+public class DigestIndexerBenchmark {
+
+    /**
+     * A CrawlDataIterator returning synthetic entries resembling those of a broad crawl. Every fourth entry is
+     * text/html, the rest are image/jpeg.
+     */
+    static class SyntheticCrawlDataIterator extends CrawlDataIterator {
+        /** The number of entries left. */
+        private long remaining;
+        /** Distinguishes the entries of different iterators. */
+        private final int iteratorNumber;
+
+        /**
+         * @param entries The number of entries to return.
+         * @param iteratorNumber A number distinguishing this iterator from others in the same run.
+         */
+        SyntheticCrawlDataIterator(long entries, int iteratorNumber) {
+            super("synthetic");
+            this.remaining = entries;
+            this.iteratorNumber = iteratorNumber;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public CrawlDataItem next() {
+            remaining--;
+            String url = "http://www" + (remaining % 3) + ".host" + (remaining % 10007) + ".example.com/path/"
+                    + iteratorNumber + "/" + remaining + "?session=" + remaining;
+            String digest = "sha1:" + Long.toHexString(remaining * 31 + iteratorNumber) + "ABCDEFGHIJKLMNOP";
+            return new CrawlDataItem(url, digest, "20160101120000000", "\"etag-" + remaining + "\"",
+                    remaining % 4 == 0 ? "text/html" : "image/jpeg", "arcfile-" + iteratorNumber + ",1234", false);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String getSourceType() {
+            return "Synthetic crawl data for benchmarking";
+        }
+    }
+
+    /**
+     * @return The total time in milliseconds spent in garbage collection by this JVM so far.
+     */
+    private static long getGcTime() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args entries, threads, ramBufferSizeMB and bulkLoad, all optional.
+     * @throws IOException If indexing fails.
+     */
+    public static void main(String[] args) throws IOException {
+        long entries = args.length > 0 ? Long.parseLong(args[0]) : 1000000L;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        double ramBufferSizeMB = args.length > 2 ? Double.parseDouble(args[2])
+                : DigestIndexer.DEFAULT_RAM_BUFFER_SIZE_MB;
+        boolean bulkLoad = args.length > 3 ? Boolean.parseBoolean(args[3]) : true;
+
+        File indexDir = File.createTempFile("digestindexer", "benchmark");
+        FileUtils.remove(indexDir);
+        try {
+            DigestIndexer indexer = new DigestIndexer(indexDir.getAbsolutePath(), DigestIndexer.MODE_BOTH, false,
+                    true, true, false, ramBufferSizeMB, bulkLoad);
+            List<CrawlDataIterator> iterators = new ArrayList<CrawlDataIterator>();
+            for (int i = 0; i < threads; i++) {
+                iterators.add(new SyntheticCrawlDataIterator(entries / threads, i));
+            }
+            long gcBefore = getGcTime();
+            long start = System.currentTimeMillis();
+            long indexed = indexer.writeToIndex(iterators, "^text/.*", true, "ERROR", false, threads);
+            indexer.forceMerge(1);
+            indexer.close();
+            long elapsed = Math.max(1, System.currentTimeMillis() - start);
+            long gcTime = getGcTime() - gcBefore;
+
+            System.out.println("Indexed " + indexed + " of " + entries + " entries with " + threads
+                    + " thread(s), RAM buffer " + ramBufferSizeMB + " MB, bulk load " + bulkLoad);
+            System.out.println("Total time: " + elapsed + " ms");
+            System.out.println("Documents per second: " + (indexed * 1000 / elapsed));
+            System.out.println("GC time per million entries: " + (gcTime * 1000000 / Math.max(1, entries)) + " ms");
+        } finally {
+            FileUtils.removeRecursively(indexDir);
+        }
+    }
+
+}
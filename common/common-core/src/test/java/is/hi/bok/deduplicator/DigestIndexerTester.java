@@ -0,0 +1,240 @@
+/* DigestIndexerTester
+ *
+ * This file is part of the DeDuplicator (Heritrix add-on module).
+ *
+ * DeDuplicator is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * DeDuplicator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with DeDuplicator; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package is.hi.bok.deduplicator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Unit tests for the {@link DigestIndexer} write path.
+ */
+public class DigestIndexerTester {
+
+    private File indexDir;
+
+    @Before
+    public void setUp() throws IOException {
+        indexDir = File.createTempFile("digestindexer", "test");
+        FileUtils.remove(indexDir);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(indexDir);
+    }
+
+    /**
+     * Test that the Document and Fields reused between entries do not carry values from one entry over to the next,
+     * e.g. an etag or origin present on one entry but not on the following.
+     */
+    @Test
+    public void testDocumentsAreNotMixedUpWhenReused() throws IOException {
+        DigestIndexer indexer = new DigestIndexer(indexDir.getAbsolutePath(), DigestIndexer.MODE_BOTH, true, true,
+                true, false);
+        List<CrawlDataItem> items = Arrays.asList(
+                new CrawlDataItem("http://www.one.dk/a?x=1", "sha1:AAAA", "20160101120000000", "\"etag1\"",
+                        "text/html", "arc1,1", false),
+                new CrawlDataItem("http://two.dk/b/", "sha1:BBBB", "20160101120001000", null, "image/jpeg", null,
+                        false),
+                new CrawlDataItem("http://three.dk/c", "sha1:CCCC", "20160101120002000", "\"etag3\"", "image/gif",
+                        "arc3,3", false));
+        assertEquals("All entries should be indexed", 3L,
+                indexer.writeToIndex(new ListCrawlDataIterator(items), "^text/plain$", true, "DEFAULT", false));
+        indexer.close();
+
+        Directory dir = FSDirectory.open(indexDir);
+        DirectoryReader reader = DirectoryReader.open(dir);
+        try {
+            assertEquals("The index should hold one document per entry", 3, reader.numDocs());
+            for (int i = 0; i < items.size(); i++) {
+                CrawlDataItem item = items.get(i);
+                Document doc = reader.document(i);
+                assertEquals("Wrong URL of document " + i, item.getURL(), doc.get(DigestIndexer.FIELD_URL));
+                assertEquals("Wrong normalized URL of document " + i, DigestIndexer.stripURL(item.getURL()),
+                        doc.get(DigestIndexer.FIELD_URL_NORMALIZED));
+                assertEquals("Wrong digest of document " + i, item.getContentDigest(),
+                        doc.get(DigestIndexer.FIELD_DIGEST));
+                assertEquals("Wrong timestamp of document " + i, item.getTimestamp(),
+                        doc.get(DigestIndexer.FIELD_TIMESTAMP));
+                assertEquals("Wrong etag of document " + i, item.getEtag(), doc.get(DigestIndexer.FIELD_ETAG));
+                assertEquals("Wrong origin of document " + i, item.getOrigin() == null ? "DEFAULT" : item.getOrigin(),
+                        doc.get(DigestIndexer.FIELD_ORIGIN));
+                assertEquals("Each field should occur once in document " + i, item.getEtag() == null ? 5 : 6, doc
+                        .getFields().size());
+            }
+            assertNull("The etag of the first entry must not leak into the second",
+                    reader.document(1).get(DigestIndexer.FIELD_ETAG));
+        } finally {
+            reader.close();
+            dir.close();
+        }
+    }
+
+    /**
+     * Test that the mime filter and the skipping of duplicates are applied.
+     */
+    @Test
+    public void testFiltering() throws IOException {
+        DigestIndexer indexer = new DigestIndexer(indexDir.getAbsolutePath(), DigestIndexer.MODE_HASH, false, false,
+                false, false);
+        List<CrawlDataItem> items = Arrays.asList(
+                new CrawlDataItem("http://one.dk/", "sha1:AAAA", "20160101120000000", null, "text/html", null, false),
+                new CrawlDataItem("http://two.dk/", "sha1:BBBB", "20160101120000000", null, "image/jpeg", null,
+                        false),
+                new CrawlDataItem("http://three.dk/", "sha1:CCCC", "20160101120000000", null, "image/gif", null,
+                        true));
+        assertEquals("Only non-duplicate images should be indexed", 1L, indexer.writeToIndex(
+                new ListCrawlDataIterator(items), "^text/.*", true, null, false, true));
+        indexer.close();
+
+        Directory dir = FSDirectory.open(indexDir);
+        DirectoryReader reader = DirectoryReader.open(dir);
+        try {
+            assertEquals("The index should hold one document", 1, reader.numDocs());
+            assertEquals("The image should be indexed", "sha1:BBBB",
+                    reader.document(0).get(DigestIndexer.FIELD_DIGEST));
+            assertNull("No origin should be stored without a default", reader.document(0).get(
+                    DigestIndexer.FIELD_ORIGIN));
+        } finally {
+            reader.close();
+            dir.close();
+        }
+    }
+
+    /**
+     * Test that a bulk loaded index is merged to one segment by forceMerge, and that all documents survive it.
+     */
+    @Test
+    public void testBulkLoadAndForceMerge() throws IOException {
+        DigestIndexer indexer = new DigestIndexer(indexDir.getAbsolutePath(), DigestIndexer.MODE_BOTH, false, true,
+                true, false, DigestIndexer.DEFAULT_RAM_BUFFER_SIZE_MB, true);
+        long indexed = 0;
+        for (int i = 0; i < 3; i++) {
+            // Each call commits, giving a segment of its own.
+            indexed += indexer.writeToIndex(new DigestIndexerBenchmark.SyntheticCrawlDataIterator(100, i),
+                    "^text/.*", true, null, false);
+        }
+        assertEquals("The image entries should be indexed", 225L, indexed);
+        indexer.forceMerge(1);
+        indexer.close();
+
+        Directory dir = FSDirectory.open(indexDir);
+        DirectoryReader reader = DirectoryReader.open(dir);
+        try {
+            assertEquals("All documents should survive the merge", 225, reader.numDocs());
+            assertEquals("The index should be merged to one segment", 1, reader.leaves().size());
+        } finally {
+            reader.close();
+            dir.close();
+        }
+    }
+
+    /**
+     * Test that several iterators can feed the index at once, and that the entries of one thread are not mixed up with
+     * those of another.
+     */
+    @Test
+    public void testConcurrentFeeding() throws IOException {
+        DigestIndexer indexer = new DigestIndexer(indexDir.getAbsolutePath(), DigestIndexer.MODE_BOTH, false, true,
+                true, false);
+        List<CrawlDataIterator> iterators = new ArrayList<CrawlDataIterator>();
+        for (int i = 0; i < 4; i++) {
+            iterators.add(new DigestIndexerBenchmark.SyntheticCrawlDataIterator(1000, i));
+        }
+        assertEquals("The image entries of all iterators should be indexed", 3000L,
+                indexer.writeToIndex(iterators, "^text/.*", true, null, false, 4));
+        indexer.close();
+
+        Pattern urlPattern = Pattern.compile(".*/path/(\\d+)/(\\d+)\\?.*");
+        Directory dir = FSDirectory.open(indexDir);
+        DirectoryReader reader = DirectoryReader.open(dir);
+        try {
+            assertEquals("The index should hold one document per image entry", 3000, reader.numDocs());
+            for (int i = 0; i < reader.maxDoc(); i++) {
+                Document doc = reader.document(i);
+                Matcher m = urlPattern.matcher(doc.get(DigestIndexer.FIELD_URL));
+                assertTrue("Unexpected URL " + doc.get(DigestIndexer.FIELD_URL), m.matches());
+                int iteratorNumber = Integer.parseInt(m.group(1));
+                long entry = Long.parseLong(m.group(2));
+                assertEquals("Digest should belong to the URL of document " + i, "sha1:"
+                        + Long.toHexString(entry * 31 + iteratorNumber) + "ABCDEFGHIJKLMNOP",
+                        doc.get(DigestIndexer.FIELD_DIGEST));
+                assertEquals("Etag should belong to the URL of document " + i, "\"etag-" + entry + "\"",
+                        doc.get(DigestIndexer.FIELD_ETAG));
+                assertEquals("Origin should belong to the URL of document " + i, "arcfile-" + iteratorNumber
+                        + ",1234", doc.get(DigestIndexer.FIELD_ORIGIN));
+            }
+        } finally {
+            reader.close();
+            dir.close();
+        }
+    }
+
+    /**
+     * A CrawlDataIterator over a list of items.
+     */
+    private static class ListCrawlDataIterator extends CrawlDataIterator {
+        private final Iterator<CrawlDataItem> items;
+
+        ListCrawlDataIterator(List<CrawlDataItem> items) {
+            super("list");
+            this.items = items.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return items.hasNext();
+        }
+
+        @Override
+        public CrawlDataItem next() {
+            return items.next();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String getSourceType() {
+            return "List of crawl data items";
+        }
+    }
+
+}
@@ -28,7 +28,9 @@ import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 import org.archive.io.ArchiveReader;
 import org.archive.io.ArchiveReaderFactory;
@@ -38,6 +40,7 @@ import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.distribute.RemoteFileFactory;
 import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClient;
+import dk.netarkivet.common.distribute.arcrepository.BatchResultPartHandler;
 import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
 import dk.netarkivet.common.distribute.arcrepository.BitarchiveRecord;
 import dk.netarkivet.common.distribute.arcrepository.Replica;
@@ -45,8 +48,10 @@ import dk.netarkivet.common.distribute.arcrepository.ReplicaStoreState;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.NotImplementedException;
+import dk.netarkivet.common.utils.ChecksumCalculator;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.batch.BatchLocalFiles;
+import dk.netarkivet.common.utils.batch.ChecksumJob;
 import dk.netarkivet.common.utils.batch.FileBatchJob;
 
 /**
@@ -158,9 +163,7 @@ public class TrivialArcRepositoryClient implements ArcRepositoryClient {
             os = new FileOutputStream(resultFile);
             File[] files = dir.listFiles(new FilenameFilter() {
                 public boolean accept(File dir, String name) {
-                    Pattern filenamePattern = job.getFilenamePattern();
-                    return new File(dir, name).isFile()
-                            && (filenamePattern == null || filenamePattern.matcher(name).matches());
+                    return new File(dir, name).isFile() && job.matchesFilename(name);
                 }
             });
             BatchLocalFiles batcher = new BatchLocalFiles(files);
@@ -180,6 +183,21 @@ public class TrivialArcRepositoryClient implements ArcRepositoryClient {
                 RemoteFileFactory.getMovefileInstance(resultFile), job.getExceptions());
     }
 
+    /**
+     * Runs a batch job on each file in the ArcRepository, and hands the result over as one part.
+     *
+     * @param job The batch job.
+     * @param replicaId The archive to execute the job on (not used in this implementation)
+     * @param partHandler The handler of the result.
+     * @param args The arguments for the batchjob.
+     * @return The status of the batch job after it ended.
+     */
+    public BatchStatus batch(FileBatchJob job, String replicaId, BatchResultPartHandler partHandler, String... args) {
+        BatchStatus status = batch(job, replicaId, args);
+        status.handOverResult(partHandler);
+        return status;
+    }
+
     /**
      * Updates the administrative data in the ArcRepository for a given file and replica. (not implemented)
      *
@@ -232,6 +250,31 @@ public class TrivialArcRepositoryClient implements ArcRepositoryClient {
         throw new NotImplementedException("TODO: Implement me!");
     }
 
+    /**
+     * Get the checksums of the given files in the local directory.
+     *
+     * @param replicaId The id of the replica (not used)
+     * @param filenames The names of the files to get checksums for.
+     * @return A file with a checksum line for each of the given files found in the directory.
+     */
+    public File getChecksums(String replicaId, Collection<String> filenames) {
+        ArgumentNotValid.checkNotNull(filenames, "Collection<String> filenames");
+        List<String> checksums = new ArrayList<String>();
+        for (String filename : filenames) {
+            File file = new File(dir, filename);
+            if (file.isFile()) {
+                checksums.add(ChecksumJob.makeLine(filename, ChecksumCalculator.calculateMd5(file)));
+            }
+        }
+        try {
+            File res = File.createTempFile("checksums", ".txt", FileUtils.getTempDir());
+            FileUtils.writeCollectionToFile(res, checksums);
+            return res;
+        } catch (IOException e) {
+            throw new IOFailure("Cannot make temp file for the checksums", e);
+        }
+    }
+
     public File getAllFilenames(String replicaId) {
         // TODO Auto-generated method stub
         throw new NotImplementedException("TODO: Implement me!");
@@ -244,7 +287,11 @@ public class TrivialArcRepositoryClient implements ArcRepositoryClient {
 
     @Override
     public String getChecksum(String replicaId, String filename) {
-        // TODO Auto-generated method stub
-        return null;
+        ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
+        File file = new File(dir, filename);
+        if (!file.isFile()) {
+            return null;
+        }
+        return ChecksumCalculator.calculateMd5(file);
     }
 }
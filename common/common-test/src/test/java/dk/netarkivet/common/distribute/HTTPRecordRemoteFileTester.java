@@ -0,0 +1,138 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+import org.apache.commons.io.IOUtils;
+import org.archive.io.ArchiveReader;
+import org.archive.io.ArchiveReaderFactory;
+import org.archive.io.ArchiveRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+
+/** Tests for HTTPRecordRemoteFile */
+@SuppressWarnings({"serial"})
+public class HTTPRecordRemoteFileTester {
+    private static final File ARC_FILE = new File("tests/dk/netarkivet/common/utils/cdx/data/input/fyensdk.arc");
+
+    ReloadSettings rs = new ReloadSettings();
+
+    @Before
+    public void setUp() {
+        rs.setUp();
+        HTTPRemoteFileRegistry.getInstance().cleanup();
+    }
+
+    @After
+    public void tearDown() {
+        HTTPRemoteFileRegistry.getInstance().cleanup();
+        rs.tearDown();
+    }
+
+    @Test
+    public void testGetInputStream() throws Exception {
+        long offset = getSecondRecordOffset();
+        byte[] expected = readRecord(offset);
+        ArchiveReader reader = ArchiveReaderFactory.get(ARC_FILE, offset);
+        RemoteFile rf;
+        try {
+            rf = HTTPRecordRemoteFile.getInstance(reader.get());
+        } finally {
+            reader.close();
+        }
+        assertTrue("Should make a record remote file", rf instanceof HTTPRecordRemoteFile);
+        assertEquals("Should have the length of the payload", expected.length, rf.getSize());
+        assertEquals("Should have no checksum", null, rf.getChecksum());
+        assertArrayEquals("Should read the payload from the local file", expected, read(rf));
+    }
+
+    @Test
+    public void testGetInputStreamRemote() throws Exception {
+        long offset = getSecondRecordOffset();
+        byte[] expected = readRecord(offset);
+        HTTPRecordRemoteFile rf = new ForceRemoteHTTPRecordRemoteFile(ARC_FILE, offset, expected.length);
+        assertArrayEquals("Should serve the payload over HTTP", expected, read(rf));
+        assertTrue("The archive file should never be deleted", ARC_FILE.exists());
+        try {
+            rf.url.openConnection().getInputStream();
+            fail("Should not be available after it is read");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+    }
+
+    private static long getSecondRecordOffset() throws IOException {
+        ArchiveReader reader = ArchiveReaderFactory.get(ARC_FILE);
+        try {
+            Iterator<ArchiveRecord> records = reader.iterator();
+            records.next();
+            return records.next().getHeader().getOffset();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static byte[] readRecord(long offset) throws IOException {
+        ArchiveReader reader = ArchiveReaderFactory.get(ARC_FILE, offset);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            reader.get().dump(out);
+            return out.toByteArray();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static byte[] read(RemoteFile rf) throws IOException {
+        InputStream in = rf.getInputStream();
+        try {
+            return IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private class ForceRemoteHTTPRecordRemoteFile extends HTTPRecordRemoteFile {
+        public ForceRemoteHTTPRecordRemoteFile(File file, long offset, long length) {
+            super(file, offset, length);
+        }
+
+        protected boolean isLocal() {
+            return false;
+        }
+    }
+}
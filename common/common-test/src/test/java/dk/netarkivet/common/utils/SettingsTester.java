@@ -29,6 +29,8 @@ import static org.junit.Assert.fail;
 import java.io.File;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.After;
@@ -210,6 +212,63 @@ public class SettingsTester {
         }
     }
 
+    /**
+     * Test that the typed getters follow changes of the settings and system properties, even though the parsed values
+     * are cached.
+     */
+    @Test
+    public void testTypedGettersFollowChanges() {
+        String key = "settings.for.test.purposes6";
+        Settings.set(key, "42");
+        assertEquals("Should parse the value", 42, Settings.getInt(key));
+        assertEquals("Should return the cached value", 42, Settings.getInt(key));
+        assertEquals("Should parse the value as a long too", 42L, Settings.getLong(key));
+        Settings.set(key, "43");
+        assertEquals("Should parse the changed value", 43, Settings.getInt(key));
+        System.setProperty(key, "44");
+        try {
+            assertEquals("Should use the system property", 44, Settings.getInt(key));
+        } finally {
+            System.clearProperty(key);
+        }
+        assertEquals("Should use the setting again", 43, Settings.getInt(key));
+        Settings.reload();
+        try {
+            int i = Settings.getInt(key);
+            fail("Should forget the set value on reload, not return " + i);
+        } catch (UnknownID e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that listeners are told about changes of the settings.
+     */
+    @Test
+    public void testListenerIsToldAboutChanges() {
+        final String key = "settings.for.test.purposes7";
+        final List<String> seen = new ArrayList<String>();
+        Settings.Listener listener = new Settings.Listener() {
+            @Override
+            public void settingsChanged() {
+                try {
+                    seen.add(Settings.get(key));
+                } catch (UnknownID e) {
+                    seen.add(null);
+                }
+            }
+        };
+        Settings.addListener(listener);
+        try {
+            Settings.set(key, "first");
+            Settings.reload();
+        } finally {
+            Settings.removeListener(listener);
+        }
+        Settings.set(key, "second");
+        assertEquals("Should be told about each change, and see the new values", Arrays.asList("first", null), seen);
+    }
+
     /*
      * public void testValidateWithXSD() throws Exception { String settingsFileProperty =
      * Settings.SETTINGS_FILE_PROPERTY; System.setProperty(settingsFileProperty, new File(TestInfo.TEMPDIR,
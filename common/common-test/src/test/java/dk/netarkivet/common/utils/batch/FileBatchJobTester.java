@@ -25,6 +25,8 @@ package dk.netarkivet.common.utils.batch;
 
 import static dk.netarkivet.testutils.CollectionUtils.list;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -79,6 +81,25 @@ public class FileBatchJobTester {
         assertEquals("Should give an all-matching regexp back", ".*", f1.getFilenamePattern().pattern());
     }
 
+    @Test
+    public void testMatchesFilename() throws Exception {
+        FileBatchJob f1 = new ConcreteFileBatchJob();
+        assertNull("Should have no explicit filenames from the start", f1.getFilenames());
+        assertTrue("Should match everything from the start", f1.matchesFilename("foo"));
+
+        f1.processOnlyFilesNamed(list("foo", "b.r"));
+        assertEquals("Should have the explicit filenames", 2, f1.getFilenames().size());
+        assertTrue("Should match named file", f1.matchesFilename("foo"));
+        assertTrue("Should match named file", f1.matchesFilename("b.r"));
+        assertFalse("Should not treat names as regular expressions", f1.matchesFilename("bar"));
+        assertFalse("Should not match other files", f1.matchesFilename("foo2"));
+
+        f1.processOnlyFilesMatching("fo+");
+        assertNull("Should have forgotten the explicit filenames", f1.getFilenames());
+        assertTrue("Should match by pattern", f1.matchesFilename("foooo"));
+        assertFalse("Should match by pattern", f1.matchesFilename("b.r"));
+    }
+
     @Test
     public void testProcessOnlyFileNamed() throws Exception {
         FileBatchJob f1 = new ConcreteFileBatchJob();
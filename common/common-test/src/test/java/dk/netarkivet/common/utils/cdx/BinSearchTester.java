@@ -27,15 +27,18 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Ignore;
 import org.junit.Test;
 
+import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.IteratorUtils;
-import dk.netarkivet.testutils.ReflectUtils;
 
 /**
  * Unit test for the BinSearch class.
@@ -122,47 +125,58 @@ public class BinSearchTester {
     }
 
     /**
-     * Test that skipToLine goes to the expected place, and puts the file pointer there.
-     *
-     * @throws Exception
+     * Test lookups in a file of many blocks against a linear scan, including prefixes before, between and after the
+     * lines, prefixes matching lines spanning blocks, and reading only the start of the lines found.
      */
     @Test
-    public void testSkipToLine() throws Exception {
-        Method m = BinSearch.class.getDeclaredMethod("skipToLine", new Class[] {RandomAccessFile.class, Long.TYPE});
-        m.setAccessible(true);
-        RandomAccessFile f = new RandomAccessFile(TestInfo.SORTED_CDX_FILE, "r");
-        // Test at start of line
-        Long l = (Long) m.invoke(null, f, 24859); // 342-line
-        assertEquals("Should have 343-line returned", 25041, l.longValue());
-        assertEquals("File should be at returned value", l.longValue(), f.getFilePointer());
-        // Test just before start of line
-        l = (Long) m.invoke(null, f, 24858);
-        assertEquals("Should have 342-line returned", 24859, l.longValue());
-        assertEquals("File should be at returned value", l.longValue(), f.getFilePointer());
-        // Test just after start of line
-        l = (Long) m.invoke(null, f, 25042);
-        assertEquals("Should have 344-line returned", 25223, l.longValue());
-        assertEquals("File should be at returned value", l.longValue(), f.getFilePointer());
+    public void testGetLinesInLargeFile() throws IOException {
+        File file = File.createTempFile("binsearch", ".cdx");
+        file.deleteOnExit();
+        List<String> lines = new ArrayList<String>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder line = new StringBuilder(String.format("http://host%05d.dk/", random.nextInt(5000)));
+            int padding = random.nextInt(i % 100 == 0 ? 3 * CachedCDXFile.BLOCK_SIZE : 200);
+            for (int j = 0; j < padding; j++) {
+                line.append((char) ('a' + random.nextInt(26)));
+            }
+            lines.add(line.toString());
+        }
+        Collections.sort(lines);
+        FileUtils.writeCollectionToFile(file, lines);
+
+        for (int i = 0; i < 500; i++) {
+            String prefix = String.format("http://host%05d", random.nextInt(5100));
+            if (i % 5 == 0) {
+                prefix += ".dk/" + (char) ('a' + random.nextInt(26));
+            }
+            List<String> expected = new ArrayList<String>();
+            for (String line : lines) {
+                if (line.startsWith(prefix)) {
+                    expected.add(line);
+                }
+            }
+            assertEquals("Should find the lines starting with " + prefix, expected, findLinesInFile(file, prefix));
+        }
+        assertEquals("Should find all lines for the empty prefix", lines, findLinesInFile(file, ""));
+        Iterator<String> partial = BinSearch.getLinesInFile(file, "http://host").iterator();
+        assertEquals("Should read the first line only", lines.get(0), partial.next());
     }
 
     /**
-     * Test that findMiddleLine can actually find the right middle line.
+     * Test that a file which is replaced after a lookup is read again, and that carriage returns are not part of the
+     * lines.
      */
     @Test
-    public void testFindMiddleLine() throws Exception {
-        Method m = ReflectUtils.getPrivateMethod(BinSearch.class, "findMiddleLine", RandomAccessFile.class, Long.TYPE,
-                Long.TYPE);
-        RandomAccessFile f = new RandomAccessFile(TestInfo.SORTED_CDX_FILE, "r");
-        // This file has linestarts at 24859, 25041, 25223, 25406 consecutively
-        Long l = (Long) m.invoke(null, f, 24859, 25223);
-        assertEquals("Should have given line in middle", 25041, l.longValue());
-        assertEquals("Should have file pointer at the right place", l.longValue(), f.getFilePointer());
-        l = (Long) m.invoke(null, f, 24859, 25041);
-        assertEquals("Should have given -1", -1, l.longValue());
-        l = (Long) m.invoke(null, f, 24859, 25406);
-        assertEquals("Should have found a line in between", 25223, l.longValue());
-        assertEquals("Should have file pointer at the right place", l.longValue(), f.getFilePointer());
-        // This unit test is not complete.
-
+    public void testGetLinesInChangedFile() throws IOException {
+        File file = File.createTempFile("binsearch", ".cdx");
+        file.deleteOnExit();
+        FileUtils.writeBinaryFile(file, "a 1\nb 1\nb 2\nc 1\n".getBytes());
+        assertEquals(Arrays.asList("b 1", "b 2"), findLinesInFile(file, "b "));
+        FileUtils.writeBinaryFile(file, "a 1\r\nb 3\r\nc 1\r\nc 2\r\nc 3\r\n".getBytes());
+        file.setLastModified(file.lastModified() + 2000);
+        assertEquals(Arrays.asList("b 3"), findLinesInFile(file, "b "));
+        assertEquals(Arrays.asList("c 1", "c 2", "c 3"), findLinesInFile(file, "c"));
+        assertEquals(Collections.emptyList(), findLinesInFile(file, "d"));
     }
 }
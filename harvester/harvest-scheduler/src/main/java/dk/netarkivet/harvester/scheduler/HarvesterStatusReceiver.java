@@ -82,6 +82,7 @@ public class HarvesterStatusReceiver extends HarvesterMessageHandler implements
     @Override
     public void shutdown() {
         jmsConnection.removeListener(HarvesterChannels.getHarvesterStatusChannel(), this);
+        jobDispatcher.shutdown();
     }
 
     /**
@@ -100,7 +101,7 @@ public class HarvesterStatusReceiver extends HarvesterMessageHandler implements
         } else if (!harvestChannelRegistry.isRegisteredToChannel(message.getApplicationInstanceId(), message.getHarvestChannelName())) {
         	harvestChannelRegistry.register(message.getHarvestChannelName(), message.getApplicationInstanceId());
         };
-        jobDispatcher.submitNextNewJob(channel);
+        jobDispatcher.dispatchNextNewJob(channel);
     }
 
     @Override
@@ -23,9 +23,21 @@
 package dk.netarkivet.harvester.scheduler;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,6 +45,7 @@ import org.slf4j.LoggerFactory;
 import dk.netarkivet.common.distribute.JMSConnection;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.ExceptionUtils;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.harvester.HarvesterSettings;
@@ -52,6 +65,11 @@ import dk.netarkivet.harvester.datamodel.HarvestDefinitionInfo;
 
 /**
  * This class handles dispatching of Harvest jobs to the Harvesters.
+ * <p>
+ * For each harvest channel, the next few NEW jobs are read and prepared in the background, so that a ready harvester
+ * can be sent a job without waiting for the job, its metadata and its harvest definition to be read from the database.
+ * A staged job is claimed with a conditional update of the database when it is dispatched, so a job that has been
+ * changed or dispatched since it was staged is never sent. Ready harvesters are served concurrently.
  */
 public class JobDispatcher {
 
@@ -64,9 +82,22 @@ public class JobDispatcher {
     private final HarvestDefinitionDAO harvestDefinitionDAO;
     private final JobDAO jobDao;
 
+    /** The number of jobs to stage for each channel. */
+    private final int stagedJobsPerChannel;
+
+    /** The staged jobs, by channel name. */
+    private final ConcurrentMap<String, JobStage> stages = new ConcurrentHashMap<String, JobStage>();
+
+    /** Serves ready harvesters. */
+    private final ExecutorService dispatchExecutor;
+
+    /** Refills the job stages in the background. */
+    private final ExecutorService stagingExecutor;
+
     /**
      * @param jmsConnection The JMS connection to use.
      * @param hDao The HarvestDefinitionDAO to use.
+     * @param jobDao The JobDAO to use.
      */
     public JobDispatcher(JMSConnection jmsConnection, HarvestDefinitionDAO hDao, JobDAO jobDao) {
         log.info("Creating JobDispatcher");
@@ -76,6 +107,43 @@ public class JobDispatcher {
         this.jmsConnection = jmsConnection;
         this.harvestDefinitionDAO = hDao;
         this.jobDao = jobDao;
+        this.stagedJobsPerChannel = Math.max(1, Settings.getInt(HarvesterSettings.JOBDISPATCHER_STAGED_JOBS));
+        this.dispatchExecutor = Executors.newFixedThreadPool(
+                Math.max(1, Settings.getInt(HarvesterSettings.JOBDISPATCHER_THREADS)),
+                new DispatcherThreadFactory("JobDispatcher"));
+        this.stagingExecutor = Executors.newSingleThreadExecutor(new DispatcherThreadFactory("JobStager"));
+    }
+
+    /**
+     * Dispatch the next new job for the given channel in the background. This is used when a harvester reports that it
+     * is ready, so that several ready harvesters can be served at the same time.
+     *
+     * @param channel the Channel to use for the job.
+     */
+    public void dispatchNextNewJob(final HarvestChannel channel) {
+        ArgumentNotValid.checkNotNull(channel, "channel");
+        try {
+            dispatchExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        submitNextNewJob(channel);
+                    } catch (Throwable t) {
+                        log.warn("Unable to dispatch a {} job", channel.getName(), t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.info("JobDispatcher is shut down, not dispatching a {} job", channel.getName());
+        }
+    }
+
+    /**
+     * Stop dispatching jobs. Jobs already being dispatched are allowed to finish.
+     */
+    public void shutdown() {
+        dispatchExecutor.shutdown();
+        stagingExecutor.shutdownNow();
     }
 
     /**
@@ -85,40 +153,18 @@ public class JobDispatcher {
      * @param channel the Channel to use for the job.
      */
     protected void submitNextNewJob(HarvestChannel channel) {
-        Job jobToSubmit = prepareNextJobForSubmission(channel);
-        if (jobToSubmit == null) {
+        StagedJob staged = prepareNextJobForSubmission(channel);
+        if (staged == null) {
             log.trace("No {} jobs to be run at this time", channel.getName());
         } else {
+            Job jobToSubmit = staged.job;
             log.debug("Submitting new {} job {}", channel.getName(), jobToSubmit.getJobID());
             try {
-                List<MetadataEntry> metadata = createMetadata(jobToSubmit);
-
-                // Extract documentary information about the harvest
-                String hName = harvestDefinitionDAO.getHarvestName(jobToSubmit.getOrigHarvestDefinitionID());
-
-                String schedule = "";
-                String hdComments = "";
-                String hdAudience = "";
-                SparseFullHarvest fh = harvestDefinitionDAO.getSparseFullHarvest(hName);
-                if (fh != null) {
-                    hdComments = fh.getComments();
-                } else {
-                    SparsePartialHarvest ph = harvestDefinitionDAO.getSparsePartialHarvest(hName);
-
-                    if (ph == null) {
-                        throw new ArgumentNotValid("No harvest definition found for id '"
-                                + jobToSubmit.getOrigHarvestDefinitionID() + "', named '" + hName + "'");
-                    }
-
-                    // The schedule name can only be documented for
-                    // selective crawls.
-                    schedule = ph.getScheduleName();
-
-                    hdComments = ph.getComments();
-                    hdAudience = ph.getAudience();
+                if (!staged.prepared) {
+                    prepare(staged);
                 }
-
-                doOneCrawl(jobToSubmit, hName, hdComments, schedule, channel, hdAudience, metadata);
+                doOneCrawl(jobToSubmit, staged.harvestName, staged.comments, staged.schedule, channel,
+                        staged.audience, staged.metadata);
 
                 log.info("Job #{} submitted", jobToSubmit.getJobID());
             } catch (Throwable t) {
@@ -136,26 +182,158 @@ public class JobDispatcher {
     }
 
     /**
-     * Will read the next job ready to run from the db and set the job to submitted. If no jobs are ready, null will be
-     * returned.
-     * <p>
-     * Note the operation is synchronized, so only one thread may start the submission of a job.
+     * Take the next staged job for the channel and claim it in the database by setting it to submitted. Jobs that
+     * cannot be claimed, because they have been changed or submitted since they were staged, are skipped. If no jobs
+     * are ready, null will be returned.
      *
      * @param channel the job channel.
      * @return A job ready to be submitted.
      */
-    private synchronized Job prepareNextJobForSubmission(HarvestChannel channel) {
-        Iterator<Long> jobsToSubmit = jobDao.getAllJobIds(JobStatus.NEW, channel);
-        if (!jobsToSubmit.hasNext()) {
-            return null;
+    private StagedJob prepareNextJobForSubmission(HarvestChannel channel) {
+        JobStage stage = getStage(channel);
+        boolean refilled = false;
+        try {
+            while (true) {
+                StagedJob staged = stage.poll();
+                if (staged == null) {
+                    if (refilled) {
+                        return null;
+                    }
+                    stageJobs(channel, stage);
+                    refilled = true;
+                } else if (jobDao.claimNewJob(staged.job, new Date())) {
+                    return staged;
+                } else {
+                    log.debug("Job {} was changed or submitted after being staged, skipping it",
+                            staged.job.getJobID());
+                }
+            }
+        } finally {
+            scheduleStaging(channel, stage);
+        }
+    }
+
+    /**
+     * @param channel A harvest channel.
+     * @return The stage of jobs for the channel.
+     */
+    private JobStage getStage(HarvestChannel channel) {
+        JobStage stage = stages.get(channel.getName());
+        if (stage == null) {
+            JobStage newStage = new JobStage();
+            stage = stages.putIfAbsent(channel.getName(), newStage);
+            if (stage == null) {
+                stage = newStage;
+            }
+        }
+        return stage;
+    }
+
+    /**
+     * Refill the stage of a channel in the background, if it is not full and the last refill found more jobs than
+     * there was room for.
+     *
+     * @param channel A harvest channel.
+     * @param stage The stage of the channel.
+     */
+    private void scheduleStaging(final HarvestChannel channel, final JobStage stage) {
+        if (!stage.moreJobs || stage.size() >= stagedJobsPerChannel
+                || !stage.refillScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            stagingExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        stageJobs(channel, stage);
+                    } catch (Throwable t) {
+                        log.warn("Unable to stage {} jobs", channel.getName(), t);
+                    } finally {
+                        stage.refillScheduled.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            stage.refillScheduled.set(false);
+        }
+    }
+
+    /**
+     * Read NEW jobs for the channel into its stage, until it holds the configured number of jobs.
+     *
+     * @param channel A harvest channel.
+     * @param stage The stage of the channel.
+     */
+    private void stageJobs(HarvestChannel channel, JobStage stage) {
+        synchronized (stage) {
+            Iterator<Long> jobIDs = jobDao.getAllJobIds(JobStatus.NEW, channel);
+            while (jobIDs.hasNext() && stage.size() < stagedJobsPerChannel) {
+                Long jobID = jobIDs.next();
+                if (stage.contains(jobID)) {
+                    continue;
+                }
+                Job job;
+                try {
+                    job = jobDao.read(jobID);
+                } catch (UnknownID e) {
+                    log.debug("Job {} disappeared before it could be staged", jobID);
+                    continue;
+                }
+                StagedJob staged = new StagedJob(job);
+                try {
+                    prepare(staged);
+                } catch (RuntimeException e) {
+                    // It will be tried again when the job is dispatched, and the job failed if it still fails.
+                    log.debug("Unable to prepare job {} in advance", jobID, e);
+                }
+                stage.add(staged);
+            }
+            stage.moreJobs = jobIDs.hasNext();
+            log.trace("{} {} jobs staged", stage.size(), channel.getName());
+        }
+    }
+
+    /**
+     * Look up the metadata and harvest definition information to send with a job.
+     *
+     * @param staged A staged job.
+     * @throws ArgumentNotValid If the harvest definition of the job is not found.
+     */
+    private void prepare(StagedJob staged) {
+        Job job = staged.job;
+        List<MetadataEntry> metadata = createMetadata(job);
+
+        // Extract documentary information about the harvest
+        String hName = harvestDefinitionDAO.getHarvestName(job.getOrigHarvestDefinitionID());
+
+        String schedule = "";
+        String hdComments = "";
+        String hdAudience = "";
+        SparseFullHarvest fh = harvestDefinitionDAO.getSparseFullHarvest(hName);
+        if (fh != null) {
+            hdComments = fh.getComments();
         } else {
-            final long jobID = jobsToSubmit.next();
-            Job jobToSubmit = jobDao.read(jobID);
-            jobToSubmit.setStatus(JobStatus.SUBMITTED);
-            jobToSubmit.setSubmittedDate(new Date());
-            jobDao.update(jobToSubmit);
-            return jobToSubmit;
+            SparsePartialHarvest ph = harvestDefinitionDAO.getSparsePartialHarvest(hName);
+
+            if (ph == null) {
+                throw new ArgumentNotValid("No harvest definition found for id '" + job.getOrigHarvestDefinitionID()
+                        + "', named '" + hName + "'");
+            }
+
+            // The schedule name can only be documented for
+            // selective crawls.
+            schedule = ph.getScheduleName();
+
+            hdComments = ph.getComments();
+            hdAudience = ph.getAudience();
         }
+        staged.metadata = metadata;
+        staged.harvestName = hName;
+        staged.schedule = schedule;
+        staged.comments = hdComments;
+        staged.audience = hdAudience;
+        staged.prepared = true;
     }
 
     /**
@@ -236,4 +414,95 @@ public class JobDispatcher {
 		return Settings.get(HarvesterSettings.HERITRIX_ARCHIVE_FORMAT).equalsIgnoreCase("warc");
 	}
 
+    /**
+     * A job read from the database and prepared for submission.
+     */
+    private static class StagedJob {
+        /** The job. */
+        private final Job job;
+        /** Whether the fields below have been looked up. */
+        private boolean prepared;
+        /** The pre-harvest metadata of the job. */
+        private List<MetadataEntry> metadata;
+        /** The name of the harvest definition of the job. */
+        private String harvestName;
+        /** The schedule of the harvest definition, if selective. */
+        private String schedule = "";
+        /** The comments of the harvest definition. */
+        private String comments = "";
+        /** The audience of the harvest definition, if selective. */
+        private String audience = "";
+
+        /**
+         * @param job A NEW job.
+         */
+        StagedJob(Job job) {
+            this.job = job;
+        }
+    }
+
+    /**
+     * The staged jobs of one channel, in the order they should be dispatched.
+     */
+    private static class JobStage {
+        /** The staged jobs. */
+        private final Queue<StagedJob> jobs = new ConcurrentLinkedQueue<StagedJob>();
+        /** The IDs of the staged jobs. */
+        private final Set<Long> jobIDs = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        /** Whether a background refill has been scheduled. */
+        private final AtomicBoolean refillScheduled = new AtomicBoolean();
+        /** Whether the last refill left NEW jobs behind. */
+        private volatile boolean moreJobs;
+
+        /** @return The next staged job, or null if none are staged. */
+        StagedJob poll() {
+            StagedJob staged = jobs.poll();
+            if (staged != null) {
+                jobIDs.remove(staged.job.getJobID());
+            }
+            return staged;
+        }
+
+        /** @param staged A job to add to the stage. */
+        void add(StagedJob staged) {
+            jobIDs.add(staged.job.getJobID());
+            jobs.add(staged);
+        }
+
+        /**
+         * @param jobID A job ID.
+         * @return true, if the job is staged.
+         */
+        boolean contains(Long jobID) {
+            return jobIDs.contains(jobID);
+        }
+
+        /** @return The number of staged jobs. */
+        int size() {
+            return jobIDs.size();
+        }
+    }
+
+    /**
+     * Creates named daemon threads for the executors of the dispatcher.
+     */
+    private static class DispatcherThreadFactory implements ThreadFactory {
+        /** The prefix of the thread names. */
+        private final String prefix;
+        /** The number of threads created. */
+        private final AtomicInteger count = new AtomicInteger();
+
+        /** @param prefix The prefix of the thread names. */
+        DispatcherThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
 }
@@ -57,7 +57,7 @@ public class HarvesterStatusReceiverTest {
         HarvesterReadyMessage readyMessage = new HarvesterReadyMessage("Test", highChan.getName());
         when(harvestChannelDao.getByName(highChan.getName())).thenReturn(highChan);
         receiver.onMessage(JMSConnectionMockupMQ.getObjectMessage(readyMessage));
-        verify(jobDispatcher).submitNextNewJob(highChan);
+        verify(jobDispatcher).dispatchNextNewJob(highChan);
     }
 
     @Test
@@ -27,7 +27,10 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -93,10 +96,8 @@ public class JobDispatcherTest {
 
         jobDispatcher.submitNextNewJob(SELECTIVE_HARVEST_CHANNEL);
 
-        verify(jobMock).setStatus(JobStatus.SUBMITTED);
-        verify(jobMock).setSubmittedDate(any(Date.class));
-
-        verify(jobDAO, new Times(1)).update(jobMock);
+        verify(jobDAO, new Times(1)).claimNewJob(eq(jobMock), any(Date.class));
+        verify(jobDAO, never()).update(jobMock);
         
         verify(jmsConnection).send(crawlMessageCaptor.capture());
         
@@ -154,6 +155,49 @@ public class JobDispatcherTest {
                 new String(metadataEntry.getData()));
     }
 
+    /**
+     * Test that a job which cannot be claimed is skipped, and the next job is submitted instead.
+     */
+    @Test
+    public void testUnclaimableJobIsSkipped() {
+        Job takenJob = createJob(1);
+        Job nextJob = createJob(2);
+        prepareDefaultMockAnswers(SELECTIVE_HARVEST_CHANNEL, nextJob, false);
+        prepareDefaultMockAnswers(SELECTIVE_HARVEST_CHANNEL, takenJob, false);
+        when(jobDAO.getAllJobIds(JobStatus.NEW, SELECTIVE_HARVEST_CHANNEL)).thenReturn(
+                Arrays.asList(new Long[] {1L, 2L}).iterator());
+        when(jobDAO.claimNewJob(eq(takenJob), any(Date.class))).thenReturn(false);
+
+        jobDispatcher.submitNextNewJob(SELECTIVE_HARVEST_CHANNEL);
+
+        verify(jmsConnection).send(crawlMessageCaptor.capture());
+        assertTrue(nextJob == crawlMessageCaptor.getValue().getJob());
+    }
+
+    /**
+     * Test that the jobs used for duplicate reduction are only looked up once for jobs from the same harvest.
+     */
+    @Test
+    public void testDuplicateReductionInfoIsReusedWithinHarvest() {
+        Job firstJob = createJob(1);
+        Job secondJob = createJob(2);
+        prepareDefaultMockAnswers(SELECTIVE_HARVEST_CHANNEL, secondJob, true);
+        prepareDefaultMockAnswers(SELECTIVE_HARVEST_CHANNEL, firstJob, true);
+        when(jobDAO.getAllJobIds(JobStatus.NEW, SELECTIVE_HARVEST_CHANNEL)).thenReturn(
+                Arrays.asList(new Long[] {1L, 2L}).iterator());
+        when(jobDAO.getJobIDsForDuplicateReduction(anyLong())).thenReturn(Arrays.asList(new Long[] {42L}));
+
+        jobDispatcher.submitNextNewJob(SELECTIVE_HARVEST_CHANNEL);
+        jobDispatcher.submitNextNewJob(SELECTIVE_HARVEST_CHANNEL);
+
+        verify(jmsConnection, new Times(2)).send(crawlMessageCaptor.capture());
+        verify(jobDAO, new Times(1)).getJobIDsForDuplicateReduction(anyLong());
+        for (DoOneCrawlMessage message : crawlMessageCaptor.getAllValues()) {
+            assertEquals("Should have the cached duplicate reduction jobs", "42",
+                    new String(message.getMetadata().get(0).getData()));
+        }
+    }
+
     private static final HarvestChannel SNAPSHOT = new HarvestChannel("SNAPSHOT", true, true, "");
 
     /**
@@ -212,6 +256,7 @@ public class JobDispatcherTest {
         Iterator<Long> jobIDIterator = Arrays.asList(new Long[] {job.getJobID()}).iterator();
         when(jobDAO.getAllJobIds(JobStatus.NEW, channel)).thenReturn(jobIDIterator);
         when(jobDAO.read(job.getJobID())).thenReturn(job);
+        when(jobDAO.claimNewJob(eq(job), any(Date.class))).thenReturn(true);
         when(harvestDefinitionDAO.getHarvestName(harvest.getOid())).thenReturn(harvest.getName());
         when(harvestDefinitionDAO.getSparsePartialHarvest(harvest.getName())).thenReturn(harvest);
         OrderXmlBuilder builder = OrderXmlBuilder.createDefault();
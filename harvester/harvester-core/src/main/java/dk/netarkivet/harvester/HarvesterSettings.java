@@ -96,6 +96,25 @@ public class HarvesterSettings {
      * Default schedule for selective harvesting,. No default by default.
      */
     public static String DOMAIN_CONFIG_SCHEDULE = "settings.harvester.datamodel.domain.defaultSchedule";
+
+    /**
+     * <b>settings.harvester.datamodel.domain.searchIndexDir</b>: <br>
+     * A local directory for an index of the domain names, crawlertraps and comments, used by the domain search instead
+     * of LIKE queries on the database. The index is built anew at startup, and until it is ready the database is
+     * searched. Globs without three consecutive literal characters are always searched in the database. The index only
+     * sees domain changes made by the application itself, so it should only be used by the application editing domains
+     * (the GUI). If the index cannot be created in the directory, the database is searched. If empty, the default, no
+     * index is used.
+     */
+    public static String DOMAIN_SEARCH_INDEX_DIR = "settings.harvester.datamodel.domain.searchIndexDir";
+
+    /**
+     * <b>settings.harvester.datamodel.job.statusCountCacheTime</b>: <br>
+     * The number of seconds the total number of jobs matching a query on the harvest status pages is cached. Changes
+     * to jobs made by this application are seen at once, changes made by other applications when the cached total
+     * expires. 0 turns off the caching. The default is 60 seconds.
+     */
+    public static String JOB_STATUS_COUNT_CACHE_TIME = "settings.harvester.datamodel.job.statusCountCacheTime";
     
     /**
      * <b>settings.harvester.scheduler.jobGen.config.errorFactorPrevResult</b>: <br>
@@ -228,6 +247,19 @@ public class HarvesterSettings {
      */
     public static String GENERATE_JOBS_PERIOD = "settings.harvester.scheduler.jobgenerationperiode";
 
+    /**
+     * <b>settings.harvester.scheduler.jobDispatcher.stagedJobs</b>: <br>
+     * The number of NEW jobs per harvest channel the JobDispatcher reads and prepares in the background, so they are
+     * ready to be sent when a harvester asks for a job.
+     */
+    public static String JOBDISPATCHER_STAGED_JOBS = "settings.harvester.scheduler.jobDispatcher.stagedJobs";
+
+    /**
+     * <b>settings.harvester.scheduler.jobDispatcher.threads</b>: <br>
+     * The number of ready harvesters the JobDispatcher serves concurrently.
+     */
+    public static String JOBDISPATCHER_THREADS = "settings.harvester.scheduler.jobDispatcher.threads";
+
     /**
      * <b>settings.harvester.harvesting.serverDir</b>: <br>
      * Each job gets a subdir of this dir. Job data is written and Heritrix writes to that subdir. 
@@ -547,6 +579,14 @@ public class HarvesterSettings {
      * default: false 
      */
     public static String METADATA_COMPRESSION = "settings.harvester.harvesting.metadata.compression";
+
+    /**
+     * <b>settings.harvester.harvesting.metadata.compressionThreads</b> The number of threads compressing files, such
+     * as CDX files, into records of compressed metadata WARC files. The records are still written in the order of the
+     * files. 1 compresses the files one at a time. 
+     * default: 2 
+     */
+    public static String METADATA_COMPRESSION_THREADS = "settings.harvester.harvesting.metadata.compressionThreads";
     
     /**
      * <b>settings.harvester.harvesting.heritrix.archiveNaming.collectionName</b>
@@ -653,6 +693,20 @@ public class HarvesterSettings {
      * Setting for the max number of threads the deduplication indexer shall use.
      */
     public static String INDEXSERVER_INDEXING_MAXTHREADS = "settings.harvester.indexserver.maxthreads";
+    /**
+     * <b>settings.harvester.indexserver.maxconcurrentindexings</b>: <br>
+     * Setting for the max number of index requests the indexserver will build indices for at the same time. Further
+     * requests are queued. The default is 4.
+     */
+    public static String INDEXSERVER_INDEXING_MAXCONCURRENT = "settings.harvester.indexserver.maxconcurrentindexings";
+
+    /**
+     * <b>settings.harvester.indexserver.minfreememorypercentage</b>: <br>
+     * Setting for the percentage of the max heap that must be available before the indexserver starts building another
+     * index while other indices are being built. The default is 25 percent.
+     */
+    public static String INDEXSERVER_INDEXING_MIN_FREE_MEMORY_PERCENTAGE = "settings.harvester.indexserver.minfreememorypercentage";
+
     /**
      * <b>settings.harvester.indexserver.checkinterval</b>: <br>
      * Setting for the time in milliseconds between each check of the state of sub-indexing. Default: 30 seconds (30000
@@ -672,6 +726,50 @@ public class HarvesterSettings {
      */
     public static String INDEXSERVER_INDEXING_MAX_SEGMENTS = "settings.harvester.indexserver.maxsegments";
 
+    /**
+     * <b>settings.harvester.indexserver.rambuffersizemb</b>: <br>
+     * Setting for the amount of RAM in MB each Lucene index writer of the indexserver uses to buffer documents before
+     * flushing them to disk. The default is 16.
+     */
+    public static String INDEXSERVER_INDEXING_RAM_BUFFER_SIZE_MB = "settings.harvester.indexserver.rambuffersizemb";
+
+    /**
+     * <b>settings.harvester.indexserver.bulkload</b>: <br>
+     * Setting for whether the indexserver defers all segment merging until a job index has been completely loaded,
+     * rather than merging while documents are added. The default is true.
+     */
+    public static String INDEXSERVER_INDEXING_BULKLOAD = "settings.harvester.indexserver.bulkload";
+
+    /**
+     * <b>settings.harvester.indexserver.threadsperjob</b>: <br>
+     * Setting for the max number of threads feeding the Lucene index of a single job. The crawl log of a job is split
+     * into parts of URLs, which are indexed at the same time. The default is 2.
+     */
+    public static String INDEXSERVER_INDEXING_THREADS_PER_JOB = "settings.harvester.indexserver.threadsperjob";
+
+    /**
+     * <b>settings.harvester.indexserver.minpartsize</b>: <br>
+     * Setting for the minimum size in bytes of each part of a crawl log indexed by its own thread. Crawl logs smaller
+     * than twice this size are indexed by one thread. The default is 16777216 (16 MB).
+     */
+    public static String INDEXSERVER_INDEXING_MIN_PART_SIZE = "settings.harvester.indexserver.minpartsize";
+
+    /**
+     * <b>settings.harvester.indexserver.keepuncompressedindex</b>: <br>
+     * Setting for whether the indexserver keeps an uncompressed copy of each generated Lucene index next to the
+     * gzipped one, so it can be delivered to harvesters asking for uncompressed delivery. This doubles the disk space
+     * used by the index cache. The default is false.
+     */
+    public static String INDEXSERVER_INDEXING_KEEP_UNCOMPRESSED = "settings.harvester.indexserver.keepuncompressedindex";
+
+    /**
+     * <b>settings.harvester.indexserver.segmentstoremaxsize</b>: <br>
+     * Setting for the maximum size in bytes of the store of per-job Lucene indices the indexserver composes its
+     * indices from. When the store grows beyond this size, the job indices used longest ago are removed. 0 means no
+     * limit. The default is 10737418240 (10 GB).
+     */
+    public static String INDEXSERVER_INDEXING_SEGMENT_STORE_MAX_SIZE = "settings.harvester.indexserver.segmentstoremaxsize";
+
     /**
      * <b>settings.harvester.indexserver.listeningcheckinterval</b>: <br>
      * Setting for the interval between each listening check in milliseconds. The default is 30000 (5 minutes).
@@ -728,6 +826,29 @@ public class HarvesterSettings {
      */
     public static String ALLOW_FILE_DOWNLOADS = "settings.harvester.viewerproxy.allowFileDownloads";
 
+    /**
+     * <b>settings.harvester.viewerproxy.qaCache.dir</b>: <br>
+     * The directory where the QA pages keep the local stores of the metadata of the jobs looked at. If empty, the
+     * directory qacache in the common temporary directory is used.
+     */
+    public static String QA_CACHE_DIR = "settings.harvester.viewerproxy.qaCache.dir";
+
+    /**
+     * <b>settings.harvester.viewerproxy.qaCache.maxSize</b>: <br>
+     * The maximum number of bytes used by the local stores of job metadata for the QA pages. When exceeded, the
+     * stores used longest ago are removed. If 0, no stores are kept, and the QA pages run batch jobs on the archive
+     * for every request. The default is 5000000000 (5 GB).
+     */
+    public static String QA_CACHE_MAX_SIZE = "settings.harvester.viewerproxy.qaCache.maxSize";
+
+    /**
+     * <b>settings.harvester.viewerproxy.qaCache.maxAge</b>: <br>
+     * The number of seconds a local store of job metadata for the QA pages is used before it is built again from the
+     * archive, so metadata files uploaded after the store was built are found. If 0, stores are kept until removed to
+     * keep the cache below its maximum size. The default is 86400 (one day).
+     */
+    public static String QA_CACHE_MAX_AGE = "settings.harvester.viewerproxy.qaCache.maxAge";
+
     /**
      * The maximum length (in lines) of crawllog to be displayed in a browser window.
      */
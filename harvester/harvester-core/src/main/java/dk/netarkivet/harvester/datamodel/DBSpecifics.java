@@ -580,6 +580,13 @@ public abstract class DBSpecifics extends SettingsFactory<DBSpecifics> {
      */
     public abstract boolean supportsClob();
 
+    /**
+     * Returns true if the target RDBMS supports recursive common table expressions (WITH RECURSIVE ...).
+     *
+     * @return true if recursive queries are supported, false otherwise.
+     */
+    public abstract boolean supportsRecursiveQueries();
+
     /**
      * Create the frontierReportMonitor table in the database.
      */
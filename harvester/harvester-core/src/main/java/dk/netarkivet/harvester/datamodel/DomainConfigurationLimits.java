@@ -0,0 +1,82 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * The byte and object limits of a domain configuration, as used when post-processing a harvest report. Immutable.
+ *
+ * @see dk.netarkivet.harvester.datamodel.DomainConfiguration
+ */
+public class DomainConfigurationLimits {
+    /** Name of this configuration. */
+    private final String configurationName;
+    /** The maximum number of objects harvested with this configuration. */
+    private final long maxObjects;
+    /** The maximum number of bytes harvested with this configuration. */
+    private final long maxBytes;
+
+    /**
+     * Create the limits of a configuration.
+     *
+     * @param configurationName Name of configuration.
+     * @param maxObjects The maximum number of objects, -1 for no limit.
+     * @param maxBytes The maximum number of bytes, -1 for no limit.
+     * @throws ArgumentNotValid if configurationName is null or empty.
+     */
+    public DomainConfigurationLimits(String configurationName, long maxObjects, long maxBytes) {
+        ArgumentNotValid.checkNotNullOrEmpty(configurationName, "configurationName");
+        this.configurationName = configurationName;
+        this.maxObjects = maxObjects;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get configuration name.
+     *
+     * @return The configuration name.
+     */
+    public String getConfigurationName() {
+        return configurationName;
+    }
+
+    /**
+     * Get the maximum number of objects harvested with this configuration.
+     *
+     * @return The maximum number of objects, -1 for no limit.
+     */
+    public long getMaxObjects() {
+        return maxObjects;
+    }
+
+    /**
+     * Get the maximum number of bytes harvested with this configuration.
+     *
+     * @return The maximum number of bytes, -1 for no limit.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+}
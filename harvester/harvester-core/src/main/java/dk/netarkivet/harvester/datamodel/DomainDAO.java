@@ -23,8 +23,10 @@
 package dk.netarkivet.harvester.datamodel;
 
 import java.sql.Connection;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.UnknownID;
@@ -279,6 +281,27 @@ public abstract class DomainDAO implements DAO, Iterable<Domain> {
      */
     public abstract HarvestInfo getDomainJobInfo(Job job, String domainName, String configName);
 
+    /**
+     * Get the limits of the domain configurations used by a job, read in one query.
+     *
+     * @param jobID The ID of a job.
+     * @return The limits of the configurations of the job, keyed by domain name.
+     */
+    public abstract Map<String, DomainConfigurationLimits> getConfigurationLimits(Long jobID);
+
+    /**
+     * Add the harvest info of many domains at once. Only the harvest history of the domains is written: the infos are
+     * inserted with batched statements in one transaction per job, and the edition of the domains is increased.
+     * <p>
+     * Adding is idempotent: An info is skipped if the domain configuration already has harvest info for the job. Infos
+     * for configurations that are not part of their job are skipped as well.
+     *
+     * @param harvestInfos Harvest infos with a job ID.
+     * @return The number of infos added.
+     * @throws ArgumentNotValid If harvestInfos is null or contains an info without job ID.
+     */
+    public abstract int addHarvestInfos(Collection<HarvestInfo> harvestInfos);
+
     /**
      * Get a list of info about harvests performed on a given domain.
      * <p>
@@ -23,6 +23,7 @@
 
 package dk.netarkivet.harvester.datamodel;
 
+import java.io.File;
 import java.sql.Clob;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -33,13 +34,16 @@ import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
@@ -52,9 +56,12 @@ import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.DBUtils;
 import dk.netarkivet.common.utils.DomainUtils;
 import dk.netarkivet.common.utils.FilterIterator;
+import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.StringUtils;
+import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.datamodel.eav.EAV;
 import dk.netarkivet.harvester.datamodel.eav.EAV.AttributeAndType;
+import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldTypes;
 import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldValue;
 import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldValueDAO;
 import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldValueDBDAO;
@@ -74,6 +81,16 @@ public class DomainDBDAO extends DomainDAO {
     /** The log. */
     private static final Logger log = LoggerFactory.getLogger(DomainDBDAO.class);
 
+    /** The number of harvest infos sent to the database in one batch by {@link #addHarvestInfos(Collection)}. */
+    private static final int HARVEST_INFO_BATCH_SIZE = 1000;
+
+    /**
+     * The index for searching domains, or null if searches go to the database. The index only sees the changes made
+     * through this DAO, i.e. in this JVM, so changes made by other applications are not found until it is rebuilt at
+     * the next startup.
+     */
+    private final DomainSearchIndex searchIndex;
+
     /**
      * Creates a database-based implementation of the DomainDAO. Will check that all schemas have correct versions, and
      * update the ones that haven't.
@@ -98,6 +115,44 @@ public class DomainDBDAO extends DomainDAO {
         } finally {
             HarvestDBConnection.release(connection);
         }
+        searchIndex = openSearchIndex();
+        if (searchIndex != null) {
+            Thread builder = new Thread("DomainSearchIndexBuilder") {
+                @Override
+                public void run() {
+                    Connection c = HarvestDBConnection.get();
+                    try {
+                        searchIndex.build(c);
+                    } catch (Exception e) {
+                        log.warn("Could not build the domain search index. Searching the database instead", e);
+                    } finally {
+                        HarvestDBConnection.release(c);
+                    }
+                }
+            };
+            builder.setDaemon(true);
+            builder.start();
+        }
+    }
+
+    /**
+     * Open the domain search index in the directory given by {@link HarvesterSettings#DOMAIN_SEARCH_INDEX_DIR}.
+     *
+     * @return The index, or null if no directory is set or the index cannot be created there, in which case searches
+     * go to the database.
+     */
+    private static DomainSearchIndex openSearchIndex() {
+        String searchIndexDir = Settings.get(HarvesterSettings.DOMAIN_SEARCH_INDEX_DIR);
+        if (searchIndexDir.isEmpty()) {
+            return null;
+        }
+        try {
+            return new DomainSearchIndex(new File(searchIndexDir));
+        } catch (IOFailure | PermissionDenied e) {
+            log.warn("Could not open the domain search index in '{}'. Searching the database instead",
+                    searchIndexDir, e);
+            return null;
+        }
     }
 
     @Override
@@ -193,6 +248,7 @@ public class DomainDBDAO extends DomainDAO {
 
             connection.commit();
             d.setEdition(initialEdition);
+            updateSearchIndex(d);
         } catch (SQLException e) {
             String message = "SQL error creating domain " + d + " in database" + "\n";
             log.warn(message, e);
@@ -273,6 +329,7 @@ public class DomainDBDAO extends DomainDAO {
             s.executeUpdate();
             connection.commit();
             d.setEdition(newEdition);
+            updateSearchIndex(d);
         } catch (SQLException e) {
             String message = "SQL error updating domain " + d + " in database" + "\n";
             log.warn(message, e);
@@ -284,6 +341,17 @@ public class DomainDBDAO extends DomainDAO {
         }
     }
 
+    /**
+     * Index the searchable values of a domain, if searches use the index.
+     *
+     * @param d A domain that has just been created or updated.
+     */
+    private void updateSearchIndex(Domain d) {
+        if (searchIndex != null) {
+            searchIndex.update(d.getName(), StringUtils.conjoin("\n", d.getCrawlerTraps()), d.getComments());
+        }
+    }
+
     /**
      * Update the list of passwords for the given domain, keeping IDs where applicable.
      *
@@ -801,6 +869,7 @@ public class DomainDBDAO extends DomainDAO {
             d.setDefaultConfiguration(defaultconfig);
             readOwnerInfo(c, d);
             readHistoryInfo(c, d);
+            readExtendedFieldValues(c, d);
 
             result = d;
         } catch (SQLException e) {
@@ -1128,6 +1197,9 @@ public class DomainDBDAO extends DomainDAO {
     public List<String> getDomains(String glob) {
         ArgumentNotValid.checkNotNullOrEmpty(glob, "glob");
         // SQL uses % and _ instead of * and ?
+        if (searchIndex != null && searchIndex.canSearch(glob, DomainSearchIndex.NAME_FIELD)) {
+            return searchIndex.search(glob, DomainSearchIndex.NAME_FIELD);
+        }
         String sqlGlob = DBUtils.makeSQLGlob(glob);
         Connection c = HarvestDBConnection.get();
         try {
@@ -1344,6 +1416,143 @@ public class DomainDBDAO extends DomainDAO {
         }
     }
 
+    @Override
+    public Map<String, DomainConfigurationLimits> getConfigurationLimits(Long jobID) {
+        ArgumentNotValid.checkNotNull(jobID, "Long jobID");
+        Connection connection = HarvestDBConnection.get();
+        PreparedStatement s = null;
+        try {
+            s = connection.prepareStatement("SELECT domains.name, configurations.name, configurations.maxobjects, "
+                    + "configurations.maxbytes FROM domains, configurations, job_configs "
+                    + "WHERE job_configs.job_id = ?" + "  AND job_configs.config_id = configurations.config_id"
+                    + "  AND domains.domain_id = configurations.domain_id");
+            s.setLong(1, jobID);
+            ResultSet res = s.executeQuery();
+            Map<String, DomainConfigurationLimits> limits = new HashMap<String, DomainConfigurationLimits>();
+            while (res.next()) {
+                limits.put(res.getString(1),
+                        new DomainConfigurationLimits(res.getString(2), res.getLong(3), res.getLong(4)));
+            }
+            return limits;
+        } catch (SQLException e) {
+            throw new IOFailure("SQL error while reading the configuration limits of job " + jobID + "\n", e);
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+            HarvestDBConnection.release(connection);
+        }
+    }
+
+    @Override
+    public synchronized int addHarvestInfos(Collection<HarvestInfo> harvestInfos) {
+        ArgumentNotValid.checkNotNull(harvestInfos, "Collection<HarvestInfo> harvestInfos");
+        Map<Long, List<HarvestInfo>> infosByJob = new HashMap<Long, List<HarvestInfo>>();
+        for (HarvestInfo hi : harvestInfos) {
+            ArgumentNotValid.checkNotNull(hi.getJobID(), "The job ID of " + hi);
+            List<HarvestInfo> infos = infosByJob.get(hi.getJobID());
+            if (infos == null) {
+                infos = new ArrayList<HarvestInfo>();
+                infosByJob.put(hi.getJobID(), infos);
+            }
+            infos.add(hi);
+        }
+        Connection connection = HarvestDBConnection.get();
+        try {
+            connection.setAutoCommit(false);
+            int added = 0;
+            for (Map.Entry<Long, List<HarvestInfo>> entry : infosByJob.entrySet()) {
+                added += insertHarvestInfos(connection, entry.getKey(), entry.getValue());
+                connection.commit();
+            }
+            return added;
+        } catch (SQLException e) {
+            String message = "SQL error adding harvest info for jobs " + infosByJob.keySet() + "\n";
+            log.warn(message, e);
+            throw new IOFailure(message, e);
+        } finally {
+            DBUtils.rollbackIfNeeded(connection, "adding harvest info for jobs", infosByJob.keySet());
+            HarvestDBConnection.release(connection);
+        }
+    }
+
+    /**
+     * Insert the harvest info of one job with batched statements, skipping configurations that already have harvest
+     * info for the job and configurations that are not part of the job.
+     *
+     * @param c A connection to the database
+     * @param jobID The ID of the job.
+     * @param harvestInfos Harvest infos for the job.
+     * @return The number of infos inserted.
+     * @throws SQLException If any database problems occur during the insertion.
+     */
+    private int insertHarvestInfos(Connection c, Long jobID, List<HarvestInfo> harvestInfos) throws SQLException {
+        // The config_id and domain_id of each configuration of the job.
+        Map<SparseDomainConfiguration, long[]> configurationIDs = new HashMap<SparseDomainConfiguration, long[]>();
+        PreparedStatement s = c.prepareStatement("SELECT domains.name, configurations.name, "
+                + "configurations.config_id, configurations.domain_id FROM domains, configurations, job_configs "
+                + "WHERE job_configs.job_id = ?" + "  AND job_configs.config_id = configurations.config_id"
+                + "  AND domains.domain_id = configurations.domain_id");
+        try {
+            s.setLong(1, jobID);
+            ResultSet res = s.executeQuery();
+            while (res.next()) {
+                configurationIDs.put(new SparseDomainConfiguration(res.getString(1), res.getString(2)), new long[] {
+                        res.getLong(3), res.getLong(4)});
+            }
+        } finally {
+            s.close();
+        }
+        Set<Long> harvestedConfigIDs = new HashSet<Long>(DBUtils.selectLongList(c,
+                "SELECT config_id FROM historyinfo WHERE job_id = ?", jobID));
+
+        PreparedStatement insert = c.prepareStatement("INSERT INTO historyinfo "
+                + "( stopreason, objectcount, bytecount, config_id, job_id, harvest_id, harvest_time ) "
+                + "VALUES ( ?, ?, ?, ?, ?, ?, ? )");
+        // The history is part of the domain, so the edition changes as it would in update().
+        PreparedStatement edition = c.prepareStatement("UPDATE domains SET edition = edition + 1 "
+                + "WHERE domain_id = ?");
+        try {
+            int inserted = 0;
+            for (HarvestInfo hi : harvestInfos) {
+                long[] ids = configurationIDs.get(new SparseDomainConfiguration(hi.getDomainName(), hi
+                        .getDomainConfigurationName()));
+                if (ids == null) {
+                    log.warn("Configuration '{}' of domain '{}' is not part of job {}. Skipping harvest info {}",
+                            hi.getDomainConfigurationName(), hi.getDomainName(), jobID, hi);
+                    continue;
+                }
+                if (!harvestedConfigIDs.add(ids[0])) {
+                    log.debug("Configuration '{}' of domain '{}' already has harvest info for job {}. Skipping {}",
+                            hi.getDomainConfigurationName(), hi.getDomainName(), jobID, hi);
+                    continue;
+                }
+                insert.setInt(1, hi.getStopReason().ordinal());
+                insert.setLong(2, hi.getCountObjectRetrieved());
+                insert.setLong(3, hi.getSizeDataRetrieved());
+                insert.setLong(4, ids[0]);
+                insert.setLong(5, jobID);
+                insert.setLong(6, hi.getHarvestID());
+                insert.setTimestamp(7, new Timestamp(hi.getDate().getTime()));
+                insert.addBatch();
+                edition.setLong(1, ids[1]);
+                edition.addBatch();
+                inserted++;
+                if (inserted % HARVEST_INFO_BATCH_SIZE == 0) {
+                    insert.executeBatch();
+                    edition.executeBatch();
+                }
+            }
+            if (inserted % HARVEST_INFO_BATCH_SIZE != 0) {
+                insert.executeBatch();
+                edition.executeBatch();
+            }
+            log.debug("Inserted {} of {} harvest infos for job {}", inserted, harvestInfos.size(), jobID);
+            return inserted;
+        } finally {
+            DBUtils.closeStatementIfOpen(insert);
+            DBUtils.closeStatementIfOpen(edition);
+        }
+    }
+
     @Override
     public List<DomainHarvestInfo> listDomainHarvestInfo(String domainName, String orderBy, boolean asc) {
         ArgumentNotValid.checkNotNullOrEmpty(domainName, "domainName");
@@ -1404,17 +1613,25 @@ public class DomainDBDAO extends DomainDAO {
      */
     private void saveExtendedFieldValues(Connection c, Domain d) throws SQLException {
         List<ExtendedFieldValue> list = d.getExtendedFieldValues();
-        for (int i = 0; i < list.size(); i++) {
-            ExtendedFieldValue efv = list.get(i);
+        for (ExtendedFieldValue efv : list) {
             efv.setInstanceID(d.getID());
-
-            ExtendedFieldValueDBDAO dao = (ExtendedFieldValueDBDAO) ExtendedFieldValueDAO.getInstance();
-            if (efv.getExtendedFieldValueID() != null) {
-                dao.update(c, efv, false);
-            } else {
-                dao.create(c, efv, false);
-            }
         }
+        ExtendedFieldValueDBDAO dao = (ExtendedFieldValueDBDAO) ExtendedFieldValueDAO.getInstance();
+        dao.saveAll(c, list);
+    }
+
+    /**
+     * Reads all extended Field values from the database for a Domain. Values stored for the domain keep their IDs, so
+     * saving the domain again updates them instead of adding new ones.
+     *
+     * @param c Connection to Database
+     * @param d Domain where loaded extended Field Values will be set. Its ID must be set.
+     * @throws SQLException If database errors occur.
+     */
+    private void readExtendedFieldValues(Connection c, Domain d) throws SQLException {
+        ExtendedFieldValueDBDAO dao = (ExtendedFieldValueDBDAO) ExtendedFieldValueDAO.getInstance();
+        d.setExtendedFieldValues(dao.readAll(c, ExtendedFieldTypes.DOMAIN, Collections.singletonList(d.getID())).get(
+                d.getID()));
     }
 
     @Override
@@ -1603,6 +1820,9 @@ public class DomainDBDAO extends DomainDAO {
     public List<String> getDomains(String glob, String searchField) {
         ArgumentNotValid.checkNotNullOrEmpty(glob, "glob");
         ArgumentNotValid.checkNotNullOrEmpty(searchField, "searchField");
+        if (searchIndex != null && searchIndex.canSearch(glob, searchField)) {
+            return searchIndex.search(glob, searchField);
+        }
         // SQL uses % and _ instead of * and ?
         String sqlGlob = DBUtils.makeSQLGlob(glob);
 
@@ -0,0 +1,406 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.Constants;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.DBUtils;
+import dk.netarkivet.common.utils.DomainUtils;
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * A Lucene index for searching domains by substrings of their name, crawlertraps or comments. Each text is indexed by
+ * its trigrams, so a glob like <code>*news*</code> is answered by looking up the trigrams of its literal parts instead
+ * of scanning the domains table. The candidates found are then matched against the glob, so the result is the same as
+ * that of a LIKE query.
+ * <p>
+ * The index is kept in a local directory. It is not committed, but built anew from the
+ * database when opened, and kept current by {@link #update(String, String, String)}. Searches are not possible until
+ * the index has been built.
+ * <p>
+ * Only the updates made in this JVM reach the index. Domains created or changed by other applications writing to the
+ * same database are not seen until the index is built again, i.e. at the next startup.
+ */
+final class DomainSearchIndex {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(DomainSearchIndex.class);
+
+    /** The field holding the domain name. Also searchable as a text. */
+    static final String NAME_FIELD = "name";
+    /** The field holding the crawlertraps, one per line. */
+    static final String CRAWLERTRAPS_FIELD = "crawlertraps";
+    /** The field holding the comments. */
+    static final String COMMENTS_FIELD = "comments";
+    /** The fields that can be searched. */
+    private static final Set<String> SEARCH_FIELDS = new HashSet<String>(Arrays.asList(NAME_FIELD,
+            CRAWLERTRAPS_FIELD, COMMENTS_FIELD));
+    /** The suffix of the field names holding the trigrams of the fields. */
+    private static final String GRAMS_SUFFIX = ".grams";
+    /** The length of the grams indexed. */
+    private static final int GRAM_LENGTH = 3;
+    /**
+     * The maximum number of grams looked up for one search. More grams only narrow the candidates further, which
+     * matching the glob does anyway.
+     */
+    private static final int MAX_QUERY_GRAMS = 64;
+    /** The number of domains read from the database at a time when building the index. */
+    private static final int FETCH_SIZE = 1000;
+
+    /** The directory holding the index. */
+    private final Directory directory;
+    /** The writer of the index. */
+    private final IndexWriter writer;
+    /** The source of searchers seeing the latest changes of the index. */
+    private final SearcherManager searcherManager;
+    /** Whether the index holds all domains. */
+    private volatile boolean built;
+    /** The domains updated while the index is being built, or null when not building. */
+    private Set<String> updatedWhileBuilding;
+
+    /**
+     * Create an empty index in a directory. Any previous index in the directory is removed.
+     *
+     * @param dir The directory.
+     * @throws ArgumentNotValid If dir is null.
+     * @throws IOFailure If the index cannot be created.
+     */
+    DomainSearchIndex(File dir) {
+        ArgumentNotValid.checkNotNull(dir, "File dir");
+        try {
+            FileUtils.createDir(dir);
+            directory = FSDirectory.open(dir);
+            IndexWriterConfig config = new IndexWriterConfig(Constants.LUCENE_VERSION, new WhitespaceAnalyzer(
+                    Constants.LUCENE_VERSION));
+            config.setOpenMode(OpenMode.CREATE);
+            writer = new IndexWriter(directory, config);
+            searcherManager = new SearcherManager(writer, true, null);
+        } catch (IOException e) {
+            throw new IOFailure("Could not create domain search index in '" + dir + "'", e);
+        }
+    }
+
+    /**
+     * @return true, if the index has been built and can be searched.
+     */
+    boolean isBuilt() {
+        return built;
+    }
+
+    /**
+     * Check whether a search for a glob can use the index, i.e. whether the glob has a literal part long enough to
+     * give a gram to look up.
+     *
+     * @param glob A glob with * and ? wildcards.
+     * @param searchField The field to search.
+     * @return true, if the index has been built, the field is indexed and the glob has a gram.
+     */
+    boolean canSearch(String glob, String searchField) {
+        return built && SEARCH_FIELDS.contains(searchField.toLowerCase()) && !getQueryGrams(glob).isEmpty();
+    }
+
+    /**
+     * Build the index from the domains table.
+     *
+     * @param c A connection to the database.
+     * @throws SQLException If the domains cannot be read.
+     * @throws IOFailure If the index cannot be written.
+     */
+    void build(Connection c) throws SQLException {
+        long start = System.currentTimeMillis();
+        synchronized (this) {
+            updatedWhileBuilding = new HashSet<String>();
+        }
+        int count = 0;
+        PreparedStatement s = null;
+        try {
+            writer.deleteAll();
+            // Some drivers only fetch a part of the result at a time
+            // inside a transaction.
+            c.setAutoCommit(false);
+            s = c.prepareStatement("SELECT name, crawlertraps, comments FROM domains");
+            s.setFetchSize(FETCH_SIZE);
+            ResultSet res = s.executeQuery();
+            while (res.next()) {
+                String name = res.getString(1);
+                synchronized (this) {
+                    // A domain updated since it was read is already indexed
+                    // with newer values.
+                    if (!updatedWhileBuilding.contains(name)) {
+                        writer.updateDocument(new Term(NAME_FIELD, name), createDocument(name, res.getString(2),
+                                res.getString(3)));
+                    }
+                }
+                count++;
+            }
+            c.commit();
+            searcherManager.maybeRefresh();
+            built = true;
+        } catch (IOException e) {
+            throw new IOFailure("Could not build domain search index", e);
+        } finally {
+            synchronized (this) {
+                updatedWhileBuilding = null;
+            }
+            DBUtils.closeStatementIfOpen(s);
+            DBUtils.rollbackIfNeeded(c, "building search index from", "domains");
+        }
+        log.info("Built domain search index of {} domains in {} ms", count, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Index the current values of a domain.
+     *
+     * @param name The name of the domain.
+     * @param crawlertraps The crawlertraps of the domain, one per line.
+     * @param comments The comments of the domain.
+     * @throws IOFailure If the index cannot be written.
+     */
+    synchronized void update(String name, String crawlertraps, String comments) {
+        ArgumentNotValid.checkNotNullOrEmpty(name, "String name");
+        if (updatedWhileBuilding != null) {
+            updatedWhileBuilding.add(name);
+        }
+        try {
+            writer.updateDocument(new Term(NAME_FIELD, name), createDocument(name, crawlertraps, comments));
+        } catch (IOException e) {
+            throw new IOFailure("Could not index domain '" + name + "'", e);
+        }
+    }
+
+    /**
+     * Find the domains where a field matches a glob. The glob must be searchable according to
+     * {@link #canSearch(String, String)}.
+     *
+     * @param glob A glob with * and ? wildcards, which must match the entire field.
+     * @param searchField The field to search.
+     * @return The names of the matching domains, sorted by name.
+     * @throws ArgumentNotValid If the glob cannot be searched in the index.
+     * @throws IOFailure If the index cannot be read.
+     */
+    List<String> search(String glob, String searchField) {
+        ArgumentNotValid.checkTrue(canSearch(glob, searchField), "Cannot search for '" + glob + "' in field '"
+                + searchField + "' in the index");
+        final String field = searchField.toLowerCase();
+        BooleanQuery query = new BooleanQuery();
+        for (String gram : getQueryGrams(glob)) {
+            query.add(new TermQuery(new Term(field + GRAMS_SUFFIX, gram)), BooleanClause.Occur.MUST);
+        }
+        Pattern pattern = toPattern(glob);
+        Set<String> fieldsToLoad = new HashSet<String>(Arrays.asList(NAME_FIELD, field));
+        try {
+            searcherManager.maybeRefresh();
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                final List<Integer> candidates = new ArrayList<Integer>();
+                searcher.search(query, new Collector() {
+                    private int docBase;
+
+                    @Override
+                    public void setScorer(Scorer scorer) {
+                    }
+
+                    @Override
+                    public void collect(int doc) {
+                        candidates.add(docBase + doc);
+                    }
+
+                    @Override
+                    public void setNextReader(AtomicReaderContext context) {
+                        docBase = context.docBase;
+                    }
+
+                    @Override
+                    public boolean acceptsDocsOutOfOrder() {
+                        return true;
+                    }
+                });
+                List<String> names = new ArrayList<String>();
+                for (int doc : candidates) {
+                    Document document = searcher.doc(doc, fieldsToLoad);
+                    String name = document.get(NAME_FIELD);
+                    String value = document.get(field);
+                    if (value != null && pattern.matcher(value).matches() && DomainUtils.isValidDomainName(name)) {
+                        names.add(name);
+                    }
+                }
+                Collections.sort(names);
+                return names;
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Could not search domain search index for '" + glob + "'", e);
+        }
+    }
+
+    /**
+     * Close the index.
+     */
+    synchronized void close() {
+        built = false;
+        try {
+            searcherManager.close();
+            writer.close();
+            directory.close();
+        } catch (IOException e) {
+            log.warn("Could not close domain search index", e);
+        }
+    }
+
+    /**
+     * Create the document of a domain.
+     *
+     * @param name The name of the domain.
+     * @param crawlertraps The crawlertraps, or null.
+     * @param comments The comments, or null.
+     * @return The document.
+     */
+    private static Document createDocument(String name, String crawlertraps, String comments) {
+        Document document = new Document();
+        document.add(new StringField(NAME_FIELD, name, Field.Store.YES));
+        addGrams(document, NAME_FIELD, name);
+        if (crawlertraps != null) {
+            document.add(new StoredField(CRAWLERTRAPS_FIELD, crawlertraps));
+            addGrams(document, CRAWLERTRAPS_FIELD, crawlertraps);
+        }
+        if (comments != null) {
+            document.add(new StoredField(COMMENTS_FIELD, comments));
+            addGrams(document, COMMENTS_FIELD, comments);
+        }
+        return document;
+    }
+
+    /**
+     * Add the distinct grams of a text to a document.
+     *
+     * @param document The document.
+     * @param field The field of the text.
+     * @param text The text.
+     */
+    private static void addGrams(Document document, String field, String text) {
+        for (String gram : getGrams(text, new LinkedHashSet<String>())) {
+            document.add(new StringField(field + GRAMS_SUFFIX, gram, Field.Store.NO));
+        }
+    }
+
+    /**
+     * Get the grams to look up for a glob: the grams of the literal parts between the wildcards, including the SQL
+     * wildcards % and _.
+     *
+     * @param glob A glob with * and ? wildcards.
+     * @return At most {@link #MAX_QUERY_GRAMS} grams, or none if no literal part is long enough.
+     */
+    static Set<String> getQueryGrams(String glob) {
+        Set<String> grams = new LinkedHashSet<String>();
+        for (String part : glob.split("[*?%_]")) {
+            getGrams(part, grams);
+        }
+        if (grams.size() <= MAX_QUERY_GRAMS) {
+            return grams;
+        }
+        return new LinkedHashSet<String>(new ArrayList<String>(grams).subList(0, MAX_QUERY_GRAMS));
+    }
+
+    /**
+     * Add the grams of a text to a set. The grams are lower case, so they find a superset of the case sensitive
+     * matches.
+     *
+     * @param text A text.
+     * @param grams The set to add the grams to.
+     * @return The set.
+     */
+    private static Set<String> getGrams(String text, Set<String> grams) {
+        String lowerCase = text.toLowerCase();
+        for (int i = 0; i + GRAM_LENGTH <= lowerCase.length(); i++) {
+            grams.add(lowerCase.substring(i, i + GRAM_LENGTH));
+        }
+        return grams;
+    }
+
+    /**
+     * Convert a glob to a pattern matching the same strings as the LIKE pattern made by
+     * {@link DBUtils#makeSQLGlob(String)}. As in that pattern, % and _ are wildcards too.
+     *
+     * @param glob A glob with * and ? wildcards.
+     * @return The pattern.
+     */
+    static Pattern toPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : glob.toCharArray()) {
+            if (c == '*' || c == '?' || c == '%' || c == '_') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' || c == '%' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+}
@@ -0,0 +1,243 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.DBUtils;
+import dk.netarkivet.common.utils.ExceptionUtils;
+import dk.netarkivet.harvester.webinterface.HarvestStatusQuery;
+
+/**
+ * Resolves the snapshot harvests, and the jobs of these, that a snapshot harvest can use for duplicate reduction: the
+ * chain of harvests it is based on (following fullharvests.previoushd), and the chain of the snapshot harvest submitted
+ * before the first harvest in that chain.
+ * <p>
+ * On databases supporting recursive queries, each chain is resolved and joined with the jobs table in a single query.
+ * Otherwise, the previoushd relation is read in one query and followed in memory.
+ * <p>
+ * The chains are resolved anew on every call. They are not cached, as harvest definitions are also changed by other
+ * applications (e.g. the GUI) than the one asking for the chains.
+ */
+final class FullHarvestChains {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(FullHarvestChains.class);
+
+    /** Upper bound on the length of a chain, in case of a cycle in fullharvests.previoushd. */
+    private static final int MAX_CHAIN_LENGTH = 10000;
+
+    /** Utility class, do not instantiate. */
+    private FullHarvestChains() {
+    }
+
+    /**
+     * Get the snapshot harvests previous to the given one.
+     *
+     * @param connection An open connection to the harvest database.
+     * @param harvestId The ID of a snapshot harvest definition.
+     * @return The IDs of the previous snapshot harvests, nearest first; the harvests this one is based on come before
+     * the older chain.
+     * @throws IOFailure on trouble querying the database
+     */
+    static List<Long> getPreviousFullHarvests(Connection connection, Long harvestId) {
+        return lookup(connection, harvestId).harvestIds;
+    }
+
+    /**
+     * Get the jobs of the snapshot harvests previous to the given one.
+     *
+     * @param connection An open connection to the harvest database.
+     * @param harvestId The ID of a snapshot harvest definition.
+     * @return The IDs of all jobs of the harvests returned by {@link #getPreviousFullHarvests(Connection, Long)}.
+     * @throws IOFailure on trouble querying the database
+     */
+    static List<Long> getJobIDsOfPreviousFullHarvests(Connection connection, Long harvestId) {
+        return lookup(connection, harvestId).jobIds;
+    }
+
+    /**
+     * Resolve the chains of the given harvest.
+     *
+     * @param connection An open connection to the harvest database.
+     * @param harvestId The ID of a snapshot harvest definition.
+     * @return The resolved chains.
+     */
+    private static Chains lookup(Connection connection, Long harvestId) {
+        ArgumentNotValid.checkNotNull(connection, "Connection connection");
+        ArgumentNotValid.checkNotNull(harvestId, "Long harvestId");
+        boolean recursive = DBSpecifics.getInstance().supportsRecursiveQueries();
+        Map<Long, Long> previous = recursive ? null : readPreviousHarvests(connection);
+        List<Long> harvestIds = new ArrayList<Long>();
+        List<Long> jobIds = new ArrayList<Long>();
+
+        // The chain this harvest is based on, excluding the harvest itself
+        followChain(connection, previous, harvestId, false, harvestIds, jobIds);
+
+        // Find the first harvest in the chain (but last in the list).
+        Long firstHarvest = harvestIds.isEmpty() ? harvestId : harvestIds.get(harvestIds.size() - 1);
+
+        // Find the last harvest in the chain before
+        Long olderHarvest = DBUtils.selectFirstLongValueIfAny(connection, "SELECT fullharvests.harvest_id"
+                + " FROM fullharvests, harvestdefinitions, harvestdefinitions AS currenthd"
+                + " WHERE currenthd.harvest_id = ? AND fullharvests.harvest_id = harvestdefinitions.harvest_id"
+                + " AND harvestdefinitions.submitted < currenthd.submitted" + " ORDER BY harvestdefinitions.submitted "
+                + HarvestStatusQuery.SORT_ORDER.DESC.name(), firstHarvest);
+        if (olderHarvest != null) {
+            followChain(connection, previous, olderHarvest, true, harvestIds, jobIds);
+        }
+
+        if (!recursive && !harvestIds.isEmpty()) {
+            jobIds.addAll(DBUtils.selectLongList(connection, "SELECT job_id FROM jobs WHERE harvest_id IN ("
+                    + placeholders(harvestIds.size()) + ")", harvestIds.toArray()));
+        }
+        Chains chains = new Chains(harvestIds, jobIds);
+        log.debug("Resolved {} previous snapshot harvests with {} jobs for harvest definition {}", harvestIds.size(),
+                jobIds.size(), harvestId);
+        return chains;
+    }
+
+    /**
+     * Follow a chain of snapshot harvests back through fullharvests.previoushd.
+     *
+     * @param connection An open connection to the harvest database.
+     * @param previous The previoushd relation read by {@link #readPreviousHarvests(Connection)}, or null to resolve
+     * the chain and its jobs with a recursive query.
+     * @param start The harvest to start from.
+     * @param includeStart Whether the start harvest itself is part of the chain.
+     * @param harvestIds List to add the harvests of the chain to, nearest first.
+     * @param jobIds List to add the jobs of the chain to, if resolved by a recursive query.
+     */
+    private static void followChain(Connection connection, Map<Long, Long> previous, Long start,
+            boolean includeStart, List<Long> harvestIds, List<Long> jobIds) {
+        if (previous != null) {
+            Long h = includeStart ? start : previous.get(start);
+            for (int length = 0; h != null && length < MAX_CHAIN_LENGTH; length++) {
+                harvestIds.add(h);
+                h = previous.get(h);
+            }
+            return;
+        }
+        String anchor = includeStart ? "SELECT harvest_id, 0 FROM fullharvests WHERE harvest_id = ?"
+                : "SELECT previoushd, 1 FROM fullharvests WHERE harvest_id = ? AND previoushd IS NOT NULL";
+        PreparedStatement s = null;
+        try {
+            s = connection.prepareStatement("WITH RECURSIVE chain(harvest_id, depth) AS (" + anchor
+                    + " UNION ALL SELECT fullharvests.previoushd, chain.depth + 1 FROM fullharvests, chain"
+                    + " WHERE fullharvests.harvest_id = chain.harvest_id AND fullharvests.previoushd IS NOT NULL"
+                    + " AND chain.depth < ?)"
+                    + " SELECT chain.harvest_id, jobs.job_id FROM chain LEFT OUTER JOIN jobs"
+                    + " ON jobs.harvest_id = chain.harvest_id ORDER BY chain.depth, jobs.job_id");
+            s.setLong(1, start);
+            s.setInt(2, MAX_CHAIN_LENGTH);
+            ResultSet res = s.executeQuery();
+            Long last = null;
+            while (res.next()) {
+                Long h = res.getLong(1);
+                if (!h.equals(last)) {
+                    harvestIds.add(h);
+                    last = h;
+                }
+                long jobId = res.getLong(2);
+                if (!res.wasNull()) {
+                    jobIds.add(jobId);
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOFailure("SQL error resolving the chain of snapshot harvests from " + start + "\n"
+                    + ExceptionUtils.getSQLExceptionCause(e), e);
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+        }
+    }
+
+    /**
+     * Read the previoushd relation of all snapshot harvests.
+     *
+     * @param connection An open connection to the harvest database.
+     * @return Map from snapshot harvest ID to the ID of the harvest it is based on, for those based on another.
+     */
+    private static Map<Long, Long> readPreviousHarvests(Connection connection) {
+        Map<Long, Long> previous = new HashMap<Long, Long>();
+        PreparedStatement s = null;
+        try {
+            s = connection.prepareStatement("SELECT harvest_id, previoushd FROM fullharvests"
+                    + " WHERE previoushd IS NOT NULL");
+            ResultSet res = s.executeQuery();
+            while (res.next()) {
+                previous.put(res.getLong(1), res.getLong(2));
+            }
+        } catch (SQLException e) {
+            throw new IOFailure("SQL error reading the chains of snapshot harvests\n"
+                    + ExceptionUtils.getSQLExceptionCause(e), e);
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+        }
+        return previous;
+    }
+
+    /**
+     * @param count A number of parameters.
+     * @return A comma separated list of count question marks.
+     */
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The resolved previous harvests of a snapshot harvest, and their jobs.
+     */
+    private static final class Chains {
+        /** The IDs of the previous harvests. */
+        private final List<Long> harvestIds;
+        /** The IDs of the jobs of the previous harvests. */
+        private final List<Long> jobIds;
+
+        /**
+         * @param harvestIds The IDs of the previous harvests.
+         * @param jobIds The IDs of the jobs of the previous harvests.
+         */
+        Chains(List<Long> harvestIds, List<Long> jobIds) {
+            this.harvestIds = Collections.unmodifiableList(harvestIds);
+            this.jobIds = Collections.unmodifiableList(jobIds);
+        }
+    }
+
+}
@@ -31,6 +31,7 @@ import java.sql.Timestamp;
 import java.sql.Types;
 import java.text.Collator;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
@@ -55,18 +56,13 @@ import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.DBUtils;
 import dk.netarkivet.common.utils.ExceptionUtils;
 import dk.netarkivet.common.utils.FilterIterator;
-import dk.netarkivet.common.utils.StringUtils;
 import dk.netarkivet.harvester.datamodel.dao.DAOProviderFactory;
 import dk.netarkivet.harvester.datamodel.eav.EAV;
 import dk.netarkivet.harvester.datamodel.eav.EAV.AttributeAndType;
-import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedField;
-import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldDAO;
-import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldDefaultValue;
 import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldTypes;
 import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldValue;
 import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldValueDAO;
 import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldValueDBDAO;
-import dk.netarkivet.harvester.webinterface.HarvestStatusQuery;
 
 /**
  * A database-oriented implementation of the HarvestDefinitionDAO.
@@ -285,6 +281,22 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
      * @see HarvestDefinitionDAO#read(Long)
      */
     private HarvestDefinition read(Connection c, Long harvestDefinitionID) throws UnknownID, IOFailure {
+        return read(c, harvestDefinitionID, true);
+    }
+
+    /**
+     * Read the stored harvest definition for the given ID, optionally without its extended field values, so these can
+     * be read for many harvest definitions at once.
+     *
+     * @param c The used database connection
+     * @param harvestDefinitionID ID number for a harvest definition
+     * @param withExtendedFieldValues If false, the extended field values of the harvest definition are not read
+     * @return A harvest definition that has been read from persistent storage.
+     * @throws UnknownID if no entry with that ID exists in the database
+     * @throws IOFailure If DB-failure occurs?
+     */
+    private HarvestDefinition read(Connection c, Long harvestDefinitionID, boolean withExtendedFieldValues)
+            throws UnknownID, IOFailure {
         if (!exists(c, harvestDefinitionID)) {
             String message = "Unknown harvest definition " + harvestDefinitionID;
             log.debug(message);
@@ -331,7 +343,9 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
                 fh.setEdition(res.getLong(11));
                 fh.setAudience(res.getString(12));
 
-                readExtendedFieldValues(fh);
+                if (withExtendedFieldValues) {
+                    readExtendedFieldValues(c, fh);
+                }
 
                 // We found a FullHarvest object, just return it.
                 log.debug("Returned FullHarvest object w/ id {}", harvestDefinitionID);
@@ -401,7 +415,9 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
                     ph.setChannelId(channelId);
                 }
 
-                readExtendedFieldValues(ph);
+                if (withExtendedFieldValues) {
+                    readExtendedFieldValues(c, ph);
+                }
 
                 return ph;
             } else {
@@ -627,9 +643,17 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
 
             List<HarvestDefinition> orderedList = new LinkedList<HarvestDefinition>();
             for (Long id : hds) {
-                orderedList.add(read(c, id));
+                orderedList.add(read(c, id, false));
+            }
+            Map<Long, List<ExtendedFieldValue>> extendedFieldValues = getExtendedFieldValues(c, hds);
+            for (HarvestDefinition hd : orderedList) {
+                hd.setExtendedFieldValues(extendedFieldValues.get(hd.getOid()));
             }
             return orderedList.iterator();
+        } catch (SQLException e) {
+            String message = "SQL Error reading the extended field values of all harvest definitions\n";
+            log.warn(message, e);
+            throw new IOFailure(message, e);
         } finally {
             HarvestDBConnection.release(c);
         }
@@ -912,7 +936,7 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
                         res.getInt(3), new Date(res.getTimestamp(4).getTime()), res.getBoolean(5), res.getLong(6),
                         res.getString(7), DBUtils.getDateMaybeNull(res, 8), res.getString(9), DBUtils.getLongMaybeNull(
                         res, 10));
-                sph.setExtendedFieldValues(getExtendedFieldValues(sph.getOid()));
+                sph.setExtendedFieldValues(getExtendedFieldValues(c, sph.getOid()));
                 return sph;
             } else {
                 return null;
@@ -1054,7 +1078,7 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
                 long oid = sfh.getOid();
                 List<AttributeAndType> attributesAndTypes = EAV.getInstance().getAttributesAndTypes(EAV.SNAPSHOT_TREE_ID, (int)oid);
                 sfh.setAttributesAndTypes(attributesAndTypes);
-                sfh.setExtendedFieldValues(getExtendedFieldValues(sfh.getOid()));
+                sfh.setExtendedFieldValues(getExtendedFieldValues(c, sfh.getOid()));
                 return sfh;
             } else {
                 return null;
@@ -1163,15 +1187,8 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
         if (!isSnapshot(harvestId)) {
             throw new NotImplementedException("This functionality only works for snapshot harvests");
         }
-        List<Long> harvestDefinitions = getPreviousFullHarvests(harvestId);
         try (Connection c = HarvestDBConnection.get();) {
-            List<Long> jobs = new ArrayList<Long>();
-            if (!harvestDefinitions.isEmpty()) {
-                // Select all jobs from a given list of harvest definitions
-                jobs.addAll(DBUtils.selectLongList(c, "SELECT jobs.job_id FROM jobs WHERE jobs.harvest_id IN ("
-                        + StringUtils.conjoin(",", harvestDefinitions) + ")"));
-            }
-            jobIds.addAll(jobs);
+            jobIds.addAll(FullHarvestChains.getJobIDsOfPreviousFullHarvests(c, harvestId));
         } catch (SQLException e) {
             log.error("Unable to close DB connection", e);
         }
@@ -1179,52 +1196,6 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
         return jobIds;
     }
 
-    /**
-     * Get list of harvests previous to this one.
-     *
-     * @param thisHarvest The id of this harvestdefinition
-     * @return a list of IDs belonging to harvests previous to this one.
-     */
-    private List<Long> getPreviousFullHarvests(Long thisHarvest) {
-        List<Long> results = new ArrayList<Long>();
-        try (Connection c = HarvestDBConnection.get();) {
-            // Follow the chain of originating IDs back
-            for (Long originatingHarvest = thisHarvest; originatingHarvest != null;
-                // Compute next originatingHarvest
-                 originatingHarvest = DBUtils.selectFirstLongValueIfAny(c, "SELECT previoushd FROM fullharvests"
-                         + " WHERE fullharvests.harvest_id=?", originatingHarvest)) {
-                if (!originatingHarvest.equals(thisHarvest)) {
-                    results.add(originatingHarvest);
-                }
-            }
-
-            // Find the first harvest in the chain (but last in the list).
-            Long firstHarvest = thisHarvest;
-            if (!results.isEmpty()) {
-                firstHarvest = results.get(results.size() - 1);
-            }
-
-            // Find the last harvest in the chain before
-            Long olderHarvest = DBUtils.selectFirstLongValueIfAny(c, "SELECT fullharvests.harvest_id"
-                            + " FROM fullharvests, harvestdefinitions," + "  harvestdefinitions AS currenthd"
-                            + " WHERE currenthd.harvest_id=?" + " AND fullharvests.harvest_id "
-                            + "= harvestdefinitions.harvest_id"
-                            + " AND harvestdefinitions.submitted " + "< currenthd.submitted"
-                            + " ORDER BY harvestdefinitions.submitted " + HarvestStatusQuery.SORT_ORDER.DESC.name(),
-                    firstHarvest);
-            // Follow the chain of originating IDs back
-            for (Long originatingHarvest = olderHarvest; originatingHarvest != null; originatingHarvest = DBUtils
-                    .selectFirstLongValueIfAny(c, "SELECT previoushd FROM fullharvests"
-                            + " WHERE fullharvests.harvest_id=?", originatingHarvest)) {
-                results.add(originatingHarvest);
-            }
-        } catch (SQLException e) {
-            log.warn("Exception thrown while updating fullharvests.isindexready field: {}",
-                    ExceptionUtils.getSQLExceptionCause(e), e);
-        }
-        return results;
-    }
-
     @Override
     public void setIndexIsReady(Long harvestId, boolean newValue) {
         if (!isSnapshot(harvestId)) {
@@ -1375,59 +1346,47 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
      */
     private void saveExtendedFieldValues(Connection c, HarvestDefinition h) throws SQLException {
         List<ExtendedFieldValue> list = h.getExtendedFieldValues();
-        for (int i = 0; i < list.size(); i++) {
-            ExtendedFieldValue efv = list.get(i);
+        for (ExtendedFieldValue efv : list) {
             efv.setInstanceID(h.getOid());
-
-            ExtendedFieldValueDBDAO dao = (ExtendedFieldValueDBDAO) ExtendedFieldValueDAO.getInstance();
-            if (efv.getExtendedFieldValueID() != null) {
-                dao.update(c, efv, false);
-            } else {
-                dao.create(c, efv, false);
-            }
         }
+        ExtendedFieldValueDBDAO dao = (ExtendedFieldValueDBDAO) ExtendedFieldValueDAO.getInstance();
+        dao.saveAll(c, list);
     }
 
     /**
      * Reads all extended Field values from the database for a HarvestDefinition.
      *
+     * @param c Connection to Database
      * @param h HarvestDefinition where loaded extended Field Values will be set
      * @throws SQLException If database errors occur.
      */
-    private void readExtendedFieldValues(HarvestDefinition h) throws SQLException {
-        h.setExtendedFieldValues(getExtendedFieldValues(h.getOid()));
+    private void readExtendedFieldValues(Connection c, HarvestDefinition h) throws SQLException {
+        h.setExtendedFieldValues(getExtendedFieldValues(c, h.getOid()));
     }
 
     /**
      * Reads all extended Field values from the database for a HarvestDefinitionOid.
      *
+     * @param c Connection to Database
      * @param aOid HarvestDefinition where loaded extended Field Values will be set
      * @return a list of ExtendedFieldValues belonging to the given harvest oid
      * @throws SQLException If database errors occur.
      */
-    private List<ExtendedFieldValue> getExtendedFieldValues(Long aOid) throws SQLException {
-        List<ExtendedFieldValue> extendedFieldValues = new ArrayList<ExtendedFieldValue>();
-
-        ExtendedFieldDAO dao = ExtendedFieldDAO.getInstance();
-        List<ExtendedField> list = dao.getAll(ExtendedFieldTypes.HARVESTDEFINITION);
-
-        for (int i = 0; i < list.size(); i++) {
-            ExtendedField ef = list.get(i);
-
-            ExtendedFieldValueDAO dao2 = ExtendedFieldValueDAO.getInstance();
-            ExtendedFieldValue efv = dao2.read(ef.getExtendedFieldID(), aOid);
-
-            if (efv == null) {
-                efv = new ExtendedFieldValue();
-                efv.setExtendedFieldID(ef.getExtendedFieldID());
-                efv.setInstanceID(aOid);
-                efv.setContent(new ExtendedFieldDefaultValue(ef.getDefaultValue(), ef.getFormattingPattern(), ef
-                        .getDatatype()).getDBValue());
-            }
-
-            extendedFieldValues.add(efv);
-        }
+    private List<ExtendedFieldValue> getExtendedFieldValues(Connection c, Long aOid) throws SQLException {
+        return getExtendedFieldValues(c, Collections.singletonList(aOid)).get(aOid);
+    }
 
-        return extendedFieldValues;
+    /**
+     * Reads all extended Field values from the database for a number of HarvestDefinitions at once.
+     *
+     * @param c Connection to Database
+     * @param aOids The oids of the HarvestDefinitions
+     * @return the ExtendedFieldValues belonging to each of the given harvest oids, by oid
+     * @throws SQLException If database errors occur.
+     */
+    private Map<Long, List<ExtendedFieldValue>> getExtendedFieldValues(Connection c, Collection<Long> aOids)
+            throws SQLException {
+        ExtendedFieldValueDBDAO dao = (ExtendedFieldValueDBDAO) ExtendedFieldValueDAO.getInstance();
+        return dao.readAll(c, ExtendedFieldTypes.HARVESTDEFINITION, aOids);
     }
 }
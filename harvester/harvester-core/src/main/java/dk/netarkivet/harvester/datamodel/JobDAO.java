@@ -22,6 +22,7 @@
  */
 package dk.netarkivet.harvester.datamodel;
 
+import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 
@@ -107,6 +108,23 @@ public abstract class JobDAO implements DAO, Iterable<Job> {
      */
     public abstract void update(Job job) throws IOFailure;
 
+    /**
+     * Atomically claim a NEW job for submission. The job is set to status SUBMITTED with the given submitted date, but
+     * only if it is still NEW and has not been updated since the given Job object was read. Unlike
+     * {@link #update(Job)}, only the status, submitted date, edition and order xml are written; the seed list and the
+     * domain configurations of the job are left untouched.
+     * <p>
+     * The status of the given Job object is changed to SUBMITTED before the claim is attempted, so if the claim fails,
+     * the object no longer reflects the stored job and should be discarded.
+     *
+     * @param job A job in status NEW, as read from persistent storage.
+     * @param submittedDate The time of submission.
+     * @return true, if the job was claimed; false, if it is no longer NEW or has been changed since it was read.
+     * @throws ArgumentNotValid If the Job or date is null
+     * @throws IOFailure If updating the job in persistent storage fails
+     */
+    public abstract boolean claimNewJob(Job job, Date submittedDate) throws IOFailure;
+
     /**
      * Reset the DAO instance. Only for use from within tests.
      */
@@ -36,6 +36,8 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,7 +51,7 @@ import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.DBUtils;
 import dk.netarkivet.common.utils.ExceptionUtils;
 import dk.netarkivet.common.utils.Settings;
-import dk.netarkivet.common.utils.StringUtils;
+import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.webinterface.HarvestStatus;
 import dk.netarkivet.harvester.webinterface.HarvestStatusQuery;
 import dk.netarkivet.harvester.webinterface.HarvestStatusQuery.SORT_ORDER;
@@ -63,6 +65,15 @@ public class JobDBDAO extends JobDAO {
     /** The logger for this class. */
     private static final Logger log = LoggerFactory.getLogger(JobDBDAO.class);
 
+    /** The maximum number of cached job counts for status queries. */
+    private static final int MAX_CACHED_STATUS_COUNTS = 1000;
+
+    /** The counts of jobs matching status queries, keyed by the count query and its parameters. */
+    private final Map<String, CachedCount> statusCounts = new ConcurrentHashMap<String, CachedCount>();
+
+    /** The number of changes made to jobs through this DAO. Counts cached before a change are not used after it. */
+    private final AtomicLong jobChanges = new AtomicLong();
+
     /**
      * Create a new JobDAO implemented using database. This constructor also tries to upgrade the jobs and jobs_configs
      * tables in the current database. throws and IllegalState exception, if it is impossible to make the necessary
@@ -154,6 +165,7 @@ public class JobDBDAO extends JobDAO {
             statement.executeUpdate();
             createJobConfigsEntries(connection, job);
             connection.commit();
+            jobChanges.incrementAndGet();
             job.setEdition(initialEdition);
         } catch (SQLException e) {
             String message = "SQL error creating job " + job + " in database" + "\n"
@@ -340,6 +352,7 @@ public class JobDBDAO extends JobDAO {
             }
             createJobConfigsEntries(connection, job);
             connection.commit();
+            jobChanges.incrementAndGet();
             job.setEdition(edition);
         } catch (SQLException e) {
             String message = "SQL error updating job " + job + " in database" + "\n"
@@ -352,6 +365,59 @@ public class JobDBDAO extends JobDAO {
         }
     }
 
+    /**
+     * Atomically claim a NEW job for submission. The claim is a single conditional UPDATE, so no synchronization is
+     * needed: if two dispatchers try to claim the same job, only one of them will see a row being updated.
+     *
+     * @param job A job in status NEW, as read from persistent storage.
+     * @param submittedDate The time of submission.
+     * @return true, if the job was claimed; false, if it is no longer NEW or has been changed since it was read.
+     * @throws ArgumentNotValid If the Job or date is null, or the job is not NEW
+     * @throws IOFailure If updating the job in the database fails
+     */
+    @Override
+    public boolean claimNewJob(Job job, Date submittedDate) {
+        ArgumentNotValid.checkNotNull(job, "job");
+        ArgumentNotValid.checkNotNull(submittedDate, "Date submittedDate");
+        ArgumentNotValid.checkTrue(job.getStatus() == JobStatus.NEW, "Only NEW jobs can be claimed, job "
+                + job.getJobID() + " is " + job.getStatus());
+
+        // Changing the status to SUBMITTED configures the quota enforcer of the order xml
+        job.setStatus(JobStatus.SUBMITTED);
+        job.setSubmittedDate(submittedDate);
+        Connection connection = HarvestDBConnection.get();
+        PreparedStatement statement = null;
+        try {
+            long edition = job.getEdition() + 1;
+            statement = connection.prepareStatement("UPDATE jobs SET status = ?, submitteddate = ?, orderxmldoc = ?, "
+                    + "edition = ? WHERE job_id = ? AND status = ? AND edition = ?");
+            statement.setInt(1, JobStatus.SUBMITTED.ordinal());
+            DBUtils.setDateMaybeNull(statement, 2, submittedDate);
+            DBUtils.setClobMaxLength(statement, 3, job.getOrderXMLdoc().getXML(), Constants.MAX_ORDERXML_SIZE, job,
+                    "order.xml");
+            statement.setLong(4, edition);
+            statement.setLong(5, job.getJobID());
+            statement.setInt(6, JobStatus.NEW.ordinal());
+            statement.setLong(7, job.getEdition());
+            if (statement.executeUpdate() == 0) {
+                log.debug("Job {} was no longer NEW with edition {}, not claiming it", job.getJobID(),
+                        job.getEdition());
+                return false;
+            }
+            jobChanges.incrementAndGet();
+            job.setEdition(edition);
+            return true;
+        } catch (SQLException e) {
+            String message = "SQL error claiming job " + job.getJobID() + " in database" + "\n"
+                    + ExceptionUtils.getSQLExceptionCause(e);
+            log.warn(message, e);
+            throw new IOFailure(message, e);
+        } finally {
+            DBUtils.closeStatementIfOpen(statement);
+            HarvestDBConnection.release(connection);
+        }
+    }
+
     /**
      * Read a single job from the job database.
      *
@@ -702,34 +768,95 @@ public class JobDBDAO extends JobDAO {
         Connection c = HarvestDBConnection.get();
 
         try {
-            // Obtain total count without limit
-            // NB this will be a performance bottleneck if the table gets big
-            long totalRowsCount = 0;
-
-            final HarvestStatusQueryBuilder harvestStatusQueryBuilder = buildSqlQuery(query, true);
-            log.debug("Unpopulated query is {}.", harvestStatusQueryBuilder);
-            s = harvestStatusQueryBuilder.getPopulatedStatement(c);
-            log.debug("Query is {}.", s);
-            ResultSet res = s.executeQuery();
-            res.next();
-            totalRowsCount = res.getLong(1);
+            long totalRowsCount = getStatusCount(c, buildSqlQuery(query, true));
 
+            // Ask for one job more than the page size to know whether there is a next page
             s = buildSqlQuery(query, false).getPopulatedStatement(c);
-            res = s.executeQuery();
+            ResultSet res = s.executeQuery();
             List<JobStatusInfo> jobs = makeJobStatusInfoListFromResultset(res);
+            long pagesize = query.getPageSize();
+            boolean moreResults = false;
+            if (pagesize != HarvestStatusQuery.PAGE_SIZE_NONE && jobs.size() > pagesize) {
+                jobs.remove(jobs.size() - 1);
+                moreResults = true;
+            }
 
             log.debug("Harveststatus constructed based on given query.");
-            return new HarvestStatus(totalRowsCount, jobs);
+            return new HarvestStatus(totalRowsCount, jobs, moreResults);
         } catch (SQLException e) {
             String message = "SQL error asking for job status list in database" + "\n"
                     + ExceptionUtils.getSQLExceptionCause(e);
             log.warn(message, e);
             throw new IOFailure(message, e);
         } finally {
+            DBUtils.closeStatementIfOpen(s);
             HarvestDBConnection.release(c);
         }
     }
 
+    /**
+     * Get the number of jobs matching a status query. Counting means reading all matching jobs, so counts are cached
+     * for the time given by the setting {@link HarvesterSettings#JOB_STATUS_COUNT_CACHE_TIME}, or until jobs are
+     * changed through this DAO. Changes made by other applications are seen when the cached count expires.
+     *
+     * @param c an open connection to the harvestDatabase
+     * @param countQuery the count query
+     * @return the number of matching jobs
+     * @throws SQLException If unable to count the jobs
+     */
+    private long getStatusCount(Connection c, HarvestStatusQueryBuilder countQuery) throws SQLException {
+        String key = countQuery.toString() + countQuery.getParameterValues();
+        long changes = jobChanges.get();
+        long now = System.currentTimeMillis();
+        long maxAge = Settings.getLong(HarvesterSettings.JOB_STATUS_COUNT_CACHE_TIME) * 1000L;
+        CachedCount cached = statusCounts.get(key);
+        if (cached != null && cached.changes == changes && now - cached.time < maxAge) {
+            return cached.count;
+        }
+
+        log.debug("Counting jobs with query {}.", countQuery);
+        PreparedStatement s = countQuery.getPopulatedStatement(c);
+        try {
+            ResultSet res = s.executeQuery();
+            res.next();
+            long count = res.getLong(1);
+            if (maxAge > 0) {
+                if (statusCounts.size() >= MAX_CACHED_STATUS_COUNTS) {
+                    statusCounts.clear();
+                }
+                statusCounts.put(key, new CachedCount(count, changes, now));
+            }
+            return count;
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+        }
+    }
+
+    /**
+     * A count of the jobs matching a status query, with the time it was made.
+     */
+    private static final class CachedCount {
+        /** The number of matching jobs. */
+        private final long count;
+        /** The number of changes to jobs through this DAO when counting. */
+        private final long changes;
+        /** The time of counting in milliseconds. */
+        private final long time;
+
+        /**
+         * Constructor.
+         *
+         * @param count The number of matching jobs.
+         * @param changes The number of changes to jobs through this DAO when counting.
+         * @param time The time of counting in milliseconds.
+         */
+        CachedCount(long count, long changes, long time) {
+            this.count = count;
+            this.changes = changes;
+            this.time = time;
+        }
+    }
+
     /**
      * Calculate all jobIDs to use for duplication reduction.
      * <p>
@@ -760,11 +887,13 @@ public class JobDBDAO extends JobDAO {
             jobs = DBUtils.selectLongList(connection, "SELECT jobs.job_id FROM jobs, jobs AS original_jobs"
                     + " WHERE original_jobs.job_id=?" + " AND jobs.harvest_id=original_jobs.harvest_id"
                     + " AND jobs.harvest_num=original_jobs.harvest_num-1", jobID);
-            List<Long> harvestDefinitions = getPreviousFullHarvests(connection, jobID);
-            if (!harvestDefinitions.isEmpty()) {
-                // Select all jobs from a given list of harvest definitions
-                jobs.addAll(DBUtils.selectLongList(connection, "SELECT jobs.job_id FROM jobs"
-                        + " WHERE jobs.harvest_id IN (" + StringUtils.conjoin(",", harvestDefinitions) + ")"));
+            // Find the jobs' fullharvest id
+            Long thisHarvest = DBUtils.selectFirstLongValueIfAny(connection,
+                    "SELECT jobs.harvest_id FROM jobs, fullharvests WHERE jobs.harvest_id=fullharvests.harvest_id"
+                            + " AND jobs.job_id=?", jobID);
+            if (thisHarvest != null) {
+                // Add all jobs from this chain of snapshot harvests and the previous chain
+                jobs.addAll(FullHarvestChains.getJobIDsOfPreviousFullHarvests(connection, thisHarvest));
             }
             return jobs;
         } finally {
@@ -772,56 +901,6 @@ public class JobDBDAO extends JobDAO {
         }
     }
 
-    /**
-     * Find the harvest definition ids from this chain of snapshot harvests and the previous chain of snapshot harvests.
-     *
-     * @param connection an open connection to the harvestDatabase
-     * @param jobID The ID of the job
-     * @return A (possibly empty) list of harvest definition ids
-     */
-    private List<Long> getPreviousFullHarvests(Connection connection, long jobID) {
-        List<Long> results = new ArrayList<Long>();
-        // Find the jobs' fullharvest id
-        Long thisHarvest = DBUtils.selectFirstLongValueIfAny(connection,
-                "SELECT jobs.harvest_id FROM jobs, fullharvests WHERE jobs.harvest_id=fullharvests.harvest_id"
-                        + " AND jobs.job_id=?", jobID);
-
-        if (thisHarvest == null) {
-            // Not a full harvest
-            return results;
-        }
-
-        // Follow the chain of orginating IDs back
-        for (Long originatingHarvest = thisHarvest; originatingHarvest != null; originatingHarvest = DBUtils
-                .selectFirstLongValueIfAny(connection, "SELECT previoushd FROM fullharvests"
-                        + " WHERE fullharvests.harvest_id=?", originatingHarvest)) {
-            if (!originatingHarvest.equals(thisHarvest)) {
-                results.add(originatingHarvest);
-            }
-        }
-
-        // Find the first harvest in the chain
-        Long firstHarvest = thisHarvest;
-        if (!results.isEmpty()) {
-            firstHarvest = results.get(results.size() - 1);
-        }
-
-        // Find the last harvest in the chain before
-        Long olderHarvest = DBUtils.selectFirstLongValueIfAny(connection, "SELECT fullharvests.harvest_id"
-                + " FROM fullharvests, harvestdefinitions," + "  harvestdefinitions AS currenthd"
-                + " WHERE currenthd.harvest_id=?" + " AND fullharvests.harvest_id" + "=harvestdefinitions.harvest_id"
-                + " AND harvestdefinitions.submitted<currenthd.submitted" + " ORDER BY harvestdefinitions.submitted "
-                + HarvestStatusQuery.SORT_ORDER.DESC.name(), firstHarvest);
-        // Follow the chain of originating IDs back
-        // FIXME Rewrite this loop!
-        for (Long originatingHarvest = olderHarvest; originatingHarvest != null; originatingHarvest = DBUtils
-                .selectFirstLongValueIfAny(connection,
-                        "SELECT previoushd FROM fullharvests WHERE fullharvests.harvest_id=?", originatingHarvest)) {
-            results.add(originatingHarvest);
-        }
-        return results;
-    }
-
     /**
      * Returns the number of existing jobs.
      *
@@ -893,6 +972,7 @@ public class JobDBDAO extends JobDAO {
             statement.setLong(3, oldJobID);
             statement.executeUpdate();
             connection.commit();
+            jobChanges.incrementAndGet();
         } catch (SQLException e) {
             String message = "SQL error rescheduling job #" + oldJobID + " in database" + "\n"
                     + ExceptionUtils.getSQLExceptionCause(e);
@@ -950,6 +1030,13 @@ public class JobDBDAO extends JobDAO {
             return sqlString;
         }
 
+        /**
+         * @return the parameter values in the order of the parameters
+         */
+        List<Object> getParameterValues() {
+            return paramValues;
+        }
+
         /**
          * @param sqlString the sqlString to set
          */
@@ -1135,6 +1222,18 @@ public class JobDBDAO extends JobDAO {
     		sql.append(")");
     	}
 
+        // With a given job to start after, the page is found using the job id index rather than by skipping the jobs
+        // of the previous pages
+        Long afterJobId = query.getAfterJobId();
+        if (!count && afterJobId != null) {
+            if (query.isSortAscending()) {
+                sql.append(" AND jobs.job_id > ?");
+            } else {
+                sql.append(" AND jobs.job_id < ?");
+            }
+            sq.addParameter(Long.class, afterJobId);
+        }
+
         if (!count) {
             sql.append(" ORDER BY jobs.job_id");
             if (!query.isSortAscending()) {
@@ -1145,9 +1244,9 @@ public class JobDBDAO extends JobDAO {
 
             long pagesize = query.getPageSize();
             if (pagesize != HarvestStatusQuery.PAGE_SIZE_NONE) {
-                sql.append(" "
-                        + DBSpecifics.getInstance().getOrderByLimitAndOffsetSubClause(pagesize,
-                                (query.getStartPageIndex() - 1) * pagesize));
+                long offset = afterJobId != null ? 0 : (query.getStartPageIndex() - 1) * pagesize;
+                // One job more than the page size tells whether there is a next page
+                sql.append(" " + DBSpecifics.getInstance().getOrderByLimitAndOffsetSubClause(pagesize + 1, offset));
             }
         }
 
@@ -166,6 +166,14 @@ public class MySQLSpecifics extends DBSpecifics {
         return true;
     }
 
+    /**
+     * Recursive queries are only available from MySQL 8, so they are not used.
+     */
+    @Override
+    public boolean supportsRecursiveQueries() {
+        return false;
+    }
+
     @Override
     public String getOrderByLimitAndOffsetSubClause(long limit, long offset) {
         return "LIMIT " + offset + ", " + limit;
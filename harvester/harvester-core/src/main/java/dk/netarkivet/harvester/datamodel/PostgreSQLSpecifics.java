@@ -100,6 +100,11 @@ public class PostgreSQLSpecifics extends DBSpecifics {
         return false;
     }
 
+    @Override
+    public boolean supportsRecursiveQueries() {
+        return true;
+    }
+
     /**
      * Migrates the 'jobs' table from version 3 to version 4 consisting of a change of the field forcemaxbytes from int
      * to bigint and setting its default to -1. Furthermore the default value for field num_configs is set to 0.
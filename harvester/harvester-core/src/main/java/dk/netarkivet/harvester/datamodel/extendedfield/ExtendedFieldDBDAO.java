@@ -27,7 +27,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -48,6 +48,10 @@ public class ExtendedFieldDBDAO extends ExtendedFieldDAO {
     /** The logger for this class. */
     private static final Logger log = LoggerFactory.getLogger(ExtendedFieldDBDAO.class);
 
+    /** The columns of the extendedfield table, in the order read by {@link #readExtendedField(ResultSet)}. */
+    private static final String COLUMNS = "extendedfield_id, extendedfieldtype_id, name, format, defaultvalue, "
+            + "options, datatype, mandatory, sequencenr, maxlen ";
+
     /**
      * Constructor for the ExtendedFieldDBDAO object.
      */
@@ -236,51 +240,70 @@ public class ExtendedFieldDBDAO extends ExtendedFieldDAO {
             throw new UnknownID("Extended Field id " + aExtendedfieldId + " is not known in persistent storage");
         }
 
-        ExtendedField extendedField = null;
         PreparedStatement statement = null;
         try {
-            statement = connection.prepareStatement("" + "SELECT extendedfieldtype_id, " + "       name, "
-                    + "       format, " + "       defaultvalue, " + "       options, " + "       datatype, "
-                    + "       mandatory, " + "       sequencenr, " + "       maxlen " + "FROM   extendedfield "
+            statement = connection.prepareStatement("" + "SELECT " + COLUMNS + "FROM   extendedfield "
                     + "WHERE  extendedfield_id = ? ");
 
             statement.setLong(1, aExtendedfieldId);
             ResultSet result = statement.executeQuery();
             result.next();
 
-            long extendedfieldtypeId = result.getLong(1);
-            String name = result.getString(2);
-            String format = result.getString(3);
-            String defaultvalue = result.getString(4);
-            String options = result.getString(5);
-            int datatype = result.getInt(6);
-            boolean mandatory = result.getInt(7) != 0;
-            int sequencenr = result.getInt(8);
-            int maxlen = result.getInt(9);
-
-            extendedField = new ExtendedField(aExtendedfieldId, extendedfieldtypeId, name, format, datatype, mandatory,
-                    sequencenr, defaultvalue, options, maxlen);
-
-            return extendedField;
+            return readExtendedField(result);
         } catch (SQLException e) {
             String message = "SQL error reading extended Field " + aExtendedfieldId + " in database" + "\n";
             log.warn(message, e);
             throw new IOFailure(message, e);
+        } finally {
+            DBUtils.closeStatementIfOpen(statement);
         }
     }
 
+    /**
+     * Make an ExtendedField from the current row of a result selecting the {@link #COLUMNS}.
+     *
+     * @param result The result
+     * @return An ExtendedField object for the row.
+     * @throws SQLException In case of database problems.
+     */
+    private static ExtendedField readExtendedField(ResultSet result) throws SQLException {
+        long extendedfieldId = result.getLong(1);
+        long extendedfieldtypeId = result.getLong(2);
+        String name = result.getString(3);
+        String format = result.getString(4);
+        String defaultvalue = result.getString(5);
+        String options = result.getString(6);
+        int datatype = result.getInt(7);
+        boolean mandatory = result.getInt(8) != 0;
+        int sequencenr = result.getInt(9);
+        int maxlen = result.getInt(10);
+
+        return new ExtendedField(extendedfieldId, extendedfieldtypeId, name, format, datatype, mandatory, sequencenr,
+                defaultvalue, options, maxlen);
+    }
+
     @Override
     public List<ExtendedField> getAll(long aExtendedFieldTypeId) {
+        // Called every time an entity with extended fields is made, so the fields are read with a single query.
         Connection c = HarvestDBConnection.get();
+        PreparedStatement statement = null;
         try {
-            List<Long> idList = DBUtils.selectLongList(c, "SELECT extendedfield_id FROM extendedfield "
-                    + "WHERE extendedfieldtype_id = ? ORDER BY sequencenr ASC", aExtendedFieldTypeId);
-            List<ExtendedField> extendedFields = new LinkedList<ExtendedField>();
-            for (Long extendedfieldId : idList) {
-                extendedFields.add(read(c, extendedfieldId));
+            statement = c.prepareStatement("" + "SELECT " + COLUMNS + "FROM   extendedfield "
+                    + "WHERE  extendedfieldtype_id = ? " + "ORDER BY sequencenr ASC");
+            statement.setLong(1, aExtendedFieldTypeId);
+            ResultSet result = statement.executeQuery();
+            List<ExtendedField> extendedFields = new ArrayList<ExtendedField>();
+            while (result.next()) {
+                extendedFields.add(readExtendedField(result));
             }
             return extendedFields;
+        } catch (SQLException e) {
+            String message = "SQL error reading extended fields of type " + aExtendedFieldTypeId + " in database"
+                    + "\n";
+            log.warn(message, e);
+            throw new IOFailure(message, e);
         } finally {
+            DBUtils.closeStatementIfOpen(statement);
             HarvestDBConnection.release(c);
         }
     }
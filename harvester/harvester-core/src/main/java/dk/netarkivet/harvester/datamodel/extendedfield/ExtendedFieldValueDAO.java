@@ -22,6 +22,10 @@
  */
 package dk.netarkivet.harvester.datamodel.extendedfield;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Interface for creating and accessing extended fields in persistent storage.
  */
@@ -67,6 +71,17 @@ public abstract class ExtendedFieldValueDAO {
      */
     public abstract ExtendedFieldValue read(Long aExtendedFieldID, Long aInstanceID);
 
+    /**
+     * Read the ExtendedFieldValues of a number of entities at once. Each entity gets a value for every extended field
+     * of the given type, in the order of the fields. Fields with no value stored for an entity get a new value with the
+     * default content of the field.
+     *
+     * @param aExtendedFieldType The type of the extended fields, see {@link ExtendedFieldTypes}
+     * @param aInstanceIDs The IDs of the entities
+     * @return the ExtendedFieldValues of each entity, by the ID of the entity.
+     */
+    public abstract Map<Long, List<ExtendedFieldValue>> readAll(long aExtendedFieldType, Collection<Long> aInstanceIDs);
+
     /**
      * Update a ExtendedFieldValue in persistent storage.
      *
@@ -26,6 +26,12 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,6 +51,12 @@ public class ExtendedFieldValueDBDAO extends ExtendedFieldValueDAO {
     /** The logger. */
     private static final Logger log = LoggerFactory.getLogger(ExtendedFieldValueDBDAO.class);
 
+    /** The maximum number of instance IDs in the IN list of one query. */
+    private static final int MAX_INSTANCES_PER_QUERY = 1000;
+
+    /** The number of extended field values inserted or updated in one JDBC batch. */
+    private static final int BATCH_SIZE = 1000;
+
     /**
      * Constructor for the ExtendedFieldValueDBDAO class.
      */
@@ -277,4 +289,183 @@ public class ExtendedFieldValueDBDAO extends ExtendedFieldValueDAO {
         }
     }
 
+    @Override
+    public Map<Long, List<ExtendedFieldValue>> readAll(long aExtendedFieldType, Collection<Long> aInstanceIDs) {
+        ArgumentNotValid.checkNotNull(aInstanceIDs, "Collection<Long> aInstanceIDs");
+        Connection connection = HarvestDBConnection.get();
+        try {
+            return readAll(connection, aExtendedFieldType, aInstanceIDs);
+        } catch (SQLException e) {
+            String message = "SQL error reading extended field values of type " + aExtendedFieldType + " in database"
+                    + "\n";
+            log.warn(message, e);
+            throw new IOFailure(message, e);
+        } finally {
+            HarvestDBConnection.release(connection);
+        }
+    }
+
+    /**
+     * Read the ExtendedFieldValues of a number of entities at once. The values stored for the entities are read with
+     * one query per {@link #MAX_INSTANCES_PER_QUERY} entities, joining the values with the extended fields of the given
+     * type. Each entity gets a value for every extended field of the type, in the order of the fields; fields with no
+     * value stored for an entity get a new value with the default content of the field. Should more than one value be
+     * stored for a field of an entity, the one created last is used.
+     *
+     * @param aConnection an open connection to the HarvestDatabase
+     * @param aExtendedFieldType The type of the extended fields, see {@link ExtendedFieldTypes}
+     * @param aInstanceIDs The IDs of the entities
+     * @return the ExtendedFieldValues of each entity, by the ID of the entity.
+     * @throws SQLException In case of database problems.
+     */
+    public Map<Long, List<ExtendedFieldValue>> readAll(Connection aConnection, long aExtendedFieldType,
+            Collection<Long> aInstanceIDs) throws SQLException {
+        ArgumentNotValid.checkNotNull(aInstanceIDs, "Collection<Long> aInstanceIDs");
+        List<ExtendedField> extendedFields = ExtendedFieldDAO.getInstance().getAll(aExtendedFieldType);
+        List<Long> instanceIds = new ArrayList<Long>(new LinkedHashSet<Long>(aInstanceIDs));
+
+        // The stored values, by instance ID and extended field ID.
+        Map<Long, Map<Long, ExtendedFieldValue>> storedValues = new HashMap<Long, Map<Long, ExtendedFieldValue>>();
+        for (int from = 0; from < instanceIds.size() && !extendedFields.isEmpty(); from += MAX_INSTANCES_PER_QUERY) {
+            List<Long> ids = instanceIds.subList(from, Math.min(instanceIds.size(), from + MAX_INSTANCES_PER_QUERY));
+            StringBuilder placeholders = new StringBuilder();
+            for (int i = 0; i < ids.size(); i++) {
+                placeholders.append(i == 0 ? "?" : ", ?");
+            }
+            PreparedStatement statement = null;
+            try {
+                statement = aConnection.prepareStatement(""
+                        + "SELECT extendedfieldvalue.extendedfieldvalue_id, "
+                        + "       extendedfieldvalue.extendedfield_id, "
+                        + "       extendedfieldvalue.instance_id, "
+                        + "       extendedfieldvalue.content "
+                        + "FROM   extendedfieldvalue, extendedfield "
+                        + "WHERE  extendedfieldvalue.extendedfield_id = extendedfield.extendedfield_id "
+                        + "       AND extendedfield.extendedfieldtype_id = ? "
+                        + "       AND extendedfieldvalue.instance_id IN (" + placeholders + ") "
+                        + "ORDER BY extendedfieldvalue.extendedfieldvalue_id");
+                statement.setLong(1, aExtendedFieldType);
+                for (int i = 0; i < ids.size(); i++) {
+                    statement.setLong(i + 2, ids.get(i));
+                }
+                ResultSet result = statement.executeQuery();
+                while (result.next()) {
+                    long extendedfieldvalueId = result.getLong(1);
+                    long extendedfieldId = result.getLong(2);
+                    long instanceId = result.getLong(3);
+                    String content = result.getString(4);
+                    Map<Long, ExtendedFieldValue> values = storedValues.get(instanceId);
+                    if (values == null) {
+                        values = new HashMap<Long, ExtendedFieldValue>();
+                        storedValues.put(instanceId, values);
+                    }
+                    values.put(extendedfieldId, new ExtendedFieldValue(extendedfieldvalueId, extendedfieldId,
+                            instanceId, content));
+                }
+            } finally {
+                DBUtils.closeStatementIfOpen(statement);
+            }
+        }
+
+        Map<Long, List<ExtendedFieldValue>> extendedFieldValues = new HashMap<Long, List<ExtendedFieldValue>>();
+        for (Long instanceId : instanceIds) {
+            Map<Long, ExtendedFieldValue> values = storedValues.get(instanceId);
+            List<ExtendedFieldValue> list = new ArrayList<ExtendedFieldValue>(extendedFields.size());
+            for (ExtendedField ef : extendedFields) {
+                ExtendedFieldValue efv = values == null ? null : values.get(ef.getExtendedFieldID());
+                if (efv == null) {
+                    efv = new ExtendedFieldValue();
+                    efv.setExtendedFieldID(ef.getExtendedFieldID());
+                    efv.setInstanceID(instanceId);
+                    efv.setContent(new ExtendedFieldDefaultValue(ef.getDefaultValue(), ef.getFormattingPattern(), ef
+                            .getDatatype()).getDBValue());
+                }
+                list.add(efv);
+            }
+            extendedFieldValues.put(instanceId, list);
+        }
+        return extendedFieldValues;
+    }
+
+    /**
+     * Save a number of ExtendedFieldValues in persistent storage, using JDBC batches. Values without an ID are created
+     * and given one, the others are updated. Nothing is committed.
+     *
+     * @param aConnection an open connection to the HarvestDatabase
+     * @param aExtendedFieldValues The ExtendedFieldValues to save
+     * @throws UnknownID If one of the values to update is not known in persistent storage.
+     * @throws SQLException In case of database problems.
+     */
+    public void saveAll(Connection aConnection, Collection<ExtendedFieldValue> aExtendedFieldValues)
+            throws SQLException {
+        ArgumentNotValid.checkNotNull(aExtendedFieldValues, "Collection<ExtendedFieldValue> aExtendedFieldValues");
+        aConnection.setAutoCommit(false);
+        PreparedStatement insert = null;
+        PreparedStatement update = null;
+        try {
+            insert = aConnection.prepareStatement("INSERT INTO extendedfieldvalue ("
+                    + "extendedfieldvalue_id, extendedfield_id, content, instance_id) " + "VALUES (?, ?, ?, ?)");
+            update = aConnection.prepareStatement("" + "UPDATE extendedfieldvalue " + "SET    extendedfield_id = ?, "
+                    + "       instance_id = ?, " + "       content = ? "
+                    + "WHERE  extendedfieldvalue_id = ? and instance_id = ?");
+            Long nextID = null;
+            int inserts = 0;
+            List<ExtendedFieldValue> updates = new ArrayList<ExtendedFieldValue>();
+            for (ExtendedFieldValue efv : aExtendedFieldValues) {
+                if (efv.getExtendedFieldValueID() == null) {
+                    if (nextID == null) {
+                        nextID = generateNextID(aConnection);
+                    }
+                    efv.setExtendedFieldValueID(nextID++);
+                    log.debug("Creating {}", efv);
+                    insert.setLong(1, efv.getExtendedFieldValueID());
+                    insert.setLong(2, efv.getExtendedFieldID());
+                    insert.setString(3, efv.getContent());
+                    insert.setLong(4, efv.getInstanceID());
+                    insert.addBatch();
+                    if (++inserts % BATCH_SIZE == 0) {
+                        insert.executeBatch();
+                    }
+                } else {
+                    update.setLong(1, efv.getExtendedFieldID());
+                    update.setLong(2, efv.getInstanceID());
+                    update.setString(3, efv.getContent());
+                    update.setLong(4, efv.getExtendedFieldValueID());
+                    update.setLong(5, efv.getInstanceID());
+                    update.addBatch();
+                    updates.add(efv);
+                    if (updates.size() == BATCH_SIZE) {
+                        checkUpdated(update.executeBatch(), updates);
+                        updates.clear();
+                    }
+                }
+            }
+            if (inserts % BATCH_SIZE != 0) {
+                insert.executeBatch();
+            }
+            if (!updates.isEmpty()) {
+                checkUpdated(update.executeBatch(), updates);
+            }
+        } finally {
+            DBUtils.closeStatementIfOpen(insert);
+            DBUtils.closeStatementIfOpen(update);
+        }
+    }
+
+    /**
+     * Check that a batch of updates found all the values it updated.
+     *
+     * @param aUpdateCounts The update counts of the batch
+     * @param aExtendedFieldValues The values updated by the batch, in the same order
+     * @throws UnknownID If one of the values was not known in persistent storage.
+     */
+    private static void checkUpdated(int[] aUpdateCounts, List<ExtendedFieldValue> aExtendedFieldValues) {
+        for (int i = 0; i < aUpdateCounts.length; i++) {
+            if (aUpdateCounts[i] == 0) {
+                throw new UnknownID("Extended Field Value id " + aExtendedFieldValues.get(i).getExtendedFieldValueID()
+                        + " is not known in persistent storage");
+            }
+        }
+    }
+
 }
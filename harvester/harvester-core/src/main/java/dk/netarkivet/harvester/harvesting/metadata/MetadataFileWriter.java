@@ -222,12 +222,22 @@ public abstract class MetadataFileWriter {
             log.debug("Inserting the file '{}'", metadataSourceFile.getAbsolutePath());
             writeFileTo(metadataSourceFile, getURIforFileName(metadataSourceFile, harvestId, jobId).toASCIIString(), mimetype);
             // ...and delete it afterwards
-            try {
-                FileUtils.remove(metadataSourceFile);
-            } catch (IOFailure e) {
-                log.warn("Couldn't delete file '{}' after adding to metadata archive file, ignoring.",
-                        metadataSourceFile.getAbsolutePath(), e);
-            }
+            removeInsertedFile(metadataSourceFile);
+        }
+    }
+
+    /**
+     * Delete a file after adding it to the metadata archive file. Failure to delete it is logged, but otherwise
+     * ignored.
+     *
+     * @param metadataSourceFile The file added.
+     */
+    static void removeInsertedFile(File metadataSourceFile) {
+        try {
+            FileUtils.remove(metadataSourceFile);
+        } catch (IOFailure e) {
+            log.warn("Couldn't delete file '{}' after adding to metadata archive file, ignoring.",
+                    metadataSourceFile.getAbsolutePath(), e);
         }
     }
 
@@ -240,7 +250,7 @@ public abstract class MetadataFileWriter {
      * @return A URI appropriate for identifying the file's content in Netarkivet
      * @throws UnknownID if something goes terribly wrong in the CDX URI construction
      */
-    private static URI getURIforFileName(File cdx, long harvestId, long jobId) throws UnknownID {
+    static URI getURIforFileName(File cdx, long harvestId, long jobId) throws UnknownID {
         String extensionToRemove = FileUtils.CDX_EXTENSION;
         String filename = cdx.getName();
         if (!filename.endsWith(extensionToRemove)) {
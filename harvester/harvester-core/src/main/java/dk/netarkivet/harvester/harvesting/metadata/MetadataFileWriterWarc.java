@@ -23,45 +23,72 @@
 package dk.netarkivet.harvester.harvesting.metadata;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.IOUtils;
-import org.archive.util.Base32;
 import org.jwat.common.ANVLRecord;
 import org.jwat.common.ContentType;
 import org.jwat.common.Uri;
 import org.jwat.warc.WarcConstants;
 import org.jwat.warc.WarcDigest;
-import org.jwat.warc.WarcFileNaming;
-import org.jwat.warc.WarcFileNamingSingleFile;
 import org.jwat.warc.WarcFileWriter;
-import org.jwat.warc.WarcFileWriterConfig;
 import org.jwat.warc.WarcHeader;
 import org.jwat.warc.WarcRecord;
+import org.jwat.warc.WarcWriter;
+import org.jwat.warc.WarcWriterFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.IllegalState;
-import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.SystemUtils;
+import dk.netarkivet.harvester.HarvesterSettings;
 
 /**
  * MetadataFileWriter that writes to WARC files.
+ * <p>
+ * Records are written in one pass over their payload, see {@link SinglePassRecordWriter}. When the records are
+ * compressed, the files inserted with {@link #insertFiles(File, FilenameFilter, String, long, long)} are compressed
+ * by several threads into separate gzip members, which are then appended to the WARC file in the order of the files.
  */
 public class MetadataFileWriterWarc extends MetadataFileWriter {
 
     private static final Logger log = LoggerFactory.getLogger(MetadataFileWriterWarc.class);
 
+    /** The WARC file being written, named with the active suffix until closed. */
+    private File openFile;
+
+    /** The WARC file after being closed. */
+    private File warcFile;
+
     /** Writer to this jobs metadatafile. This is closed when the metadata is marked as ready. */
-    private WarcFileWriter writer = null;
+    private RandomAccessFile writer = null;
+
+    /** The channel of the writer, positioned at the end of the records written. */
+    private FileChannel channel = null;
+
+    /** Whether to compress the records. */
+    private boolean compress;
 
     /** The ID of the Warcinfo record. Set when calling the insertInfoRecord method. */
     private Uri warcInfoUID = null;
@@ -74,16 +101,18 @@ public class MetadataFileWriterWarc extends MetadataFileWriter {
      */
     public static MetadataFileWriter createWriter(File metadataWarcFile) {
         MetadataFileWriterWarc mtfw = new MetadataFileWriterWarc();
-    	WarcFileNaming naming = new WarcFileNamingSingleFile(metadataWarcFile);
-    	WarcFileWriterConfig config = new WarcFileWriterConfig(metadataWarcFile.getParentFile(), compressRecords(), Long.MAX_VALUE, true);
-        mtfw.writer = WarcFileWriter.getWarcWriterInstance(naming, config);
+        mtfw.warcFile = metadataWarcFile;
+        mtfw.openFile = new File(metadataWarcFile.getPath() + WarcFileWriter.ACTIVE_SUFFIX);
+        mtfw.compress = compressRecords();
         mtfw.open();
         return mtfw;
     }
 
     protected void open() {
         try {
-            writer.open();
+            writer = new RandomAccessFile(openFile, "rw");
+            writer.setLength(0);
+            channel = writer.getChannel();
         } catch (IOException e) {
             throw new IOFailure("Error opening MetadataFileWriterWarc", e);
         }
@@ -97,13 +126,20 @@ public class MetadataFileWriterWarc extends MetadataFileWriter {
             } catch (IOException e) {
                 throw new IOFailure("Error closing MetadataFileWriterWarc", e);
             }
+            if (warcFile.exists() && !warcFile.delete()) {
+                throw new IOFailure("Unable to replace existing file " + warcFile.getPath());
+            }
+            if (!openFile.renameTo(warcFile)) {
+                throw new IOFailure("Unable to rename " + openFile.getPath() + " to " + warcFile.getPath());
+            }
         }
         writer = null;
+        channel = null;
     }
 
     @Override
     public File getFile() {
-        return writer.getFile();
+        return writer != null ? openFile : warcFile;
     }
 
     /**
@@ -116,34 +152,31 @@ public class MetadataFileWriterWarc extends MetadataFileWriter {
         if (warcInfoUID != null) {
             throw new IllegalState("An WarcInfo record has already been inserted");
         }
-        String filename = writer.getFile().getName();
-        if (filename.endsWith(WarcFileWriter.ACTIVE_SUFFIX)) {
-        	filename = filename.substring(0, filename.length() - WarcFileWriter.ACTIVE_SUFFIX.length());
-        }
-        Uri recordId;
-        try {
-            recordId = new Uri("urn:uuid:" + UUID.randomUUID().toString());
-        } catch (URISyntaxException e) {
-            throw new IllegalState("Epic fail creating URI from UUID!", e);
-        }
+        final String filename = warcFile.getName();
+        final Uri recordId = makeRecordId();
+        final Date date = new Date();
         warcInfoUID = recordId;
         try {
-            byte[] payloadAsBytes = payloadToInfoRecord.getUTF8Bytes();
-            byte[] blockDigestBytes = ChecksumCalculator.digestInputStream(new ByteArrayInputStream(payloadAsBytes), "SHA1");
-            WarcDigest blockDigest = WarcDigest.createWarcDigest("SHA1", blockDigestBytes, "base32", Base32.encode(blockDigestBytes));
-            WarcRecord record = WarcRecord.createRecord(writer.writer);
-            WarcHeader header = record.header;
-            header.warcTypeIdx = WarcConstants.RT_IDX_WARCINFO;
-            header.addHeader(WarcConstants.FN_WARC_RECORD_ID, recordId, null);
-            header.addHeader(WarcConstants.FN_WARC_DATE, new Date(), null);
-            header.addHeader(WarcConstants.FN_WARC_FILENAME, filename);
-            header.addHeader(WarcConstants.FN_CONTENT_TYPE, ContentType.parseContentType(WarcConstants.CT_APP_WARC_FIELDS), null);
-            header.addHeader(WarcConstants.FN_CONTENT_LENGTH, new Long(payloadAsBytes.length), null);
-            header.addHeader(WarcConstants.FN_WARC_BLOCK_DIGEST, blockDigest, null);
-            writer.writer.writeHeader(record);
-            ByteArrayInputStream bin = new ByteArrayInputStream(payloadAsBytes);
-            writer.writer.streamPayload(bin);
-            writer.writer.closeRecord();
+            final byte[] payloadAsBytes = payloadToInfoRecord.getUTF8Bytes();
+            SinglePassRecordWriter.writeRecord(channel, new SinglePassRecordWriter.HeaderMaker() {
+                @Override
+                public byte[] makeHeader(WarcDigest blockDigest) throws IOException {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    WarcWriter headerWriter = WarcWriterFactory.getWriter(out, false);
+                    WarcRecord record = WarcRecord.createRecord(headerWriter);
+                    WarcHeader header = record.header;
+                    header.warcTypeIdx = WarcConstants.RT_IDX_WARCINFO;
+                    header.addHeader(WarcConstants.FN_WARC_RECORD_ID, recordId, null);
+                    header.addHeader(WarcConstants.FN_WARC_DATE, date, null);
+                    header.addHeader(WarcConstants.FN_WARC_FILENAME, filename);
+                    header.addHeader(WarcConstants.FN_CONTENT_TYPE,
+                            ContentType.parseContentType(WarcConstants.CT_APP_WARC_FIELDS), null);
+                    header.addHeader(WarcConstants.FN_CONTENT_LENGTH, new Long(payloadAsBytes.length), null);
+                    header.addHeader(WarcConstants.FN_WARC_BLOCK_DIGEST, blockDigest, null);
+                    headerWriter.writeHeader(record);
+                    return out.toByteArray();
+                }
+            }, new ByteArrayInputStream(payloadAsBytes), payloadAsBytes.length, compress);
         } catch (IOException e) {
             throw new IllegalState("Error inserting warcinfo record", e);
         }
@@ -156,38 +189,119 @@ public class MetadataFileWriterWarc extends MetadataFileWriter {
 
     @Override
     public boolean writeTo(File fileToArchive, String URL, String mimetype) {
+        checkCanWrite(fileToArchive);
+        log.info("{} {}", fileToArchive, fileToArchive.length());
+        writeFileRecord(channel, fileToArchive, URL, mimetype);
+        return true;
+    }
+
+    /**
+     * Append the files contained in the directory to the metadata archive file, but only if the filename matches the
+     * supplied filter. If the records are compressed, the files are compressed in parallel by the number of threads
+     * given by the setting {@link HarvesterSettings#METADATA_COMPRESSION_THREADS}.
+     *
+     * @param parentDir directory containing the files to append to metadata
+     * @param filter filter describing which files to accept and which to ignore
+     * @param mimetype The content-type to write along with the files in the metadata output
+     * @param harvestId The harvestId of the harvest
+     * @param jobId The jobId of the harvest
+     */
+    @Override
+    public void insertFiles(File parentDir, FilenameFilter filter, final String mimetype, long harvestId, long jobId) {
+        int threads = Settings.getInt(HarvesterSettings.METADATA_COMPRESSION_THREADS);
+        if (!compress || threads <= 1) {
+            super.insertFiles(parentDir, filter, mimetype, harvestId, jobId);
+            return;
+        }
+        File[] metadataSourceFiles = parentDir.listFiles(filter);
+        log.debug("Now compressing {} files from '{}' using {} threads.", metadataSourceFiles.length,
+                parentDir.getAbsolutePath(), threads);
+        List<File> partFiles = new ArrayList<File>();
+        List<Future<File>> parts = new ArrayList<Future<File>>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int i = 0; i < metadataSourceFiles.length; i++) {
+                final File metadataSourceFile = metadataSourceFiles[i];
+                checkCanWrite(metadataSourceFile);
+                final String uri = getURIforFileName(metadataSourceFile, harvestId, jobId).toASCIIString();
+                final File partFile = new File(openFile.getParentFile(), openFile.getName() + "." + i + ".part");
+                partFiles.add(partFile);
+                parts.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws IOException {
+                        RandomAccessFile part = new RandomAccessFile(partFile, "rw");
+                        try {
+                            part.setLength(0);
+                            writeFileRecord(part.getChannel(), metadataSourceFile, uri, mimetype);
+                        } finally {
+                            part.close();
+                        }
+                        return partFile;
+                    }
+                }));
+            }
+            for (int i = 0; i < metadataSourceFiles.length; i++) {
+                File partFile = parts.get(i).get();
+                log.debug("Inserting the file '{}'", metadataSourceFiles[i].getAbsolutePath());
+                appendPart(partFile);
+                FileUtils.remove(partFile);
+                removeInsertedFile(metadataSourceFiles[i]);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOFailure("Interrupted while inserting files from " + parentDir.getAbsolutePath(), e);
+        } catch (ExecutionException e) {
+            throw new IOFailure("Unable to insert files from " + parentDir.getAbsolutePath(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+            for (File partFile : partFiles) {
+                if (partFile.exists() && !partFile.delete()) {
+                    log.warn("Couldn't delete the temporary file '{}'", partFile.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void write(String uri, String contentType, String hostIP, long fetchBeginTimeStamp, byte[] payload)
+            throws java.io.IOException {
+        SinglePassRecordWriter.writeRecord(channel,
+                new ResourceHeaderMaker(new Date(fetchBeginTimeStamp), hostIP, uri, contentType, payload.length),
+                new ByteArrayInputStream(payload), payload.length, compress);
+    }
+
+    /**
+     * Check that a file can be written as a record.
+     *
+     * @param fileToArchive The file.
+     * @throws IOFailure If the file is not a file.
+     * @throws IllegalState If no warcinfo record has been written.
+     */
+    private void checkCanWrite(File fileToArchive) {
         if (!fileToArchive.isFile()) {
             throw new IOFailure("Not a file: " + fileToArchive.getPath());
         }
         if (warcInfoUID == null) {
             throw new IllegalState("An WarcInfo record has not been inserted yet");
         }
-        log.info("{} {}", fileToArchive, fileToArchive.length());
-        byte[] blockDigestBytes = ChecksumCalculator.digestFile(fileToArchive, "SHA1");
-        WarcDigest blockDigest = WarcDigest.createWarcDigest("SHA1", blockDigestBytes, "base32", Base32.encode(blockDigestBytes));
-        Uri recordId;
-        try {
-            recordId = new Uri("urn:uuid:" + UUID.randomUUID().toString());
-        } catch (URISyntaxException e) {
-            throw new IllegalState("Epic fail creating URI from UUID!", e);
-        }
+    }
+
+    /**
+     * Write a resource record with the content of a file.
+     *
+     * @param out The channel to write the record to.
+     * @param fileToArchive The file.
+     * @param URL The URL of the record.
+     * @param mimetype The content type of the record.
+     * @throws IOFailure If unable to read the file or write the record.
+     */
+    private void writeFileRecord(FileChannel out, File fileToArchive, String URL, String mimetype) {
         InputStream in = null;
         try {
-            WarcRecord record = WarcRecord.createRecord(writer.writer);
-            WarcHeader header = record.header;
-            header.warcTypeIdx = WarcConstants.RT_IDX_RESOURCE;
-            header.addHeader(WarcConstants.FN_WARC_RECORD_ID, recordId, null);
-            header.addHeader(WarcConstants.FN_WARC_DATE, new Date(), null);
-            header.addHeader(WarcConstants.FN_WARC_WARCINFO_ID, warcInfoUID, null);
-            header.addHeader(WarcConstants.FN_WARC_IP_ADDRESS, SystemUtils.getLocalIP());
-            header.addHeader(WarcConstants.FN_WARC_TARGET_URI, URL);
-            header.addHeader(WarcConstants.FN_WARC_BLOCK_DIGEST, blockDigest, null);
-            header.addHeader(WarcConstants.FN_CONTENT_TYPE, ContentType.parseContentType(mimetype), null);
-            header.addHeader(WarcConstants.FN_CONTENT_LENGTH, new Long(fileToArchive.length()), null);
-            writer.writer.writeHeader(record);
+            long length = fileToArchive.length();
             in = new FileInputStream(fileToArchive);
-            writer.writer.streamPayload(in);
-            writer.writer.closeRecord();
+            SinglePassRecordWriter.writeRecord(out, new ResourceHeaderMaker(new Date(), SystemUtils.getLocalIP(), URL,
+                    mimetype, length), in, length, compress);
         } catch (FileNotFoundException e) {
             throw new IOFailure("Unable to open file: " + fileToArchive.getPath(), e);
         } catch (IOException e) {
@@ -195,36 +309,88 @@ public class MetadataFileWriterWarc extends MetadataFileWriter {
         } finally {
             IOUtils.closeQuietly(in);
         }
-        return true;
     }
 
-    @Override
-    public void write(String uri, String contentType, String hostIP, long fetchBeginTimeStamp, byte[] payload)
-            throws java.io.IOException {    	
-        ByteArrayInputStream in = new ByteArrayInputStream(payload);
-        byte[] blockDigestBytes = ChecksumCalculator.digestInputStream(in, "SHA1");
-        WarcDigest blockDigest = WarcDigest.createWarcDigest("SHA1", blockDigestBytes, "base32", Base32.encode(blockDigestBytes));
-        Uri recordId;
+    /**
+     * Append a record written to a separate file.
+     *
+     * @param partFile The file with the record.
+     * @throws IOFailure If unable to copy the record.
+     */
+    private void appendPart(File partFile) {
+        FileInputStream in = null;
         try {
-            recordId = new Uri("urn:uuid:" + UUID.randomUUID().toString());
+            in = new FileInputStream(partFile);
+            FileChannel part = in.getChannel();
+            long size = part.size();
+            long position = 0;
+            while (position < size) {
+                position += part.transferTo(position, size - position, channel);
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Epic IO fail while writing to WARC file: " + partFile.getPath(), e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * @return A new record ID.
+     */
+    private static Uri makeRecordId() {
+        try {
+            return new Uri("urn:uuid:" + UUID.randomUUID().toString());
         } catch (URISyntaxException e) {
             throw new IllegalState("Epic fail creating URI from UUID!", e);
         }
-        WarcRecord record = WarcRecord.createRecord(writer.writer);
-        WarcHeader header = record.header;
-        header.warcTypeIdx = WarcConstants.RT_IDX_RESOURCE;
-        header.addHeader(WarcConstants.FN_WARC_RECORD_ID, recordId, null);
-        header.addHeader(WarcConstants.FN_WARC_DATE, new Date(fetchBeginTimeStamp), null);
-        header.addHeader(WarcConstants.FN_WARC_WARCINFO_ID, warcInfoUID, null);
-        header.addHeader(WarcConstants.FN_WARC_IP_ADDRESS, hostIP);
-        header.addHeader(WarcConstants.FN_WARC_TARGET_URI, uri);
-        header.addHeader(WarcConstants.FN_WARC_BLOCK_DIGEST, blockDigest, null);
-        header.addHeader(WarcConstants.FN_CONTENT_TYPE, ContentType.parseContentType(contentType), null);
-        header.addHeader(WarcConstants.FN_CONTENT_LENGTH, new Long(payload.length), null);
-        writer.writer.writeHeader(record);
-        in = new ByteArrayInputStream(payload); // A re-read is necessary here!
-        writer.writer.streamPayload(in);
-        writer.writer.closeRecord();
+    }
+
+    /**
+     * Makes the header of a resource record.
+     */
+    private class ResourceHeaderMaker implements SinglePassRecordWriter.HeaderMaker {
+        private final Uri recordId = makeRecordId();
+        private final Date date;
+        private final String hostIP;
+        private final String uri;
+        private final String contentType;
+        private final long length;
+
+        /**
+         * Constructor.
+         *
+         * @param date The date of the record.
+         * @param hostIP The IP address of the record.
+         * @param uri The target URI of the record.
+         * @param contentType The content type of the record.
+         * @param length The length of the payload.
+         */
+        ResourceHeaderMaker(Date date, String hostIP, String uri, String contentType, long length) {
+            this.date = date;
+            this.hostIP = hostIP;
+            this.uri = uri;
+            this.contentType = contentType;
+            this.length = length;
+        }
+
+        @Override
+        public byte[] makeHeader(WarcDigest blockDigest) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            WarcWriter headerWriter = WarcWriterFactory.getWriter(out, false);
+            WarcRecord record = WarcRecord.createRecord(headerWriter);
+            WarcHeader header = record.header;
+            header.warcTypeIdx = WarcConstants.RT_IDX_RESOURCE;
+            header.addHeader(WarcConstants.FN_WARC_RECORD_ID, recordId, null);
+            header.addHeader(WarcConstants.FN_WARC_DATE, date, null);
+            header.addHeader(WarcConstants.FN_WARC_WARCINFO_ID, warcInfoUID, null);
+            header.addHeader(WarcConstants.FN_WARC_IP_ADDRESS, hostIP);
+            header.addHeader(WarcConstants.FN_WARC_TARGET_URI, uri);
+            header.addHeader(WarcConstants.FN_WARC_BLOCK_DIGEST, blockDigest, null);
+            header.addHeader(WarcConstants.FN_CONTENT_TYPE, ContentType.parseContentType(contentType), null);
+            header.addHeader(WarcConstants.FN_CONTENT_LENGTH, new Long(length), null);
+            headerWriter.writeHeader(record);
+            return out.toByteArray();
+        }
     }
 
 }
@@ -0,0 +1,354 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.metadata;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.archive.util.Base32;
+import org.jwat.warc.WarcDigest;
+
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.exceptions.IllegalState;
+
+/**
+ * Writes WARC records in one pass over the payload. The header is written with a placeholder block digest of the same
+ * length as the real one, the payload is digested while being written, and the header is then overwritten with the
+ * real block digest.
+ * <p>
+ * A compressed record is written as a gzip member of its own, like the records of a compressed WARC file. The header
+ * is put in a stored, i.e. uncompressed, deflate block of known size in front of the compressed payload, so it can be
+ * overwritten in the same way. The CRC of the member is combined from the CRCs of the header and of the payload.
+ */
+final class SinglePassRecordWriter {
+
+    /**
+     * Makes the header of a record.
+     */
+    interface HeaderMaker {
+        /**
+         * @param blockDigest The block digest of the record.
+         * @return The header of the record, including the empty line ending it.
+         * @throws IOException If unable to make the header.
+         */
+        byte[] makeHeader(WarcDigest blockDigest) throws IOException;
+    }
+
+    /** The algorithm of the block digests. */
+    static final String DIGEST_ALGORITHM = "SHA1";
+
+    /** The bytes ending a record. */
+    private static final byte[] END_OF_RECORD = {'\r', '\n', '\r', '\n'};
+
+    /** The header of a gzip member: magic, deflate method, no flags, no time, no extra flags, unknown OS. */
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    /** The size of the header of a stored deflate block. */
+    private static final int STORED_BLOCK_HEADER_SIZE = 5;
+
+    /** The largest amount of data in a stored deflate block. */
+    private static final int MAX_STORED_BLOCK_SIZE = 0xffff;
+
+    /** The size of the buffers used for copying. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** A block digest with the length of a real one. */
+    private static final WarcDigest PLACEHOLDER_DIGEST = makeDigest(new byte[20]);
+
+    private SinglePassRecordWriter() {
+    }
+
+    /**
+     * @param digest SHA1 digest bytes.
+     * @return The digest as a WARC block digest.
+     */
+    static WarcDigest makeDigest(byte[] digest) {
+        return WarcDigest.createWarcDigest(DIGEST_ALGORITHM, digest, "base32", Base32.encode(digest));
+    }
+
+    /**
+     * Write a record at the position of a channel, leaving the channel positioned after the record.
+     *
+     * @param channel The channel to write to.
+     * @param headerMaker Makes the header of the record.
+     * @param in The payload of the record.
+     * @param length The length of the payload.
+     * @param compress Whether to write the record as a gzip member.
+     * @throws IOException If unable to read the payload or to write the record.
+     * @throws IOFailure If the payload does not have the given length.
+     */
+    static void writeRecord(FileChannel channel, HeaderMaker headerMaker, InputStream in, long length,
+            boolean compress) throws IOException {
+        byte[] placeholderHeader = headerMaker.makeHeader(PLACEHOLDER_DIGEST);
+        long start = channel.position();
+        MessageDigest digest = getDigest();
+        byte[] header;
+        if (compress) {
+            if (placeholderHeader.length > MAX_STORED_BLOCK_SIZE) {
+                throw new IOFailure("Record header of " + placeholderHeader.length + " bytes is too large");
+            }
+            write(channel, GZIP_HEADER, GZIP_HEADER.length);
+            channel.position(channel.position() + STORED_BLOCK_HEADER_SIZE + placeholderHeader.length);
+            CRC32 payloadCrc = new CRC32();
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                byte[] outBuffer = new byte[BUFFER_SIZE];
+                DeflatingSink sink = new DeflatingSink(channel, deflater, outBuffer);
+                copy(in, length, digest, payloadCrc, sink);
+                payloadCrc.update(END_OF_RECORD);
+                sink.write(END_OF_RECORD, END_OF_RECORD.length);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    write(channel, outBuffer, deflater.deflate(outBuffer));
+                }
+            } finally {
+                deflater.end();
+            }
+            header = makeRealHeader(headerMaker, digest, placeholderHeader.length);
+            CRC32 headerCrc = new CRC32();
+            headerCrc.update(header);
+            long crc = combineCrc32(headerCrc.getValue(), payloadCrc.getValue(), length + END_OF_RECORD.length);
+            long size = header.length + length + END_OF_RECORD.length;
+            ByteBuffer trailer = ByteBuffer.allocate(8);
+            putIntLittleEndian(trailer, crc);
+            putIntLittleEndian(trailer, size);
+            trailer.flip();
+            writeFully(channel, trailer);
+
+            ByteBuffer storedBlock = ByteBuffer.allocate(STORED_BLOCK_HEADER_SIZE + header.length);
+            // Not the final block, stored without compression, followed by the length and its complement
+            storedBlock.put((byte) 0);
+            putShortLittleEndian(storedBlock, header.length);
+            putShortLittleEndian(storedBlock, ~header.length);
+            storedBlock.put(header);
+            storedBlock.flip();
+            writeFully(channel, storedBlock, start + GZIP_HEADER.length);
+        } else {
+            channel.position(start + placeholderHeader.length);
+            copy(in, length, digest, null, new ChannelSink(channel));
+            write(channel, END_OF_RECORD, END_OF_RECORD.length);
+            header = makeRealHeader(headerMaker, digest, placeholderHeader.length);
+            writeFully(channel, ByteBuffer.wrap(header), start);
+        }
+    }
+
+    /**
+     * Make the header with the real block digest, and check that it has the size of the placeholder header.
+     *
+     * @param headerMaker Makes the header.
+     * @param digest The digest of the payload.
+     * @param size The size of the placeholder header.
+     * @return The header.
+     * @throws IOException If unable to make the header.
+     */
+    private static byte[] makeRealHeader(HeaderMaker headerMaker, MessageDigest digest, int size) throws IOException {
+        byte[] header = headerMaker.makeHeader(makeDigest(digest.digest()));
+        if (header.length != size) {
+            throw new IllegalState("Record header changed size from " + size + " to " + header.length + " bytes");
+        }
+        return header;
+    }
+
+    /**
+     * Copy the payload to a sink, updating the digest and CRC.
+     *
+     * @param in The payload.
+     * @param length The length of the payload.
+     * @param digest The digest to update.
+     * @param crc The CRC to update, or null.
+     * @param sink Where to write the payload.
+     * @throws IOException If unable to read or write.
+     * @throws IOFailure If the payload does not have the given length.
+     */
+    private static void copy(InputStream in, long length, MessageDigest digest, CRC32 crc, Sink sink)
+            throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long copied = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+            if (crc != null) {
+                crc.update(buffer, 0, read);
+            }
+            sink.write(buffer, read);
+            copied += read;
+        }
+        if (copied != length) {
+            throw new IOFailure("Expected a payload of " + length + " bytes, but got " + copied
+                    + " bytes. The file may have been changed while being written");
+        }
+    }
+
+    /**
+     * Combine the CRC-32 of two blocks of data into the CRC-32 of their concatenation, as done by crc32_combine() of
+     * zlib.
+     *
+     * @param crc1 The CRC-32 of the first block.
+     * @param crc2 The CRC-32 of the second block.
+     * @param length2 The length of the second block.
+     * @return The CRC-32 of the concatenation of the blocks.
+     */
+    static long combineCrc32(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[32];
+        long[] odd = new long[32];
+        // The operator for one zero bit
+        odd[0] = 0xedb88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        // The operators for two and four zero bits
+        gf2MatrixSquare(even, odd);
+        gf2MatrixSquare(odd, even);
+        // Apply length2 zero bytes to crc1
+        long crc = crc1;
+        long len = length2;
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((len & 1) != 0) {
+                crc = gf2MatrixTimes(even, crc);
+            }
+            len >>= 1;
+            if (len == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((len & 1) != 0) {
+                crc = gf2MatrixTimes(odd, crc);
+            }
+            len >>= 1;
+        } while (len != 0);
+        return crc ^ crc2;
+    }
+
+    private static long gf2MatrixTimes(long[] matrix, long vector) {
+        long sum = 0;
+        long vec = vector;
+        for (int i = 0; vec != 0; i++, vec >>>= 1) {
+            if ((vec & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(matrix, matrix[n]);
+        }
+    }
+
+    private static MessageDigest getDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalState("No " + DIGEST_ALGORITHM + " digest available", e);
+        }
+    }
+
+    private static void putIntLittleEndian(ByteBuffer buffer, long value) {
+        buffer.put((byte) value);
+        buffer.put((byte) (value >>> 8));
+        buffer.put((byte) (value >>> 16));
+        buffer.put((byte) (value >>> 24));
+    }
+
+    private static void putShortLittleEndian(ByteBuffer buffer, int value) {
+        buffer.put((byte) value);
+        buffer.put((byte) (value >>> 8));
+    }
+
+    private static void write(FileChannel channel, byte[] bytes, int length) throws IOException {
+        writeFully(channel, ByteBuffer.wrap(bytes, 0, length));
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            pos += channel.write(buffer, pos);
+        }
+    }
+
+    /**
+     * Where the payload is written.
+     */
+    private interface Sink {
+        void write(byte[] bytes, int length) throws IOException;
+    }
+
+    /**
+     * Writes the payload to a channel as it is.
+     */
+    private static final class ChannelSink implements Sink {
+        private final FileChannel channel;
+
+        ChannelSink(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(byte[] bytes, int length) throws IOException {
+            SinglePassRecordWriter.write(channel, bytes, length);
+        }
+    }
+
+    /**
+     * Writes the payload to a channel through a deflater.
+     */
+    private static final class DeflatingSink implements Sink {
+        private final FileChannel channel;
+        private final Deflater deflater;
+        private final byte[] outBuffer;
+
+        DeflatingSink(FileChannel channel, Deflater deflater, byte[] outBuffer) {
+            this.channel = channel;
+            this.deflater = deflater;
+            this.outBuffer = outBuffer;
+        }
+
+        @Override
+        public void write(byte[] bytes, int length) throws IOException {
+            deflater.setInput(bytes, 0, length);
+            while (!deflater.needsInput()) {
+                SinglePassRecordWriter.write(channel, outBuffer, deflater.deflate(outBuffer));
+            }
+        }
+    }
+
+}
@@ -22,8 +22,10 @@
  */
 package dk.netarkivet.harvester.harvesting.report;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -35,8 +37,7 @@ import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.StringUtils;
 import dk.netarkivet.common.utils.TimeUtils;
 import dk.netarkivet.harvester.HarvesterSettings;
-import dk.netarkivet.harvester.datamodel.Domain;
-import dk.netarkivet.harvester.datamodel.DomainConfiguration;
+import dk.netarkivet.harvester.datamodel.DomainConfigurationLimits;
 import dk.netarkivet.harvester.datamodel.DomainDAO;
 import dk.netarkivet.harvester.datamodel.HarvestDefinitionDAO;
 import dk.netarkivet.harvester.datamodel.HarvestInfo;
@@ -102,10 +103,17 @@ public class BnfHarvestReport extends AbstractHarvestReport{
         harvestDomainNames.addAll(getDomainNames());
         harvestDomainNames.retainAll(domConfMap.keySet());
 
+        Map<String, DomainConfigurationLimits> limitsMap = domDao.getConfigurationLimits(job.getJobID());
+        Date harvestDate = new Date();
+        List<HarvestInfo> harvestInfos = new ArrayList<HarvestInfo>(harvestDomainNames.size());
         for (String domainName : harvestDomainNames) {
-            Domain domain = domDao.read(domainName);
-            String confName = domConfMap.get(domainName);
-            DomainConfiguration conf = domain.getConfiguration(confName);
+            DomainConfigurationLimits conf = limitsMap.get(domainName);
+            if (conf == null) {
+                LOG.warn("Configuration '{}' of domain '{}' is not part of job {}", domConfMap.get(domainName),
+                        domainName, job.getJobID());
+                continue;
+            }
+            String confName = conf.getConfigurationName();
 
             long confByteLimit = conf.getMaxBytes();
             long confObjectLimit = conf.getMaxObjects();
@@ -129,15 +137,15 @@ public class BnfHarvestReport extends AbstractHarvestReport{
             ds.setStopReason(finalStopReason);
 
             // Create the HarvestInfo object
-            HarvestInfo hi = new HarvestInfo(job.getOrigHarvestDefinitionID(), job.getJobID(), domainName, confName,
-                    new Date(), actualByteCount, actualObjectCount, finalStopReason);
-
-            // Add HarvestInfo to Domain and make data persistent
-            // by updating DAO
-            domain.getHistory().addHarvestInfo(hi);
-            domDao.update(domain);
+            harvestInfos.add(new HarvestInfo(job.getOrigHarvestDefinitionID(), job.getJobID(), domainName, confName,
+                    harvestDate, actualByteCount, actualObjectCount, finalStopReason));
         }
 
+        // Make the harvest infos persistent in one go. Infos already stored
+        // for this job, e.g. by a resent crawl status message, are skipped.
+        int added = domDao.addHarvestInfos(harvestInfos);
+        LOG.info("Added {} of {} harvest infos for job {}", added, harvestInfos.size(), job.getJobID());
+
         if (LOG.isInfoEnabled()) {
             long time = System.currentTimeMillis() - startTime;
             LOG.info("Finished post-processing of harvest report for job {}, operation took {}", job.getJobID(),
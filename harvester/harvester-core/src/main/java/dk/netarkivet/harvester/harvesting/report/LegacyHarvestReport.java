@@ -22,8 +22,10 @@
  */
 package dk.netarkivet.harvester.harvesting.report;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -32,7 +34,7 @@ import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.utils.StringUtils;
 import dk.netarkivet.common.utils.TimeUtils;
-import dk.netarkivet.harvester.datamodel.Domain;
+import dk.netarkivet.harvester.datamodel.DomainConfigurationLimits;
 import dk.netarkivet.harvester.datamodel.DomainDAO;
 import dk.netarkivet.harvester.datamodel.HarvestInfo;
 import dk.netarkivet.harvester.datamodel.Job;
@@ -76,7 +78,7 @@ public class LegacyHarvestReport extends AbstractHarvestReport {
 
         // For each domain harvested, check if it corresponds to a
         // domain configuration for this Job and if so add a new HarvestInfo
-        // to the DomainHistory of the corresponding Domain object.
+        // to the history of the corresponding domain.
         // TODO Information about the domains harvested by the crawler
         // without a domain configuration for this job is deleted!
         // Should this information be saved in some way (perhaps stored
@@ -86,9 +88,10 @@ public class LegacyHarvestReport extends AbstractHarvestReport {
         domainNames.addAll(getDomainNames());
         domainNames.retainAll(configurationMap.keySet());
         final DomainDAO dao = DomainDAO.getInstance();
+        final Map<String, DomainConfigurationLimits> limitsMap = dao.getConfigurationLimits(job.getJobID());
+        final Date harvestDate = new Date();
+        final List<HarvestInfo> harvestInfos = new ArrayList<HarvestInfo>(domainNames.size());
         for (String domainName : domainNames) {
-            Domain domain = dao.read(domainName);
-
             // Retrieve crawl data from log and add it to HarvestInfo
             StopReason stopReason = getStopReason(domainName);
             if (stopReason == null) {
@@ -104,6 +107,12 @@ public class LegacyHarvestReport extends AbstractHarvestReport {
                 log.warn("No count for bytes received found for domain '{}'", domainName);
                 bytesReceived = -1L;
             }
+            DomainConfigurationLimits limits = limitsMap.get(domainName);
+            if (limits == null) {
+                log.warn("Configuration '{}' of domain '{}' is not part of job {}", configurationMap.get(domainName),
+                        domainName, job.getJobID());
+                continue;
+            }
             // If StopReason is SIZE_LIMIT, we check if it's the harvests' size
             // limit, or rather a configuration size limit.
 
@@ -117,28 +126,28 @@ public class LegacyHarvestReport extends AbstractHarvestReport {
             // result for whether we want to harvest any more.
             if (stopReason == StopReason.SIZE_LIMIT) {
                 long maxBytesPerDomain = job.getMaxBytesPerDomain();
-                long configMaxBytes = domain.getConfiguration(configurationMap.get(domainName)).getMaxBytes();
+                long configMaxBytes = limits.getMaxBytes();
                 if (NumberUtils.compareInf(configMaxBytes, maxBytesPerDomain) <= 0
                         || NumberUtils.compareInf(configMaxBytes, bytesReceived) <= 0) {
                     stopReason = StopReason.CONFIG_SIZE_LIMIT;
                 }
             } else if (stopReason == StopReason.OBJECT_LIMIT) {
                 long maxObjectsPerDomain = job.getMaxObjectsPerDomain();
-                long configMaxObjects = domain.getConfiguration(configurationMap.get(domainName)).getMaxObjects();
+                long configMaxObjects = limits.getMaxObjects();
                 if (NumberUtils.compareInf(configMaxObjects, maxObjectsPerDomain) <= 0) {
                     stopReason = StopReason.CONFIG_OBJECT_LIMIT;
                 }
             }
             // Create the HarvestInfo object
-            HarvestInfo hi = new HarvestInfo(job.getOrigHarvestDefinitionID(), job.getJobID(), domain.getName(),
-                    configurationMap.get(domain.getName()), new Date(), bytesReceived, countObjectRetrieved, stopReason);
-
-            // Add HarvestInfo to Domain and make data persistent
-            // by updating DAO
-            domain.getHistory().addHarvestInfo(hi);
-            dao.update(domain);
+            harvestInfos.add(new HarvestInfo(job.getOrigHarvestDefinitionID(), job.getJobID(), domainName, limits
+                    .getConfigurationName(), harvestDate, bytesReceived, countObjectRetrieved, stopReason));
         }
 
+        // Make the harvest infos persistent in one go. Infos already stored
+        // for this job, e.g. by a resent crawl status message, are skipped.
+        int added = dao.addHarvestInfos(harvestInfos);
+        log.info("Added {} of {} harvest infos for job {}", added, harvestInfos.size(), job.getJobID());
+
         if (log.isInfoEnabled()) {
             long time = System.currentTimeMillis() - startTime;
             log.info("Finished post-processing of harvest report for job {}, operation took {}", job.getJobID(),
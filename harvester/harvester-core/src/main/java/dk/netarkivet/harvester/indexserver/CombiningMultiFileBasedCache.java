@@ -66,9 +66,11 @@ public abstract class CombiningMultiFileBasedCache<T extends Comparable<T>> exte
      * filled, though some data may be cached at a lower level.
      */
     protected Set<T> cacheData(Set<T> ids) {
+        IndexingProgress.report(IndexRequestState.FETCHING);
         Map<T, File> filesFound = prepareCombine(ids);
         File resultFile = getCacheFile(ids);
         if (filesFound.size() == ids.size()) {
+            IndexingProgress.report(IndexRequestState.INDEXING);
             combine(filesFound);
         } else {
             FileUtils.remove(resultFile);
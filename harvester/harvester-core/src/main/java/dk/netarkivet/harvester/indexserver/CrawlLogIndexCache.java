@@ -24,14 +24,17 @@
 package dk.netarkivet.harvester.indexserver;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -60,12 +63,20 @@ import is.hi.bok.deduplicator.DigestIndexer;
  * software: http://deduplicator.sourceforge.net/apidocs/is/hi/bok/deduplicator/DigestIndexer.html Upon combination of
  * underlying files, each file in the Lucene index is gzipped and the compressed versions are stored in the directory
  * given by getCacheFile(). The subclass has to determine in its constructor call which mime types are included.
+ * <p>
+ * The Lucene index of each job is only built once, and is kept in a {@link JobIndexSegmentStore} in the cache directory
+ * from where it is reused whenever an index containing the job is requested. After each combine task, the job indices
+ * used longest ago are removed from the store if it has grown beyond the size given by the setting
+ * {@link HarvesterSettings#INDEXSERVER_INDEXING_SEGMENT_STORE_MAX_SIZE}.
  */
 public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Long> implements JobIndexCache {
 
     /** The log. */
     private static final Logger log = LoggerFactory.getLogger(CrawlLogIndexCache.class);
 
+    /** The name of the directory inside the cache directory holding the per-job sub-indices. */
+    public static final String SEGMENT_STORE_DIRNAME = "segments";
+
     /** Needed to find origin information, which is file+offset from CDX index. */
     private final CDXDataCache cdxcache = new CDXDataCache();
 
@@ -79,6 +90,9 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
     private final long sleepintervalBetweenCompletenessChecks = Settings
             .getLong(HarvesterSettings.INDEXSERVER_INDEXING_CHECKINTERVAL);
 
+    /** The persistent store of per-job sub-indices that combined indices are composed from. */
+    private final JobIndexSegmentStore segmentStore;
+
     /** Number to separate logs the different combine tasks. */
     private int indexingJobCount = 0;
 
@@ -93,6 +107,7 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
         super(name, new CrawlLogDataCache());
         useBlacklist = blacklist;
         this.mimeFilter = mimeFilter;
+        this.segmentStore = new JobIndexSegmentStore(new File(getCacheDir(), SEGMENT_STORE_DIRNAME));
     }
 
     /**
@@ -123,6 +138,9 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
     /**
      * Combine a number of crawl.log files into one Lucene index. This index is placed as gzip files under the directory
      * returned by getCacheFile().
+     * <p>
+     * The index is composed from the per-job sub-indices in the segment store. Only jobs without a stored sub-index are
+     * indexed, so consecutive requests for overlapping sets of jobs reuse the work done for earlier requests.
      *
      * @param rawfiles The map from job ID into crawl.log contents. No null values are allowed in this map.
      */
@@ -136,6 +154,7 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
         Set<File> tmpfiles = new HashSet<File>();
         String indexLocation = resultDir.getAbsolutePath() + ".luceneDir";
         ThreadPoolExecutor executor = null;
+        Set<Long> storedJobs = new HashSet<Long>();
         try {
             DigestIndexer indexer = createStandardIndexer(indexLocation);
             final boolean verboseIndexing = false;
@@ -150,9 +169,15 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
 
             for (Map.Entry<Long, File> entry : rawfiles.entrySet()) {
                 Long jobId = entry.getKey();
+                // Stored sub-indices are held from here until the combine task ends, so they are not evicted.
+                if (segmentStore.tryAcquire(jobId) != null) {
+                    log.debug("Reusing stored sub-index for job {}", jobId);
+                    storedJobs.add(jobId);
+                    continue;
+                }
                 File crawlLog = entry.getValue();
-                // Generate UUID to ensure a unique filedir for the index.
-                File tmpFile = new File(FileUtils.getTempDir(), UUID.randomUUID().toString());
+                // The sub-index is built in a unique directory in the segment store, and published when complete.
+                File tmpFile = segmentStore.createBuildDir(jobId);
                 tmpfiles.add(tmpFile);
                 String localindexLocation = tmpFile.getAbsolutePath();
                 Long cached = cdxcache.cache(jobId);
@@ -167,29 +192,21 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
                 // handles the sorting of the logfiles and the generation
                 // of a lucene index for this crawllog and cdxfile.
                 ++count;
-                String taskID = count + " out of " + datasetSize;
+                String taskID = count + " out of " + (datasetSize - storedJobs.size());
                 log.debug("Making subthread for indexing job " + jobId + " - task " + taskID);
                 Callable<Boolean> task = new DigestIndexerWorker(localindexLocation, jobId, crawlLog, cachedCDXFile,
                         indexingOptions, taskID);
                 Future<Boolean> result = executor.submit(task);
                 outstandingJobs.add(new IndexingState(jobId, localindexLocation, result));
             }
-
-            // wait for all the outstanding subtasks to complete.
-            Set<Directory> subindices = new HashSet<Directory>();
+            log.info("Combine task #{} reuses {} stored sub-indices and builds {} new ones", indexingJobCount,
+                    storedJobs.size(), outstandingJobs.size());
 
             // Deadline for the combine-task
             long combineTimeout = Settings.getLong(HarvesterSettings.INDEXSERVER_INDEXING_TIMEOUT);
             long timeOutTime = System.currentTimeMillis() + combineTimeout;
 
-            // The indexwriter for the totalindex.
-            IndexWriter totalIndex = indexer.getIndex();
-            int subindicesInTotalIndex = 0;
-            // Max number of segments in totalindex.
-            int maxSegments = Settings.getInt(HarvesterSettings.INDEXSERVER_INDEXING_MAX_SEGMENTS);
-
-            final int ACCUMULATED_SUBINDICES_BEFORE_MERGING = 200;
-
+            // wait for all the outstanding subtasks to complete.
             while (outstandingJobs.size() > 0) {
                 log.info("Outstanding jobs in combine task #{} is now {}", indexingJobCount, outstandingJobs.size());
                 Iterator<IndexingState> iterator = outstandingJobs.iterator();
@@ -199,61 +216,38 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
                             TimeUtils.readableTimeInterval(combineTimeout), outstandingJobs.size());
                     break;
                 }
-                while (iterator.hasNext() && subindices.size() < ACCUMULATED_SUBINDICES_BEFORE_MERGING) {
-                    Future<Boolean> nextResult;
+                while (iterator.hasNext()) {
                     IndexingState next = iterator.next();
-                    if (next.getResultObject().isDone()) {
-                        nextResult = next.getResultObject();
+                    Future<Boolean> nextResult = next.getResultObject();
+                    if (nextResult.isDone()) {
                         try {
                             // check, if the indexing failed
                             if (nextResult.get()) {
-                                subindices.add(new SimpleFSDirectory(new File(next.getIndex())));
+                                segmentStore.publish(next.getJobIdentifier(), new File(next.getIndex()));
+                                storedJobs.add(next.getJobIdentifier());
                             } else {
                                 log.warn("Indexing of job {} failed.", next.getJobIdentifier());
                             }
-
                         } catch (InterruptedException e) {
                             log.warn("Unable to get Result back from indexing thread", e);
                         } catch (ExecutionException e) {
                             log.warn("Unable to get Result back from indexing thread", e);
+                        } catch (IOFailure e) {
+                            log.warn("Unable to store the sub-index of job {}", next.getJobIdentifier(), e);
                         }
                         // remove the done object from the set
                         iterator.remove();
                     }
                 }
-
-                if (subindices.size() >= ACCUMULATED_SUBINDICES_BEFORE_MERGING) {
-
-                    log.info(
-                            "Adding {} subindices to main index. Forcing index to contain max {} files (related to combine task #{})",
-                            subindices.size(), maxSegments, indexingJobCount);
-                    totalIndex.addIndexes(subindices.toArray(new Directory[0]));
-                    totalIndex.forceMerge(maxSegments);
-                    totalIndex.commit();
-                    for (Directory luceneDir : subindices) {
-                        luceneDir.close();
-                    }
-                    subindicesInTotalIndex += subindices.size();
-                    log.info(
-                            "Completed adding {} subindices to main index, now containing {} subindices(related to combine task #{})",
-                            subindices.size(), subindicesInTotalIndex, indexingJobCount);
-                    subindices.clear();
-                } else {
+                if (outstandingJobs.size() > 0) {
                     sleepAwhile();
                 }
             }
 
-            log.info("Adding the final {} subindices to main index. "
-                    + "Forcing index to contain max {} files (related to combine task #{})", subindices.size(),
-                    maxSegments, indexingJobCount);
-
-            totalIndex.addIndexes(subindices.toArray(new Directory[0]));
-            totalIndex.forceMerge(maxSegments);
-            totalIndex.commit();
-            for (Directory luceneDir : subindices) {
-                luceneDir.close();
-            }
-            subindices.clear();
+            // The indexwriter for the totalindex.
+            IndexWriter totalIndex = indexer.getIndex();
+            IndexingProgress.report(IndexRequestState.MERGING);
+            composeIndex(totalIndex, storedJobs);
 
             log.info("Adding operation completed (combine task #{})!", indexingJobCount);
             long docsInIndex = totalIndex.numDocs();
@@ -262,10 +256,15 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
             log.info("Closed index (related to combine task #{}", indexingJobCount);
 
             // Now the index is made, gzip it up.
+            IndexingProgress.report(IndexRequestState.PACKAGING);
             File totalIndexDir = new File(indexLocation);
             log.info("Gzip-compressing the individual {} index files of combine task # {}",
                     totalIndexDir.list().length, indexingJobCount);
             ZipUtils.gzipFiles(totalIndexDir, resultDir);
+            if (Settings.getBoolean(HarvesterSettings.INDEXSERVER_INDEXING_KEEP_UNCOMPRESSED)) {
+                // Keep the index files as they are, for harvesters asking for uncompressed delivery.
+                UncompressedIndexes.store(totalIndexDir, resultDir);
+            }
             log.info(
                     "Completed combine task #{} that combined a dataset with {} crawl logs (entries in combined index: {}) - compressed index has size {}",
                     indexingJobCount, datasetSize, docsInIndex, FileUtils.getHumanReadableFileSize(resultDir));
@@ -275,12 +274,86 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
             // close down Threadpool-executor
             closeDownThreadpoolQuietly(executor);
             FileUtils.removeRecursively(new File(indexLocation));
+            // Published sub-indices have been moved away, so this only removes unfinished or failed builds.
             for (File temporaryFile : tmpfiles) {
                 FileUtils.removeRecursively(temporaryFile);
             }
+            for (Long jobId : storedJobs) {
+                segmentStore.release(jobId);
+            }
+            long maxStoreSize = Settings.getLong(HarvesterSettings.INDEXSERVER_INDEXING_SEGMENT_STORE_MAX_SIZE);
+            if (maxStoreSize > 0) {
+                segmentStore.evict(maxStoreSize);
+            }
         }
     }
 
+    /**
+     * Compose the total index from the stored sub-indices of the given jobs. The sub-indices are added in batches to
+     * limit the number of open directories, and the total index is merged once at the end, which is a no-op unless the
+     * number of segments exceeds the configured maximum.
+     *
+     * @param totalIndex The writer of the total index.
+     * @param jobIds The jobs whose stored sub-indices make up the total index. They must be acquired by the caller.
+     * @throws IOException If adding the sub-indices to the total index fails.
+     */
+    private void composeIndex(IndexWriter totalIndex, Set<Long> jobIds) throws IOException {
+        // Max number of segments in totalindex.
+        int maxSegments = Settings.getInt(HarvesterSettings.INDEXSERVER_INDEXING_MAX_SEGMENTS);
+        final int ACCUMULATED_SUBINDICES_BEFORE_ADDING = 200;
+
+        List<Directory> subindices = new ArrayList<Directory>();
+        int subindicesInTotalIndex = 0;
+        try {
+            for (Long jobId : jobIds) {
+                subindices.add(new SimpleFSDirectory(segmentStore.getSegmentDir(jobId)));
+                if (subindices.size() >= ACCUMULATED_SUBINDICES_BEFORE_ADDING) {
+                    subindicesInTotalIndex += addSubindices(totalIndex, subindices);
+                }
+            }
+            subindicesInTotalIndex += addSubindices(totalIndex, subindices);
+            if (subindicesInTotalIndex > maxSegments) {
+                log.info("Merging {} subindices in main index to max {} segments (related to combine task #{})",
+                        subindicesInTotalIndex, maxSegments, indexingJobCount);
+            }
+            totalIndex.forceMerge(maxSegments);
+            totalIndex.commit();
+        } finally {
+            for (Directory luceneDir : subindices) {
+                luceneDir.close();
+            }
+        }
+    }
+
+    /**
+     * Add the given subindices to the total index, close them and clear the list.
+     *
+     * @param totalIndex The writer of the total index.
+     * @param subindices The subindices to add.
+     * @return The number of subindices added.
+     * @throws IOException If adding the subindices fails.
+     */
+    private int addSubindices(IndexWriter totalIndex, List<Directory> subindices) throws IOException {
+        int added = subindices.size();
+        if (added == 0) {
+            return 0;
+        }
+        log.info("Adding {} stored subindices to main index (related to combine task #{})", added, indexingJobCount);
+        totalIndex.addIndexes(subindices.toArray(new Directory[0]));
+        for (Directory luceneDir : subindices) {
+            luceneDir.close();
+        }
+        subindices.clear();
+        return added;
+    }
+
+    /**
+     * @return The store of per-job sub-indices used by this cache.
+     */
+    public JobIndexSegmentStore getSegmentStore() {
+        return segmentStore;
+    }
+
     /**
      * Try to release all resources connected to the given ThreadPoolExecutor.
      *
@@ -308,6 +381,10 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
 
     /**
      * Ingest a single crawl.log file using the corresponding CDX file to find offsets.
+     * <p>
+     * A large crawl.log is split into parts of URLs after sorting, and the CDX file is split at the same URLs. The
+     * parts are indexed at the same time by up to {@link HarvesterSettings#INDEXSERVER_INDEXING_THREADS_PER_JOB}
+     * threads, which all feed the given indexer.
      *
      * @param id ID of a job to ingest.
      * @param crawllogfile The file containing the crawl.log data for the job
@@ -322,38 +399,187 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
         final String mimefilter = options.getMimeFilter();
         final boolean verbose = options.getVerboseMode();
 
-        CrawlDataIterator crawlLogIterator = null;
         File sortedCdxFile = null;
         File tmpCrawlLog = null;
-        BufferedReader cdxBuffer = null;
+        List<File> crawlLogParts = new ArrayList<File>();
+        List<File> cdxParts = new ArrayList<File>();
+        List<BufferedReader> cdxBuffers = new ArrayList<BufferedReader>();
+        List<CrawlDataIterator> crawlLogIterators = new ArrayList<CrawlDataIterator>();
         try {
             sortedCdxFile = getSortedCDX(cdxfile);
-            cdxBuffer = new BufferedReader(new FileReader(sortedCdxFile));
             tmpCrawlLog = getSortedCrawlLog(crawllogfile);
-            crawlLogIterator = new CDXOriginCrawlLogIterator(tmpCrawlLog, cdxBuffer);
-            indexer.writeToIndex(crawlLogIterator, mimefilter, blacklist, "ERROR", verbose);
+            int parts = getNumberOfParts(tmpCrawlLog.length());
+            if (parts > 1) {
+                splitSortedCrawlLog(tmpCrawlLog, parts, crawlLogParts);
+                splitSortedCDX(sortedCdxFile, getFirstURLs(crawlLogParts), cdxParts);
+            } else {
+                crawlLogParts.add(tmpCrawlLog);
+                cdxParts.add(sortedCdxFile);
+            }
+            for (int i = 0; i < crawlLogParts.size(); i++) {
+                BufferedReader cdxBuffer = new BufferedReader(new FileReader(cdxParts.get(i)));
+                cdxBuffers.add(cdxBuffer);
+                crawlLogIterators.add(new CDXOriginCrawlLogIterator(crawlLogParts.get(i), cdxBuffer));
+            }
+            if (crawlLogIterators.size() == 1) {
+                indexer.writeToIndex(crawlLogIterators.get(0), mimefilter, blacklist, "ERROR", verbose);
+            } else {
+                log.debug("Indexing the crawl.log of job {} in {} parts at the same time", id,
+                        crawlLogIterators.size());
+                indexer.writeToIndex(crawlLogIterators, mimefilter, blacklist, "ERROR", false,
+                        crawlLogIterators.size());
+            }
         } catch (IOException e) {
             throw new IOFailure("Fatal error indexing " + id, e);
         } finally {
             try {
-                if (crawlLogIterator != null) {
+                for (CrawlDataIterator crawlLogIterator : crawlLogIterators) {
                     crawlLogIterator.close();
                 }
-                if (tmpCrawlLog != null) {
-                    FileUtils.remove(tmpCrawlLog);
-                }
-                if (cdxBuffer != null) {
+                for (BufferedReader cdxBuffer : cdxBuffers) {
                     cdxBuffer.close();
                 }
-                if (sortedCdxFile != null) {
-                    FileUtils.remove(sortedCdxFile);
-                }
             } catch (IOException e) {
                 log.warn("Error cleaning up after crawl log index cache generation", e);
             }
+            for (File part : crawlLogParts) {
+                FileUtils.remove(part);
+            }
+            for (File part : cdxParts) {
+                FileUtils.remove(part);
+            }
+            if (tmpCrawlLog != null) {
+                FileUtils.remove(tmpCrawlLog);
+            }
+            if (sortedCdxFile != null) {
+                FileUtils.remove(sortedCdxFile);
+            }
         }
     }
 
+    /**
+     * Find the number of parts to split a sorted crawl.log into, so each part is indexed by its own thread.
+     *
+     * @param crawlLogSize The size of the crawl.log in bytes.
+     * @return The number of parts, at least 1.
+     */
+    static int getNumberOfParts(long crawlLogSize) {
+        int maxThreads = Settings.getInt(HarvesterSettings.INDEXSERVER_INDEXING_THREADS_PER_JOB);
+        long minPartSize = Math.max(1L, Settings.getLong(HarvesterSettings.INDEXSERVER_INDEXING_MIN_PART_SIZE));
+        return (int) Math.max(1L, Math.min(maxThreads, crawlLogSize / minPartSize));
+    }
+
+    /**
+     * Split a crawl.log sorted by URL into parts of about the same size. A part never ends in the middle of the
+     * entries for one URL, so there may be fewer parts than asked for.
+     *
+     * @param sortedCrawlLog A crawl.log sorted by URL.
+     * @param parts The number of parts wanted.
+     * @param partFiles The list the temporary files holding the parts are added to, in order. They are added as they
+     * are created, so the caller can remove them also if splitting fails.
+     * @throws IOException If reading or writing fails.
+     */
+    static void splitSortedCrawlLog(File sortedCrawlLog, int parts, List<File> partFiles) throws IOException {
+        long partSize = sortedCrawlLog.length() / parts;
+        BufferedReader in = new BufferedReader(new FileReader(sortedCrawlLog));
+        BufferedWriter out = null;
+        try {
+            String previousURL = null;
+            long written = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                String url = getCrawlLogURL(line);
+                boolean partIsFull = written >= partSize && partFiles.size() < parts;
+                if (out == null || (partIsFull && url != null && !url.equals(previousURL))) {
+                    if (out != null) {
+                        out.close();
+                    }
+                    File partFile = File.createTempFile("part", "crawllog", FileUtils.getTempDir());
+                    partFiles.add(partFile);
+                    out = new BufferedWriter(new FileWriter(partFile));
+                    written = 0;
+                }
+                out.write(line);
+                out.newLine();
+                written += line.length() + 1;
+                if (url != null) {
+                    previousURL = url;
+                }
+            }
+        } finally {
+            in.close();
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Split a sorted CDX file at the given URLs, so each part holds the CDX lines for the URLs of one part of a
+     * crawl.log.
+     *
+     * @param sortedCdxFile A CDX file sorted by URL.
+     * @param firstURLs The first URL of each part but the first, in order.
+     * @param partFiles The list the temporary files holding the parts are added to, in order. There is one more part
+     * than there are URLs, though some may be empty.
+     * @throws IOException If reading or writing fails.
+     */
+    static void splitSortedCDX(File sortedCdxFile, List<String> firstURLs, List<File> partFiles) throws IOException {
+        for (int i = 0; i <= firstURLs.size(); i++) {
+            partFiles.add(File.createTempFile("part", "cdx", FileUtils.getTempDir()));
+        }
+        BufferedReader in = new BufferedReader(new FileReader(sortedCdxFile));
+        BufferedWriter out = new BufferedWriter(new FileWriter(partFiles.get(0)));
+        try {
+            int current = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                String url = line.split("\\s+", 2)[0];
+                while (current < firstURLs.size() && !url.isEmpty() && url.compareTo(firstURLs.get(current)) >= 0) {
+                    out.close();
+                    current++;
+                    out = new BufferedWriter(new FileWriter(partFiles.get(current)));
+                }
+                out.write(line);
+                out.newLine();
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Get the URLs the parts of a split crawl.log start with.
+     *
+     * @param crawlLogParts The parts of a crawl.log split by {@link #splitSortedCrawlLog(File, int, List)}.
+     * @return The URL of the first line of each part but the first.
+     * @throws IOException If reading the parts fails.
+     */
+    private static List<String> getFirstURLs(List<File> crawlLogParts) throws IOException {
+        List<String> firstURLs = new ArrayList<String>();
+        for (File part : crawlLogParts.subList(1, crawlLogParts.size())) {
+            BufferedReader in = new BufferedReader(new FileReader(part));
+            try {
+                firstURLs.add(getCrawlLogURL(in.readLine()));
+            } finally {
+                in.close();
+            }
+        }
+        return firstURLs;
+    }
+
+    /**
+     * Get the URL of a crawl.log line, found the same way as CrawlLogIterator does.
+     *
+     * @param line A crawl.log line.
+     * @return The URL, or null if the line has too few fields.
+     */
+    private static String getCrawlLogURL(String line) {
+        String[] lineParts = line.split("\\s+", 5);
+        return lineParts.length > 3 ? lineParts[3] : null;
+    }
+
     /**
      * Get a sorted, temporary CDX file corresponding to the given CDXfile.
      *
@@ -400,6 +626,18 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
      * @throws IOException If unable to open the index.
      */
     protected static DigestIndexer createStandardIndexer(String indexLocation) throws IOException {
+        return createStandardIndexer(indexLocation, false);
+    }
+
+    /**
+     * Create standard deduplication indexer.
+     *
+     * @param indexLocation The full path to the indexing directory
+     * @param bulkLoad If true, segment merging is deferred until DigestIndexer.forceMerge() is called.
+     * @return the created deduplication indexer.
+     * @throws IOException If unable to open the index.
+     */
+    protected static DigestIndexer createStandardIndexer(String indexLocation, boolean bulkLoad) throws IOException {
         // Setup Lucene for indexing our crawllogs
         // MODE_BOTH: Both URL's and Hash are indexed: Alternatives:
         // DigestIndexer.MODE_HASH or DigestIndexer.MODE_URL
@@ -411,8 +649,9 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
         // used to be 'etag' setting
         boolean includeEtag = true;
         boolean addToExistingIndex = false;
+        double ramBufferSizeMB = Settings.getLong(HarvesterSettings.INDEXSERVER_INDEXING_RAM_BUFFER_SIZE_MB);
         DigestIndexer indexer = new DigestIndexer(indexLocation, indexingMode, includeNormalizedURL, includeTimestamp,
-                includeEtag, addToExistingIndex);
+                includeEtag, addToExistingIndex, ramBufferSizeMB, bulkLoad);
         return indexer;
     }
 
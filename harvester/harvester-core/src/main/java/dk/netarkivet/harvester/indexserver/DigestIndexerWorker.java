@@ -29,6 +29,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
 import is.hi.bok.deduplicator.DigestIndexer;
 
 /**
@@ -88,9 +90,12 @@ public class DigestIndexerWorker implements Callable<Boolean> {
     public Boolean call() {
         try {
             log.info("Starting subindexing task ({}) of data from job {}", taskID, this.jobId);
-            DigestIndexer localindexer = CrawlLogIndexCache.createStandardIndexer(indexlocation);
+            boolean bulkLoad = Settings.getBoolean(HarvesterSettings.INDEXSERVER_INDEXING_BULKLOAD);
+            DigestIndexer localindexer = CrawlLogIndexCache.createStandardIndexer(indexlocation, bulkLoad);
             CrawlLogIndexCache.indexFile(jobId, crawlLog, cdxfile, localindexer, indexingOptions);
 
+            // The subindex is stored and reused, so it is merged into a single segment once and for all.
+            localindexer.forceMerge(1);
             log.info("Completed subindexing task ({}) of data from job {} w/ {} index-entries)", taskID, this.jobId,
                     localindexer.getIndex().numDocs());
 
@@ -0,0 +1,44 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+package dk.netarkivet.harvester.indexserver;
+
+/**
+ * The states an index request passes through on the index server.
+ */
+public enum IndexRequestState {
+    /** The request is waiting for a free indexing thread. */
+    QUEUED,
+    /** The crawl logs and CDX files of the requested jobs are being fetched from the archive. */
+    FETCHING,
+    /** Lucene indices are being built for the requested jobs. */
+    INDEXING,
+    /** The indices of the individual jobs are being merged into one index. */
+    MERGING,
+    /** The finished index is being compressed and made ready for transfer. */
+    PACKAGING,
+    /** The request has been answered successfully. */
+    DONE,
+    /** The request has been answered with an error. */
+    FAILED
+}
@@ -0,0 +1,75 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+package dk.netarkivet.harvester.indexserver;
+
+/**
+ * Reports the progress of the index request being handled by the current thread. The index request server registers a
+ * listener for the thread before handing the request to a cache, and the caches report when they move from one phase to
+ * the next. Reports from threads without a listener are ignored, so caches can report unconditionally.
+ */
+public final class IndexingProgress {
+
+    /** Receives the progress reports of an index request. */
+    public interface Listener {
+        /**
+         * Called when the index request enters a new state.
+         *
+         * @param state The new state of the request.
+         */
+        void stateChanged(IndexRequestState state);
+    }
+
+    /** The listener of the request handled by each thread. */
+    private static final ThreadLocal<Listener> listeners = new ThreadLocal<Listener>();
+
+    /** Utility class, do not initialise. */
+    private IndexingProgress() {
+    }
+
+    /**
+     * Set the listener receiving the progress reports from the current thread.
+     *
+     * @param listener The listener, or null to stop receiving reports.
+     */
+    public static void setListener(Listener listener) {
+        if (listener == null) {
+            listeners.remove();
+        } else {
+            listeners.set(listener);
+        }
+    }
+
+    /**
+     * Report that the request handled by the current thread has entered the given state.
+     *
+     * @param state The new state.
+     */
+    public static void report(IndexRequestState state) {
+        Listener listener = listeners.get();
+        if (listener != null) {
+            listener.stateChanged(state);
+        }
+    }
+
+}
@@ -0,0 +1,327 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+package dk.netarkivet.harvester.indexserver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.exceptions.PermissionDenied;
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * A persistent store of immutable per-job Lucene sub-indices. Each sub-index is built once, from the crawl.log and CDX
+ * of a single job, and is afterwards reused by every combine task that includes the job. A requested set of jobs is
+ * then served by composing the stored sub-indices with IndexWriter.addIndexes() instead of re-indexing every job.
+ * <p>
+ * Sub-indices are built in a uniquely named temporary directory inside the store and are published by renaming that
+ * directory to the final job directory. A job directory therefore always contains a complete sub-index, and two tasks
+ * building the same job concurrently will not corrupt each other; the loser of the rename just discards its copy.
+ * <p>
+ * Segments in use by a combine task are reference-counted, and only segments without references may be removed from
+ * the store. The store is kept below a maximum size by {@link #evict(long)}, which removes the unreferenced segments
+ * used longest ago. The time a segment was last used is the modification time of its directory, so it survives
+ * restarts.
+ */
+public class JobIndexSegmentStore {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(JobIndexSegmentStore.class);
+
+    /** Prefix of the directories used while building a sub-index. */
+    private static final String BUILDING_PREFIX = "building-";
+
+    /** The directory holding the stored sub-indices, one subdirectory per job. */
+    private final File storeDir;
+
+    /** The number of active users of each stored sub-index. */
+    private final Map<Long, Integer> referenceCounts = new HashMap<Long, Integer>();
+
+    /**
+     * Create a segment store in the given directory. The directory is created if it does not exist, and leftovers from
+     * interrupted builds are removed.
+     *
+     * @param storeDir The directory to keep the sub-indices in.
+     * @throws ArgumentNotValid If storeDir is null.
+     * @throws PermissionDenied If the directory cannot be created.
+     */
+    public JobIndexSegmentStore(File storeDir) {
+        ArgumentNotValid.checkNotNull(storeDir, "File storeDir");
+        this.storeDir = storeDir.getAbsoluteFile();
+        FileUtils.createDir(this.storeDir);
+        File[] leftovers = this.storeDir.listFiles();
+        if (leftovers != null) {
+            for (File f : leftovers) {
+                if (f.getName().startsWith(BUILDING_PREFIX)) {
+                    log.info("Removing unfinished sub-index '{}' from segment store", f.getAbsolutePath());
+                    FileUtils.removeRecursively(f);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The directory of this store.
+     */
+    public File getStoreDir() {
+        return storeDir;
+    }
+
+    /**
+     * Get the directory a completed sub-index for the given job is (or would be) stored in.
+     *
+     * @param jobId A job ID.
+     * @return The directory of the sub-index for the job.
+     */
+    public File getSegmentDir(Long jobId) {
+        ArgumentNotValid.checkNotNull(jobId, "Long jobId");
+        return new File(storeDir, jobId.toString());
+    }
+
+    /**
+     * Check whether a sub-index for the given job is in the store.
+     *
+     * @param jobId A job ID.
+     * @return true, if a completed sub-index exists for the job.
+     */
+    public boolean hasSegment(Long jobId) {
+        return getSegmentDir(jobId).isDirectory();
+    }
+
+    /**
+     * @return The IDs of all jobs with a sub-index in the store.
+     */
+    public Set<Long> getStoredJobIds() {
+        Set<Long> result = new TreeSet<Long>();
+        String[] names = storeDir.list();
+        if (names == null) {
+            return result;
+        }
+        for (String name : names) {
+            try {
+                result.add(Long.valueOf(name));
+            } catch (NumberFormatException e) {
+                // Not a sub-index directory; ignore it.
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Create a fresh directory in the store in which a sub-index for the given job can be built. When the build is
+     * complete, the directory must be given to {@link #publish(Long, File)}.
+     *
+     * @param jobId A job ID.
+     * @return A new, not yet existing directory inside the store.
+     */
+    public File createBuildDir(Long jobId) {
+        ArgumentNotValid.checkNotNull(jobId, "Long jobId");
+        return new File(storeDir, BUILDING_PREFIX + jobId + "-" + UUID.randomUUID().toString());
+    }
+
+    /**
+     * Publish a completed sub-index built in a directory from {@link #createBuildDir(Long)}. If another task has
+     * already published a sub-index for the same job, the given directory is discarded. The caller is registered as a
+     * user of the published sub-index, so it cannot be evicted before it is used, and must {@link #release(Long)} it.
+     *
+     * @param jobId The job the sub-index covers.
+     * @param buildDir The directory the sub-index was built in.
+     * @return The directory of the stored sub-index.
+     * @throws IOFailure If the sub-index could not be published.
+     */
+    public synchronized File publish(Long jobId, File buildDir) {
+        ArgumentNotValid.checkNotNull(jobId, "Long jobId");
+        ArgumentNotValid.checkExistsDirectory(buildDir, "File buildDir");
+        File segmentDir = getSegmentDir(jobId);
+        if (segmentDir.exists()) {
+            log.debug("Sub-index for job {} was already published. Discarding '{}'", jobId, buildDir);
+            FileUtils.removeRecursively(buildDir);
+        } else if (buildDir.renameTo(segmentDir)) {
+            log.info("Stored sub-index for job {} in '{}'", jobId, segmentDir.getAbsolutePath());
+        } else {
+            throw new IOFailure("Unable to publish sub-index for job " + jobId + " from '" + buildDir + "' to '"
+                    + segmentDir + "'");
+        }
+        return acquire(jobId);
+    }
+
+    /**
+     * Register a user of the sub-index of the given job. While there are users, the sub-index will not be removed.
+     *
+     * @param jobId A job ID with a stored sub-index.
+     * @return The directory of the sub-index.
+     * @throws IOFailure If no sub-index exists for the job.
+     */
+    public synchronized File acquire(Long jobId) {
+        File segmentDir = tryAcquire(jobId);
+        if (segmentDir == null) {
+            throw new IOFailure("No sub-index stored for job " + jobId);
+        }
+        return segmentDir;
+    }
+
+    /**
+     * Register a user of the sub-index of the given job, if it is in the store. While there are users, the sub-index
+     * will not be removed.
+     *
+     * @param jobId A job ID.
+     * @return The directory of the sub-index, or null if no sub-index is stored for the job.
+     */
+    public synchronized File tryAcquire(Long jobId) {
+        File segmentDir = getSegmentDir(jobId);
+        if (!segmentDir.isDirectory()) {
+            return null;
+        }
+        Integer count = referenceCounts.get(jobId);
+        referenceCounts.put(jobId, count == null ? 1 : count + 1);
+        // Mark the segment as used now, for the eviction.
+        segmentDir.setLastModified(System.currentTimeMillis());
+        return segmentDir;
+    }
+
+    /**
+     * Unregister a user of the sub-index of the given job.
+     *
+     * @param jobId A job ID previously given to {@link #acquire(Long)}.
+     */
+    public synchronized void release(Long jobId) {
+        Integer count = referenceCounts.get(jobId);
+        if (count == null) {
+            log.warn("Release of sub-index for job {} which was not acquired", jobId);
+        } else if (count <= 1) {
+            referenceCounts.remove(jobId);
+        } else {
+            referenceCounts.put(jobId, count - 1);
+        }
+    }
+
+    /**
+     * @param jobId A job ID.
+     * @return The number of current users of the sub-index for the job.
+     */
+    public synchronized int getReferenceCount(Long jobId) {
+        Integer count = referenceCounts.get(jobId);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Remove the sub-index of the given job from the store, unless it is currently in use.
+     *
+     * @param jobId A job ID.
+     * @return true, if the sub-index was removed.
+     */
+    public synchronized boolean remove(Long jobId) {
+        if (getReferenceCount(jobId) > 0) {
+            log.debug("Not removing sub-index for job {}, as it is in use", jobId);
+            return false;
+        }
+        return FileUtils.removeRecursively(getSegmentDir(jobId));
+    }
+
+    /**
+     * Get the size in bytes of the stored sub-index of a job.
+     *
+     * @param jobId A job ID.
+     * @return The total size of the files in the sub-index, or 0 if it is not stored.
+     */
+    public long getSegmentSize(Long jobId) {
+        long size = 0L;
+        File[] files = getSegmentDir(jobId).listFiles();
+        if (files != null) {
+            for (File f : files) {
+                size += f.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return The total size in bytes of the stored sub-indices.
+     */
+    public long getSize() {
+        long size = 0L;
+        for (Long jobId : getStoredJobIds()) {
+            size += getSegmentSize(jobId);
+        }
+        return size;
+    }
+
+    /**
+     * Remove unreferenced sub-indices from the store, those used longest ago first, until the store is no larger than
+     * the given size. Sub-indices in use are never removed, so the store may still be larger afterwards.
+     *
+     * @param maxSize The maximum size in bytes of the store.
+     * @return The number of sub-indices removed.
+     */
+    public synchronized int evict(long maxSize) {
+        List<Long> jobIds = new ArrayList<Long>(getStoredJobIds());
+        final Map<Long, Long> lastUsed = new HashMap<Long, Long>();
+        Map<Long, Long> sizes = new HashMap<Long, Long>();
+        long size = 0L;
+        for (Long jobId : jobIds) {
+            lastUsed.put(jobId, getSegmentDir(jobId).lastModified());
+            long segmentSize = getSegmentSize(jobId);
+            sizes.put(jobId, segmentSize);
+            size += segmentSize;
+        }
+        Collections.sort(jobIds, new Comparator<Long>() {
+            @Override
+            public int compare(Long id1, Long id2) {
+                return Long.compare(lastUsed.get(id1), lastUsed.get(id2));
+            }
+        });
+        int removed = 0;
+        for (Long jobId : jobIds) {
+            if (size <= maxSize) {
+                break;
+            }
+            if (getReferenceCount(jobId) == 0 && FileUtils.removeRecursively(getSegmentDir(jobId))) {
+                size -= sizes.get(jobId);
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            log.info("Removed {} sub-indices from '{}' to keep it below {} bytes", removed, storeDir, maxSize);
+        }
+        return removed;
+    }
+
+    @Override
+    public String toString() {
+        return "JobIndexSegmentStore(" + storeDir.getAbsolutePath() + ")";
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+package dk.netarkivet.harvester.indexserver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Utilities for keeping the uncompressed version of a Lucene index next to the gzipped version in an index cache, so
+ * it can be delivered to harvesters without being compressed and decompressed.
+ * <p>
+ * For a cache file <code>X</code> the uncompressed index files are kept in the directory <code>X.raw</code>, and a
+ * manifest listing the MD5 checksum of each of those files is kept in <code>X.raw.md5</code>. The manifest is written
+ * last, so the uncompressed index is only considered present when the manifest exists.
+ */
+public final class UncompressedIndexes {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(UncompressedIndexes.class);
+
+    /** The suffix of the directory holding the uncompressed index. */
+    public static final String RAW_SUFFIX = ".raw";
+
+    /** The suffix of the manifest of the uncompressed index. */
+    public static final String MANIFEST_SUFFIX = RAW_SUFFIX + ".md5";
+
+    /** The separator between filename and checksum in the manifest. */
+    public static final String MANIFEST_SEPARATOR = "##";
+
+    /** Utility class, do not initialise. */
+    private UncompressedIndexes() {
+    }
+
+    /**
+     * Get the directory holding the uncompressed index for a cache file.
+     *
+     * @param cacheFile A file or directory in an index cache.
+     * @return The directory the uncompressed index is kept in.
+     */
+    public static File getRawIndexDir(File cacheFile) {
+        ArgumentNotValid.checkNotNull(cacheFile, "File cacheFile");
+        return new File(cacheFile.getAbsolutePath() + RAW_SUFFIX);
+    }
+
+    /**
+     * Get the manifest of the uncompressed index for a cache file.
+     *
+     * @param cacheFile A file or directory in an index cache.
+     * @return The manifest file of the uncompressed index.
+     */
+    public static File getManifestFile(File cacheFile) {
+        ArgumentNotValid.checkNotNull(cacheFile, "File cacheFile");
+        return new File(cacheFile.getAbsolutePath() + MANIFEST_SUFFIX);
+    }
+
+    /**
+     * Keep a finished, uncompressed Lucene index for the given cache file. The index directory is moved into place and
+     * a manifest with the checksum of each index file is written.
+     *
+     * @param luceneDir The directory containing the finished index. It is moved by this method.
+     * @param cacheFile The cache file the index belongs to.
+     * @throws IOFailure If the index cannot be moved or the manifest cannot be written.
+     */
+    public static void store(File luceneDir, File cacheFile) {
+        ArgumentNotValid.checkExistsDirectory(luceneDir, "File luceneDir");
+        File rawDir = getRawIndexDir(cacheFile);
+        File manifest = getManifestFile(cacheFile);
+        if (manifest.exists()) {
+            log.debug("Uncompressed index for '{}' already present", cacheFile);
+            return;
+        }
+        FileUtils.removeRecursively(rawDir);
+        Map<String, String> checksums = new TreeMap<String, String>();
+        File[] files = luceneDir.listFiles();
+        for (File f : files) {
+            if (f.isFile()) {
+                checksums.put(f.getName(), ChecksumCalculator.calculateMd5(f));
+            }
+        }
+        if (!luceneDir.renameTo(rawDir)) {
+            throw new IOFailure("Unable to move uncompressed index '" + luceneDir + "' to '" + rawDir + "'");
+        }
+        File tmpManifest = new File(manifest.getAbsolutePath() + ".tmp");
+        List<String> lines = new ArrayList<String>(checksums.size());
+        for (Map.Entry<String, String> entry : checksums.entrySet()) {
+            lines.add(entry.getKey() + MANIFEST_SEPARATOR + entry.getValue());
+        }
+        FileUtils.writeCollectionToFile(tmpManifest, lines);
+        if (!tmpManifest.renameTo(manifest)) {
+            throw new IOFailure("Unable to move manifest '" + tmpManifest + "' to '" + manifest + "'");
+        }
+        log.info("Kept uncompressed index of {} files for '{}'", checksums.size(), cacheFile);
+    }
+
+    /**
+     * Read the manifest of the uncompressed index for a cache file.
+     *
+     * @param cacheFile The cache file.
+     * @return Map from filename in the uncompressed index to its MD5 checksum, or null if there is no uncompressed
+     * index for the cache file.
+     * @throws IOFailure If the manifest cannot be read.
+     */
+    public static Map<String, String> readManifest(File cacheFile) {
+        File manifest = getManifestFile(cacheFile);
+        if (!manifest.isFile() || !getRawIndexDir(cacheFile).isDirectory()) {
+            return null;
+        }
+        Map<String, String> checksums = new LinkedHashMap<String, String>();
+        List<String> lines = FileUtils.readListFromFile(manifest);
+        for (String line : lines) {
+            String[] parts = line.split(MANIFEST_SEPARATOR);
+            if (parts.length != 2) {
+                throw new IOFailure("Malformed line '" + line + "' in manifest '" + manifest + "'");
+            }
+            checksums.put(parts[0], parts[1]);
+        }
+        return checksums;
+    }
+
+}
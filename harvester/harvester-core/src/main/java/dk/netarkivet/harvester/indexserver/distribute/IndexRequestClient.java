@@ -101,6 +101,20 @@ public class IndexRequestClient extends MultiFileBasedCache<Long> implements Job
      */
     public static final String INDEXREQUEST_USE_LOCAL_FTPSERVER = "settings.common.indexClient.useLocalFtpServer";
 
+    /**
+     * <b>settings.common.indexClient.uncompressedDelivery</b>: <br>
+     * Setting for asking the indexserver to deliver indices uncompressed. The received files are kept in a local
+     * content-addressed cache, and files already held from earlier indices are not transferred again. Requires the
+     * indexserver to keep uncompressed indices. Set to false by default.
+     */
+    public static final String INDEXREQUEST_UNCOMPRESSED_DELIVERY = "settings.common.indexClient.uncompressedDelivery";
+
+    /** The name of the directory in the cache directory holding the content-addressed index files. */
+    private static final String SEGMENT_CACHE_DIRNAME = "segmentfiles";
+
+    /** The local cache of received index files, used with uncompressed delivery. */
+    private IndexSegmentFileCache segmentFileCache;
+
     /**
      * Initialise this client, handling requests of a given type. Start listening to channel if not done yet.
      *
@@ -109,6 +123,12 @@ public class IndexRequestClient extends MultiFileBasedCache<Long> implements Job
     private IndexRequestClient(RequestType type) {
         super(type.name());
         this.requestType = type;
+        if (Settings.getBoolean(INDEXREQUEST_UNCOMPRESSED_DELIVERY)) {
+            segmentFileCache = new IndexSegmentFileCache(new File(getCacheDir(), SEGMENT_CACHE_DIRNAME));
+            int removed = segmentFileCache.removeUnreferenced();
+            log.info("Using uncompressed index delivery for '{}'. Removed {} unused index files from local cache",
+                    type, removed);
+        }
     }
 
     /**
@@ -174,6 +194,9 @@ public class IndexRequestClient extends MultiFileBasedCache<Long> implements Job
 
         // Send request to server
         IndexRequestMessage irMsg = new IndexRequestMessage(requestType, jobSet, ftpSettings);
+        if (segmentFileCache != null) {
+            irMsg.requestUncompressedDelivery(segmentFileCache.getKnownChecksums());
+        }
         if (log.isDebugEnabled()) {
             log.debug("Waiting {} for the index", TimeUtils.readableTimeInterval(getIndexTimeout()));
         }
@@ -192,7 +215,10 @@ public class IndexRequestClient extends MultiFileBasedCache<Long> implements Job
                         StringUtils.conjoin(",", jobSet));
             }
             try {
-                if (reply.isIndexIsStoredInDirectory()) {
+                if (reply.getResultChecksums() != null) {
+                    segmentFileCache.assemble(reply.getResultChecksums(), reply.getResultFiles(),
+                            getCacheFile(jobSet));
+                } else if (reply.isIndexIsStoredInDirectory()) {
                     gunzipToDir(reply.getResultFiles(), getCacheFile(jobSet));
                 } else {
                     unzipAndDeleteRemoteFile(reply.getResultFile(), getCacheFile(jobSet));
@@ -26,7 +26,9 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.slf4j.Logger;
@@ -76,6 +78,21 @@ public class IndexRequestMessage extends HarvesterMessage {
      */
     private boolean indexIsStoredInDirectory;
 
+    /**
+     * If true, the requester wants the files of the index uncompressed, and only the files it does not hold already.
+     * The server may still reply with a gzipped index, if it has no uncompressed copy.
+     */
+    private boolean uncompressedDelivery;
+
+    /** The MD5 checksums of the index files the requester holds already. Only set if uncompressedDelivery is true. */
+    private Set<String> knownChecksums;
+
+    /**
+     * On reply with an uncompressed index, the MD5 checksum of every file in the index, by filename. Files with
+     * checksums in knownChecksums are not included in resultFiles. Null if the index is delivered gzipped.
+     */
+    private Map<String, String> resultChecksums;
+
     /**
      * If true, return the index to the sender. If false, send IndexReadyMessage instead.
      */
@@ -286,6 +303,61 @@ public class IndexRequestMessage extends HarvesterMessage {
         indexIsStoredInDirectory = true;
     }
 
+    /**
+     * Ask for the index to be delivered uncompressed, leaving out the files the requester holds already.
+     *
+     * @param knownChecksums The MD5 checksums of the index files held by the requester.
+     * @throws ArgumentNotValid on null argument.
+     */
+    public void requestUncompressedDelivery(Set<String> knownChecksums) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNull(knownChecksums, "Set<String> knownChecksums");
+        this.uncompressedDelivery = true;
+        // Note: Copy the set, since the received set may not be serializable.
+        this.knownChecksums = new HashSet<String>(knownChecksums);
+    }
+
+    /**
+     * @return true, if the requester asked for the index to be delivered uncompressed.
+     */
+    public boolean isUncompressedDeliveryRequested() {
+        return uncompressedDelivery;
+    }
+
+    /**
+     * @return The MD5 checksums of the index files the requester holds already, or an empty set if not given.
+     */
+    public Set<String> getKnownChecksums() {
+        if (knownChecksums == null) {
+            return new HashSet<String>();
+        }
+        return knownChecksums;
+    }
+
+    /**
+     * Set the files of an uncompressed index of requested jobs. Should _only_ be set when an index over ALL requested
+     * jobs is present, and uncompressed delivery was requested.
+     *
+     * @param checksums The MD5 checksum of every file in the index, by filename.
+     * @param resultFiles The files of the index whose checksum is not among the known checksums.
+     * @throws ArgumentNotValid on null argument or null element in list.
+     * @throws IllegalState if the result files have already been set.
+     */
+    public void setUncompressedResultFiles(Map<String, String> checksums, List<RemoteFile> resultFiles)
+            throws IllegalState, ArgumentNotValid {
+        ArgumentNotValid.checkNotNull(checksums, "Map<String, String> checksums");
+        setResultFiles(resultFiles);
+        // Note: Copy the map, since the received map may not be serializable.
+        this.resultChecksums = new LinkedHashMap<String, String>(checksums);
+    }
+
+    /**
+     * @return The MD5 checksum of every file in an uncompressed index, by filename, or null if the index in this reply
+     * is gzipped.
+     */
+    public Map<String, String> getResultChecksums() {
+        return resultChecksums;
+    }
+
     /**
      * If true, this message may carry multiple files that should be stored in a directory.
      *
@@ -28,6 +28,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.EnumMap;
 import java.util.HashMap;
@@ -37,7 +38,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
@@ -54,7 +59,7 @@ import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.IllegalState;
 import dk.netarkivet.common.exceptions.UnknownID;
-import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.management.SingleMBeanObject;
 import dk.netarkivet.common.utils.CleanupIF;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
@@ -64,6 +69,9 @@ import dk.netarkivet.harvester.distribute.HarvesterMessageHandler;
 import dk.netarkivet.harvester.distribute.IndexReadyMessage;
 import dk.netarkivet.harvester.indexserver.FileBasedCache;
 import dk.netarkivet.harvester.indexserver.IndexRequestServerInterface;
+import dk.netarkivet.harvester.indexserver.IndexRequestState;
+import dk.netarkivet.harvester.indexserver.IndexingProgress;
+import dk.netarkivet.harvester.indexserver.UncompressedIndexes;
 
 /**
  * Index request server singleton.
@@ -72,8 +80,13 @@ import dk.netarkivet.harvester.indexserver.IndexRequestServerInterface;
  * <p>
  * It will ALWAYS reply to such messages, either with the index, a message telling that only a subset is available, and
  * which, or an error message,
+ * <p>
+ * Requests are handled by a bounded pool of indexing threads, taking the queued builds in order of priority. Requests
+ * for an index that is already queued or being built are coalesced into that build. A build is only started when
+ * enough heap is available, unless it would be the only one running.
  */
-public final class IndexRequestServer extends HarvesterMessageHandler implements CleanupIF, IndexRequestServerInterface {
+public final class IndexRequestServer extends HarvesterMessageHandler implements CleanupIF, IndexRequestServerInterface,
+        IndexRequestServerStatus {
 
     /** The class logger. */
     private static final Logger log = LoggerFactory.getLogger(IndexRequestServer.class);
@@ -101,6 +114,19 @@ public final class IndexRequestServer extends HarvesterMessageHandler implements
     /** satisfactoryThreshold percentage as an integer. */
     private int satisfactoryThresholdPercentage;
 
+    /** The executor running the index builds. */
+    private final ThreadPoolExecutor executor;
+    /** The index builds that are queued or running, by the key of the index they build. */
+    private final Map<String, IndexRequestTask> activeTasks = new HashMap<String, IndexRequestTask>();
+    /** The number of index builds that have been admitted and are running. */
+    private final AtomicInteger runningTasks = new AtomicInteger();
+    /** The percentage of the max heap that must be available before another index build is started. */
+    private final int minFreeMemoryPercentage;
+    /** The time in milliseconds between each check of available memory while a build awaits admission. */
+    private final long memoryCheckInterval;
+    /** The JMX registration of the status of this server. */
+    private SingleMBeanObject<IndexRequestServerStatus> statusMBean;
+
     /**
      * The directory to store backup copies of the currentJobs. In case of the indexserver crashing.
      */
@@ -116,10 +142,26 @@ public final class IndexRequestServer extends HarvesterMessageHandler implements
         satisfactoryThresholdPercentage = Settings
                 .getInt(HarvesterSettings.INDEXSERVER_INDEXING_SATISFACTORYTHRESHOLD_PERCENTAGE);
 
+        minFreeMemoryPercentage = Settings.getInt(HarvesterSettings.INDEXSERVER_INDEXING_MIN_FREE_MEMORY_PERCENTAGE);
+        memoryCheckInterval = Settings.getLong(HarvesterSettings.INDEXSERVER_INDEXING_CHECKINTERVAL);
+        final int maxConcurrentIndexings = Settings.getInt(HarvesterSettings.INDEXSERVER_INDEXING_MAXCONCURRENT);
+
         currentJobs = new HashMap<String, IndexRequestMessage>();
         handlers = new EnumMap<RequestType, FileBasedCache<Set<Long>>>(RequestType.class);
         conn = JMSConnectionFactory.getInstance();
         checkIflisteningTimer = new Timer();
+        executor = new ThreadPoolExecutor(maxConcurrentIndexings, maxConcurrentIndexings, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>()) {
+            @Override
+            protected void beforeExecute(Thread t, Runnable r) {
+                awaitAdmission((IndexRequestTask) r);
+            }
+
+            @Override
+            protected void afterExecute(Runnable r, Throwable t) {
+                runningTasks.decrementAndGet();
+            }
+        };
     }
 
     /**
@@ -149,12 +191,7 @@ public final class IndexRequestServer extends HarvesterMessageHandler implements
                     }
 
                 }
-                // Start a new thread to handle the actual request.
-                new Thread() {
-                    public void run() {
-                        doProcessIndexRequestMessage(msg);
-                    }
-                }.start();
+                submit(msg);
                 log.info("Restarting indexjob w/ ID={}", msg.getID());
             } else {
                 log.debug("Ignoring directory in requestdir: " + request.getAbsolutePath());
@@ -232,12 +269,7 @@ public final class IndexRequestServer extends HarvesterMessageHandler implements
                 }
             }
 
-            // Start a new thread to handle the actual request.
-            new Thread() {
-                public void run() {
-                    doProcessIndexRequestMessage(irMsg);
-                }
-            }.start();
+            submit(irMsg);
             log.debug("Now {} indexing jobs in progress", currentJobs.size());
         } catch (IOException e) {
             final String errMsg = "Unable to initiate indexing. Send failed message back to sender: " + e;
@@ -302,15 +334,93 @@ public final class IndexRequestServer extends HarvesterMessageHandler implements
     }
 
     /**
-     * Method that handles the processing of an indexRequestMessage. Returns the requested index immediately, if already
-     * available, otherwise proceeds with the index generation of the requested index. Must be run in its own thread,
-     * because it blocks while the index is generated.
+     * Queue an index request for processing. If the same index is already queued or being built, the request is
+     * answered by that build instead.
+     *
+     * @param irMsg A message requesting an index.
+     */
+    private void submit(IndexRequestMessage irMsg) {
+        IndexRequestTask task;
+        synchronized (activeTasks) {
+            if (irMsg.isOk() && irMsg.getRequestType() != null && irMsg.getRequestedJobs() != null) {
+                String key = IndexRequestTask.makeKey(irMsg);
+                IndexRequestTask existing = activeTasks.get(key);
+                if (existing != null && existing.coalesce(irMsg)) {
+                    log.info("Request '{}' coalesced with the {} build of the same index", irMsg.getID(),
+                            existing.getState());
+                    if (irMsg.mustReturnIndex() && !existing.mustReturnIndex()) {
+                        raisePriority(existing);
+                    }
+                    return;
+                }
+                task = new IndexRequestTask(this, irMsg);
+                activeTasks.put(key, task);
+            } else {
+                // This will fail and be answered when processed; don't let anything coalesce with it.
+                task = new IndexRequestTask(this, irMsg);
+            }
+        }
+        executor.execute(task);
+        log.debug("Queued index request '{}'. Now {} builds queued", irMsg.getID(), executor.getQueue().size());
+    }
+
+    /**
+     * Make a task go before the tasks for indices prepared in advance, because a harvester is now waiting for it. A
+     * queued task is taken out of the queue while its priority is changed, and queued again, so the queue stays
+     * ordered. A task that has already been taken from the queue just gets the flag.
      *
-     * @param irMsg A message requesting an index
+     * @param task A task a harvester is waiting for.
+     */
+    private void raisePriority(IndexRequestTask task) {
+        boolean queued = executor.remove(task);
+        task.setMustReturnIndex();
+        if (queued) {
+            executor.execute(task);
+            log.info("Raised the priority of the queued {}, as a harvester is waiting for it", task);
+        }
+    }
+
+    /**
+     * Wait until there is memory enough to start another index build. If no other build is running, waiting will not
+     * free any memory, so the build is admitted anyway.
+     *
+     * @param task The task awaiting admission.
+     */
+    private void awaitAdmission(IndexRequestTask task) {
+        while (runningTasks.get() > 0 && getAvailableMemoryPercentage() < minFreeMemoryPercentage) {
+            log.info("Only {}% of the heap is available, while {} indexings are running. Postponing start of {}",
+                    getAvailableMemoryPercentage(), runningTasks.get(), task);
+            try {
+                Thread.sleep(memoryCheckInterval);
+            } catch (InterruptedException e) {
+                log.trace("Was awoken early from sleep: ", e);
+                break;
+            }
+        }
+        runningTasks.incrementAndGet();
+    }
+
+    /**
+     * @return The percentage of the max heap that can still be allocated.
+     */
+    private long getAvailableMemoryPercentage() {
+        return getAvailableMemory() * 100 / Runtime.getRuntime().maxMemory();
+    }
+
+    /**
+     * Method that handles the processing of an index build. Returns the requested index immediately, if already
+     * available, otherwise proceeds with the index generation of the requested index. All requests served by the task
+     * are answered when done. Is run by the executor, because it blocks while the index is generated.
+     *
+     * @param task The index build to process.
      * @see #visit(IndexRequestMessage)
      */
-    private void doProcessIndexRequestMessage(final IndexRequestMessage irMsg) {
-        final boolean mustReturnIndex = irMsg.mustReturnIndex();
+    void processRequest(IndexRequestTask task) {
+        final IndexRequestMessage irMsg = task.getRequest();
+        Set<Long> foundIDs = null;
+        File indexFile = null;
+        Throwable failure = null;
+        IndexingProgress.setListener(task);
         try {
             checkMessage(irMsg);
             RequestType type = irMsg.getRequestType();
@@ -322,81 +432,105 @@ public final class IndexRequestServer extends HarvesterMessageHandler implements
             }
             FileBasedCache<Set<Long>> handler = handlers.get(type);
 
-            // Here we need to make sure that we don't accidentally process more than
-            // one message at the time before the whole process is over
-            List<Long> sortedList = new ArrayList<Long>(jobIDs);
-            String allIDsString = StringUtils.conjoin("-", sortedList);
-            String checksum = ChecksumCalculator.calculateMd5(allIDsString.getBytes());
-            log.debug("Waiting to enter the synchronization zone for the indexing job of size {} with checksum '{}'",
-                    jobIDs.size(), checksum);
-            // Begin synchronization
-            synchronized (checksum.intern()) {
-                log.debug("The indexing job of size {} with checksum '{}' is now in the synchronization zone",
-                        jobIDs.size(), checksum);
-                Set<Long> foundIDs = handler.cache(jobIDs);
-                irMsg.setFoundJobs(foundIDs);
-                if (foundIDs.equals(jobIDs)) {
-                    if (log.isInfoEnabled()) {
-                        log.info("Retrieved successfully index of type '{}' for the {} jobs [{}]", type, jobIDs.size(),
-                                StringUtils.conjoin(",", jobIDs));
-                    }
-                    File cacheFile = handler.getCacheFile(jobIDs);
-                    if (mustReturnIndex) { // return index now!
-                        packageResultFiles(irMsg, cacheFile);
-                    }
-                } else if (satisfactoryTresholdReached(foundIDs, jobIDs)) {
-                    log.info("Data for full index w/ {} jobs not available. Only found data for {} jobs - "
-                            + "but satisfactoryTreshold reached, so assuming presence of all data", jobIDs.size(),
-                            foundIDs.size());
-                    // Make sure that the index of the data available is generated
-                    Set<Long> theFoundIDs = handler.cache(foundIDs);
-                    // TheFoundIDS should be identical to foundIDs
-                    // Lets make sure of that
-                    Set<Long> diffSet = new HashSet<Long>(foundIDs);
-                    diffSet.removeAll(theFoundIDs);
-
-                    // Make a copy of the index available, and give it the name of
-                    // the index cache file wanted.
-                    File cacheFileWanted = handler.getCacheFile(jobIDs);
-                    File cacheFileCreated = handler.getCacheFile(foundIDs);
-
-                    log.info("Satisfactory threshold reached - copying index {} '{}' to full index: {}",
-                            (cacheFileCreated.isDirectory() ? "dir" : "file"), cacheFileCreated.getAbsolutePath(),
-                            cacheFileWanted.getAbsolutePath());
-                    if (cacheFileCreated.isDirectory()) {
-                        // create destination cacheFileWanted, and
-                        // copy all files in cacheFileCreated to cacheFileWanted.
-                        cacheFileWanted.mkdirs();
-                        FileUtils.copyDirectory(cacheFileCreated, cacheFileWanted);
-                    } else {
-                        FileUtils.copyFile(cacheFileCreated, cacheFileWanted);
-                    }
-
-                    // TODO This delete-operation commented out, because it is deemed too dangerous,
-                    // as the cachedir represented by cacheFileCreated may still be used
-
-                    // log.info("Deleting the temporary index "
-                    // + cacheFileCreated.getAbsolutePath());
-                    // FileUtils.removeRecursively(cacheFileCreated);
-                    log.info("We keep the index '{}', as we don't know if anybody is using it",
-                            cacheFileCreated.getAbsolutePath());
-
-                    // Information needed by recipient to store index in local cache
-                    irMsg.setFoundJobs(jobIDs);
-                    if (mustReturnIndex) { // return index now.
-                        packageResultFiles(irMsg, cacheFileWanted);
-                    }
+            // Identical requests are coalesced into this task, so only one thread builds this index.
+            foundIDs = handler.cache(jobIDs);
+            if (foundIDs.equals(jobIDs)) {
+                if (log.isInfoEnabled()) {
+                    log.info("Retrieved successfully index of type '{}' for the {} jobs [{}]", type, jobIDs.size(),
+                            StringUtils.conjoin(",", jobIDs));
+                }
+                indexFile = handler.getCacheFile(jobIDs);
+            } else if (satisfactoryTresholdReached(foundIDs, jobIDs)) {
+                log.info("Data for full index w/ {} jobs not available. Only found data for {} jobs - "
+                        + "but satisfactoryTreshold reached, so assuming presence of all data", jobIDs.size(),
+                        foundIDs.size());
+                // Make sure that the index of the data available is generated
+                Set<Long> theFoundIDs = handler.cache(foundIDs);
+                // TheFoundIDS should be identical to foundIDs
+                // Lets make sure of that
+                Set<Long> diffSet = new HashSet<Long>(foundIDs);
+                diffSet.removeAll(theFoundIDs);
+
+                // Make a copy of the index available, and give it the name of
+                // the index cache file wanted.
+                File cacheFileWanted = handler.getCacheFile(jobIDs);
+                File cacheFileCreated = handler.getCacheFile(foundIDs);
+
+                log.info("Satisfactory threshold reached - copying index {} '{}' to full index: {}",
+                        (cacheFileCreated.isDirectory() ? "dir" : "file"), cacheFileCreated.getAbsolutePath(),
+                        cacheFileWanted.getAbsolutePath());
+                if (cacheFileCreated.isDirectory()) {
+                    // create destination cacheFileWanted, and
+                    // copy all files in cacheFileCreated to cacheFileWanted.
+                    cacheFileWanted.mkdirs();
+                    FileUtils.copyDirectory(cacheFileCreated, cacheFileWanted);
                 } else {
-                    Set<Long> missingJobIds = new HashSet<Long>(jobIDs);
-                    missingJobIds.removeAll(foundIDs);
-                    log.warn("Failed generating index of type '{}' for the jobs [{}]. Missing data for jobs [{}].",
-                            type, StringUtils.conjoin(",", jobIDs), StringUtils.conjoin(",", missingJobIds));
+                    FileUtils.copyFile(cacheFileCreated, cacheFileWanted);
                 }
 
-            } // End of synchronization block
+                // TODO This delete-operation commented out, because it is deemed too dangerous,
+                // as the cachedir represented by cacheFileCreated may still be used
+
+                // log.info("Deleting the temporary index "
+                // + cacheFileCreated.getAbsolutePath());
+                // FileUtils.removeRecursively(cacheFileCreated);
+                log.info("We keep the index '{}', as we don't know if anybody is using it",
+                        cacheFileCreated.getAbsolutePath());
+
+                // Information needed by recipient to store index in local cache
+                foundIDs = jobIDs;
+                indexFile = cacheFileWanted;
+            } else {
+                Set<Long> missingJobIds = new HashSet<Long>(jobIDs);
+                missingJobIds.removeAll(foundIDs);
+                log.warn("Failed generating index of type '{}' for the jobs [{}]. Missing data for jobs [{}].",
+                        type, StringUtils.conjoin(",", jobIDs), StringUtils.conjoin(",", missingJobIds));
+            }
         } catch (Throwable t) {
             log.warn("Unable to generate index for jobs [" + StringUtils.conjoin(",", irMsg.getRequestedJobs()) + "]",
                     t);
+            failure = t;
+        } finally {
+            IndexingProgress.setListener(null);
+            List<IndexRequestMessage> requests;
+            synchronized (activeTasks) {
+                if (activeTasks.get(task.getKey()) == task) {
+                    activeTasks.remove(task.getKey());
+                }
+                requests = task.close();
+            }
+            if (indexFile != null) {
+                task.stateChanged(IndexRequestState.PACKAGING);
+            }
+            for (IndexRequestMessage request : requests) {
+                replyToRequest(request, foundIDs, indexFile, failure);
+            }
+            task.stateChanged(failure == null ? IndexRequestState.DONE : IndexRequestState.FAILED);
+        }
+    }
+
+    /**
+     * Answer a single request with the outcome of the index build serving it.
+     *
+     * @param irMsg The request to answer.
+     * @param foundIDs The jobs found for the index, or null if the build failed.
+     * @param indexFile The complete index, or null if it could not be built.
+     * @param failure The cause of the failure of the build, or null if it did not fail.
+     */
+    private void replyToRequest(IndexRequestMessage irMsg, Set<Long> foundIDs, File indexFile, Throwable failure) {
+        final boolean mustReturnIndex = irMsg.mustReturnIndex();
+        try {
+            if (failure != null) {
+                irMsg.setNotOk(failure);
+            } else if (foundIDs != null) {
+                irMsg.setFoundJobs(foundIDs);
+                if (indexFile != null && mustReturnIndex) { // return index now!
+                    packageResultFiles(irMsg, indexFile);
+                }
+            }
+        } catch (Throwable t) {
+            log.warn("Unable to package index for jobs [" + StringUtils.conjoin(",", irMsg.getRequestedJobs())
+                    + "]", t);
             irMsg.setNotOk(t);
         } finally {
             // Remove job from currentJobs Set
@@ -437,7 +571,28 @@ public final class IndexRequestServer extends HarvesterMessageHandler implements
         if (connectionParams != null) {
             log.debug("Trying to use client supplied RemoteFileServer: {}", connectionParams.getServerName());
         }
-        if (cacheFile.isDirectory()) {
+        Map<String, String> checksums = null;
+        if (irMsg.isUncompressedDeliveryRequested()) {
+            checksums = UncompressedIndexes.readManifest(cacheFile);
+            if (checksums == null) {
+                log.info("No uncompressed copy of index '{}'. Delivering it gzipped", cacheFile);
+            }
+        }
+        if (checksums != null) {
+            // Only send the files the requester doesn't hold already.
+            File rawDir = UncompressedIndexes.getRawIndexDir(cacheFile);
+            Set<String> known = irMsg.getKnownChecksums();
+            List<RemoteFile> resultFiles = new ArrayList<RemoteFile>();
+            for (Map.Entry<String, String> entry : checksums.entrySet()) {
+                if (!known.contains(entry.getValue())) {
+                    resultFiles.add(RemoteFileFactory.getCopyfileInstance(new File(rawDir, entry.getKey()),
+                            irMsg.getRemoteFileSettings()));
+                }
+            }
+            log.info("Delivering uncompressed index '{}': sending {} of {} files", cacheFile, resultFiles.size(),
+                    checksums.size());
+            irMsg.setUncompressedResultFiles(checksums, resultFiles);
+        } else if (cacheFile.isDirectory()) {
             // This cache uses multiple files stored in a directory,
             // so transfer them all.
             File[] cacheFiles = cacheFile.listFiles();
@@ -510,12 +665,55 @@ public final class IndexRequestServer extends HarvesterMessageHandler implements
         cleanup();
     }
 
+    @Override
+    public int getQueuedIndexings() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public int getActiveIndexings() {
+        return runningTasks.get();
+    }
+
+    @Override
+    public int getPendingRequests() {
+        synchronized (currentJobs) {
+            return currentJobs.size();
+        }
+    }
+
+    @Override
+    public String[] getIndexingStates() {
+        List<String> states = new ArrayList<String>();
+        synchronized (activeTasks) {
+            for (IndexRequestTask task : activeTasks.values()) {
+                states.add(task.toString());
+            }
+        }
+        return states.toArray(new String[states.size()]);
+    }
+
+    @Override
+    public long getAvailableMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+    }
+
     /** Releases the JMS-connection and resets the singleton. */
     public void cleanup() {
         // shutdown listening timer.
         checkIflisteningTimer.cancel();
         conn.removeListener(Channels.getTheIndexServer(), this);
         handlers.clear();
+        executor.shutdownNow();
+        if (statusMBean != null) {
+            try {
+                statusMBean.unregister();
+            } catch (IOFailure e) {
+                log.warn("Unable to unregister the index request server status MBean", e);
+            }
+            statusMBean = null;
+        }
 
         if (instance != null) {
             instance = null;
@@ -527,6 +725,7 @@ public final class IndexRequestServer extends HarvesterMessageHandler implements
      * decides if we should listen for index-requests.
      */
     public void start() {
+        registerStatusMBean();
         restoreRequestsfromRequestDir();
         log.info("{} indexing jobs in progress that was stored in requestdir: {}", currentJobs.size(),
                 requestDir.getAbsolutePath());
@@ -539,6 +738,21 @@ public final class IndexRequestServer extends HarvesterMessageHandler implements
         checkIflisteningTimer.schedule(checkIfListening, 0L, listeningInterval);
     }
 
+    /**
+     * Expose the status of this server over JMX. Failing to do so is logged, but does not stop the server.
+     */
+    private void registerStatusMBean() {
+        try {
+            statusMBean = new SingleMBeanObject<IndexRequestServerStatus>("dk.netarkivet.harvester.indexserver", this,
+                    IndexRequestServerStatus.class, ManagementFactory.getPlatformMBeanServer());
+            statusMBean.getNameProperties().put("type", "IndexRequestServer");
+            statusMBean.register();
+        } catch (RuntimeException e) {
+            log.warn("Unable to register the index request server status MBean", e);
+            statusMBean = null;
+        }
+    }
+
     /**
      * Defines the task to repeatedly check the listening status. And begin listening again, if we are ready for more
      * tasks.
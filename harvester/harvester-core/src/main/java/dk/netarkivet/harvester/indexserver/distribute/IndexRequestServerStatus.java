@@ -0,0 +1,55 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver.distribute;
+
+/**
+ * The status of the index request server, as exposed over JMX.
+ */
+public interface IndexRequestServerStatus {
+
+    /**
+     * @return The number of index builds waiting for a free indexing thread.
+     */
+    int getQueuedIndexings();
+
+    /**
+     * @return The number of index builds currently running.
+     */
+    int getActiveIndexings();
+
+    /**
+     * @return The number of index requests received but not yet answered. Coalesced requests are counted separately.
+     */
+    int getPendingRequests();
+
+    /**
+     * @return A description of the state of each queued or running index build.
+     */
+    String[] getIndexingStates();
+
+    /**
+     * @return The amount of heap in bytes that can still be allocated by the index server.
+     */
+    long getAvailableMemory();
+
+}
@@ -0,0 +1,192 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver.distribute;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.StringUtils;
+import dk.netarkivet.harvester.indexserver.IndexRequestState;
+import dk.netarkivet.harvester.indexserver.IndexingProgress;
+
+/**
+ * An index build on the index server, serving one or more IndexRequestMessages for the same type of index over the
+ * same set of jobs. Requests arriving while an identical build is queued or running are coalesced into it, and are
+ * all answered when the build is done.
+ * <p>
+ * Tasks are ordered so that requests from harvesters waiting for their index go before requests for indices prepared
+ * in advance, smaller job sets go before larger ones, and otherwise the oldest request goes first.
+ */
+class IndexRequestTask implements Runnable, Comparable<IndexRequestTask>, IndexingProgress.Listener {
+
+    /** Source of sequence numbers, used to keep FIFO order between equally important tasks. */
+    private static final AtomicLong sequence = new AtomicLong();
+
+    /** The server processing this task. */
+    private final IndexRequestServer server;
+    /** The key identifying the index built by this task. */
+    private final String key;
+    /** The request that started this task. */
+    private final IndexRequestMessage request;
+    /** Requests for the same index that arrived while the task was pending. */
+    private final List<IndexRequestMessage> coalescedRequests = new ArrayList<IndexRequestMessage>();
+    /** The order in which this task was created. */
+    private final long sequenceNumber;
+    /** The time this task was created. */
+    private final long created;
+    /** The current state of this task. */
+    private volatile IndexRequestState state = IndexRequestState.QUEUED;
+    /** The time of the last change of state. */
+    private volatile long stateChanged;
+    /** Whether the task has stopped accepting more requests. */
+    private boolean closed;
+    /**
+     * Whether a harvester is waiting for the index built by this task. Set by the first request, and raised when a
+     * request from a waiting harvester is coalesced into the task.
+     */
+    private volatile boolean mustReturnIndex;
+
+    /**
+     * Create a task for the given request.
+     *
+     * @param server The server processing the task.
+     * @param request The request starting the task.
+     */
+    IndexRequestTask(IndexRequestServer server, IndexRequestMessage request) {
+        ArgumentNotValid.checkNotNull(server, "IndexRequestServer server");
+        ArgumentNotValid.checkNotNull(request, "IndexRequestMessage request");
+        this.server = server;
+        this.request = request;
+        this.key = makeKey(request);
+        this.mustReturnIndex = request.mustReturnIndex();
+        this.sequenceNumber = sequence.incrementAndGet();
+        this.created = System.currentTimeMillis();
+        this.stateChanged = created;
+    }
+
+    /**
+     * Make the key identifying the index requested by a message. Messages with the same key can be served by the same
+     * build.
+     *
+     * @param irMsg A request for an index.
+     * @return A key made from the type of index and the set of jobs requested.
+     */
+    static String makeKey(IndexRequestMessage irMsg) {
+        String allIDsString = StringUtils.conjoin("-", new TreeSet<Long>(irMsg.getRequestedJobs()));
+        return irMsg.getRequestType() + "-" + ChecksumCalculator.calculateMd5(allIDsString.getBytes());
+    }
+
+    /** @return The key identifying the index built by this task. */
+    String getKey() {
+        return key;
+    }
+
+    /** @return The request that started this task. */
+    IndexRequestMessage getRequest() {
+        return request;
+    }
+
+    /** @return The current state of this task. */
+    IndexRequestState getState() {
+        return state;
+    }
+
+    /** @return true, if a harvester is waiting for the index built by this task. */
+    boolean mustReturnIndex() {
+        return mustReturnIndex;
+    }
+
+    /**
+     * Mark that a harvester is waiting for the index built by this task, which makes the task go before tasks for
+     * indices prepared in advance. As this changes the ordering of the task, it must not be called while the task is
+     * in a priority queue.
+     */
+    void setMustReturnIndex() {
+        mustReturnIndex = true;
+    }
+
+    /**
+     * Add a request for the same index to this task.
+     *
+     * @param irMsg A request with the same key as this task.
+     * @return true, if the request will be answered by this task; false, if the task no longer accepts requests.
+     */
+    synchronized boolean coalesce(IndexRequestMessage irMsg) {
+        if (closed) {
+            return false;
+        }
+        coalescedRequests.add(irMsg);
+        return true;
+    }
+
+    /**
+     * Stop accepting requests, and get all the requests this task must answer.
+     *
+     * @return The request that started this task followed by the coalesced requests.
+     */
+    synchronized List<IndexRequestMessage> close() {
+        closed = true;
+        List<IndexRequestMessage> result = new ArrayList<IndexRequestMessage>(coalescedRequests.size() + 1);
+        result.add(request);
+        result.addAll(coalescedRequests);
+        return Collections.unmodifiableList(result);
+    }
+
+    @Override
+    public void stateChanged(IndexRequestState newState) {
+        state = newState;
+        stateChanged = System.currentTimeMillis();
+    }
+
+    @Override
+    public void run() {
+        server.processRequest(this);
+    }
+
+    @Override
+    public int compareTo(IndexRequestTask other) {
+        if (mustReturnIndex != other.mustReturnIndex) {
+            return mustReturnIndex ? -1 : 1;
+        }
+        int thisSize = request.getRequestedJobs().size();
+        int otherSize = other.request.getRequestedJobs().size();
+        if (thisSize != otherSize) {
+            return thisSize < otherSize ? -1 : 1;
+        }
+        return sequenceNumber < other.sequenceNumber ? -1 : (sequenceNumber == other.sequenceNumber ? 0 : 1);
+    }
+
+    @Override
+    public synchronized String toString() {
+        long now = System.currentTimeMillis();
+        return "Index of type '" + request.getRequestType() + "' for " + request.getRequestedJobs().size()
+                + " jobs (key " + key + "): " + state + " for " + (now - stateChanged) / 1000 + " s, age "
+                + (now - created) / 1000 + " s, serving " + (coalescedRequests.size() + 1) + " request(s)";
+    }
+
+}
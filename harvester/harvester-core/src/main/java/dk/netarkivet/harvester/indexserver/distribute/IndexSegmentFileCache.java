@@ -0,0 +1,264 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver.distribute;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.distribute.RemoteFile;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * A content-addressed cache of index files on the harvester side, used with uncompressed index delivery. Every index
+ * file received from the index server is stored under its MD5 checksum, and index directories are assembled from the
+ * cache by hard links, or copies where links are not possible. Files that are part of several indices, e.g. because
+ * the indices share job segments, are then only transferred and stored once.
+ * <p>
+ * For every index directory assembled, a reference file in the <code>references</code> directory of the cache lists
+ * the directory and the checksums of its files. A cached file is in use as long as a reference to it names an index
+ * directory that still exists, and only files not in use are removed by {@link #removeUnreferenced()}.
+ */
+public class IndexSegmentFileCache {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(IndexSegmentFileCache.class);
+
+    /** The name of the directory in the cache holding the reference files. */
+    private static final String REFERENCES_DIRNAME = "references";
+
+    /** The suffix of files being received or written. */
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /** The directory holding the cached files, each named by its MD5 checksum. */
+    private final File cacheDir;
+
+    /** The directory holding a reference file for each assembled index directory. */
+    private final File referencesDir;
+
+    /**
+     * Create a cache in the given directory.
+     *
+     * @param cacheDir The directory to keep cached files in. It is created if it does not exist.
+     * @throws ArgumentNotValid If cacheDir is null.
+     */
+    public IndexSegmentFileCache(File cacheDir) {
+        ArgumentNotValid.checkNotNull(cacheDir, "File cacheDir");
+        this.cacheDir = cacheDir;
+        this.referencesDir = new File(cacheDir, REFERENCES_DIRNAME);
+        FileUtils.createDir(referencesDir);
+    }
+
+    /**
+     * @return The MD5 checksums of all files in the cache.
+     */
+    public synchronized Set<String> getKnownChecksums() {
+        Set<String> result = new HashSet<String>();
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isFile() && !f.getName().endsWith(TMP_SUFFIX)) {
+                    result.add(f.getName());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param checksum An MD5 checksum.
+     * @return true, if a file with the given checksum is in the cache.
+     */
+    public boolean contains(String checksum) {
+        return getCachedFile(checksum).isFile();
+    }
+
+    /**
+     * Assemble an uncompressed index in a given directory. The received files are verified and added to the cache, a
+     * reference from the directory to the files of the index is recorded, and the directory is filled with links to the
+     * cached files. The directory is assembled in a temporary directory which gets renamed, so it appears to be created
+     * atomically.
+     *
+     * @param checksums The MD5 checksum of every file in the index, by filename.
+     * @param files The received files, i.e. those not already in the cache. The RemoteFiles are cleaned up afterwards.
+     * @param toDir The directory that the index files will eventually be placed in. Must not exist.
+     * @throws IOFailure If a file cannot be received or placed in the directory, or its checksum is wrong.
+     */
+    public synchronized void assemble(Map<String, String> checksums, List<RemoteFile> files, File toDir)
+            throws IOFailure {
+        ArgumentNotValid.checkNotNull(checksums, "Map<String, String> checksums");
+        ArgumentNotValid.checkNotNull(files, "List<RemoteFile> files");
+        ArgumentNotValid.checkNotNull(toDir, "File toDir");
+        for (RemoteFile f : files) {
+            String checksum = checksums.get(f.getName());
+            if (checksum == null) {
+                throw new IOFailure("Received index file '" + f.getName() + "' which is not in the index manifest");
+            }
+            fetch(f, checksum);
+        }
+        log.info("Received {} of the {} files of the index in '{}'", files.size(), checksums.size(), toDir);
+        // The reference is written first, so the files are never in an index directory without being referenced.
+        writeReference(toDir, checksums.values());
+        File tmpDir = FileUtils.createUniqueTempDir(toDir.getParentFile(), toDir.getName());
+        try {
+            FileUtils.createDir(tmpDir);
+            for (Map.Entry<String, String> entry : checksums.entrySet()) {
+                linkTo(entry.getValue(), new File(tmpDir, entry.getKey()));
+            }
+            if (!tmpDir.renameTo(toDir)) {
+                throw new IOFailure("Error renaming temp dir '" + tmpDir + "' to target directory '"
+                        + toDir.getAbsolutePath() + "'");
+            }
+        } finally {
+            FileUtils.removeRecursively(tmpDir);
+        }
+    }
+
+    /**
+     * Remove cached files which are not referenced by any existing index directory, along with the references of index
+     * directories that no longer exist and leftovers from interrupted transfers.
+     *
+     * @return The number of cached files removed.
+     */
+    public synchronized int removeUnreferenced() {
+        Set<String> referenced = new HashSet<String>();
+        File[] references = referencesDir.listFiles();
+        if (references != null) {
+            for (File reference : references) {
+                List<String> lines = reference.isFile() ? FileUtils.readListFromFile(reference)
+                        : new ArrayList<String>();
+                if (reference.getName().endsWith(TMP_SUFFIX) || lines.isEmpty()
+                        || !new File(lines.get(0)).isDirectory()) {
+                    log.debug("Removing reference '{}' to an index directory which no longer exists", reference);
+                    FileUtils.removeRecursively(reference);
+                } else {
+                    referenced.addAll(lines.subList(1, lines.size()));
+                }
+            }
+        }
+        int removed = 0;
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isFile() && !referenced.contains(f.getName()) && FileUtils.remove(f)
+                        && !f.getName().endsWith(TMP_SUFFIX)) {
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Fetch a remote file into the cache, verifying its checksum. The remote file is cleaned up afterwards.
+     *
+     * @param remoteFile The file to fetch.
+     * @param expectedChecksum The MD5 checksum the file should have.
+     * @throws IOFailure If the file cannot be fetched, or its checksum differs from the expected one.
+     */
+    private void fetch(RemoteFile remoteFile, String expectedChecksum) {
+        File target = getCachedFile(expectedChecksum);
+        File tmpFile = new File(cacheDir, expectedChecksum + "-" + System.nanoTime() + TMP_SUFFIX);
+        try {
+            remoteFile.copyTo(tmpFile);
+            String checksum = ChecksumCalculator.calculateMd5(tmpFile);
+            if (!checksum.equals(expectedChecksum)) {
+                throw new IOFailure("Checksum of received index file '" + remoteFile.getName() + "' was " + checksum
+                        + ", expected " + expectedChecksum);
+            }
+            if (!target.exists() && !tmpFile.renameTo(target)) {
+                throw new IOFailure("Unable to move received index file '" + tmpFile + "' to '" + target + "'");
+            }
+        } finally {
+            FileUtils.remove(tmpFile);
+        }
+        try {
+            remoteFile.cleanup();
+        } catch (IOFailure e) {
+            log.debug("Trouble deleting file '{}' from FTP server after saving it", remoteFile.getName(), e);
+        }
+    }
+
+    /**
+     * Record that an index directory uses the cached files with the given checksums.
+     *
+     * @param indexDir The index directory.
+     * @param checksums The checksums of the files in the directory.
+     * @throws IOFailure If the reference cannot be written.
+     */
+    private void writeReference(File indexDir, Collection<String> checksums) {
+        List<String> lines = new ArrayList<String>(checksums.size() + 1);
+        lines.add(indexDir.getAbsolutePath());
+        lines.addAll(checksums);
+        File reference = new File(referencesDir, indexDir.getName());
+        File tmpReference = new File(referencesDir, indexDir.getName() + TMP_SUFFIX);
+        FileUtils.writeCollectionToFile(tmpReference, lines);
+        FileUtils.remove(reference);
+        if (!tmpReference.renameTo(reference)) {
+            throw new IOFailure("Unable to move reference '" + tmpReference + "' to '" + reference + "'");
+        }
+    }
+
+    /**
+     * Place the cached file with the given checksum at the given location. The file is hard linked when possible, and
+     * copied otherwise. As index files are never modified, the link and the cached file can safely be shared.
+     *
+     * @param checksum The checksum of a cached file.
+     * @param destFile The location to place the file at. Must not exist.
+     * @throws IOFailure If the file is not cached, or cannot be placed at the location.
+     */
+    private void linkTo(String checksum, File destFile) {
+        File cachedFile = getCachedFile(checksum);
+        if (!cachedFile.isFile()) {
+            throw new IOFailure("No index file with checksum " + checksum + " in cache '" + cacheDir + "'");
+        }
+        try {
+            Files.createLink(destFile.toPath(), cachedFile.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            log.debug("Unable to hard link '{}' to '{}'. Copying it instead", cachedFile, destFile, e);
+            FileUtils.copyFile(cachedFile, destFile);
+        }
+    }
+
+    /**
+     * @param checksum An MD5 checksum.
+     * @return The location of the cached file with that checksum.
+     */
+    private File getCachedFile(String checksum) {
+        ArgumentNotValid.checkNotNullOrEmpty(checksum, "String checksum");
+        return new File(cacheDir, checksum);
+    }
+
+}
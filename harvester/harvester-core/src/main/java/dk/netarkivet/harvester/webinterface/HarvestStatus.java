@@ -59,6 +59,9 @@ public class HarvestStatus {
     /** The list of jobs in this HarvestStatus object. */
     private final List<JobStatusInfo> jobs;
 
+    /** Whether there are more results after the jobs in this HarvestStatus object. */
+    private final boolean moreResults;
+
     /**
      * Constructor for the HarvestStatus class.
      *
@@ -66,8 +69,20 @@ public class HarvestStatus {
      * @param jobs The list of jobs
      */
     public HarvestStatus(long fullResultsCount, List<JobStatusInfo> jobs) {
+        this(fullResultsCount, jobs, false);
+    }
+
+    /**
+     * Constructor for the HarvestStatus class.
+     *
+     * @param fullResultsCount The total number of entries in the full resultset
+     * @param jobs The list of jobs
+     * @param moreResults Whether there are more results after the given jobs
+     */
+    public HarvestStatus(long fullResultsCount, List<JobStatusInfo> jobs, boolean moreResults) {
         this.fullResultsCount = fullResultsCount;
         this.jobs = jobs;
+        this.moreResults = moreResults;
     }
 
     /**
@@ -84,6 +99,27 @@ public class HarvestStatus {
         return jobs;
     }
 
+    /**
+     * Tells whether there is a next page. Unlike comparing with {@link #getFullResultsCount()}, this is exact even
+     * when the total is a cached count.
+     *
+     * @return true, if there are more results after the jobs in this HarvestStatus object.
+     */
+    public boolean hasMoreResults() {
+        return moreResults;
+    }
+
+    /**
+     * @return The ID of the last job in this HarvestStatus object, which the next page starts after, or null if there
+     * are no jobs.
+     */
+    public Long getLastJobId() {
+        if (jobs.isEmpty()) {
+            return null;
+        }
+        return jobs.get(jobs.size() - 1).getJobID();
+    }
+
     /**
      * Process a request from Harveststatus-alljobs.
      * <p>
@@ -127,6 +127,11 @@ public class HarvestStatusQuery {
         PAGE_SIZE(Settings.get(CommonSettings.HARVEST_STATUS_DFT_PAGE_SIZE)),
         /** The starting page. Default is 1. */
         START_PAGE_INDEX("1"),
+        /**
+         * The ID of the last job on the previous page. If given, the page starts after this job instead of being
+         * found by skipping the jobs of the previous pages. No default.
+         */
+        AFTER_JOB_ID(""),
         /** The number of Jobs to resubmit identified by ID. No default. */
         RESUBMIT_JOB_IDS("");
 
@@ -202,6 +207,8 @@ public class HarvestStatusQuery {
     private long pageSize;
     /** The start page. */
     private long startPageIndex;
+    /** The ID of the job the page starts after, or null to find the page by its index. */
+    private Long afterJobId;
     /** Is the harvest name case sensitive. The default is yes. */
     private boolean caseSensitiveHarvestName = true;
 
@@ -334,6 +341,15 @@ public class HarvestStatusQuery {
             throw new ArgumentNotValid("Invalid number!", e);
         }
 
+        String afterJobIdStr = UI_FIELD.AFTER_JOB_ID.getValue(req);
+        if (!afterJobIdStr.isEmpty()) {
+            try {
+                this.afterJobId = Long.parseLong(afterJobIdStr);
+            } catch (NumberFormatException e) {
+                throw new ArgumentNotValid("Invalid number!", e);
+            }
+        }
+
     }
 
     /**
@@ -476,6 +492,23 @@ public class HarvestStatusQuery {
         return startPageIndex;
     }
 
+    /**
+     * @return the ID of the job the page starts after, or null if the page is found by its index.
+     */
+    public Long getAfterJobId() {
+        return afterJobId;
+    }
+
+    /**
+     * Let the page start after the given job, in the sorting order, instead of finding it by its index. This lets the
+     * database find the page using the job id index rather than by skipping all jobs on previous pages.
+     *
+     * @param afterJobId The ID of the last job on the previous page, or null to find the page by its index.
+     */
+    public void setAfterJobId(Long afterJobId) {
+        this.afterJobId = afterJobId;
+    }
+
     /**
      * Define whether or not the harvest name is case sensitive.
      *
@@ -27,6 +27,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -58,6 +59,9 @@ public class CrawlLogLinesMatchingRegexp extends ArchiveBatchJob {
     /** The regular expression to match in the crawl.log line. */
     private final String regexp;
 
+    /** The compiled regular expression, made when first needed. */
+    private transient Pattern pattern;
+
     /**
      * Initialise the batch job.
      *
@@ -108,10 +112,13 @@ public class CrawlLogLinesMatchingRegexp extends ArchiveBatchJob {
     public void processRecord(ArchiveRecordBase record, OutputStream os) {
         ArgumentNotValid.checkNotNull(record, "ArchiveRecordBase record");
         ArgumentNotValid.checkNotNull(os, "OutputStream os");
+        if (pattern == null) {
+            pattern = Pattern.compile(regexp);
+        }
         BufferedReader arcreader = new BufferedReader(new InputStreamReader(record.getInputStream()));
         try {
             for (String line = arcreader.readLine(); line != null; line = arcreader.readLine()) {
-                if (line.matches(regexp)) {
+                if (pattern.matcher(line).matches()) {
                     os.write(line.getBytes("UTF-8"));
                     os.write('\n');
                 }
@@ -0,0 +1,421 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.viewerproxy.webinterface;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClientFactory;
+import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
+import dk.netarkivet.common.distribute.arcrepository.Replica;
+import dk.netarkivet.common.distribute.arcrepository.ViewerArcRepositoryClient;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.TimeUtils;
+import dk.netarkivet.common.utils.batch.FileBatchJob;
+import dk.netarkivet.common.utils.batch.FileListJob;
+import dk.netarkivet.harvester.HarvesterSettings;
+
+/**
+ * A cache of {@link JobMetadataStore}s on disk. The store of a job is built the first time it is needed, from the
+ * metadata files of the job fetched from the archive. The cache is bounded by the setting
+ * {@link HarvesterSettings#QA_CACHE_MAX_SIZE}; when it is exceeded, the stores used longest ago are removed. A store
+ * older than {@link HarvesterSettings#QA_CACHE_MAX_AGE} is built again, so metadata files added to the archive after
+ * the store was built are found.
+ * <p>
+ * A store handed out by {@link #getStore(long)} or {@link #getStoreIfPresent(long)} is in use until it is given back
+ * with {@link #release(JobMetadataStore)}. A store in use is never removed from the disk; if it is replaced or found to
+ * be expired, it is removed when the last user releases it. Each build of a store gets a directory of its own, so a
+ * store can be built again while the old one is in use.
+ * <p>
+ * The stores found on disk when the cache is made are kept, in the order they were built.
+ */
+final class JobMetadataCache {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(JobMetadataCache.class);
+
+    /** The name of the cache directory in the common temporary directory, used if no directory is set. */
+    private static final String DEFAULT_DIR_NAME = "qacache";
+
+    /** The suffix of the directories the metadata files of a job are fetched to while building its store. */
+    private static final String DOWNLOAD_SUFFIX = ".download";
+
+    /** The names of the store directories: the job ID and a number making the name unique. */
+    private static final Pattern STORE_DIR_NAME = Pattern.compile("(\\d+)-(\\d+)");
+
+    /** The current cache. */
+    private static JobMetadataCache instance;
+
+    /** The directory of the cache. */
+    private final File dir;
+    /** The maximum number of bytes used by the stores. */
+    private final long maxSize;
+    /** The maximum age of a store in milliseconds, or 0 if stores do not expire. */
+    private final long maxAge;
+    /** The stores by job ID, in the order they were used, least recently used first. */
+    private final LinkedHashMap<Long, JobMetadataStore> stores = new LinkedHashMap<Long, JobMetadataStore>(16, 0.75f,
+            true);
+    /** The size of each store on disk, including the stores removed from the cache but still in use. */
+    private final Map<JobMetadataStore, Long> sizes = new HashMap<JobMetadataStore, Long>();
+    /** The number of users of each store in use. */
+    private final Map<JobMetadataStore, Integer> users = new HashMap<JobMetadataStore, Integer>();
+    /** The stores removed from the cache while in use, to be removed from the disk when released. */
+    private final Set<JobMetadataStore> retired = new HashSet<JobMetadataStore>();
+    /** The objects locked while the store of a job is built, so it is only built once. */
+    private final Map<Long, Object> buildLocks = new HashMap<Long, Object>();
+    /** The number of bytes used by the stores. */
+    private long totalSize;
+
+    /**
+     * Make a cache in a directory, keeping the complete stores already there. Anything else in the directory, e.g.
+     * stores and downloads left incomplete, is removed.
+     *
+     * @param dir The directory of the cache.
+     * @param maxSize The maximum number of bytes used by the stores.
+     * @param maxAge The maximum age of a store in milliseconds, or 0 if stores do not expire.
+     */
+    JobMetadataCache(File dir, long maxSize, long maxAge) {
+        ArgumentNotValid.checkNotNull(dir, "File dir");
+        ArgumentNotValid.checkPositive(maxSize, "long maxSize");
+        ArgumentNotValid.checkNotNegative(maxAge, "long maxAge");
+        this.dir = dir;
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+        FileUtils.createDir(dir);
+        File[] storeDirs = dir.listFiles();
+        Arrays.sort(storeDirs, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(new File(f1, JobMetadataStore.COMPLETE_MARKER).lastModified(), new File(f2,
+                        JobMetadataStore.COMPLETE_MARKER).lastModified());
+            }
+        });
+        for (File storeDir : storeDirs) {
+            JobMetadataStore store = null;
+            Matcher m = STORE_DIR_NAME.matcher(storeDir.getName());
+            if (m.matches()) {
+                try {
+                    store = JobMetadataStore.open(Long.parseLong(m.group(1)), storeDir);
+                } catch (IOFailure e) {
+                    log.warn("Unable to open the QA metadata store in '{}', removing it", storeDir, e);
+                }
+            }
+            if (store == null) {
+                FileUtils.removeRecursively(storeDir);
+            } else {
+                add(store);
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Get the cache given by the settings.
+     *
+     * @return The cache, or null if the setting {@link HarvesterSettings#QA_CACHE_MAX_SIZE} is 0.
+     */
+    static synchronized JobMetadataCache getInstance() {
+        long maxSize = Settings.getLong(HarvesterSettings.QA_CACHE_MAX_SIZE);
+        if (maxSize <= 0) {
+            return null;
+        }
+        long maxAge = Settings.getLong(HarvesterSettings.QA_CACHE_MAX_AGE) * TimeUtils.SECOND_IN_MILLIS;
+        String dirName = Settings.get(HarvesterSettings.QA_CACHE_DIR);
+        File cacheDir = dirName.isEmpty() ? new File(FileUtils.getTempDir(), DEFAULT_DIR_NAME) : new File(dirName);
+        if (instance == null || !instance.dir.getAbsoluteFile().equals(cacheDir.getAbsoluteFile())
+                || instance.maxSize != maxSize || instance.maxAge != maxAge) {
+            instance = new JobMetadataCache(cacheDir, maxSize, maxAge);
+        }
+        return instance;
+    }
+
+    /**
+     * Get the store of a job, if it has been built and has not expired. A store returned must be released with
+     * {@link #release(JobMetadataStore)} when no longer used.
+     *
+     * @param jobId The ID of the job.
+     * @return The store, or null if it has not been built.
+     */
+    synchronized JobMetadataStore getStoreIfPresent(long jobId) {
+        JobMetadataStore store = stores.get(jobId);
+        if (store != null && !store.isValid()) {
+            log.info("The QA metadata store for job {} has been removed from '{}'", jobId, store.getDir());
+            remove(store);
+            store = null;
+        } else if (store != null && isExpired(store)) {
+            log.info("The QA metadata store for job {} in '{}' has expired", jobId, store.getDir());
+            remove(store);
+            store = null;
+        }
+        if (store != null) {
+            use(store);
+        }
+        return store;
+    }
+
+    /**
+     * Get the store of a job, building it if needed. A store returned must be released with
+     * {@link #release(JobMetadataStore)} when no longer used.
+     *
+     * @param jobId The ID of the job.
+     * @return The store, or null if the job has no metadata files in the archive.
+     * @throws IOFailure If the store cannot be built.
+     */
+    JobMetadataStore getStore(long jobId) {
+        JobMetadataStore store = getStoreIfPresent(jobId);
+        if (store != null) {
+            return store;
+        }
+        Object lock;
+        synchronized (this) {
+            lock = buildLocks.get(jobId);
+            if (lock == null) {
+                lock = new Object();
+                buildLocks.put(jobId, lock);
+            }
+        }
+        synchronized (lock) {
+            try {
+                store = getStoreIfPresent(jobId);
+                if (store != null) {
+                    return store;
+                }
+                store = fetchAndBuild(jobId);
+                if (store != null) {
+                    synchronized (this) {
+                        add(store);
+                        use(store);
+                        evict();
+                    }
+                }
+                return store;
+            } finally {
+                synchronized (this) {
+                    buildLocks.remove(jobId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Give back a store got from this cache. If the store has been removed from the cache while in use, and this was
+     * the last user, it is removed from the disk.
+     *
+     * @param store The store, or null, in which case nothing is done.
+     */
+    synchronized void release(JobMetadataStore store) {
+        if (store == null) {
+            return;
+        }
+        Integer count = users.get(store);
+        if (count == null) {
+            log.warn("The QA metadata store for job {} in '{}' was released more times than it was used",
+                    store.getJobId(), store.getDir());
+            return;
+        }
+        if (count > 1) {
+            users.put(store, count - 1);
+            return;
+        }
+        users.remove(store);
+        if (retired.remove(store)) {
+            delete(store);
+        }
+        evict();
+    }
+
+    /**
+     * Record that the size of a store has changed, e.g. because a file list was added.
+     *
+     * @param store The store.
+     */
+    synchronized void updateSize(JobMetadataStore store) {
+        Long oldSize = sizes.get(store);
+        if (oldSize != null) {
+            long size = store.getSize();
+            totalSize += size - oldSize;
+            sizes.put(store, size);
+            evict();
+        }
+    }
+
+    /**
+     * @return The number of bytes used by the stores, including the stores removed from the cache but still in use.
+     */
+    synchronized long getTotalSize() {
+        return totalSize;
+    }
+
+    /**
+     * Fetch the metadata files of a job from the archive and build the store of the job from them.
+     *
+     * @param jobId The ID of the job.
+     * @return The store, or null if the job has no metadata files in the archive.
+     * @throws IOFailure If the files cannot be fetched or the store cannot be built.
+     */
+    private JobMetadataStore fetchAndBuild(long jobId) {
+        ViewerArcRepositoryClient client = ArcRepositoryClientFactory.getViewerInstance();
+        String replicaId = Settings.get(CommonSettings.USE_REPLICA_ID);
+        FileBatchJob fileListJob = new FileListJob();
+        fileListJob.processOnlyFilesMatching(".*" + jobId + ".*" + Reporting.metadatafile_suffix);
+        File listFile;
+        try {
+            listFile = File.createTempFile(jobId + "-metadatafiles", ".txt", FileUtils.getTempDir());
+        } catch (IOException e) {
+            throw new IOFailure("Could not create temporary file", e);
+        }
+        BatchStatus status = client.batch(fileListJob, replicaId);
+        status.getResultFile().copyTo(listFile);
+        List<String> filenames = new ArrayList<String>(new TreeSet<String>(FileUtils.readListFromFile(listFile)));
+        FileUtils.remove(listFile);
+        if (filenames.isEmpty()) {
+            log.debug("No metadata files found for job {}", jobId);
+            return null;
+        }
+
+        File storeDir = newStoreDir(jobId);
+        File downloadDir = new File(dir, storeDir.getName() + DOWNLOAD_SUFFIX);
+        FileUtils.createDir(downloadDir);
+        boolean built = false;
+        try {
+            File[] metadataFiles = new File[filenames.size()];
+            for (int i = 0; i < metadataFiles.length; i++) {
+                metadataFiles[i] = new File(downloadDir, filenames.get(i));
+                client.getFile(filenames.get(i), Replica.getReplicaFromId(replicaId), metadataFiles[i]);
+            }
+            JobMetadataStore store = JobMetadataStore.build(jobId, storeDir, metadataFiles);
+            built = true;
+            return store;
+        } finally {
+            FileUtils.removeRecursively(downloadDir);
+            if (!built) {
+                FileUtils.removeRecursively(storeDir);
+            }
+        }
+    }
+
+    /**
+     * Find a directory for a new store of a job, not used by any other store or download.
+     *
+     * @param jobId The ID of the job.
+     * @return The directory, which does not exist.
+     */
+    private synchronized File newStoreDir(long jobId) {
+        long n = System.currentTimeMillis();
+        File storeDir = new File(dir, jobId + "-" + n);
+        while (storeDir.exists() || new File(dir, storeDir.getName() + DOWNLOAD_SUFFIX).exists()) {
+            storeDir = new File(dir, jobId + "-" + ++n);
+        }
+        return storeDir;
+    }
+
+    /**
+     * @param store A store.
+     * @return true, if the store is older than the maximum age.
+     */
+    private boolean isExpired(JobMetadataStore store) {
+        return maxAge > 0 && System.currentTimeMillis() - store.getBuildTime() > maxAge;
+    }
+
+    /**
+     * Add a store to the cache, replacing any other store of the job.
+     *
+     * @param store The store.
+     */
+    private void add(JobMetadataStore store) {
+        JobMetadataStore old = stores.get(store.getJobId());
+        if (old != null) {
+            remove(old);
+        }
+        long size = store.getSize();
+        stores.put(store.getJobId(), store);
+        sizes.put(store, size);
+        totalSize += size;
+    }
+
+    private void use(JobMetadataStore store) {
+        Integer count = users.get(store);
+        users.put(store, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Remove a store from the cache. The store is removed from the disk at once, unless it is in use.
+     *
+     * @param store The store.
+     */
+    private void remove(JobMetadataStore store) {
+        if (stores.get(store.getJobId()) == store) {
+            stores.remove(store.getJobId());
+        }
+        if (users.containsKey(store)) {
+            retired.add(store);
+        } else {
+            delete(store);
+        }
+    }
+
+    private void delete(JobMetadataStore store) {
+        Long size = sizes.remove(store);
+        if (size != null) {
+            totalSize -= size;
+        }
+        FileUtils.removeRecursively(store.getDir());
+    }
+
+    /**
+     * Remove the stores used longest ago until the cache is no larger than its maximum size. Stores in use are kept.
+     */
+    private void evict() {
+        Iterator<Map.Entry<Long, JobMetadataStore>> entries = new ArrayList<Map.Entry<Long, JobMetadataStore>>(
+                stores.entrySet()).iterator();
+        while (totalSize > maxSize && entries.hasNext()) {
+            Map.Entry<Long, JobMetadataStore> entry = entries.next();
+            if (!users.containsKey(entry.getValue())) {
+                log.info("Removing the QA metadata store for job {} to keep the cache below {} bytes", entry.getKey(),
+                        maxSize);
+                remove(entry.getValue());
+            }
+        }
+    }
+
+}
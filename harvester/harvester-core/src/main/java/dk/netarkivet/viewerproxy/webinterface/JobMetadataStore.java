@@ -0,0 +1,584 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.viewerproxy.webinterface;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.DomainUtils;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.FixedUURI;
+import dk.netarkivet.common.utils.batch.BatchLocalFiles;
+import dk.netarkivet.common.utils.batch.FileBatchJob;
+import dk.netarkivet.common.utils.cdx.CDXRecord;
+
+/**
+ * A local store of the metadata of one job, used to answer the QA pages without running batch jobs. The store is
+ * built once from the metadata files of the job, and holds
+ * <ul>
+ * <li>the crawl.log sorted on timestamp,</li>
+ * <li>the crawl.log grouped on domain, and sorted on timestamp within each domain, with an index of where the lines of
+ * each domain are,</li>
+ * <li>the CDX records of the metadata files, indexed by URL,</li>
+ * <li>the lists of files of the job, once they have been found.</li>
+ * </ul>
+ * A store is complete when its directory contains the marker file {@link #COMPLETE_MARKER}. The data of a store never
+ * changes after it is complete, except that file lists may be added.
+ */
+final class JobMetadataStore {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(JobMetadataStore.class);
+
+    /** The file marking that a store is complete. */
+    static final String COMPLETE_MARKER = "complete";
+    /** The crawl.log sorted on timestamp. */
+    private static final String CRAWL_LOG = "crawl.log";
+    /** The crawl.log grouped on domain. */
+    private static final String DOMAIN_CRAWL_LOG = "crawl-by-domain.log";
+    /** The index of the domains in the crawl.log grouped on domain. */
+    private static final String DOMAIN_INDEX = "crawl-by-domain.idx";
+    /** The CDX records of the metadata files. */
+    private static final String METADATA_CDX = "metadata.cdx";
+    /** The prefix of the files holding the lists of files of the job, followed by the encoded harvest prefix. */
+    private static final String FILE_LIST_PREFIX = "files-";
+    /** Matches any crawl.log line. */
+    private static final String ALL_LINES = ".*";
+
+    /** The ID of the job. */
+    private final long jobId;
+    /** The directory of the store. */
+    private final File dir;
+    /** The start, length and number of lines of each domain in the crawl.log grouped on domain. */
+    private final Map<String, long[]> domainIndex;
+    /** The CDX records of the metadata files, in the order of the files. */
+    private final List<CDXRecord> cdxRecords;
+    /** The CDX records of the metadata files by URL. */
+    private final Map<String, List<CDXRecord>> cdxRecordsByUrl;
+
+    /**
+     * Open a complete store.
+     *
+     * @param jobId The ID of the job.
+     * @param dir The directory of the store.
+     * @throws IOFailure If the store cannot be read.
+     */
+    private JobMetadataStore(long jobId, File dir) {
+        this.jobId = jobId;
+        this.dir = dir;
+        this.domainIndex = readDomainIndex(new File(dir, DOMAIN_INDEX));
+        this.cdxRecords = Collections.unmodifiableList(readCDXRecords(new File(dir, METADATA_CDX)));
+        this.cdxRecordsByUrl = new HashMap<String, List<CDXRecord>>();
+        for (CDXRecord record : cdxRecords) {
+            List<CDXRecord> records = cdxRecordsByUrl.get(record.getURL());
+            if (records == null) {
+                records = new ArrayList<CDXRecord>(1);
+                cdxRecordsByUrl.put(record.getURL(), records);
+            }
+            records.add(record);
+        }
+    }
+
+    /**
+     * Open the store in a directory.
+     *
+     * @param jobId The ID of the job.
+     * @param dir The directory of the store.
+     * @return The store, or null if the directory does not hold a complete store.
+     * @throws IOFailure If the store cannot be read.
+     */
+    static JobMetadataStore open(long jobId, File dir) {
+        if (!new File(dir, COMPLETE_MARKER).isFile()) {
+            return null;
+        }
+        return new JobMetadataStore(jobId, dir);
+    }
+
+    /**
+     * Build a store from the metadata files of a job. Anything already in the directory is removed.
+     *
+     * @param jobId The ID of the job.
+     * @param dir The directory of the store.
+     * @param metadataFiles The local copies of the metadata files of the job.
+     * @return The store.
+     * @throws IOFailure If the store cannot be built.
+     */
+    static JobMetadataStore build(long jobId, File dir, File[] metadataFiles) {
+        ArgumentNotValid.checkNotNull(dir, "File dir");
+        ArgumentNotValid.checkNotNull(metadataFiles, "File[] metadataFiles");
+        long start = System.currentTimeMillis();
+        FileUtils.removeRecursively(dir);
+        FileUtils.createDir(dir);
+        BatchLocalFiles batch = new BatchLocalFiles(metadataFiles);
+
+        runLocally(batch, Reporting.makeMetadataCDXJob(), new File(dir, METADATA_CDX));
+
+        File unsortedCrawlLog = new File(dir, CRAWL_LOG + ".unsorted");
+        runLocally(batch, new CrawlLogLinesMatchingRegexp(ALL_LINES), unsortedCrawlLog);
+        File crawlLog = new File(dir, CRAWL_LOG);
+        FileUtils.sortCrawlLogOnTimestamp(unsortedCrawlLog, crawlLog);
+        FileUtils.remove(unsortedCrawlLog);
+
+        buildDomainCrawlLog(dir, crawlLog);
+
+        try {
+            if (!new File(dir, COMPLETE_MARKER).createNewFile()) {
+                throw new IOFailure("Store for job " + jobId + " in '" + dir + "' was completed by another");
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Unable to complete the store for job " + jobId + " in '" + dir + "'", e);
+        }
+        log.info("Built the QA metadata store for job {} from {} metadata files in {} ms", jobId,
+                metadataFiles.length, System.currentTimeMillis() - start);
+        return new JobMetadataStore(jobId, dir);
+    }
+
+    /**
+     * @return The ID of the job.
+     */
+    long getJobId() {
+        return jobId;
+    }
+
+    /**
+     * @return The directory of the store.
+     */
+    File getDir() {
+        return dir;
+    }
+
+    /**
+     * @return true, if the store has not been removed from the disk.
+     */
+    boolean isValid() {
+        return new File(dir, COMPLETE_MARKER).isFile();
+    }
+
+    /**
+     * @return The time the store was completed, in milliseconds since the epoch, or 0 if it has been removed.
+     */
+    long getBuildTime() {
+        return new File(dir, COMPLETE_MARKER).lastModified();
+    }
+
+    /**
+     * @return The number of bytes used by the store on disk.
+     */
+    long getSize() {
+        long size = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                size += f.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return The CDX records of the metadata files of the job, in the order they appear in the files.
+     */
+    List<CDXRecord> getMetadataCDXRecords() {
+        return cdxRecords;
+    }
+
+    /**
+     * @param url A URL.
+     * @return The CDX records of the metadata files of the job with the given URL.
+     */
+    List<CDXRecord> getMetadataCDXRecords(String url) {
+        List<CDXRecord> records = cdxRecordsByUrl.get(url);
+        return records == null ? Collections.<CDXRecord>emptyList() : Collections.unmodifiableList(records);
+    }
+
+    /**
+     * Get a list of files of the job, as stored with {@link #putFileList(String, Collection)}.
+     *
+     * @param harvestprefix The harvest prefix the list was made for.
+     * @return The sorted list of files, or null if no list has been stored for the prefix.
+     */
+    List<String> getFileList(String harvestprefix) {
+        File f = getFileListFile(harvestprefix);
+        if (!f.isFile()) {
+            return null;
+        }
+        return FileUtils.readListFromFile(f);
+    }
+
+    /**
+     * Store a list of files of the job.
+     *
+     * @param harvestprefix The harvest prefix the list was made for.
+     * @param files The sorted list of files.
+     */
+    void putFileList(String harvestprefix, Collection<String> files) {
+        File f = getFileListFile(harvestprefix);
+        File tmp = new File(f.getPath() + ".tmp");
+        FileUtils.writeCollectionToFile(tmp, files);
+        if (!tmp.renameTo(f)) {
+            FileUtils.remove(tmp);
+            log.warn("Unable to store the file list for job {} in '{}'", jobId, f);
+        }
+    }
+
+    /**
+     * Copy the crawl.log lines referring to a domain, through either the URL or the discovery URL, to a file.
+     *
+     * @param domain The domain.
+     * @param toFile The file to write the lines to, sorted on timestamp.
+     * @throws IOFailure On trouble reading or writing the lines.
+     */
+    void writeCrawlLogForDomain(String domain, File toFile) {
+        long[] entry = domainIndex.get(domain);
+        FileOutputStream out = null;
+        RandomAccessFile in = null;
+        try {
+            out = new FileOutputStream(toFile);
+            if (entry != null) {
+                in = new RandomAccessFile(new File(dir, DOMAIN_CRAWL_LOG), "r");
+                FileChannel channel = in.getChannel();
+                long copied = 0;
+                while (copied < entry[1]) {
+                    copied += channel.transferTo(entry[0] + copied, entry[1] - copied, out.getChannel());
+                }
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Unable to write the crawl.log lines for domain '" + domain + "' to '" + toFile + "'",
+                    e);
+        } finally {
+            IOUtils.closeQuietly(out);
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Get a page of the crawl.log lines referring to a domain, through either the URL or the discovery URL.
+     *
+     * @param domain The domain.
+     * @param regexp A regular expression the lines must match, or null for all lines.
+     * @param offset The number of matching lines to skip.
+     * @param limit The maximum number of lines to return.
+     * @return The lines, sorted on timestamp.
+     * @throws IOFailure On trouble reading the lines.
+     */
+    List<String> getCrawlLogForDomain(String domain, String regexp, int offset, int limit) {
+        long[] entry = domainIndex.get(domain);
+        if (entry == null) {
+            return new ArrayList<String>();
+        }
+        return readLines(new File(dir, DOMAIN_CRAWL_LOG), entry[0], entry[1], regexp, offset, limit, null);
+    }
+
+    /**
+     * Copy the crawl.log lines matching a regular expression to a file.
+     *
+     * @param regexp The regular expression the whole line must match.
+     * @param toFile The file to write the lines to, sorted on timestamp.
+     * @throws IOFailure On trouble reading or writing the lines.
+     */
+    void writeCrawlLogLinesMatching(String regexp, File toFile) {
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(toFile));
+            File crawlLog = new File(dir, CRAWL_LOG);
+            readLines(crawlLog, 0, crawlLog.length(), regexp, 0, Integer.MAX_VALUE, out);
+        } catch (IOException e) {
+            throw new IOFailure("Unable to write the crawl.log lines matching '" + regexp + "' to '" + toFile + "'",
+                    e);
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * Get a page of the crawl.log lines matching a regular expression.
+     *
+     * @param regexp The regular expression the whole line must match.
+     * @param offset The number of matching lines to skip.
+     * @param limit The maximum number of lines to return.
+     * @return The lines, sorted on timestamp.
+     * @throws IOFailure On trouble reading the lines.
+     */
+    List<String> getCrawlLogLinesMatching(String regexp, int offset, int limit) {
+        File crawlLog = new File(dir, CRAWL_LOG);
+        return readLines(crawlLog, 0, crawlLog.length(), regexp, offset, limit, null);
+    }
+
+    private File getFileListFile(String harvestprefix) {
+        try {
+            return new File(dir, FILE_LIST_PREFIX + URLEncoder.encode(harvestprefix, "UTF-8") + ".txt");
+        } catch (UnsupportedEncodingException e) {
+            throw new IOFailure("UTF-8 not supported", e);
+        }
+    }
+
+    /**
+     * Read the matching lines of a part of a file.
+     *
+     * @param file The file.
+     * @param start The start of the part.
+     * @param length The length of the part.
+     * @param regexp A regular expression the whole line must match, or null for all lines.
+     * @param offset The number of matching lines to skip.
+     * @param limit The maximum number of lines to read.
+     * @param out If not null, the lines are written to this stream instead of being returned.
+     * @return The lines read, or an empty list if they were written to the stream.
+     * @throws IOFailure On trouble reading or writing the lines.
+     */
+    private static List<String> readLines(File file, long start, long length, String regexp, int offset, int limit,
+            OutputStream out) {
+        Pattern pattern = regexp == null ? null : Pattern.compile(regexp);
+        List<String> lines = new ArrayList<String>();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            IOUtils.skipFully(in, start);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new BoundedInputStream(in, length),
+                    "UTF-8"));
+            int skipped = 0;
+            int read = 0;
+            for (String line = reader.readLine(); line != null && read < limit; line = reader.readLine()) {
+                if (pattern != null && !pattern.matcher(line).matches()) {
+                    continue;
+                }
+                if (skipped < offset) {
+                    skipped++;
+                    continue;
+                }
+                if (out != null) {
+                    out.write(line.getBytes("UTF-8"));
+                    out.write('\n');
+                } else {
+                    lines.add(line);
+                }
+                read++;
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Unable to read lines from '" + file + "'", e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return lines;
+    }
+
+    /**
+     * Run a batch job on local files.
+     *
+     * @param batch The local files.
+     * @param job The job.
+     * @param toFile The file to write the result to.
+     * @throws IOFailure If the job fails.
+     */
+    private static void runLocally(BatchLocalFiles batch, FileBatchJob job, File toFile) {
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(toFile));
+            batch.run(job, out);
+        } catch (IOException e) {
+            throw new IOFailure("Unable to write batch result to '" + toFile + "'", e);
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+        if (!job.getFilesFailed().isEmpty()) {
+            throw new IOFailure("Batch job " + job + " failed on " + job.getFilesFailed());
+        }
+    }
+
+    /**
+     * Write the crawl.log grouped on domain and its index. Each line is written once for each domain it refers to,
+     * through either the URL or the discovery URL, as {@link HarvestedUrlsForDomainBatchJob} does.
+     *
+     * @param dir The directory of the store.
+     * @param crawlLog The crawl.log sorted on timestamp.
+     * @throws IOFailure On trouble reading or writing the files.
+     */
+    private static void buildDomainCrawlLog(File dir, File crawlLog) {
+        File unsorted = new File(dir, DOMAIN_CRAWL_LOG + ".unsorted");
+        File sorted = new File(dir, DOMAIN_CRAWL_LOG + ".sorted");
+        BufferedReader reader = null;
+        OutputStream out = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(crawlLog), "UTF-8"));
+            out = new BufferedOutputStream(new FileOutputStream(unsorted));
+            Set<String> domains = new LinkedHashSet<String>();
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String[] parts = line.split("\\s+");
+                domains.clear();
+                if (parts.length > 3) {
+                    domains.add(getDomainFromUrlPart(parts[3]));
+                }
+                if (parts.length > 5 && !parts[5].equals("-")) {
+                    domains.add(getDomainFromUrlPart(parts[5]));
+                }
+                for (String domain : domains) {
+                    if (!domain.isEmpty()) {
+                        // A space sorts before any character of a domain name, so the lines of a domain stay together
+                        out.write((domain + " " + line + "\n").getBytes("UTF-8"));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Unable to group the crawl.log '" + crawlLog + "' on domain", e);
+        } finally {
+            IOUtils.closeQuietly(reader);
+            IOUtils.closeQuietly(out);
+        }
+        FileUtils.sortCrawlLogOnTimestamp(unsorted, sorted);
+        FileUtils.remove(unsorted);
+
+        DataOutputStream index = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(sorted), "UTF-8"));
+            out = new BufferedOutputStream(new FileOutputStream(new File(dir, DOMAIN_CRAWL_LOG)));
+            index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dir, DOMAIN_INDEX))));
+            String currentDomain = null;
+            long position = 0;
+            long domainStart = 0;
+            int domainLines = 0;
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                int space = line.indexOf(' ');
+                String domain = line.substring(0, space);
+                if (!domain.equals(currentDomain)) {
+                    if (currentDomain != null) {
+                        writeIndexEntry(index, currentDomain, domainStart, position - domainStart, domainLines);
+                    }
+                    currentDomain = domain;
+                    domainStart = position;
+                    domainLines = 0;
+                }
+                byte[] bytes = line.substring(space + 1).getBytes("UTF-8");
+                out.write(bytes);
+                out.write('\n');
+                position += bytes.length + 1;
+                domainLines++;
+            }
+            if (currentDomain != null) {
+                writeIndexEntry(index, currentDomain, domainStart, position - domainStart, domainLines);
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Unable to write the crawl.log grouped on domain in '" + dir + "'", e);
+        } finally {
+            IOUtils.closeQuietly(reader);
+            IOUtils.closeQuietly(out);
+            IOUtils.closeQuietly(index);
+        }
+        FileUtils.remove(sorted);
+    }
+
+    private static void writeIndexEntry(DataOutputStream index, String domain, long start, long length, int lines)
+            throws IOException {
+        index.writeUTF(domain);
+        index.writeLong(start);
+        index.writeLong(length);
+        index.writeInt(lines);
+    }
+
+    private static Map<String, long[]> readDomainIndex(File file) {
+        Map<String, long[]> index = new HashMap<String, long[]>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            while (true) {
+                String domain;
+                try {
+                    domain = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                index.put(domain, new long[] {in.readLong(), in.readLong(), in.readInt()});
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Unable to read the domain index '" + file + "'", e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return index;
+    }
+
+    private static List<CDXRecord> readCDXRecords(File file) {
+        List<CDXRecord> records = new ArrayList<CDXRecord>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                records.add(new CDXRecord(line.split("\\s+")));
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Unable to read CDX records from '" + file + "'", e);
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+        return records;
+    }
+
+    /**
+     * Return domain from urlpart, if feasibly. Return empty string otherwise.
+     *
+     * @param urlpart One of the URL part of the crawllog-line.
+     * @return domain from urlpart, if feasibly. Return empty string otherwise
+     */
+    private static String getDomainFromUrlPart(String urlpart) {
+        String domain = null;
+        try {
+            domain = DomainUtils.domainNameFromHostname(new FixedUURI(urlpart, true).getReferencedHost());
+        } catch (Exception e) {
+            log.debug("Unable to extract a domain name from the url '{}'", urlpart, e);
+        }
+        if (domain == null) {
+            domain = "";
+        }
+        return domain;
+    }
+
+}
@@ -24,19 +24,22 @@ package dk.netarkivet.viewerproxy.webinterface;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.regex.Pattern;
 
 import org.apache.commons.io.IOUtils;
 
 import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.distribute.RemoteFile;
 import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClientFactory;
+import dk.netarkivet.common.distribute.arcrepository.BatchResultPartHandler;
 import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
@@ -47,9 +50,14 @@ import dk.netarkivet.common.utils.batch.FileBatchJob;
 import dk.netarkivet.common.utils.batch.FileListJob;
 import dk.netarkivet.common.utils.cdx.ArchiveExtractCDXJob;
 import dk.netarkivet.common.utils.cdx.CDXRecord;
+import dk.netarkivet.harvester.HarvesterSettings;
 
 /**
  * Methods for generating the batch results needed by the QA pages.
+ * <p>
+ * Unless disabled by setting {@link HarvesterSettings#QA_CACHE_MAX_SIZE} to 0, the results are found in a local store
+ * of the metadata of the job, which is built from the metadata files of the job the first time the job is looked at.
+ * See {@link JobMetadataCache}.
  */
 @SuppressWarnings({"serial"})
 public class Reporting {
@@ -76,6 +84,38 @@ public class Reporting {
      */
     public static List<String> getFilesForJob(int jobid, String harvestprefix) {
         ArgumentNotValid.checkPositive(jobid, "jobid");
+        JobMetadataCache cache = JobMetadataCache.getInstance();
+        JobMetadataStore store = cache == null ? null : cache.getStoreIfPresent(jobid);
+        try {
+            if (store != null) {
+                List<String> files = store.getFileList(harvestprefix);
+                if (files != null) {
+                    return files;
+                }
+            }
+            List<String> lines = findFilesForJob(jobid, harvestprefix);
+            // The metadata files are uploaded last, so the list is only complete when they are there.
+            if (store != null && containsMetadataFile(lines)) {
+                store.putFileList(harvestprefix, lines);
+                cache.updateSize(store);
+            }
+            return lines;
+        } finally {
+            if (cache != null) {
+                cache.release(store);
+            }
+        }
+    }
+
+    /**
+     * Submit a batch job to list all files for a job.
+     *
+     * @param jobid The job to get files for.
+     * @param harvestprefix The harvestprefix for the files produced by heritrix
+     * @return A sorted list of files.
+     * @throws IOFailure On trouble generating the file list
+     */
+    private static List<String> findFilesForJob(int jobid, String harvestprefix) {
         FileBatchJob fileListJob = new FileListJob();
         List<String> acceptedPatterns = new ArrayList<String>();
         acceptedPatterns.add(".*" + jobid + ".*" + metadatafile_suffix);
@@ -101,6 +141,20 @@ public class Reporting {
         return lines;
     }
 
+    /**
+     * @param filenames A list of filenames.
+     * @return true, if one of the files is a metadata file.
+     */
+    private static boolean containsMetadataFile(List<String> filenames) {
+        Pattern metadataFile = Pattern.compile(".*" + metadatafile_suffix);
+        for (String filename : filenames) {
+            if (metadataFile.matcher(filename).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Submit a batch job to generate cdx for all metadata files for a job, and report result in a list.
      *
@@ -111,40 +165,57 @@ public class Reporting {
      */
     public static List<CDXRecord> getMetadataCDXRecordsForJob(long jobid) {
         ArgumentNotValid.checkPositive(jobid, "jobid");
-        FileBatchJob cdxJob = new ArchiveExtractCDXJob(false) {
+        JobMetadataCache cache = JobMetadataCache.getInstance();
+        if (cache != null) {
+            JobMetadataStore store = cache.getStore(jobid);
+            if (store == null) {
+                return new ArrayList<CDXRecord>();
+            }
+            try {
+                return new ArrayList<CDXRecord>(store.getMetadataCDXRecords());
+            } finally {
+                cache.release(store);
+            }
+        }
+        FileBatchJob cdxJob = makeMetadataCDXJob();
+        cdxJob.processOnlyFilesMatching(".*"+jobid + ".*" + metadatafile_suffix);
+
+        // The records of each bitarchive are read as soon as they arrive, while the others are still running.
+        final List<CDXRecord> records = new ArrayList<CDXRecord>();
+        ArcRepositoryClientFactory.getViewerInstance().batch(cdxJob, Settings.get(CommonSettings.USE_REPLICA_ID),
+                new BatchResultPartHandler() {
+                    @Override
+                    public void handleResultPart(String bitarchiveID, RemoteFile resultPart) {
+                        BufferedReader reader = null;
+                        try {
+                            reader = new BufferedReader(new InputStreamReader(resultPart.getInputStream()));
+                            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                                String[] parts = line.split("\\s+");
+                                CDXRecord record = new CDXRecord(parts);
+                                records.add(record);
+                            }
+                        } catch (IOException e) {
+                            throw new IOFailure("Unable to read results of bitarchive '" + bitarchiveID + "'", e);
+                        } finally {
+                            IOUtils.closeQuietly(reader);
+                        }
+                    }
+                });
+        return records;
+    }
+
+    /**
+     * Make a batch job generating cdx for the records of metadata files.
+     *
+     * @return The batch job.
+     */
+    static FileBatchJob makeMetadataCDXJob() {
+        return new ArchiveExtractCDXJob(false) {
             @Override
             public ArchiveBatchFilter getFilter() {
                 return ArchiveBatchFilter.EXCLUDE_NON_WARCINFO_RECORDS;
             }
         };
-        cdxJob.processOnlyFilesMatching(".*"+jobid + ".*" + metadatafile_suffix);
-
-        File f;
-        try {
-            f = File.createTempFile(jobid + "-reports", ".cdx", FileUtils.getTempDir());
-        } catch (IOException e) {
-            throw new IOFailure("Could not create temporary file", e);
-        }
-        BatchStatus status = ArcRepositoryClientFactory.getViewerInstance().batch(cdxJob,
-                Settings.get(CommonSettings.USE_REPLICA_ID));
-        status.getResultFile().copyTo(f);
-        List<CDXRecord> records;
-        BufferedReader reader = null;
-        try {
-            reader = new BufferedReader(new FileReader(f));
-            records = new ArrayList<CDXRecord>();
-            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
-                String[] parts = line.split("\\s+");
-                CDXRecord record = new CDXRecord(parts);
-                records.add(record);
-            }
-        } catch (IOException e) {
-            throw new IOFailure("Unable to read results from file '" + f + "'", e);
-        } finally {
-            IOUtils.closeQuietly(reader);
-            FileUtils.remove(f);
-        }
-        return records;
     }
 
     /**
@@ -158,11 +229,56 @@ public class Reporting {
     public static File getCrawlLogForDomainInJob(String domain, int jobid) {
         ArgumentNotValid.checkPositive(jobid, "jobid");
         ArgumentNotValid.checkNotNullOrEmpty(domain, "String domain");
+        JobMetadataCache cache = JobMetadataCache.getInstance();
+        if (cache != null) {
+            JobMetadataStore store = cache.getStore(jobid);
+            File f = createResultFile();
+            if (store != null) {
+                try {
+                    store.writeCrawlLogForDomain(domain, f);
+                } finally {
+                    cache.release(store);
+                }
+            }
+            return f;
+        }
         FileBatchJob urlsForDomainBatchJob = new HarvestedUrlsForDomainBatchJob(domain);
         urlsForDomainBatchJob.processOnlyFilesMatching(".*"+jobid + ".*" + metadatafile_suffix);
         return getResultFile(urlsForDomainBatchJob);
     }
 
+    /**
+     * Get a page of the part of a crawl log that is associated with the given domain and job.
+     *
+     * @param domain The domain to get crawl.log-lines for.
+     * @param jobid The jobid to get the crawl.log-lines for.
+     * @param regexp A regular expression the lines must match, or null for all lines.
+     * @param offset The number of lines to skip.
+     * @param limit The maximum number of lines to return.
+     * @return The crawl.log lines, sorted on timestamp.
+     * @throws ArgumentNotValid On negative jobids, offset or limit, or if domain is null or the empty string.
+     */
+    public static List<String> getCrawlLogForDomainInJob(String domain, int jobid, String regexp, int offset,
+            int limit) {
+        ArgumentNotValid.checkPositive(jobid, "jobid");
+        ArgumentNotValid.checkNotNullOrEmpty(domain, "String domain");
+        ArgumentNotValid.checkNotNegative(offset, "int offset");
+        ArgumentNotValid.checkNotNegative(limit, "int limit");
+        JobMetadataCache cache = JobMetadataCache.getInstance();
+        if (cache != null) {
+            JobMetadataStore store = cache.getStore(jobid);
+            if (store == null) {
+                return new ArrayList<String>();
+            }
+            try {
+                return store.getCrawlLogForDomain(domain, regexp, offset, limit);
+            } finally {
+                cache.release(store);
+            }
+        }
+        return readPage(getCrawlLogForDomainInJob(domain, jobid), regexp, offset, limit);
+    }
+
     /**
      * Helper method to get result from a batchjob.
      *
@@ -199,9 +315,98 @@ public class Reporting {
     public static File getCrawlLoglinesMatchingRegexp(int jobid, String regexp) {
         ArgumentNotValid.checkPositive(jobid, "jobid");
         ArgumentNotValid.checkNotNullOrEmpty(regexp, "String regexp");
+        JobMetadataCache cache = JobMetadataCache.getInstance();
+        if (cache != null) {
+            JobMetadataStore store = cache.getStore(jobid);
+            File f = createResultFile();
+            if (store != null) {
+                try {
+                    store.writeCrawlLogLinesMatching(regexp, f);
+                } finally {
+                    cache.release(store);
+                }
+            }
+            return f;
+        }
         FileBatchJob crawlLogBatchJob = new CrawlLogLinesMatchingRegexp(regexp);
         crawlLogBatchJob.processOnlyFilesMatching(".*"+jobid + ".*" + metadatafile_suffix);
         return getResultFile(crawlLogBatchJob);
     }
 
+    /**
+     * Return a page of the crawllog lines for a given jobid matching the given regular expression.
+     *
+     * @param jobid The jobid
+     * @param regexp A regular expression
+     * @param offset The number of matching lines to skip.
+     * @param limit The maximum number of lines to return.
+     * @return The matching lines, sorted on timestamp.
+     */
+    public static List<String> getCrawlLoglinesMatchingRegexp(int jobid, String regexp, int offset, int limit) {
+        ArgumentNotValid.checkPositive(jobid, "jobid");
+        ArgumentNotValid.checkNotNullOrEmpty(regexp, "String regexp");
+        ArgumentNotValid.checkNotNegative(offset, "int offset");
+        ArgumentNotValid.checkNotNegative(limit, "int limit");
+        JobMetadataCache cache = JobMetadataCache.getInstance();
+        if (cache != null) {
+            JobMetadataStore store = cache.getStore(jobid);
+            if (store == null) {
+                return new ArrayList<String>();
+            }
+            try {
+                return store.getCrawlLogLinesMatching(regexp, offset, limit);
+            } finally {
+                cache.release(store);
+            }
+        }
+        return readPage(getCrawlLoglinesMatchingRegexp(jobid, regexp), null, offset, limit);
+    }
+
+    /**
+     * @return A new, empty temporary file for a result.
+     */
+    private static File createResultFile() {
+        try {
+            File f = File.createTempFile("temp", UUID.randomUUID().toString() + "-sorted.txt",
+                    FileUtils.getTempDir());
+            f.deleteOnExit();
+            return f;
+        } catch (IOException e) {
+            throw new IOFailure("Unable to create temporary file", e);
+        }
+    }
+
+    /**
+     * Read a page of lines from a result file, and delete the file.
+     *
+     * @param f The result file.
+     * @param regexp A regular expression the lines must match, or null for all lines.
+     * @param offset The number of matching lines to skip.
+     * @param limit The maximum number of lines to return.
+     * @return The lines.
+     */
+    private static List<String> readPage(File f, String regexp, int offset, int limit) {
+        Pattern pattern = regexp == null ? null : Pattern.compile(regexp);
+        List<String> page = new ArrayList<String>();
+        int skipped = 0;
+        try {
+            for (String line : FileUtils.readListFromFile(f)) {
+                if (page.size() >= limit) {
+                    break;
+                }
+                if (pattern != null && !pattern.matcher(line).matches()) {
+                    continue;
+                }
+                if (skipped < offset) {
+                    skipped++;
+                } else {
+                    page.add(line);
+                }
+            }
+        } finally {
+            FileUtils.remove(f);
+        }
+        return page;
+    }
+
 }
@@ -22,14 +22,22 @@
  */
 package dk.netarkivet.harvester.harvesting.metadata;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.junit.Assert;
 import org.junit.Before;
@@ -38,6 +46,7 @@ import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import org.junit.rules.TestName;
 import org.jwat.common.ANVLRecord;
+import org.jwat.warc.WarcDigest;
 
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.SlowTest;
@@ -112,6 +121,65 @@ public class MetadataFileWriterTester {
         }
     }
 
+    @Test
+    public void testSinglePassRecordWriterCompressed() throws Exception {
+        SecureRandom random = new SecureRandom();
+        final byte[] payload = new byte[100000];
+        random.nextBytes(payload);
+        final ByteArrayOutputStream headers = new ByteArrayOutputStream();
+        File warcFile = getOutputArcFile("record.warc.gz");
+        RandomAccessFile raf = new RandomAccessFile(warcFile, "rw");
+        try {
+            SinglePassRecordWriter.writeRecord(raf.getChannel(), new SinglePassRecordWriter.HeaderMaker() {
+                @Override
+                public byte[] makeHeader(WarcDigest blockDigest) throws IOException {
+                    byte[] header = ("WARC/1.0\r\nWARC-Block-Digest: " + blockDigest.toString() + "\r\n\r\n")
+                            .getBytes("ISO-8859-1");
+                    headers.reset();
+                    headers.write(header);
+                    return header;
+                }
+            }, new ByteArrayInputStream(payload), payload.length, true);
+        } finally {
+            raf.close();
+        }
+        String expectedDigest = SinglePassRecordWriter.makeDigest(MessageDigest.getInstance("SHA1").digest(payload))
+                .toString();
+        Assert.assertTrue("Header should hold the digest of the payload",
+                new String(headers.toByteArray(), "ISO-8859-1").contains(expectedDigest));
+
+        GZIPInputStream in = new GZIPInputStream(new FileInputStream(warcFile));
+        byte[] content;
+        try {
+            content = IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(headers.toByteArray());
+        expected.write(payload);
+        expected.write("\r\n\r\n".getBytes("ISO-8859-1"));
+        Assert.assertArrayEquals("Record should decompress to header, payload and trailing newlines",
+                expected.toByteArray(), content);
+    }
+
+    @Test
+    public void testCombineCrc32() {
+        byte[] first = "The first part of the data".getBytes();
+        byte[] second = "and the second, somewhat longer part of the data".getBytes();
+        CRC32 crc = new CRC32();
+        crc.update(first);
+        long crc1 = crc.getValue();
+        crc.reset();
+        crc.update(second);
+        long crc2 = crc.getValue();
+        crc.reset();
+        crc.update(first);
+        crc.update(second);
+        Assert.assertEquals("Combined CRC should equal the CRC of the concatenation", crc.getValue(),
+                SinglePassRecordWriter.combineCrc32(crc1, crc2, second.length));
+    }
+
     /**
      * This is not run automatically, as this takes a long time to complete (15 seconds).
      */
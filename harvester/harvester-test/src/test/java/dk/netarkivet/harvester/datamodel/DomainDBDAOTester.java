@@ -34,6 +34,7 @@ import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
@@ -121,6 +122,47 @@ public class DomainDBDAOTester extends DataModelTestCase {
         assertEquals("defaultvalue2", efv.getContent());
     }
 
+    /**
+     * Test that updating a domain updates its stored extended field values instead of adding new ones, and that the
+     * values of several domains are read at once, with defaults for the values not stored.
+     */
+    @Category(SlowTest.class)
+    @Test
+    public void testUpdateAndReadAllExtendedFields() {
+        ExtendedFieldDAO extDAO = ExtendedFieldDBDAO.getInstance();
+        extDAO.create(new ExtendedField(null, (long) ExtendedFieldTypes.DOMAIN, "Test", "12345", 1, true, 1,
+                "defaultvalue", "", ExtendedFieldConstants.MAXLEN_EXTF_NAME));
+
+        DomainDAO dao = DomainDAO.getInstance();
+        Domain d = Domain.getDefaultDomain(TestInfo.DOMAIN_NAME);
+        dao.create(d);
+
+        d = dao.read(TestInfo.DOMAIN_NAME);
+        d.updateExtendedFieldValue(Long.valueOf(1), "changed");
+        dao.update(d);
+        d = dao.read(TestInfo.DOMAIN_NAME);
+        dao.update(d);
+
+        Connection c = HarvestDBConnection.get();
+        try {
+            assertEquals("Updates should not add extended field values", 1, DBUtils.selectLongValue(c,
+                    "SELECT COUNT(*) FROM extendedfieldvalue WHERE instance_id = ?", d.getID()).longValue());
+        } finally {
+            HarvestDBConnection.release(c);
+        }
+
+        Long otherId = dao.read("netarkivet.dk").getID();
+        Map<Long, List<ExtendedFieldValue>> values = ExtendedFieldValueDAO.getInstance().readAll(
+                ExtendedFieldTypes.DOMAIN, Arrays.asList(d.getID(), otherId));
+        assertEquals(2, values.size());
+        assertEquals(1, values.get(d.getID()).size());
+        assertEquals("changed", values.get(d.getID()).get(0).getContent());
+        assertNotNull(values.get(d.getID()).get(0).getExtendedFieldValueID());
+        assertEquals(1, values.get(otherId).size());
+        assertEquals("defaultvalue", values.get(otherId).get(0).getContent());
+        assertEquals(otherId, values.get(otherId).get(0).getInstanceID());
+    }
+
     /**
      * Test that a bad update doesn't kill the DB.
      *
@@ -456,6 +498,50 @@ public class DomainDBDAOTester extends DataModelTestCase {
         }
     }
 
+    /**
+     * Unittest for the methods getConfigurationLimits and addHarvestInfos.
+     */
+    @Category(SlowTest.class)
+    @Test
+    public void testAddHarvestInfos() {
+        HarvestDefinitionDAO hdDao = HarvestDefinitionDAO.getInstance();
+        HarvestDefinition hd = hdDao.read(Long.valueOf(42));
+        DefaultJobGenerator jobGen = new DefaultJobGenerator();
+        jobGen.generateJobs(hd);
+        Job j = JobDBDAO.getInstance().getAll().next();
+        String theDomainName = "netarkivet.dk";
+        String configName = j.getDomainConfigurationMap().get(theDomainName);
+
+        DomainDAO dao = DomainDAO.getInstance();
+        Map<String, DomainConfigurationLimits> limits = dao.getConfigurationLimits(j.getJobID());
+        assertEquals("Should have the limits of all configurations of the job", j.getDomainConfigurationMap()
+                .size(), limits.size());
+        DomainConfiguration config = dao.getDomainConfiguration(theDomainName, configName);
+        assertEquals("Should have the configuration of the job", configName, limits.get(theDomainName)
+                .getConfigurationName());
+        assertEquals("Should have the byte limit of the configuration", config.getMaxBytes(),
+                limits.get(theDomainName).getMaxBytes());
+        assertEquals("Should have the object limit of the configuration", config.getMaxObjects(),
+                limits.get(theDomainName).getMaxObjects());
+
+        long edition = dao.read(theDomainName).getEdition();
+        List<HarvestInfo> infos = new ArrayList<HarvestInfo>();
+        infos.add(new HarvestInfo(j.getOrigHarvestDefinitionID(), j.getJobID(), theDomainName, configName,
+                new Date(), 10000L, 64L, StopReason.OBJECT_LIMIT));
+        infos.add(new HarvestInfo(j.getOrigHarvestDefinitionID(), j.getJobID(), theDomainName, "notinjob",
+                new Date(), 10000L, 64L, StopReason.OBJECT_LIMIT));
+        assertEquals("Should only add the info of the configuration in the job", 1, dao.addHarvestInfos(infos));
+        assertEquals("Should not add the info again", 0, dao.addHarvestInfos(infos));
+
+        HarvestInfo hi = dao.getDomainJobInfo(j, theDomainName, configName);
+        assertNotNull("Should find the added info", hi);
+        assertEquals("Should have the stop reason", StopReason.OBJECT_LIMIT, hi.getStopReason());
+        assertEquals("Should have the object count", 64L, hi.getCountObjectRetrieved());
+        Domain d = dao.read(theDomainName);
+        assertEquals("Should have increased the edition of the domain", edition + 1, d.getEdition());
+        dao.update(d);
+    }
+
     @Category(SlowTest.class)
     @Test
     public void testGetDomainHarvestInfo() {
@@ -0,0 +1,124 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
+
+/**
+ * Unit tests for the DomainSearchIndex.
+ */
+public class DomainSearchIndexTester extends DataModelTestCase {
+
+    private static final File INDEX_DIR = new File(TestInfo.TEMPDIR, "domainsearchindex");
+
+    private DomainSearchIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        DomainDAO dao = DomainDAO.getInstance();
+        for (String name : Arrays.asList("dailynews.dk", "newsroom.dk", "sportsnyt.dk")) {
+            Domain d = Domain.getDefaultDomain(name);
+            d.setComments("Comments on " + name);
+            dao.create(d);
+        }
+        index = new DomainSearchIndex(INDEX_DIR);
+        Connection c = HarvestDBConnection.get();
+        try {
+            index.build(c);
+        } finally {
+            HarvestDBConnection.release(c);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        index.close();
+        FileUtils.removeRecursively(INDEX_DIR);
+        super.tearDown();
+    }
+
+    @Test
+    public void testSearchMatchesLikeQuery() {
+        assertTrue("Should be built", index.isBuilt());
+        assertEquals("Should find the names containing 'news'", Arrays.asList("dailynews.dk", "newsroom.dk"),
+                index.search("*news*", DomainSearchIndex.NAME_FIELD));
+        assertEquals("Should match the entire name", Arrays.asList("newsroom.dk"),
+                index.search("news*", DomainSearchIndex.NAME_FIELD));
+        assertEquals("Should match ? as one character", Arrays.asList("sportsnyt.dk"),
+                index.search("sports?yt.dk", DomainSearchIndex.NAME_FIELD));
+        assertEquals("Should search the comments", Arrays.asList("newsroom.dk"),
+                index.search("*on newsroom*", "COMMENTS"));
+        assertEquals("Should be case sensitive like the database", Collections.emptyList(),
+                index.search("*NEWS*", DomainSearchIndex.NAME_FIELD));
+    }
+
+    @Test
+    public void testCanSearch() {
+        assertTrue("Should search globs with a trigram", index.canSearch("*new*", DomainSearchIndex.NAME_FIELD));
+        assertFalse("Should not search globs without a trigram", index.canSearch("*ne*w*", "name"));
+        assertFalse("Should not search fields that are not indexed", index.canSearch("*news*", "alias"));
+    }
+
+    @Test
+    public void testUpdateIsSearchable() {
+        index.update("sportsnyt.dk", "http://sportsnyt.dk/calendar/.*", "Now with a calendar");
+        assertEquals("Should find the new crawlertrap", Arrays.asList("sportsnyt.dk"),
+                index.search("*calendar*", DomainSearchIndex.CRAWLERTRAPS_FIELD));
+        assertEquals("Should not find the old comments", Collections.emptyList(),
+                index.search("*on sportsnyt*", DomainSearchIndex.COMMENTS_FIELD));
+    }
+
+    /**
+     * Test that the DAO searches the database if the index cannot be opened, here because the directory is locked by
+     * the index of the test.
+     */
+    @Test
+    public void testDAOSearchesDatabaseIfIndexCannotBeOpened() {
+        Settings.set(HarvesterSettings.DOMAIN_SEARCH_INDEX_DIR, INDEX_DIR.getAbsolutePath());
+        DomainDAO.resetSingleton();
+        DomainDAO dao = DomainDAO.getInstance();
+        assertEquals("Should find the names containing 'news' in the database",
+                new HashSet<String>(Arrays.asList("dailynews.dk", "newsroom.dk")),
+                new HashSet<String>(dao.getDomains("*news*")));
+        assertEquals("Should find the comments in the database", Arrays.asList("newsroom.dk"),
+                dao.getDomains("*on newsroom*", "COMMENTS"));
+    }
+
+}
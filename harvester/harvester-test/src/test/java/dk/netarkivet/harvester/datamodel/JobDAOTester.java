@@ -52,9 +52,11 @@ import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.IllegalState;
 import dk.netarkivet.common.exceptions.UnknownID;
+import dk.netarkivet.common.utils.DBUtils;
 import dk.netarkivet.common.utils.SlowTest;
 import dk.netarkivet.harvester.test.utils.OrderXmlBuilder;
 import dk.netarkivet.harvester.webinterface.DomainDefinition;
+import dk.netarkivet.harvester.webinterface.HarvestStatus;
 import dk.netarkivet.harvester.webinterface.HarvestStatusQuery;
 import dk.netarkivet.harvester.webinterface.HarvestStatusTester;
 
@@ -413,6 +415,41 @@ public class JobDAOTester extends DataModelTestCase {
         checkInfoCorrect(job4, info);
     }
 
+    /**
+     * Test that pages can be found after a given job, and that the total follows changes to the jobs.
+     */
+    @Test
+    public void testGetStatusInfoAfterJobId() throws Exception {
+        Job job1 = createDefaultJobInDB(5);
+        Job job2 = createDefaultJobInDB(5);
+        Job job3 = createDefaultJobInDB(5);
+
+        Map<String, String[]> params = new HashMap<>();
+        params.put(HarvestStatusQuery.UI_FIELD.HARVEST_ID.name(),
+                new String[] {Long.toString(job1.getOrigHarvestDefinitionID())});
+        params.put(HarvestStatusQuery.UI_FIELD.HARVEST_RUN.name(), new String[] {"5"});
+        params.put(HarvestStatusQuery.UI_FIELD.JOB_ID_ORDER.name(),
+                new String[] {HarvestStatusQuery.SORT_ORDER.ASC.name()});
+        params.put(HarvestStatusQuery.UI_FIELD.PAGE_SIZE.name(), new String[] {"2"});
+        HarvestStatusQuery query = HarvestStatusTester.getTestQuery(params);
+        HarvestStatus status = jobDAO.getStatusInfo(query);
+        assertEquals("Should count all jobs", 3, status.getFullResultsCount());
+        assertEquals("Should get a full first page", 2, status.getJobStatusInfo().size());
+        assertTrue("Should have a next page", status.hasMoreResults());
+        assertEquals("Should end the page with the second job", job2.getJobID(), status.getLastJobId());
+
+        query.setAfterJobId(status.getLastJobId());
+        status = jobDAO.getStatusInfo(query);
+        assertEquals("Should get the last job on the second page", 1, status.getJobStatusInfo().size());
+        assertEquals("Should get the third job", (long) job3.getJobID(), status.getJobStatusInfo().get(0).getJobID());
+        assertFalse("Should have no next page", status.hasMoreResults());
+
+        createDefaultJobInDB(5);
+        query.setAfterJobId(null);
+        status = jobDAO.getStatusInfo(query);
+        assertEquals("Should count the new job at once", 4, status.getFullResultsCount());
+    }
+
     private void checkInfoCorrect(Job j, JobStatusInfo info) {
         HarvestDefinitionDAO hddao = HarvestDefinitionDAO.getInstance();
         assertEquals("Info should be for job " + j.getJobID(), j.getJobID(), j.getJobID());
@@ -534,6 +571,59 @@ public class JobDAOTester extends DataModelTestCase {
         assertEquals("Should get previous full harvests' job ids in list", expected, result);
     }
 
+    /**
+     * Tests that a job added to one of the previous harvests is included in the jobs to use for duplicate reduction.
+     */
+    @Test
+    public void testGetJobIDsForDuplicateReductionAfterReschedule() throws Exception {
+        createTestJobs(1L, 14L);
+
+        List<Long> result = jobDAO.getJobIDsForDuplicateReduction(10L);
+        Collections.sort(result);
+        assertEquals("Should get originating harvests' job ids in list", Arrays.asList(new Long[] {7L, 8L}), result);
+
+        Job previousJob = jobDAO.read(7L);
+        previousJob.setStatus(JobStatus.SUBMITTED);
+        jobDAO.update(previousJob);
+        long newJobID = jobDAO.rescheduleJob(7L);
+
+        result = jobDAO.getJobIDsForDuplicateReduction(10L);
+        Collections.sort(result);
+        assertEquals("Should include the rescheduled job of the originating harvest",
+                Arrays.asList(new Long[] {7L, 8L, newJobID}), result);
+    }
+
+    /**
+     * Tests that the jobs to use for duplicate reduction follow a change of fullharvests.previoushd made directly in
+     * the database, as when another application sharing the database (e.g. the GUI) changes a harvest definition.
+     */
+    @Test
+    public void testGetJobIDsForDuplicateReductionAfterPreviousHarvestChanged() throws Exception {
+        createTestJobs(1L, 14L);
+
+        List<Long> result = jobDAO.getJobIDsForDuplicateReduction(14L);
+        Collections.sort(result);
+        assertEquals("Should get previous full harvests' job ids in list",
+                Arrays.asList(new Long[] {7L, 8L, 9L, 10L, 11L, 12L}), result);
+
+        Long harvestId = jobDAO.read(14L).getOrigHarvestDefinitionID();
+        PreparedStatement s = null;
+        Connection c = HarvestDBConnection.get();
+        try {
+            s = c.prepareStatement("UPDATE fullharvests SET previoushd = NULL WHERE harvest_id = ?");
+            s.setLong(1, harvestId);
+            assertEquals("Should update the harvest of job 14", 1, s.executeUpdate());
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+            HarvestDBConnection.release(c);
+        }
+
+        result = jobDAO.getJobIDsForDuplicateReduction(14L);
+        Collections.sort(result);
+        assertEquals("Should only get the jobs of the chain before, once the harvest is based on nothing",
+                Arrays.asList(new Long[] {11L, 12L}), result);
+    }
+
     private void compareCopiedJob(Job oldJob1, Job newJob1, Long newID) {
         assertEquals("Should have same domain count", oldJob1.getCountDomains(), newJob1.getCountDomains());
         assertEquals("Should have same domain config map", oldJob1.getDomainConfigurationMap(),
@@ -22,18 +22,30 @@
  */
 package dk.netarkivet.harvester.indexserver;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
+import is.hi.bok.deduplicator.DigestIndexer;
 import dk.netarkivet.testutils.LogbackRecorder;
 import dk.netarkivet.testutils.ReflectUtils;
 
@@ -120,4 +132,109 @@ public class CrawlLogIndexCacheTester extends CacheTestCase {
         lr.stopRecorder();
     }
 
+    /**
+     * Test that a sorted crawl.log and CDX file are split into parts at the same URLs, without losing lines and
+     * without splitting the entries of one URL.
+     */
+    @Test
+    public void testSplitSortedCrawlLogAndCDX() throws IOException {
+        List<File> crawlLogParts = new ArrayList<File>();
+        List<File> cdxParts = new ArrayList<File>();
+        File sortedCdx = CrawlLogIndexCache.getSortedCDX(TestInfo.CDX_CACHE_1);
+        try {
+            CrawlLogIndexCache.splitSortedCrawlLog(TestInfo.CRAWL_LOG_1_SORTED, 3, crawlLogParts);
+            assertTrue("Should split into several parts, but no more than asked for", crawlLogParts.size() > 1
+                    && crawlLogParts.size() <= 3);
+            List<String> firstURLs = new ArrayList<String>();
+            List<String> crawlLogLines = new ArrayList<String>();
+            String lastURL = null;
+            for (File part : crawlLogParts) {
+                List<String> lines = FileUtils.readListFromFile(part);
+                assertFalse("No part should be empty", lines.isEmpty());
+                String firstURL = lines.get(0).split("\\s+")[3];
+                if (lastURL != null) {
+                    assertFalse("The entries of a URL should not be split", firstURL.equals(lastURL));
+                    firstURLs.add(firstURL);
+                }
+                lastURL = lines.get(lines.size() - 1).split("\\s+")[3];
+                crawlLogLines.addAll(lines);
+            }
+            assertEquals("The parts should hold the crawl.log", FileUtils.readListFromFile(TestInfo.CRAWL_LOG_1_SORTED),
+                    crawlLogLines);
+
+            CrawlLogIndexCache.splitSortedCDX(sortedCdx, firstURLs, cdxParts);
+            assertEquals("Should split the CDX into as many parts", crawlLogParts.size(), cdxParts.size());
+            List<String> cdxLines = new ArrayList<String>();
+            for (int i = 0; i < cdxParts.size(); i++) {
+                for (String line : FileUtils.readListFromFile(cdxParts.get(i))) {
+                    String url = line.split("\\s+")[0];
+                    assertTrue("CDX line should not go before its part", i == 0
+                            || url.compareTo(firstURLs.get(i - 1)) >= 0);
+                    assertTrue("CDX line should not go after its part", i == firstURLs.size()
+                            || url.compareTo(firstURLs.get(i)) < 0);
+                    cdxLines.add(line);
+                }
+            }
+            assertEquals("The parts should hold the CDX", FileUtils.readListFromFile(sortedCdx), cdxLines);
+        } finally {
+            FileUtils.remove(sortedCdx);
+            for (File part : crawlLogParts) {
+                FileUtils.remove(part);
+            }
+            for (File part : cdxParts) {
+                FileUtils.remove(part);
+            }
+        }
+    }
+
+    /**
+     * Test that indexing a crawl.log in parts at the same time gives the same index as indexing it in one go.
+     */
+    @Test
+    public void testIndexFileInParts() throws IOException {
+        DigestOptions options = new DigestOptions(true, false, "^text/.*");
+        File singleDir = new File(TestInfo.WORKING_DIR, "single");
+        File partsDir = new File(TestInfo.WORKING_DIR, "parts");
+
+        Settings.set(HarvesterSettings.INDEXSERVER_INDEXING_THREADS_PER_JOB, "1");
+        DigestIndexer indexer = CrawlLogIndexCache.createStandardIndexer(singleDir.getAbsolutePath());
+        CrawlLogIndexCache.indexFile(1L, TestInfo.CRAWL_LOG_1, TestInfo.CDX_CACHE_1, indexer, options);
+        indexer.close();
+
+        Settings.set(HarvesterSettings.INDEXSERVER_INDEXING_THREADS_PER_JOB, "3");
+        Settings.set(HarvesterSettings.INDEXSERVER_INDEXING_MIN_PART_SIZE, "1");
+        assertEquals("Should split the crawl.log into parts", 3,
+                CrawlLogIndexCache.getNumberOfParts(TestInfo.CRAWL_LOG_1.length()));
+        indexer = CrawlLogIndexCache.createStandardIndexer(partsDir.getAbsolutePath());
+        CrawlLogIndexCache.indexFile(1L, TestInfo.CRAWL_LOG_1, TestInfo.CDX_CACHE_1, indexer, options);
+        indexer.close();
+
+        Set<String> entries = readEntries(singleDir);
+        assertFalse("Should index some entries", entries.isEmpty());
+        assertEquals("Indexing in parts should give the same entries", entries, readEntries(partsDir));
+    }
+
+    /**
+     * Read the URL, digest and origin of all documents in an index.
+     *
+     * @param indexDir The directory of the index.
+     * @return A string for each document.
+     */
+    private Set<String> readEntries(File indexDir) throws IOException {
+        Set<String> entries = new HashSet<String>();
+        Directory dir = FSDirectory.open(indexDir);
+        DirectoryReader reader = DirectoryReader.open(dir);
+        try {
+            for (int i = 0; i < reader.maxDoc(); i++) {
+                Document doc = reader.document(i);
+                entries.add(doc.get(DigestIndexer.FIELD_URL) + " " + doc.get(DigestIndexer.FIELD_DIGEST) + " "
+                        + doc.get(DigestIndexer.FIELD_ORIGIN));
+            }
+        } finally {
+            reader.close();
+            dir.close();
+        }
+        return entries;
+    }
+
 }
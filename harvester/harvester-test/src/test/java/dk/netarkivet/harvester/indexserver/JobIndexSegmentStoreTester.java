@@ -0,0 +1,143 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Unit tests for the JobIndexSegmentStore class.
+ */
+public class JobIndexSegmentStoreTester extends CacheTestCase {
+
+    private JobIndexSegmentStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        store = new JobIndexSegmentStore(new File(TestInfo.WORKING_DIR, "segments"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    @Test
+    public void testPublishAndReuse() {
+        assertFalse("No segment should exist before publishing", store.hasSegment(42L));
+        File buildDir = makeBuildDir(42L);
+        File segmentDir = store.publish(42L, buildDir);
+        assertTrue("Segment should exist after publishing", store.hasSegment(42L));
+        assertEquals("Segment should be placed in the job directory", store.getSegmentDir(42L), segmentDir);
+        assertFalse("Build directory should have been moved", buildDir.exists());
+        assertTrue("Stored job IDs should contain the published job", store.getStoredJobIds().contains(42L));
+
+        // A second build of the same job is discarded
+        File secondBuildDir = makeBuildDir(42L);
+        assertEquals("Second publish should return the existing segment", segmentDir,
+                store.publish(42L, secondBuildDir));
+        assertFalse("Second build directory should be discarded", secondBuildDir.exists());
+    }
+
+    @Test
+    public void testReferenceCounting() {
+        store.publish(1L, makeBuildDir(1L));
+        assertEquals("Publishing should register a user", 1, store.getReferenceCount(1L));
+        store.acquire(1L);
+        assertEquals("Should count both users", 2, store.getReferenceCount(1L));
+        assertFalse("Should not remove a segment in use", store.remove(1L));
+        store.release(1L);
+        store.release(1L);
+        assertEquals("Should have no users left", 0, store.getReferenceCount(1L));
+        assertTrue("Should remove an unused segment", store.remove(1L));
+        assertFalse("Segment should be gone", store.hasSegment(1L));
+        try {
+            store.acquire(1L);
+            fail("Acquiring a missing segment should throw IOFailure");
+        } catch (IOFailure e) {
+            // expected
+        }
+        assertNull("Trying to acquire a missing segment should give null", store.tryAcquire(1L));
+        assertEquals("Should not count a user of a missing segment", 0, store.getReferenceCount(1L));
+    }
+
+    @Test
+    public void testEvict() {
+        long now = System.currentTimeMillis();
+        for (long jobId = 1; jobId <= 4; jobId++) {
+            store.publish(jobId, makeBuildDir(jobId));
+            store.release(jobId);
+            // Job 1 was used longest ago
+            store.getSegmentDir(jobId).setLastModified(now - 100000L * (5 - jobId));
+        }
+        long segmentSize = store.getSegmentSize(1L);
+        assertEquals("Store size should be the sum of the segment sizes", 4 * segmentSize, store.getSize());
+
+        assertEquals("Nothing should be removed from a store below the limit", 0, store.evict(4 * segmentSize));
+
+        // Using job 1 makes job 2 the one used longest ago, but job 2 is in use as well.
+        store.acquire(1L);
+        store.release(1L);
+        store.acquire(2L);
+        assertEquals("Should remove the unused segment used longest ago", 1, store.evict(3 * segmentSize));
+        assertEquals(new TreeSet<Long>(Arrays.asList(1L, 2L, 4L)), store.getStoredJobIds());
+
+        assertEquals("Should only remove unused segments", 2, store.evict(0L));
+        assertEquals(Collections.singleton(2L), store.getStoredJobIds());
+        store.release(2L);
+        assertEquals(1, store.evict(0L));
+        assertEquals(0L, store.getSize());
+    }
+
+    @Test
+    public void testUnfinishedBuildsRemovedOnStartup() {
+        File buildDir = makeBuildDir(7L);
+        store = new JobIndexSegmentStore(store.getStoreDir());
+        assertFalse("Unfinished build should be removed", buildDir.exists());
+        assertTrue("Store should be empty", store.getStoredJobIds().isEmpty());
+    }
+
+    private File makeBuildDir(Long jobId) {
+        File buildDir = store.createBuildDir(jobId);
+        FileUtils.createDir(buildDir);
+        FileUtils.writeBinaryFile(new File(buildDir, "segments.gen"), new byte[] {1, 2, 3});
+        return buildDir;
+    }
+
+}
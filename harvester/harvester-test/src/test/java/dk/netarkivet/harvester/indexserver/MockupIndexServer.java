@@ -24,7 +24,9 @@ package dk.netarkivet.harvester.indexserver;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.jms.Message;
 import javax.jms.MessageListener;
@@ -36,6 +38,7 @@ import dk.netarkivet.common.distribute.JMSConnectionFactory;
 import dk.netarkivet.common.distribute.RemoteFile;
 import dk.netarkivet.common.distribute.RemoteFileFactory;
 import dk.netarkivet.common.distribute.indexserver.RequestType;
+import dk.netarkivet.common.utils.ChecksumCalculator;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.harvester.indexserver.distribute.IndexRequestMessage;
 import dk.netarkivet.testutils.preconfigured.TestConfigurationIF;
@@ -46,6 +49,7 @@ import dk.netarkivet.testutils.preconfigured.TestConfigurationIF;
 public class MockupIndexServer implements TestConfigurationIF, MessageListener {
     private File resultFile;
     private boolean responseOK = true;
+    private boolean uncompressedDelivery = false;
     private List<IndexRequestMessage> msgs = new ArrayList<IndexRequestMessage>();
     private String origDir;
 
@@ -75,6 +79,16 @@ public class MockupIndexServer implements TestConfigurationIF, MessageListener {
         responseOK = isOk;
     }
 
+    /**
+     * Answer requests for uncompressed delivery with the files of the result directory as they are, leaving out those
+     * the requester holds already. Other requests are answered as usual.
+     *
+     * @param uncompressedDelivery Whether to deliver uncompressed indices.
+     */
+    public void setUncompressedDelivery(boolean uncompressedDelivery) {
+        this.uncompressedDelivery = uncompressedDelivery;
+    }
+
     public void resetMsgList() {
         msgs.clear();
     }
@@ -87,7 +101,20 @@ public class MockupIndexServer implements TestConfigurationIF, MessageListener {
         IndexRequestMessage irm = (IndexRequestMessage) JMSConnection.unpack(message);
         msgs.add(irm);
         irm.setFoundJobs(irm.getRequestedJobs());
-        if (irm.getRequestType() == RequestType.CDX) {
+        if (uncompressedDelivery && irm.isUncompressedDeliveryRequested()) {
+            Map<String, String> checksums = new LinkedHashMap<String, String>();
+            List<RemoteFile> resultFiles = new ArrayList<RemoteFile>();
+            for (File f : resultFile.listFiles()) {
+                if (f.isFile()) {
+                    String checksum = ChecksumCalculator.calculateMd5(f);
+                    checksums.put(f.getName(), checksum);
+                    if (!irm.getKnownChecksums().contains(checksum)) {
+                        resultFiles.add(RemoteFileFactory.getInstance(f, true, false, true));
+                    }
+                }
+            }
+            irm.setUncompressedResultFiles(checksums, resultFiles);
+        } else if (irm.getRequestType() == RequestType.CDX) {
             RemoteFile resultFile = RemoteFileFactory.getInstance(this.resultFile, true, false, true);
             irm.setResultFile(resultFile);
         } else {
@@ -0,0 +1,110 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Unit tests for the UncompressedIndexes class.
+ */
+public class UncompressedIndexesTester extends CacheTestCase {
+
+    private File cacheFile;
+    private File luceneDir;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        cacheFile = new File(TestInfo.WORKING_DIR, "index");
+        luceneDir = new File(TestInfo.WORKING_DIR, "index.luceneDir");
+        FileUtils.createDir(luceneDir);
+        FileUtils.writeBinaryFile(new File(luceneDir, "segments.gen"), new byte[] {1, 2, 3});
+        FileUtils.writeBinaryFile(new File(luceneDir, "_0.cfs"), new byte[] {4, 5, 6, 7});
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    @Test
+    public void testStoreAndReadManifest() {
+        assertNull("Should have no manifest before storing", UncompressedIndexes.readManifest(cacheFile));
+        String checksum = ChecksumCalculator.calculateMd5(new File(luceneDir, "_0.cfs"));
+
+        UncompressedIndexes.store(luceneDir, cacheFile);
+        assertFalse("The index should be moved", luceneDir.exists());
+        File rawDir = UncompressedIndexes.getRawIndexDir(cacheFile);
+        assertTrue("The index should be kept in the raw directory", new File(rawDir, "_0.cfs").isFile());
+
+        Map<String, String> manifest = UncompressedIndexes.readManifest(cacheFile);
+        assertEquals("Manifest should list every index file", Arrays.asList("_0.cfs", "segments.gen"),
+                Arrays.asList(manifest.keySet().toArray()));
+        assertEquals("Manifest should hold the checksum of the file", checksum, manifest.get("_0.cfs"));
+    }
+
+    @Test
+    public void testStoreKeepsExistingIndex() {
+        UncompressedIndexes.store(luceneDir, cacheFile);
+        Map<String, String> manifest = UncompressedIndexes.readManifest(cacheFile);
+
+        File otherDir = new File(TestInfo.WORKING_DIR, "other.luceneDir");
+        FileUtils.createDir(otherDir);
+        FileUtils.writeBinaryFile(new File(otherDir, "segments.gen"), new byte[] {9});
+        UncompressedIndexes.store(otherDir, cacheFile);
+        assertEquals("A present index should not be replaced", manifest, UncompressedIndexes.readManifest(cacheFile));
+    }
+
+    @Test
+    public void testReadManifest() {
+        UncompressedIndexes.store(luceneDir, cacheFile);
+        FileUtils.removeRecursively(UncompressedIndexes.getRawIndexDir(cacheFile));
+        assertNull("An index without its files should be ignored", UncompressedIndexes.readManifest(cacheFile));
+
+        FileUtils.createDir(UncompressedIndexes.getRawIndexDir(cacheFile));
+        FileUtils.writeCollectionToFile(UncompressedIndexes.getManifestFile(cacheFile), Arrays.asList("_0.cfs"));
+        try {
+            UncompressedIndexes.readManifest(cacheFile);
+            fail("A malformed manifest should give an IOFailure");
+        } catch (IOFailure e) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver.distribute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.distribute.indexserver.RequestType;
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.indexserver.MockupIndexServer;
+import dk.netarkivet.testutils.ReflectUtils;
+import dk.netarkivet.testutils.preconfigured.MockupJMS;
+import dk.netarkivet.testutils.preconfigured.MoveTestFiles;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+import dk.netarkivet.testutils.preconfigured.UseTestRemoteFile;
+
+/**
+ * Tests of the uncompressed index delivery of the IndexRequestClient.
+ */
+public class IndexRequestClientUncompressedDeliveryTester {
+
+    private UseTestRemoteFile ulrf = new UseTestRemoteFile();
+    private MoveTestFiles mtf = new MoveTestFiles(TestInfo.ORIGINALS_DIR, TestInfo.WORKING_DIR);
+    private MockupJMS mjms = new MockupJMS();
+    private MockupIndexServer mis;
+    private ReloadSettings rs = new ReloadSettings();
+
+    @Before
+    public void setUp() {
+        rs.setUp();
+        Settings.set(CommonSettings.CACHE_DIR, new File(TestInfo.WORKING_DIR, "cache").getAbsolutePath());
+        Settings.set(CommonSettings.DIR_COMMONTEMPDIR,
+                new File(TestInfo.WORKING_DIR, "commontempdir").getAbsolutePath());
+        Settings.set(IndexRequestClient.INDEXREQUEST_UNCOMPRESSED_DELIVERY, "true");
+        ulrf.setUp();
+        mjms.setUp();
+        mtf.setUp();
+        mis = new MockupIndexServer(mtf.working(TestInfo.DUMMY_CACHEDIR));
+        mis.setUncompressedDelivery(true);
+        mis.setUp();
+    }
+
+    @After
+    public void tearDown() throws NoSuchFieldException, IllegalAccessException {
+        mis.tearDown();
+        mtf.tearDown();
+        mjms.tearDown();
+        ulrf.tearDown();
+        Field f = ReflectUtils.getPrivateField(IndexRequestClient.class, "clients");
+        f.set(null, new EnumMap<RequestType, IndexRequestClient>(RequestType.class));
+        f = ReflectUtils.getPrivateField(IndexRequestClient.class, "synchronizer");
+        f.set(null, null);
+        rs.tearDown();
+    }
+
+    /**
+     * Test that an index is delivered with its files unchanged, and that files held from an earlier index are not
+     * transferred again.
+     */
+    @Test
+    public void testUncompressedDelivery() throws IOException {
+        File servedFile = mtf.working(TestInfo.DUMMY_CACHEFILE);
+        String checksum = ChecksumCalculator.calculateMd5(servedFile);
+        IndexRequestClient client = IndexRequestClient.getInstance(RequestType.DEDUP_CRAWL_LOG);
+
+        File result = client.getIndex(new HashSet<Long>(Arrays.asList(2L, 3L, 5L))).getIndexFile();
+        List<IndexRequestMessage> sent = mis.getMsgList();
+        assertEquals("Should send exactly one request to the index server", 1, sent.size());
+        assertTrue("Should ask for uncompressed delivery", sent.get(0).isUncompressedDeliveryRequested());
+        assertTrue("Should hold no index files yet", sent.get(0).getKnownChecksums().isEmpty());
+        assertEquals("Should receive the index file", 1, sent.get(0).getResultFiles().size());
+        assertTrue("Result should be directory", result.isDirectory());
+        assertEquals("Index file should be delivered unchanged", FileUtils.readFile(servedFile),
+                FileUtils.readFile(new File(result, servedFile.getName())));
+
+        mis.resetMsgList();
+        Set<Long> otherJobs = new HashSet<Long>(Arrays.asList(2L, 3L));
+        File otherResult = client.getIndex(otherJobs).getIndexFile();
+        assertEquals("Should send exactly one request to the index server", 1, sent.size());
+        assertEquals("Should tell the index server about the file held", Collections.singleton(checksum), sent.get(0)
+                .getKnownChecksums());
+        assertTrue("Should not receive the file held again", sent.get(0).getResultFiles().isEmpty());
+        assertEquals("Index should be assembled from the file held", FileUtils.readFile(servedFile),
+                FileUtils.readFile(new File(otherResult, servedFile.getName())));
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver.distribute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.PriorityBlockingQueue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.distribute.Channels;
+import dk.netarkivet.common.distribute.indexserver.RequestType;
+import dk.netarkivet.harvester.indexserver.IndexRequestState;
+import dk.netarkivet.testutils.preconfigured.MockupJMS;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+
+/**
+ * Unit tests for the IndexRequestTask class.
+ */
+public class IndexRequestTaskTester {
+    private static final Set<Long> JOB_SET = new HashSet<Long>(Arrays.asList(new Long[] {2L, 4L, 8L, 16L, 32L}));
+    private static final Set<Long> SMALL_JOB_SET = new HashSet<Long>(Arrays.asList(new Long[] {1L, 3L}));
+
+    private MockupJMS mjms = new MockupJMS();
+    private ReloadSettings rs = new ReloadSettings();
+    private IndexRequestServer server;
+
+    @Before
+    public void setUp() {
+        rs.setUp();
+        mjms.setUp();
+        server = IndexRequestServer.getInstance();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        mjms.tearDown();
+        rs.tearDown();
+    }
+
+    @Test
+    public void testKeyIgnoresOrderOfJobs() {
+        IndexRequestMessage msg1 = new IndexRequestMessage(RequestType.CDX, JOB_SET, null);
+        IndexRequestMessage msg2 = new IndexRequestMessage(RequestType.CDX, new TreeSet<Long>(JOB_SET), null);
+        IndexRequestMessage msg3 = new IndexRequestMessage(RequestType.DEDUP_CRAWL_LOG, JOB_SET, null);
+        assertEquals("Same type and jobs should give the same key", IndexRequestTask.makeKey(msg1),
+                IndexRequestTask.makeKey(msg2));
+        assertNotEquals("Different types should give different keys", IndexRequestTask.makeKey(msg1),
+                IndexRequestTask.makeKey(msg3));
+    }
+
+    @Test
+    public void testCoalesce() {
+        IndexRequestMessage msg1 = new IndexRequestMessage(RequestType.CDX, JOB_SET, null);
+        IndexRequestMessage msg2 = new IndexRequestMessage(RequestType.CDX, JOB_SET, null);
+        IndexRequestTask task = new IndexRequestTask(server, msg1);
+        assertEquals("New task should be queued", IndexRequestState.QUEUED, task.getState());
+        assertTrue("Should accept request while open", task.coalesce(msg2));
+        List<IndexRequestMessage> requests = task.close();
+        assertEquals("Should answer both requests", Arrays.asList(msg1, msg2), requests);
+        assertFalse("Should not accept requests after close", task.coalesce(msg2));
+    }
+
+    @Test
+    public void testOrdering() {
+        IndexRequestTask waiting = new IndexRequestTask(server, new IndexRequestMessage(RequestType.CDX, JOB_SET,
+                null));
+        IndexRequestTask prepared = new IndexRequestTask(server, new IndexRequestMessage(RequestType.CDX,
+                SMALL_JOB_SET, Channels.getThisIndexClient(), false, 1L));
+        IndexRequestTask small = new IndexRequestTask(server, new IndexRequestMessage(RequestType.CDX, SMALL_JOB_SET,
+                null));
+        IndexRequestTask later = new IndexRequestTask(server, new IndexRequestMessage(RequestType.CDX, JOB_SET, null));
+        assertTrue("Requests with waiting harvesters go first", waiting.compareTo(prepared) < 0);
+        assertTrue("Smaller job sets go first", small.compareTo(waiting) < 0);
+        assertTrue("Older requests go first", waiting.compareTo(later) < 0);
+    }
+
+    /**
+     * Test that a task for an index prepared in advance goes before the other prepared tasks, once a request from a
+     * waiting harvester is coalesced into it and it is queued again.
+     */
+    @Test
+    public void testRaisedPriority() {
+        IndexRequestTask older = new IndexRequestTask(server, new IndexRequestMessage(RequestType.CDX, SMALL_JOB_SET,
+                Channels.getThisIndexClient(), false, 1L));
+        IndexRequestTask prepared = new IndexRequestTask(server, new IndexRequestMessage(RequestType.CDX, JOB_SET,
+                Channels.getThisIndexClient(), false, 2L));
+        PriorityBlockingQueue<IndexRequestTask> queue = new PriorityBlockingQueue<IndexRequestTask>();
+        queue.add(older);
+        queue.add(prepared);
+        assertFalse("Prepared task should not be waited for", prepared.mustReturnIndex());
+
+        assertTrue("Should accept request while open", prepared.coalesce(new IndexRequestMessage(RequestType.CDX,
+                JOB_SET, null)));
+        assertTrue("Queued task should be removed", queue.remove(prepared));
+        prepared.setMustReturnIndex();
+        queue.add(prepared);
+
+        assertTrue("Task should now be waited for", prepared.mustReturnIndex());
+        assertTrue("Task with a waiting harvester should go first", prepared.compareTo(older) < 0);
+        assertEquals("Task with a waiting harvester should be taken first", prepared, queue.poll());
+    }
+
+}
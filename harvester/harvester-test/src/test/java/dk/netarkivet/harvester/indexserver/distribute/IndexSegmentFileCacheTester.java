@@ -0,0 +1,168 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver.distribute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.distribute.RemoteFile;
+import dk.netarkivet.common.distribute.TestRemoteFile;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.testutils.preconfigured.MoveTestFiles;
+
+/**
+ * Unit tests for the IndexSegmentFileCache class.
+ */
+public class IndexSegmentFileCacheTester {
+
+    private MoveTestFiles mtf = new MoveTestFiles(TestInfo.ORIGINALS_DIR, TestInfo.WORKING_DIR);
+
+    private IndexSegmentFileCache cache;
+    private File serverDir;
+    private File indexesDir;
+
+    @Before
+    public void setUp() {
+        mtf.setUp();
+        cache = new IndexSegmentFileCache(new File(TestInfo.WORKING_DIR, "segmentfiles"));
+        serverDir = new File(TestInfo.WORKING_DIR, "server");
+        indexesDir = new File(TestInfo.WORKING_DIR, "indexes");
+        FileUtils.createDir(serverDir);
+        FileUtils.createDir(indexesDir);
+    }
+
+    @After
+    public void tearDown() {
+        mtf.tearDown();
+    }
+
+    @Test
+    public void testAssemble() throws IOException {
+        Map<String, String> checksums = new LinkedHashMap<String, String>();
+        List<RemoteFile> files = new ArrayList<RemoteFile>();
+        addFile("shared.cfs", "shared", checksums, files);
+        addFile("segments_1", "first", checksums, files);
+        File firstIndex = new File(indexesDir, "1-2");
+        cache.assemble(checksums, files, firstIndex);
+        assertEquals("Index should be assembled", "shared", FileUtils.readFile(new File(firstIndex, "shared.cfs")));
+        assertEquals("Index should be assembled", "first", FileUtils.readFile(new File(firstIndex, "segments_1")));
+        assertEquals("Received files should be cached", new HashSet<String>(checksums.values()),
+                cache.getKnownChecksums());
+
+        // The second index shares a file with the first, which is not sent again.
+        Map<String, String> checksums2 = new LinkedHashMap<String, String>();
+        List<RemoteFile> files2 = new ArrayList<RemoteFile>();
+        addFile("shared.cfs", "shared", checksums2, files2);
+        addFile("segments_2", "second", checksums2, files2);
+        File secondIndex = new File(indexesDir, "1-3");
+        cache.assemble(checksums2, files2.subList(1, 2), secondIndex);
+        assertEquals("Index should use the cached file", "shared", FileUtils.readFile(new File(secondIndex,
+                "shared.cfs")));
+        assertEquals("Index should be assembled", "second", FileUtils.readFile(new File(secondIndex, "segments_2")));
+        assertEquals(3, cache.getKnownChecksums().size());
+    }
+
+    @Test
+    public void testAssembleWrongChecksum() {
+        Map<String, String> checksums = new LinkedHashMap<String, String>();
+        List<RemoteFile> files = new ArrayList<RemoteFile>();
+        addFile("segments_1", "first", checksums, files);
+        checksums.put("segments_1", ChecksumCalculator.calculateMd5("other".getBytes()));
+        File index = new File(indexesDir, "1");
+        try {
+            cache.assemble(checksums, files, index);
+            fail("A file with a wrong checksum should give an IOFailure");
+        } catch (IOFailure e) {
+            // expected
+        }
+        assertFalse("No index should be assembled", index.exists());
+        assertTrue("No file should be cached", cache.getKnownChecksums().isEmpty());
+    }
+
+    /**
+     * Test that cached files are kept exactly as long as an index directory using them exists, also when the index
+     * directory holds copies rather than links of the files.
+     */
+    @Test
+    public void testRemoveUnreferenced() {
+        Map<String, String> checksums = new LinkedHashMap<String, String>();
+        List<RemoteFile> files = new ArrayList<RemoteFile>();
+        addFile("shared.cfs", "shared", checksums, files);
+        addFile("segments_1", "first", checksums, files);
+        File firstIndex = new File(indexesDir, "1-2");
+        cache.assemble(checksums, files, firstIndex);
+        Map<String, String> checksums2 = new LinkedHashMap<String, String>();
+        List<RemoteFile> files2 = new ArrayList<RemoteFile>();
+        addFile("shared.cfs", "shared", checksums2, files2);
+        addFile("segments_2", "second", checksums2, files2);
+        File secondIndex = new File(indexesDir, "1-3");
+        cache.assemble(checksums2, files2, secondIndex);
+
+        // Replace the links of the second index by copies, as if it was assembled on another file system.
+        for (File f : secondIndex.listFiles()) {
+            File copy = new File(serverDir, "copy");
+            FileUtils.copyFile(f, copy);
+            FileUtils.remove(f);
+            FileUtils.moveFile(copy, f);
+        }
+        assertEquals("Nothing should be removed while all indices exist", 0, cache.removeUnreferenced());
+        assertEquals(3, cache.getKnownChecksums().size());
+
+        FileUtils.removeRecursively(firstIndex);
+        assertEquals("Only the file unique to the removed index should be removed", 1, cache.removeUnreferenced());
+        assertEquals(new HashSet<String>(Arrays.asList(checksums2.get("shared.cfs"), checksums2.get("segments_2"))),
+                cache.getKnownChecksums());
+
+        FileUtils.removeRecursively(secondIndex);
+        assertEquals(2, cache.removeUnreferenced());
+        assertTrue(cache.getKnownChecksums().isEmpty());
+    }
+
+    /**
+     * Make a file on the "server" with the given content, and add it to the manifest and the received files.
+     */
+    private void addFile(String name, String content, Map<String, String> checksums, List<RemoteFile> files) {
+        File f = new File(serverDir, name);
+        FileUtils.writeBinaryFile(f, content.getBytes());
+        checksums.put(name, ChecksumCalculator.calculateMd5(f));
+        files.add(new TestRemoteFile(f, false, false, false));
+    }
+
+}
@@ -0,0 +1,243 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.viewerproxy.webinterface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.arcrepository.TrivialArcRepositoryClient;
+import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClientFactory;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.testutils.ReflectUtils;
+import dk.netarkivet.testutils.TestFileUtils;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+import dk.netarkivet.testutils.preconfigured.UseTestRemoteFile;
+
+/**
+ * Unit tests for the JobMetadataCache. Jobs 2, 3 and 4 have the same metadata file in the archive, so their stores
+ * have the same size.
+ */
+public class JobMetadataCacheTester {
+    private UseTestRemoteFile utrf = new UseTestRemoteFile();
+    private ReloadSettings rs = new ReloadSettings();
+    private TrivialArcRepositoryClient tarc;
+    private File working = new File("tests/dk/netarkivet/viewerproxy/data/working");
+    private File tempdir = new File(working, "commontempdir");
+    private File cacheDir = new File(working, "qacache");
+    private File dir;
+    /** The size of the store of one job. */
+    private long storeSize;
+
+    @Before
+    public void setUp() throws Exception {
+        rs.setUp();
+        utrf.setUp();
+        working.mkdirs();
+        Settings.set(CommonSettings.DIR_COMMONTEMPDIR, tempdir.getAbsolutePath());
+        Settings.set(CommonSettings.ARC_REPOSITORY_CLIENT, TrivialArcRepositoryClient.class.getName());
+        ArcRepositoryClientFactory.getViewerInstance().close();
+        tarc = (TrivialArcRepositoryClient) ArcRepositoryClientFactory.getViewerInstance();
+        dir = (File) ReflectUtils.getPrivateField(TrivialArcRepositoryClient.class, "dir").get(tarc);
+        TestFileUtils.copyDirectoryNonCVS(TestInfo.ORIGINALS_DIR, dir);
+        for (String job : Arrays.asList("3", "4")) {
+            FileUtils.copyFile(new File(dir, "2-metadata-1.arc"), new File(dir, job + "-metadata-1.arc"));
+        }
+
+        File sizeDir = new File(working, "sizecache");
+        JobMetadataCache cache = new JobMetadataCache(sizeDir, Long.MAX_VALUE, 0L);
+        JobMetadataStore store = cache.getStore(2);
+        storeSize = store.getSize();
+        cache.release(store);
+        FileUtils.removeRecursively(sizeDir);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (tarc != null) {
+            tarc.close();
+        }
+        if (dir != null && dir.isDirectory()) {
+            FileUtils.removeRecursively(dir);
+        }
+        FileUtils.removeRecursively(working);
+        utrf.tearDown();
+        rs.tearDown();
+    }
+
+    /**
+     * Test that a store is built once and then reused, and that jobs without metadata files have no store.
+     */
+    @Test
+    public void testStoreIsBuiltOnce() {
+        JobMetadataCache cache = new JobMetadataCache(cacheDir, Long.MAX_VALUE, 0L);
+        assertNull("Should have no store before it is built", cache.getStoreIfPresent(2));
+        JobMetadataStore store = cache.getStore(2);
+        assertNotNull("Should build the store", store);
+        cache.release(store);
+        JobMetadataStore again = cache.getStore(2);
+        assertSame("Should reuse the store", store, again);
+        cache.release(again);
+        assertEquals("Should count the size of the store", storeSize, cache.getTotalSize());
+        assertNull("Should have no store for a job without metadata files", cache.getStore(5));
+        assertEquals("Should only keep the store and nothing from the build", 1, cacheDir.listFiles().length);
+    }
+
+    /**
+     * Test that the stores used longest ago are removed when the cache grows too large.
+     */
+    @Test
+    public void testLeastRecentlyUsedStoresAreEvicted() {
+        JobMetadataCache cache = new JobMetadataCache(cacheDir, storeSize * 2 + storeSize / 2, 0L);
+        JobMetadataStore store2 = cache.getStore(2);
+        cache.release(store2);
+        JobMetadataStore store3 = cache.getStore(3);
+        cache.release(store3);
+        cache.release(cache.getStoreIfPresent(2));
+
+        JobMetadataStore store4 = cache.getStore(4);
+        cache.release(store4);
+        assertFalse("The store used longest ago should be removed", store3.getDir().exists());
+        assertNull("The store used longest ago should be gone from the cache", cache.getStoreIfPresent(3));
+        assertTrue("The store used recently should be kept", store2.isValid());
+        assertTrue("The new store should be kept", store4.isValid());
+        assertEquals("Should count the size of the stores kept", storeSize * 2, cache.getTotalSize());
+    }
+
+    /**
+     * Test that a store in use is not removed from the disk, neither when the cache is too large nor when the store is
+     * replaced, until it is released.
+     */
+    @Test
+    public void testStoresInUseAreKept() throws InterruptedException {
+        JobMetadataCache cache = new JobMetadataCache(cacheDir, storeSize + storeSize / 2, 0L);
+        JobMetadataStore store2 = cache.getStore(2);
+        JobMetadataStore store3 = cache.getStore(3);
+        assertTrue("A store in use should not be evicted", store2.isValid());
+        assertTrue("A store in use should not be evicted", store3.isValid());
+        cache.release(store2);
+        assertFalse("A store should be evicted when released", store2.getDir().exists());
+        assertTrue("A store in use should not be evicted", store3.isValid());
+        cache.release(store3);
+        assertEquals("Should count the size of the store kept", storeSize, cache.getTotalSize());
+
+        cache = new JobMetadataCache(new File(working, "expiring"), Long.MAX_VALUE, 1L);
+        JobMetadataStore old = cache.getStore(2);
+        Thread.sleep(10);
+        JobMetadataStore rebuilt = cache.getStore(2);
+        assertNotSame("An expired store should be built again", old, rebuilt);
+        assertFalse("The new store should have a directory of its own", old.getDir().equals(rebuilt.getDir()));
+        assertTrue("The expired store should be kept while in use", old.isValid());
+        assertEquals("Should count the size of both stores", storeSize * 2, cache.getTotalSize());
+        cache.release(old);
+        assertFalse("The expired store should be removed when released", old.getDir().exists());
+        assertTrue("The new store should be kept", rebuilt.isValid());
+        cache.release(rebuilt);
+        assertEquals("Should count the size of the new store", storeSize, cache.getTotalSize());
+    }
+
+    /**
+     * Test that a store does not expire when no maximum age is set.
+     */
+    @Test
+    public void testStoresDoNotExpireWithoutMaxAge() throws InterruptedException {
+        JobMetadataCache cache = new JobMetadataCache(cacheDir, Long.MAX_VALUE, 0L);
+        JobMetadataStore store = cache.getStore(2);
+        cache.release(store);
+        Thread.sleep(10);
+        JobMetadataStore again = cache.getStore(2);
+        assertSame("The store should be reused", store, again);
+        cache.release(again);
+    }
+
+    /**
+     * Test that the size of a store is recounted when it grows, and that the cache is kept below its maximum size.
+     */
+    @Test
+    public void testUpdateSize() {
+        JobMetadataCache cache = new JobMetadataCache(cacheDir, storeSize * 2 + 100, 0L);
+        JobMetadataStore store2 = cache.getStore(2);
+        cache.release(store2);
+        JobMetadataStore store3 = cache.getStore(3);
+        char[] name = new char[200];
+        Arrays.fill(name, 'x');
+        store3.putFileList("3-1", Arrays.asList(new String(name)));
+        assertEquals("Should not count the new size before told", storeSize * 2, cache.getTotalSize());
+        cache.updateSize(store3);
+        assertTrue("The store should have grown", store3.getSize() > storeSize);
+        assertFalse("The other store should be removed to make room", store2.getDir().exists());
+        assertEquals("Should count the size of the grown store", store3.getSize(), cache.getTotalSize());
+        cache.release(store3);
+        assertTrue("The grown store should be kept", store3.isValid());
+    }
+
+    /**
+     * Test that a new cache keeps the complete stores on disk, in the order they were built, and removes anything
+     * else.
+     */
+    @Test
+    public void testReopenFromDisk() {
+        JobMetadataCache cache = new JobMetadataCache(cacheDir, Long.MAX_VALUE, 0L);
+        JobMetadataStore store2 = cache.getStore(2);
+        cache.release(store2);
+        JobMetadataStore store3 = cache.getStore(3);
+        cache.release(store3);
+        new File(store2.getDir(), JobMetadataStore.COMPLETE_MARKER).setLastModified(System.currentTimeMillis() - 2000);
+        File download = new File(cacheDir, "4-1.download");
+        FileUtils.createDir(download);
+        FileUtils.writeBinaryFile(new File(download, "4-metadata-1.arc"), new byte[10]);
+        File incomplete = new File(cacheDir, "4-2");
+        FileUtils.createDir(incomplete);
+        FileUtils.writeBinaryFile(new File(incomplete, "crawl.log"), new byte[10]);
+        File other = new File(cacheDir, "other");
+        FileUtils.writeBinaryFile(other, new byte[10]);
+
+        cache = new JobMetadataCache(cacheDir, Long.MAX_VALUE, 0L);
+        assertFalse("Should remove downloads", download.exists());
+        assertFalse("Should remove incomplete stores", incomplete.exists());
+        assertFalse("Should remove other files", other.exists());
+        JobMetadataStore reopened = cache.getStoreIfPresent(2);
+        assertNotNull("Should keep complete stores", reopened);
+        assertEquals("Should reopen the store in its directory", store2.getDir(), reopened.getDir());
+        cache.release(reopened);
+        assertEquals("Should count the size of the stores", storeSize * 2, cache.getTotalSize());
+
+        cache = new JobMetadataCache(cacheDir, storeSize + storeSize / 2, 0L);
+        assertFalse("Should remove the store built first", store2.getDir().exists());
+        assertTrue("Should keep the store built last", store3.isValid());
+    }
+
+}
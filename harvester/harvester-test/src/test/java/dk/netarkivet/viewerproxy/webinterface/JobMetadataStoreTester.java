@@ -0,0 +1,129 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.viewerproxy.webinterface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+
+/**
+ * Unit tests for the JobMetadataStore, built from the metadata file of job 2.
+ */
+public class JobMetadataStoreTester {
+    private ReloadSettings rs = new ReloadSettings();
+    private File working = new File("tests/dk/netarkivet/viewerproxy/data/working");
+    private File storeDir = new File(working, "2-1");
+    private File[] metadataFiles;
+
+    @Before
+    public void setUp() throws Exception {
+        rs.setUp();
+        working.mkdirs();
+        Settings.set(CommonSettings.DIR_COMMONTEMPDIR, new File(working, "commontempdir").getAbsolutePath());
+        File metadataFile = new File(working, "2-metadata-1.arc");
+        FileUtils.copyFile(new File(TestInfo.ORIGINALS_DIR, "2-metadata-1.arc"), metadataFile);
+        metadataFiles = new File[] {metadataFile};
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.removeRecursively(working);
+        rs.tearDown();
+    }
+
+    /**
+     * Test that a store can be reopened once complete, and only then.
+     */
+    @Test
+    public void testBuildAndOpen() {
+        FileUtils.createDir(storeDir);
+        assertNull("Should not open an incomplete store", JobMetadataStore.open(2, storeDir));
+
+        JobMetadataStore store = JobMetadataStore.build(2, storeDir, metadataFiles);
+        assertTrue("The store should be valid", store.isValid());
+        assertTrue("The store should know when it was built", store.getBuildTime() > 0);
+        assertEquals("Should have the CDX records of the metadata file", 18, store.getMetadataCDXRecords().size());
+
+        JobMetadataStore reopened = JobMetadataStore.open(2, storeDir);
+        assertNotNull("Should open a complete store", reopened);
+        assertEquals("Should read the same CDX records", store.getMetadataCDXRecords().size(), reopened
+                .getMetadataCDXRecords().size());
+        assertEquals("Should read the same domain index", store.getCrawlLogForDomain("kaarefc.dk", null, 0, 100),
+                reopened.getCrawlLogForDomain("kaarefc.dk", null, 0, 100));
+        assertEquals("Should have the same size", store.getSize(), reopened.getSize());
+
+        FileUtils.removeRecursively(storeDir);
+        assertFalse("A removed store should not be valid", store.isValid());
+    }
+
+    /**
+     * Test the crawl.log lines found for a domain, as for the batch job in ReportingTester.
+     */
+    @Test
+    public void testCrawlLogForDomain() {
+        JobMetadataStore store = JobMetadataStore.build(2, storeDir, metadataFiles);
+        List<String> lines = store.getCrawlLogForDomain("kaarefc.dk", null, 0, Integer.MAX_VALUE);
+        assertEquals("Should have 44 lines (1 dns, 40 kaarefc.dk, 3 others)", 44, lines.size());
+        assertEquals("Should page the lines", lines.subList(40, 44), store.getCrawlLogForDomain("kaarefc.dk", null,
+                40, 10));
+        assertEquals("Should have 126 lines for netarkivet.dk", 126,
+                store.getCrawlLogForDomain("netarkivet.dk", null, 0, Integer.MAX_VALUE).size());
+        assertTrue("Should have no lines for an unknown domain",
+                store.getCrawlLogForDomain("doesnotexist.dk", null, 0, 10).isEmpty());
+
+        File f = new File(working, "kaarefc.txt");
+        store.writeCrawlLogForDomain("kaarefc.dk", f);
+        assertEquals("Should write the same lines", lines, FileUtils.readListFromFile(f));
+    }
+
+    /**
+     * Test that file lists are stored by harvest prefix, and counted in the size of the store.
+     */
+    @Test
+    public void testFileLists() {
+        JobMetadataStore store = JobMetadataStore.build(2, storeDir, metadataFiles);
+        long size = store.getSize();
+        assertNull("Should have no file list before one is stored", store.getFileList("2-1"));
+        List<String> files = Arrays.asList("2-1-20080601120000-00000-dev.arc", "2-metadata-1.arc");
+        store.putFileList("2-1", files);
+        assertEquals("Should get the stored list", files, store.getFileList("2-1"));
+        assertNull("Should have no file list for another prefix", store.getFileList("2-2"));
+        assertTrue("The file list should count in the size", store.getSize() > size);
+    }
+
+}
@@ -27,6 +27,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.junit.After;
@@ -40,6 +41,7 @@ import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.cdx.CDXRecord;
+import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.testutils.CollectionAsserts;
 import dk.netarkivet.testutils.ReflectUtils;
 import dk.netarkivet.testutils.StringAsserts;
@@ -193,4 +195,38 @@ public class ReportingTester {
         assertEquals("Should be empty, no job 4", 0, lines.size());
     }
 
+    /**
+     * Tests that the paged queries give the same lines as the full results, and that the results are the same with
+     * and without the local store of the job metadata.
+     */
+    @Test
+    public void testPagedCrawlLogQueries() throws Exception {
+        List<String> all = FileUtils.readListFromFile(Reporting.getCrawlLogForDomainInJob("netarkivet.dk", 2));
+        assertEquals("Should page the crawl.log lines of the domain", all.subList(10, 15),
+                Reporting.getCrawlLogForDomainInJob("netarkivet.dk", 2, null, 10, 5));
+
+        List<String> dnsLines = new ArrayList<String>();
+        for (String line : all) {
+            if (line.matches(".*dns:.*")) {
+                dnsLines.add(line);
+            }
+        }
+        assertTrue("Should have dns lines for the domain", dnsLines.size() > 0);
+        assertEquals("Should filter the crawl.log lines of the domain", dnsLines,
+                Reporting.getCrawlLogForDomainInJob("netarkivet.dk", 2, ".*dns:.*", 0, all.size()));
+
+        List<String> matching = FileUtils.readListFromFile(Reporting.getCrawlLoglinesMatchingRegexp(2, ".*dns:.*"));
+        assertEquals("Should page the matching crawl.log lines", matching.subList(1, matching.size()),
+                Reporting.getCrawlLoglinesMatchingRegexp(2, ".*dns:.*", 1, matching.size()));
+        List<CDXRecord> records = Reporting.getMetadataCDXRecordsForJob(2);
+
+        Settings.set(HarvesterSettings.QA_CACHE_MAX_SIZE, "0");
+        assertEquals("Should find the same domain lines with batch jobs", all,
+                FileUtils.readListFromFile(Reporting.getCrawlLogForDomainInJob("netarkivet.dk", 2)));
+        assertEquals("Should find the same matching lines with batch jobs", matching,
+                FileUtils.readListFromFile(Reporting.getCrawlLoglinesMatchingRegexp(2, ".*dns:.*")));
+        assertEquals("Should find the same number of CDX records with batch jobs", records.size(),
+                Reporting.getMetadataCDXRecordsForJob(2).size());
+    }
+
 }
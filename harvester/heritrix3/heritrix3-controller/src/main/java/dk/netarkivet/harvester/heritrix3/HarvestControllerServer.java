@@ -83,6 +83,11 @@ import dk.netarkivet.harvester.harvesting.metadata.MetadataEntry;
  * harvestInfo files to attempt upload of files not yet uploaded. Then it begins to listen again after new jobs, if
  * there is enough room available on the machine. If not, it logs a warning about this, which is also sent as a
  * notification.
+ * <p>
+ * If {@link Heritrix3Settings#MAX_PENDING_POSTPROCESSING} is positive, the post-processing of a finished crawl is
+ * handed to a background worker, and the server begins to listen for the next job at once, provided no more than that
+ * number of jobs await post-processing. Each job awaiting post-processing reserves the minimum free space on top of
+ * the space required to start a job.
  */
 public class HarvestControllerServer extends HarvesterMessageHandler implements CleanupIF {
 
@@ -101,6 +106,9 @@ public class HarvestControllerServer extends HarvesterMessageHandler implements
     /** Min. space required to start a job. */
     private final long minSpaceRequired;
 
+    /** Max. number of finished crawls whose post-processing may be pending while crawling. 0 for no overlap. */
+    private final int maxPendingPostProcessing;
+
     /** The JMSConnection to use. */
     private JMSConnection jmsConnection;
 
@@ -159,6 +167,14 @@ public class HarvestControllerServer extends HarvesterMessageHandler implements
             throw new ArgumentNotValid("Wrong setting of minSpaceLeft read from Settings: " + minSpaceRequired);
         }
         log.info("Harvesting requires at least {} bytes free.", minSpaceRequired);
+        maxPendingPostProcessing = Settings.getInt(Heritrix3Settings.MAX_PENDING_POSTPROCESSING);
+        if (maxPendingPostProcessing < 0) {
+            throw new ArgumentNotValid("Wrong setting of maxPendingJobs read from Settings: "
+                    + maxPendingPostProcessing);
+        }
+        if (maxPendingPostProcessing > 0) {
+            log.info("Post-processing of up to {} jobs may be done while crawling.", maxPendingPostProcessing);
+        }
 
         // Get JMS-connection
         // Channel THIS_CLIENT is only used for replies to store messages so
@@ -454,7 +470,11 @@ public class HarvestControllerServer extends HarvesterMessageHandler implements
                     crawlException = e;
                     throw new IOFailure(msg, e);
                 } finally {
-                	postProcessing.doPostProcessing(files.getCrawlDir(), crawlException);
+                    if (maxPendingPostProcessing > 0) {
+                        postProcessing.doPostProcessingInBackground(files.getCrawlDir(), crawlException);
+                    } else {
+                        postProcessing.doPostProcessing(files.getCrawlDir(), crawlException);
+                    }
                 }
             } catch (Throwable t) {
                 String msg = "Fatal error while operating job '" + job + "'";
@@ -464,6 +484,9 @@ public class HarvestControllerServer extends HarvesterMessageHandler implements
                 log.info("Ending crawl of job : {}", job.getJobID());
                 // process serverdir for files not yet uploaded.
                 postProcessing.processOldJobs();
+                if (maxPendingPostProcessing > 0) {
+                    postProcessing.awaitRoomForNextJob(maxPendingPostProcessing, serverDir, minSpaceRequired);
+                }
                 shutdownNowOrContinue();
                 startAcceptingJobs();
                 beginListeningIfSpaceAvailable();
@@ -478,6 +501,8 @@ public class HarvestControllerServer extends HarvesterMessageHandler implements
             File shutdownFile = new File(serverDir, "shutdown.txt");
             if (shutdownFile.exists()) {
                 log.info("Found shutdown-file in serverdir - " + "shutting down the application");
+                // Jobs not post-processed before exit are processed as old jobs on the next start
+                postProcessing.awaitPendingAtMost(0);
                 instance.cleanup();
                 System.exit(0);
             }
@@ -172,4 +172,13 @@ public class Heritrix3Settings {
      * @see HarvestDocumentation#documentHarvest(dk.netarkivet.harvester.harvesting.IngestableFiles)
      */
     public static String METADATA_ARCHIVE_FILES_REPORT_HEADER = "settings.harvester.harvesting.metadata.archiveFilesReport.fileHeader";
+
+    /**
+     * <b>settings.harvester.harvesting.postProcessing.maxPendingJobs</b> The number of finished crawls whose
+     * post-processing (metadata, upload and reporting) may still be pending when the harvester starts its next crawl.
+     * Post-processing is then done by a background worker, one job at a time. Each pending job adds
+     * {@link dk.netarkivet.harvester.HarvesterSettings#HARVEST_SERVERDIR_MINSPACE} to the free space required before
+     * accepting the next job. The default value 0 post-processes each job before the next one is accepted.
+     */
+    public static String MAX_PENDING_POSTPROCESSING = "settings.harvester.harvesting.postProcessing.maxPendingJobs";
 }
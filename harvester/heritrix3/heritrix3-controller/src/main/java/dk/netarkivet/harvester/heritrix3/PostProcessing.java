@@ -24,7 +24,12 @@ package dk.netarkivet.harvester.heritrix3;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +40,7 @@ import dk.netarkivet.common.distribute.arcrepository.HarvesterArcRepositoryClien
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.ExceptionUtils;
+import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.NotificationType;
 import dk.netarkivet.common.utils.NotificationsFactory;
 import dk.netarkivet.common.utils.Settings;
@@ -55,6 +61,9 @@ public class PostProcessing {
     /** The max time to wait for heritrix to close last ARC or WARC files (in secs). */
     private static final int WAIT_FOR_HERITRIX_TIMEOUT_SECS = 5;
 
+    /** The max time to wait for the background worker to finish the job being post-processed at cleanup (in secs). */
+    private static final int WAIT_FOR_WORKER_TIMEOUT_SECS = 60;
+
     /** The JMSConnection to use. */
     private JMSConnection jmsConnection;
 
@@ -64,10 +73,18 @@ public class PostProcessing {
     /** The singleton instance of this class. Calling cleanup() on the instance will null this field. */
     private static PostProcessing instance;
 
+    /** The crawldirs of the jobs handed to the background worker and not yet post-processed. Also used as lock. */
+    private final Set<String> pendingCrawlDirs = new HashSet<String>();
+
+    /** The worker post-processing jobs in the background. Created when first needed. */
+    private ExecutorService worker;
+
     /**
-     * Private constructor controlled by getInstance().
+     * Constructor controlled by getInstance(). Package private to allow subclasses in tests.
+     *
+     * @param jmsConnection The JMSConnection to send crawl status messages to.
      */
-    private PostProcessing(JMSConnection jmsConnection) {
+    PostProcessing(JMSConnection jmsConnection) {
         arcRepController = ArcRepositoryClientFactory.getHarvesterInstance();
         this.jmsConnection = jmsConnection;
     }
@@ -88,8 +105,30 @@ public class PostProcessing {
      * Clean up this singleton, releasing the ArcRepositoryClient and removing the instance. This instance should not be
      * used after this method has been called. After this has been called, new calls to getInstance will return a new
      * instance.
+     * <p>
+     * Jobs handed to the background worker are given a limited time to be post-processed. Jobs not done by then keep
+     * their harvestInfo, and are post-processed by {@link #processOldJobs()} on the next start.
      */
     public void cleanup() {
+        ExecutorService stoppingWorker;
+        synchronized (pendingCrawlDirs) {
+            stoppingWorker = worker;
+            worker = null;
+        }
+        if (stoppingWorker != null) {
+            stoppingWorker.shutdown();
+            try {
+                if (!stoppingWorker.awaitTermination(WAIT_FOR_WORKER_TIMEOUT_SECS, TimeUnit.SECONDS)) {
+                    log.warn("Post-processing of {} jobs not done within {} seconds. They are left for the next start",
+                            getPendingCount(), WAIT_FOR_WORKER_TIMEOUT_SECS);
+                }
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while waiting for post-processing. {} jobs are left for the next start",
+                        getPendingCount());
+                Thread.currentThread().interrupt();
+            }
+            stoppingWorker.shutdownNow();
+        }
         if (arcRepController != null) {
             arcRepController.close();
         }
@@ -106,6 +145,8 @@ public class PostProcessing {
     /**
      * Looks for old job directories that await uploading of data.
      * The existence of the harvestInfo.xml in the 
+     * <p>
+     * Directories of jobs awaiting post-processing in the background are skipped.
      */
     public void processOldJobs() {
         // Search through all crawldirs and process PersistentJobData
@@ -114,6 +155,10 @@ public class PostProcessing {
         log.info("Looking for unprocessed crawldata in '{}'",crawlDir );
         File[] subdirs = crawlDir.listFiles();
         for (File oldCrawlDir : subdirs) {
+            if (isPending(oldCrawlDir)) {
+                log.debug("Skipping '{}', which awaits post-processing in the background", oldCrawlDir);
+                continue;
+            }
             if (PersistentJobData.existsIn(oldCrawlDir)) {
                 // Assume that crawl had not ended at this point so
                 // job must be marked as failed
@@ -127,6 +172,109 @@ public class PostProcessing {
         }
     }
 
+    /**
+     * Hand the post-processing of a crawldir to the background worker, which post-processes one job at a time. Until
+     * the job is done, {@link #processOldJobs()} leaves its crawldir alone.
+     *
+     * @param crawlDir The location of harvest-info to be processed
+     * @param crawlException any exceptions thrown by the crawl which need to be reported back to the scheduler (may be
+     * null for success)
+     */
+    public void doPostProcessingInBackground(final File crawlDir, final Throwable crawlException) {
+        ArgumentNotValid.checkNotNull(crawlDir, "File crawlDir");
+        synchronized (pendingCrawlDirs) {
+            if (worker == null) {
+                worker = Executors.newSingleThreadExecutor();
+            }
+            pendingCrawlDirs.add(crawlDir.getAbsolutePath());
+            log.info("Post-processing of '{}' will be done in the background. {} jobs are awaiting post-processing",
+                    crawlDir, pendingCrawlDirs.size());
+            worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        doPostProcessing(crawlDir, crawlException);
+                    } catch (Throwable t) {
+                        String msg = "Fatal error while post-processing files in '" + crawlDir.getAbsolutePath() + "'";
+                        log.error(msg, t);
+                        NotificationsFactory.getInstance().notify(msg, NotificationType.ERROR, t);
+                    } finally {
+                        synchronized (pendingCrawlDirs) {
+                            pendingCrawlDirs.remove(crawlDir.getAbsolutePath());
+                            pendingCrawlDirs.notifyAll();
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * @return The number of jobs handed to the background worker and not yet post-processed.
+     */
+    public int getPendingCount() {
+        synchronized (pendingCrawlDirs) {
+            return pendingCrawlDirs.size();
+        }
+    }
+
+    /**
+     * Wait until no more than the given number of jobs await post-processing in the background.
+     *
+     * @param maxPending The number of pending jobs to wait for.
+     * @return false, if interrupted while waiting, otherwise true.
+     */
+    public boolean awaitPendingAtMost(int maxPending) {
+        synchronized (pendingCrawlDirs) {
+            while (pendingCrawlDirs.size() > maxPending) {
+                log.info("Waiting for post-processing of {} jobs, until at most {} are left", pendingCrawlDirs.size(),
+                        maxPending);
+                try {
+                    pendingCrawlDirs.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Wait until no more than the given number of jobs await post-processing in the background, and until the free
+     * space in a directory covers both the space required to start a job and the space reserved for each pending job.
+     *
+     * @param maxPending The number of pending jobs allowed.
+     * @param dir The directory whose free space is checked.
+     * @param minSpaceRequired The space required to start a job, and reserved for each pending job, in bytes.
+     * @return false, if interrupted while waiting, otherwise true.
+     */
+    public boolean awaitRoomForNextJob(int maxPending, File dir, long minSpaceRequired) {
+        ArgumentNotValid.checkNotNull(dir, "File dir");
+        if (!awaitPendingAtMost(maxPending)) {
+            return false;
+        }
+        int pending = getPendingCount();
+        while (pending > 0 && FileUtils.getBytesFree(dir) <= minSpaceRequired * (pending + 1)) {
+            log.info("Not enough free space for the next job and the {} jobs awaiting post-processing", pending);
+            if (!awaitPendingAtMost(pending - 1)) {
+                return false;
+            }
+            pending = getPendingCount();
+        }
+        return true;
+    }
+
+    /**
+     * @param crawlDir A crawldir.
+     * @return true, if the crawldir awaits post-processing in the background.
+     */
+    private boolean isPending(File crawlDir) {
+        synchronized (pendingCrawlDirs) {
+            return pendingCrawlDirs.contains(crawlDir.getAbsolutePath());
+        }
+    }
+
     /**
      * Do postprocessing of data in a crawldir.</br>
      * 1. Retrieve jobID, and crawlDir from the harvestInfoFile using class PersistentJobData</br>
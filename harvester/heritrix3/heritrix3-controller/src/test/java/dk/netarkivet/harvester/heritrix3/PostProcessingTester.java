@@ -0,0 +1,306 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.heritrix3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.RememberNotifications;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
+import dk.netarkivet.testutils.TestResourceUtils;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+
+/**
+ * Unit tests for the post-processing of jobs in the background.
+ */
+public class PostProcessingTester {
+
+    /** The time allowed for the background worker to do something, in milliseconds. */
+    private static final long WAIT = 10000L;
+    /** The time given to a thread to show it is not done waiting, in milliseconds. */
+    private static final long BLOCKED = 200L;
+
+    @Rule
+    public TestName test = new TestName();
+
+    private ReloadSettings rs = new ReloadSettings();
+
+    private File workingDir;
+
+    private RecordingPostProcessing postProcessing;
+
+    @Before
+    public void setUp() {
+        rs.setUp();
+        workingDir = new File(TestResourceUtils.OUTPUT_DIR, getClass().getSimpleName() + "/" + test.getMethodName());
+        FileUtils.removeRecursively(workingDir);
+        FileUtils.createDir(workingDir);
+        Settings.set(CommonSettings.ARC_REPOSITORY_CLIENT,
+                "dk.netarkivet.common.arcrepository.TrivialArcRepositoryClient");
+        Settings.set(CommonSettings.NOTIFICATIONS_CLASS, RememberNotifications.class.getName());
+        Settings.set(HarvesterSettings.HARVEST_CONTROLLER_SERVERDIR, workingDir.getAbsolutePath());
+        postProcessing = new RecordingPostProcessing();
+    }
+
+    @After
+    public void tearDown() {
+        postProcessing.releaseAll();
+        postProcessing.cleanup();
+        FileUtils.removeRecursively(workingDir);
+        rs.tearDown();
+    }
+
+    /**
+     * Test that jobs handed to the background worker are post-processed one at a time in the order they are handed
+     * over, and that failing jobs do not stop the worker.
+     */
+    @Test
+    public void testJobsArePostProcessedInOrder() {
+        postProcessing.fail("2");
+        for (String job : Arrays.asList("1", "2", "3")) {
+            postProcessing.doPostProcessingInBackground(crawlDir(job), null);
+        }
+        assertTrue("Should not be interrupted", postProcessing.awaitPendingAtMost(0));
+        assertEquals("Jobs should be post-processed in order", Arrays.asList("1", "2", "3"),
+                postProcessing.getProcessed());
+        assertFalse("Jobs should be post-processed one at a time", postProcessing.overlapped.get());
+        assertEquals("No jobs should be pending", 0, postProcessing.getPendingCount());
+    }
+
+    /**
+     * Test that awaitPendingAtMost waits until no more than the given number of jobs are pending.
+     */
+    @Test
+    public void testAwaitPendingAtMost() throws InterruptedException {
+        postProcessing.block("1");
+        for (String job : Arrays.asList("1", "2", "3")) {
+            postProcessing.doPostProcessingInBackground(crawlDir(job), null);
+        }
+        assertEquals("All jobs should be pending", 3, postProcessing.getPendingCount());
+        assertTrue("Should not wait when enough jobs are allowed", postProcessing.awaitPendingAtMost(3));
+
+        AwaitingThread awaiting = new AwaitingThread() {
+            @Override
+            boolean await() {
+                return postProcessing.awaitPendingAtMost(1);
+            }
+        };
+        awaiting.start();
+        awaiting.join(BLOCKED);
+        assertTrue("Should wait while a job blocks the others", awaiting.isAlive());
+
+        postProcessing.release("1");
+        awaiting.join(WAIT);
+        assertFalse("Should be done waiting when the jobs are done", awaiting.isAlive());
+        assertTrue("Should not be interrupted", awaiting.result);
+        assertTrue("No more than one job should be pending", postProcessing.getPendingCount() <= 1);
+    }
+
+    /**
+     * Test that awaitRoomForNextJob only waits for the pending limit when there is space enough, and waits for every
+     * pending job when there is not.
+     */
+    @Test
+    public void testAwaitRoomForNextJob() throws InterruptedException {
+        postProcessing.block("1");
+        postProcessing.doPostProcessingInBackground(crawlDir("1"), null);
+        assertTrue("Should not wait for a pending job when there is space", postProcessing.awaitRoomForNextJob(1,
+                workingDir, 1L));
+        assertEquals("The job should still be pending", 1, postProcessing.getPendingCount());
+
+        AwaitingThread awaiting = new AwaitingThread() {
+            @Override
+            boolean await() {
+                return postProcessing.awaitRoomForNextJob(1, workingDir, Long.MAX_VALUE / 4);
+            }
+        };
+        awaiting.start();
+        awaiting.join(BLOCKED);
+        assertTrue("Should wait for the pending job when there is no space", awaiting.isAlive());
+
+        postProcessing.release("1");
+        awaiting.join(WAIT);
+        assertFalse("Should be done waiting when the job is done", awaiting.isAlive());
+        assertTrue("Should not be interrupted", awaiting.result);
+        assertEquals("No jobs should be pending", 0, postProcessing.getPendingCount());
+    }
+
+    /**
+     * Test that cleanup waits for the jobs handed to the background worker instead of interrupting them.
+     */
+    @Test
+    public void testCleanupLetsPendingJobsFinish() throws InterruptedException {
+        postProcessing.block("1");
+        postProcessing.doPostProcessingInBackground(crawlDir("1"), null);
+        postProcessing.doPostProcessingInBackground(crawlDir("2"), null);
+
+        Thread cleanup = new Thread() {
+            @Override
+            public void run() {
+                postProcessing.cleanup();
+            }
+        };
+        cleanup.start();
+        cleanup.join(BLOCKED);
+        assertTrue("Cleanup should wait for the job being post-processed", cleanup.isAlive());
+
+        postProcessing.release("1");
+        cleanup.join(WAIT);
+        assertFalse("Cleanup should be done when the jobs are done", cleanup.isAlive());
+        assertEquals("Both jobs should be post-processed", Arrays.asList("1", "2"), postProcessing.getProcessed());
+        assertFalse("The jobs should not be interrupted", postProcessing.interrupted.get());
+    }
+
+    /**
+     * Test that processOldJobs leaves the crawldirs awaiting post-processing in the background alone, but processes
+     * other crawldirs with a harvestInfo.
+     */
+    @Test
+    public void testProcessOldJobsSkipsPendingJobs() {
+        File pendingDir = crawlDir("1");
+        File oldDir = crawlDir("2");
+        FileUtils.createDir(new File(workingDir, "3"));
+        postProcessing.block("1");
+        postProcessing.doPostProcessingInBackground(pendingDir, null);
+
+        postProcessing.processOldJobs();
+        assertEquals("Only the old job should be post-processed", Arrays.asList("2"), postProcessing.getProcessed());
+
+        postProcessing.release("1");
+        assertTrue("Should not be interrupted", postProcessing.awaitPendingAtMost(0));
+        assertEquals("The pending job should be post-processed by the worker", Arrays.asList("2", "1"),
+                postProcessing.getProcessed());
+    }
+
+    /**
+     * Create a crawldir in the serverdir holding an (empty) harvestInfo.
+     *
+     * @param name The name of the crawldir.
+     * @return The crawldir.
+     */
+    private File crawlDir(String name) {
+        File dir = new File(workingDir, name);
+        FileUtils.createDir(dir);
+        FileUtils.writeBinaryFile(new File(dir, "harvestInfo.xml"), new byte[0]);
+        return dir;
+    }
+
+    /**
+     * A thread calling a method that waits for post-processing, remembering its result.
+     */
+    private abstract static class AwaitingThread extends Thread {
+        volatile boolean result;
+
+        abstract boolean await();
+
+        @Override
+        public void run() {
+            result = await();
+        }
+    }
+
+    /**
+     * A PostProcessing which records the crawldirs it post-processes instead of uploading anything. The
+     * post-processing of a crawldir can be blocked until released, or made to fail.
+     */
+    private static class RecordingPostProcessing extends PostProcessing {
+        private final List<String> processed = Collections.synchronizedList(new ArrayList<String>());
+        private final List<CountDownLatch> blocks = Collections.synchronizedList(new ArrayList<CountDownLatch>());
+        private final List<String> blocked = Collections.synchronizedList(new ArrayList<String>());
+        private final List<String> failing = Collections.synchronizedList(new ArrayList<String>());
+        private final AtomicBoolean running = new AtomicBoolean();
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        final AtomicBoolean interrupted = new AtomicBoolean();
+
+        RecordingPostProcessing() {
+            super(null);
+        }
+
+        void block(String name) {
+            blocked.add(name);
+            blocks.add(new CountDownLatch(1));
+        }
+
+        void release(String name) {
+            blocks.get(blocked.indexOf(name)).countDown();
+        }
+
+        void releaseAll() {
+            for (CountDownLatch block : blocks) {
+                block.countDown();
+            }
+        }
+
+        void fail(String name) {
+            failing.add(name);
+        }
+
+        List<String> getProcessed() {
+            return new ArrayList<String>(processed);
+        }
+
+        @Override
+        public void doPostProcessing(File crawlDir, Throwable crawlException) {
+            String name = crawlDir.getName();
+            if (!running.compareAndSet(false, true)) {
+                overlapped.set(true);
+            }
+            try {
+                int i = blocked.indexOf(name);
+                if (i >= 0 && !blocks.get(i).await(WAIT, TimeUnit.MILLISECONDS)) {
+                    throw new IOFailure("Not released: " + name);
+                }
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+                throw new IOFailure("Interrupted: " + name, e);
+            } finally {
+                running.set(false);
+            }
+            processed.add(name);
+            if (failing.contains(name)) {
+                throw new IOFailure("Failing: " + name);
+            }
+        }
+    }
+
+}
@@ -24,9 +24,10 @@ import static org.archive.modules.extractor.LinkContext.JS_MISC;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.httpclient.URIException;
@@ -37,8 +38,6 @@ import org.archive.modules.CrawlURI;
 import org.archive.modules.extractor.Extractor;
 import org.archive.modules.extractor.LinkContext;
 import org.archive.net.UURI;
-import org.archive.util.DevUtils;
-import org.archive.util.TextUtils;
 import org.archive.util.UriUtils;
 
 /**
@@ -62,14 +61,18 @@ import org.archive.util.UriUtils;
  * 
  * This class is a modification by Kristinn Sigurdsson of the org.archive.modules.extractor.ExtractorJS 
  * class that enables you to reject some false positives found by the original ExtractorJS.
+ * 
+ * The strings are found in a single pass by a {@link JavaScriptStringScanner}. Only the first maxCharsToScan
+ * characters of a document are scanned, and the scan of a document is abandoned after timeBudgetMillis.
  */
 public class IcelandicExtractorJS extends org.archive.modules.extractor.ExtractorJS {
 
-    long foundFalsePositives = 0;
-
     private static Logger LOGGER =
         Logger.getLogger("org.archive.crawler.extractor.ExtractorJS");
 
+    /** Matches absolute URIs, which are never rejected. */
+    private static final Pattern ABSOLUTE_URI = Pattern.compile("^[a-zA-Z]://.*$");
+
     /**
      * The list of regular expressions to evalute potential relative url against, rejecting any that match
      */
@@ -83,10 +86,38 @@ public class IcelandicExtractorJS extends org.archive.modules.extractor.Extracto
     public void setRejectRelativeMatchingRegexList(List<Pattern> patterns) {
         kp.put("rejectRelativeMatchingRegexList", patterns);
     }
+
+    /**
+     * The maximum number of characters of a document to scan for strings, or 0 for no limit.
+     */
+    {
+        setMaxCharsToScan(10 * 1024 * 1024);
+    }
+    public int getMaxCharsToScan() {
+        return (Integer) kp.get("maxCharsToScan");
+    }
+    public void setMaxCharsToScan(int maxCharsToScan) {
+        kp.put("maxCharsToScan", maxCharsToScan);
+    }
+
+    /**
+     * The time in milliseconds the scan of a document may take before it is abandoned, or 0 for no limit.
+     */
+    {
+        setTimeBudgetMillis(10000L);
+    }
+    public long getTimeBudgetMillis() {
+        return (Long) kp.get("timeBudgetMillis");
+    }
+    public void setTimeBudgetMillis(long timeBudgetMillis) {
+        kp.put("timeBudgetMillis", timeBudgetMillis);
+    }
     
     // finds whitespace-free strings in Javascript
     // (areas between paired ' or " characters, possibly backslash-quoted
     // on the ends, but not in the middle)
+    // The strings are found by JavaScriptStringScanner, which finds the same
+    // strings as this regular expression without its backtracking.
     static final String JAVASCRIPT_STRING_EXTRACTOR =
         "(\\\\{0,8}+(?:\"|\'))(\\S{0,"+UURI.MAX_URL_LENGTH+"}?)(?:\\1)";
     // GROUPS:
@@ -99,7 +130,21 @@ public class IcelandicExtractorJS extends org.archive.modules.extractor.Extracto
     static final String STRING_URI_DETECTOR =
         "(?:\\w|[\\.]{0,2}/)[\\S&&[^<>]]*(?:\\.|/)[\\S&&[^<>]]*(?:\\w|/)";
     
-    protected long numberOfCURIsHandled = 0;
+    protected final AtomicLong numberOfCURIsHandled = new AtomicLong(0);
+
+    protected final AtomicLong foundFalsePositives = new AtomicLong(0);
+
+    /** The number of documents not scanned to the end because of maxCharsToScan. */
+    protected final AtomicLong truncatedDocuments = new AtomicLong(0);
+
+    /** The number of documents not scanned to the end because of timeBudgetMillis. */
+    protected final AtomicLong timedOutDocuments = new AtomicLong(0);
+
+    /** The reject list the current rejecter was made from. */
+    private volatile List<Pattern> rejecterSource;
+
+    /** The rejecter made from the reject list. */
+    private volatile RelativeLinkRejecter rejecter;
 
     // URIs known to produce false-positives with the current JS extractor.
     // e.g. currently (2.0.3) the JS extractor produces 13 false-positive 
@@ -157,15 +202,11 @@ public class IcelandicExtractorJS extends org.archive.modules.extractor.Extracto
     
     @Override
     protected boolean innerExtract(CrawlURI curi) {
-        this.numberOfCURIsHandled++;
+        numberOfCURIsHandled.incrementAndGet();
         ReplayCharSequence cs = null;
         try {
             cs = curi.getRecorder().getContentReplayCharSequence();
-            try {
-                numberOfLinksExtracted.getAndAdd(considerStrings(this, curi, cs, true));
-            } catch (StackOverflowError e) {
-                DevUtils.warnHandle(e, "ExtractorJS StackOverflowError");
-            }
+            numberOfLinksExtracted.getAndAdd(considerStrings(this, curi, cs, true));
             // Set flag to indicate that link extraction is completed.
             return true;
         } catch (IOException e) {
@@ -176,87 +217,146 @@ public class IcelandicExtractorJS extends org.archive.modules.extractor.Extracto
 
     public long considerStrings(Extractor ext, 
             CrawlURI curi, CharSequence cs, boolean handlingJSFile) {
+        int length = cs.length();
+        int maxChars = getMaxCharsToScan();
+        if (maxChars > 0 && length > maxChars) {
+            truncatedDocuments.incrementAndGet();
+            LOGGER.fine("Only scanning the first " + maxChars + " of " + length + " characters of " + curi);
+            length = maxChars;
+        }
+        JavaScriptStringScanner strings = new JavaScriptStringScanner(cs, length,
+                TimeUnit.MILLISECONDS.toNanos(getTimeBudgetMillis()));
+        RelativeLinkRejecter linkRejecter = getRejecter();
         long foundLinks = 0;
-        Matcher strings =
-            TextUtils.getMatcher(JAVASCRIPT_STRING_EXTRACTOR, cs);
-        int startIndex = 0;
-        while (strings.find(startIndex)) {
-            CharSequence subsequence =
-                cs.subSequence(strings.start(2), strings.end(2));
-            Matcher uri =
-                TextUtils.getMatcher(STRING_URI_DETECTOR, subsequence);
-            if(uri.matches()) {
-                String string = uri.group();
-                boolean falsePositive = false;
+        while (strings.find()) {
+            String string = cs.subSequence(strings.start(), strings.end()).toString();
+            boolean falsePositive = false;
+            if (string.indexOf('\\') >= 0) {
                 try {
                     string = StringEscapeUtils.unescapeJavaScript(string);
                 } catch (NestableRuntimeException e) {
                     LOGGER.log(Level.WARNING, "problem unescaping some javascript", e);
                 }
-                string = UriUtils.speculativeFixup(string, curi.getUURI());
-                
-                // Filter out some bad false positives (should really fix regexp for URI detection) 
-                if (string.contains("/.") || string.contains("@") || string.length() > 150) {
-                	// While legal in URIs, these are rare and usually an indication of a false positive
-                	// in the speculative extraction.
-                	falsePositive = true;
-                }
-                
-                if (!falsePositive) {
-                    falsePositive = shouldIgnorePossibleRelativeLink(string);
-                }
-                       
-                if (falsePositive) {
-                	foundFalsePositives++;
-                } else {
-	                foundLinks++;
-	                try {
-	                    int max = ext.getExtractorParameters().getMaxOutlinks();
-	                    if (handlingJSFile) {
-	                        addRelativeToVia(curi, max, string, JS_MISC, SPECULATIVE);
-	                    } else {
-	                        addRelativeToBase(curi, max, string, JS_MISC, SPECULATIVE);
-	                    }
-	                } catch (URIException e) {
-	                    ext.logUriError(e, curi.getUURI(), string);
-	                }
-                }
+            }
+            string = UriUtils.speculativeFixup(string, curi.getUURI());
+
+            // Filter out some bad false positives (should really fix regexp for URI detection) 
+            if (string.contains("/.") || string.contains("@") || string.length() > 150) {
+            	// While legal in URIs, these are rare and usually an indication of a false positive
+            	// in the speculative extraction.
+            	falsePositive = true;
+            }
+
+            if (!falsePositive) {
+                falsePositive = shouldIgnorePossibleRelativeLink(linkRejecter, string);
+            }
+
+            if (falsePositive) {
+            	foundFalsePositives.incrementAndGet();
             } else {
-               foundLinks += considerStrings(ext, curi, subsequence, handlingJSFile);
+                foundLinks++;
+                try {
+                    int max = ext.getExtractorParameters().getMaxOutlinks();
+                    if (handlingJSFile) {
+                        addRelativeToVia(curi, max, string, JS_MISC, SPECULATIVE);
+                    } else {
+                        addRelativeToBase(curi, max, string, JS_MISC, SPECULATIVE);
+                    }
+                } catch (URIException e) {
+                    ext.logUriError(e, curi.getUURI(), string);
+                }
             }
-            
-            // reconsider the last closing quote as possible opening quote
-            startIndex = strings.end(2);
         }
-        TextUtils.recycleMatcher(strings);
+        if (strings.isTimedOut()) {
+            timedOutDocuments.incrementAndGet();
+            LOGGER.warning("Abandoned scanning " + curi + " for strings after " + getTimeBudgetMillis() + " ms");
+        }
         return foundLinks;
     }
-    
-    private boolean shouldIgnorePossibleRelativeLink(String str) {
-        if (str.matches("^[a-zA-Z]://.*$")) {
+
+    private boolean shouldIgnorePossibleRelativeLink(RelativeLinkRejecter rejecter, String str) {
+        if (ABSOLUTE_URI.matcher(str).matches()) {
             // Absolute path. Assume it is ok.
             return false;
         }
-        
-        List<Pattern> regexes = getRejectRelativeMatchingRegexList();
-        if(regexes.size()==0){
-            return false;
-        }
+        return rejecter.rejects(str);
+    }
 
-        for (Pattern p: regexes) {
-            boolean matches = p.matcher(str).matches();
-            if(matches){
-                return true;
-            } 
+    /**
+     * @return The rejecter for the current reject list, made anew if the list has been replaced or changed size.
+     */
+    private RelativeLinkRejecter getRejecter() {
+        List<Pattern> regexes = getRejectRelativeMatchingRegexList();
+        RelativeLinkRejecter current = rejecter;
+        if (current == null || regexes != rejecterSource || current.size != regexes.size()) {
+            current = new RelativeLinkRejecter(regexes);
+            rejecter = current;
+            rejecterSource = regexes;
         }
-        return false;
+        return current;
     }
-    
+
 	@Override
 	public String report() {
         StringBuffer report = new StringBuffer();
         report.append(super.report());
-        report.append("  False positives eliminated: " + foundFalsePositives + "\n"); 
+        report.append("  False positives eliminated: " + foundFalsePositives.get() + "\n"); 
+        report.append("  Documents truncated: " + truncatedDocuments.get() + "\n");
+        report.append("  Documents timed out: " + timedOutDocuments.get() + "\n");
 		return report.toString();
 	}
+
+    /**
+     * Matches strings against all the patterns of a reject list at once. The patterns without flags or back
+     * references are combined into a single alternation; the others are matched one by one.
+     */
+    static final class RelativeLinkRejecter {
+
+        /** Finds back references, which would refer to other groups in the combined pattern. */
+        private static final Pattern BACK_REFERENCE = Pattern.compile("\\\\(?:[1-9]|k<)");
+
+        /** The number of patterns in the reject list. */
+        final int size;
+        /** The combined patterns, or null if none could be combined. */
+        private final Pattern combined;
+        /** The patterns that could not be combined. */
+        private final List<Pattern> separate = new ArrayList<Pattern>();
+
+        /**
+         * Create a rejecter.
+         *
+         * @param patterns The reject list.
+         */
+        RelativeLinkRejecter(List<Pattern> patterns) {
+            size = patterns.size();
+            StringBuilder alternation = new StringBuilder();
+            for (Pattern p : patterns) {
+                if (p.flags() != 0 || BACK_REFERENCE.matcher(p.pattern()).find()) {
+                    separate.add(p);
+                } else {
+                    if (alternation.length() > 0) {
+                        alternation.append('|');
+                    }
+                    alternation.append("(?:").append(p.pattern()).append(')');
+                }
+            }
+            combined = alternation.length() > 0 ? Pattern.compile(alternation.toString()) : null;
+        }
+
+        /**
+         * @param str A possible relative link.
+         * @return true, if one of the patterns matches the whole string.
+         */
+        boolean rejects(String str) {
+            if (combined != null && combined.matcher(str).matches()) {
+                return true;
+            }
+            for (Pattern p : separate) {
+                if (p.matcher(str).matches()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
 }
@@ -0,0 +1,264 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.extractor;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.archive.net.UURI;
+
+/**
+ * Finds the whitespace-free string literals in Javascript that are likely to be URIs, in one pass and without
+ * recursion.
+ * <p>
+ * A string literal is the area between a pair of ' or " characters, where the opening quote may be preceded by up to 8
+ * backslashes, which must then also precede the closing quote. Literals that are not likely URIs are searched for
+ * literals of the other kind, and the closing quote of a literal is reconsidered as an opening quote. This finds the
+ * same strings as repeatedly matching {@link IcelandicExtractorJS#JAVASCRIPT_STRING_EXTRACTOR} and recursing into the
+ * literals not matching {@link IcelandicExtractorJS#STRING_URI_DETECTOR}, but each literal is found with a single scan
+ * for its closing quote, and a literal is only matched against the URI detector when it could possibly match.
+ * <p>
+ * A scanner is not thread safe.
+ */
+final class JavaScriptStringScanner {
+
+    /** The maximum number of backslashes before a quote. */
+    private static final int MAX_QUOTE_BACKSLASHES = 8;
+
+    /** The number of quotes considered between checks of the deadline. */
+    private static final int DEADLINE_CHECK_INTERVAL = 1024;
+
+    /** The detector of likely URIs. */
+    private static final Pattern URI_DETECTOR = Pattern.compile(IcelandicExtractorJS.STRING_URI_DETECTOR);
+
+    /** The Javascript. */
+    private final CharSequence cs;
+    /** The time in nanoseconds the scan may take, or 0 for no limit. */
+    private final long timeBudgetNanos;
+    /** The time in nanoseconds, as given by {@link System#nanoTime()}, at which the scan is abandoned. */
+    private final long deadline;
+    /** Matcher for likely URIs. */
+    private final Matcher uriMatcher = URI_DETECTOR.matcher("");
+    /**
+     * The ranges still to be scanned, as pairs of start and end, innermost first. The current range is the first
+     * pair.
+     */
+    private final Deque<int[]> ranges = new ArrayDeque<int[]>();
+
+    /** The position where scanning of the current range continues. */
+    private int position;
+    /** The position before which backslashes do not belong to the current range. */
+    private int scanStart;
+    /** The start of the last string found. */
+    private int start;
+    /** The end of the last string found. */
+    private int end;
+    /** The number of quotes considered. */
+    private int quotes;
+    /** Whether the scan was abandoned because the time budget was used. */
+    private boolean timedOut;
+
+    /**
+     * Create a scanner.
+     *
+     * @param cs The Javascript.
+     * @param length The number of characters from the start of the Javascript to scan.
+     * @param timeBudgetNanos The time in nanoseconds the scan may take before it is abandoned, or 0 for no limit.
+     */
+    JavaScriptStringScanner(CharSequence cs, int length, long timeBudgetNanos) {
+        this.cs = cs;
+        this.timeBudgetNanos = timeBudgetNanos;
+        this.deadline = System.nanoTime() + timeBudgetNanos;
+        ranges.push(new int[] {0, length});
+        position = 0;
+        scanStart = 0;
+    }
+
+    /**
+     * Find the next string literal that is likely to be a URI.
+     *
+     * @return true, if a string was found. Its position is given by {@link #start()} and {@link #end()}.
+     */
+    boolean find() {
+        while (!ranges.isEmpty()) {
+            int[] range = ranges.peek();
+            int to = range[1];
+            while (position < to) {
+                char c = cs.charAt(position);
+                if (c != '"' && c != '\'') {
+                    position++;
+                    continue;
+                }
+                if (timeBudgetNanos > 0 && ++quotes % DEADLINE_CHECK_INTERVAL == 0
+                        && System.nanoTime() - deadline > 0) {
+                    timedOut = true;
+                    ranges.clear();
+                    return false;
+                }
+                int quote = position;
+                int backslashes = 0;
+                while (backslashes < MAX_QUOTE_BACKSLASHES && quote - backslashes > scanStart
+                        && cs.charAt(quote - backslashes - 1) == '\\') {
+                    backslashes++;
+                }
+                // Like the regular expression, try the longest run of backslashes first.
+                int close = -1;
+                for (; backslashes >= 0 && close < 0; backslashes--) {
+                    close = findClosingQuote(quote + 1, to, c, backslashes);
+                }
+                backslashes++;
+                if (close < 0) {
+                    position++;
+                    continue;
+                }
+                int stringStart = quote + 1;
+                int stringEnd = close - backslashes;
+                // The closing quote, with its backslashes, is reconsidered as an opening quote.
+                position = close;
+                scanStart = stringEnd;
+                if (isLikelyUri(stringStart, stringEnd)) {
+                    start = stringStart;
+                    end = stringEnd;
+                    return true;
+                }
+                // Search the string before continuing after it.
+                range[0] = stringEnd;
+                ranges.push(new int[] {stringStart, stringEnd});
+                position = stringStart;
+                scanStart = stringStart;
+                break;
+            }
+            if (position >= to) {
+                ranges.pop();
+                if (!ranges.isEmpty()) {
+                    position = ranges.peek()[0];
+                    scanStart = position;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The start of the last string found.
+     */
+    int start() {
+        return start;
+    }
+
+    /**
+     * @return The end of the last string found.
+     */
+    int end() {
+        return end;
+    }
+
+    /**
+     * @return true, if the scan was abandoned because the time budget was used.
+     */
+    boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * Find the closing quote of a string. The string ends at the first quote of the same kind preceded by at least
+     * the given number of backslashes, but not if whitespace comes first or the string gets too long.
+     *
+     * @param from The start of the string.
+     * @param to The end of the range being scanned.
+     * @param quote The quote character.
+     * @param backslashes The number of backslashes before the opening quote.
+     * @return The position of the closing quote, or -1 if there is none.
+     */
+    private int findClosingQuote(int from, int to, char quote, int backslashes) {
+        int limit = (int) Math.min(to, (long) from + UURI.MAX_URL_LENGTH + backslashes + 1);
+        for (int i = from; i < limit; i++) {
+            char c = cs.charAt(i);
+            if (isWhitespace(c)) {
+                return -1;
+            }
+            if (c == quote && i - backslashes >= from && isPrecededByBackslashes(i, backslashes)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isPrecededByBackslashes(int i, int backslashes) {
+        for (int j = 1; j <= backslashes; j++) {
+            if (cs.charAt(i - j) != '\\') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether a string matches {@link IcelandicExtractorJS#STRING_URI_DETECTOR}. The regular expression is only
+     * used when a few necessary conditions hold: at least 3 characters, a '.' or '/' after the first character, a
+     * word character or '/' at the end, and no '&lt;' or '&gt;'.
+     *
+     * @param from The start of the string.
+     * @param to The end of the string.
+     * @return true, if the string is likely to be a URI.
+     */
+    private boolean isLikelyUri(int from, int to) {
+        if (to - from < 3) {
+            return false;
+        }
+        char last = cs.charAt(to - 1);
+        if (!isWordChar(last) && last != '/') {
+            return false;
+        }
+        boolean separator = false;
+        for (int i = from; i < to; i++) {
+            char c = cs.charAt(i);
+            if (c == '<' || c == '>') {
+                return false;
+            }
+            if (i > from && i < to - 1 && (c == '.' || c == '/')) {
+                separator = true;
+            }
+        }
+        return separator && uriMatcher.reset(cs.subSequence(from, to)).matches();
+    }
+
+    /**
+     * @param c A character.
+     * @return true, if the character is matched by \s in a regular expression.
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * @param c A character.
+     * @return true, if the character is matched by \w in a regular expression.
+     */
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+}
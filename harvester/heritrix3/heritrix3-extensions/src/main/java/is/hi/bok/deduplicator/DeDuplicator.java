@@ -48,6 +48,7 @@ import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TermRangeFilter;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
 import org.apache.lucene.util.BytesRef;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.ProcessResult;
@@ -140,6 +141,19 @@ public class DeDuplicator extends Processor implements InitializingBean {
         kp.put(ATTR_INDEX_LOCATION,indexLocation);
     }
 
+    /* Should the index be memory mapped rather than read through buffers */
+    private final static String ATTR_MEMORY_MAPPED_INDEX = "memory-mapped-index";
+    {
+        setMemoryMappedIndex(false);
+    }
+    public Boolean getMemoryMappedIndex() {
+        return (Boolean) kp.get(ATTR_MEMORY_MAPPED_INDEX);
+    }
+    /** SETTER used by Spring */
+    public void setMemoryMappedIndex(Boolean memoryMappedIndex) {
+        kp.put(ATTR_MEMORY_MAPPED_INDEX, memoryMappedIndex);
+    }
+
     /* The matching method in use (by url or content digest) */
     private final static String ATTR_MATCHING_METHOD = "matching-method";
     
@@ -366,11 +380,17 @@ public class DeDuplicator extends Processor implements InitializingBean {
         // Index location
         String indexLocation = getIndexLocation();
         try {
-        	FSDirectory indexDir = FSDirectory.open(new File(indexLocation));
-            // https://issues.apache.org/jira/browse/LUCENE-1566
-            // Reduce chunksize to avoid OOM to half the size of the default (=100 MB)
-            int chunksize = indexDir.getReadChunkSize();
-            indexDir.setReadChunkSize(chunksize / 2);
+        	FSDirectory indexDir;
+        	if (getMemoryMappedIndex()) {
+        	    // Uncompressed indices delivered to the harvester can be mapped directly from the local cache
+        	    indexDir = new MMapDirectory(new File(indexLocation));
+        	} else {
+        	    indexDir = FSDirectory.open(new File(indexLocation));
+        	    // https://issues.apache.org/jira/browse/LUCENE-1566
+        	    // Reduce chunksize to avoid OOM to half the size of the default (=100 MB)
+        	    int chunksize = indexDir.getReadChunkSize();
+        	    indexDir.setReadChunkSize(chunksize / 2);
+        	}
             indexReader = DirectoryReader.open(indexDir);
             indexSearcher = new IndexSearcher(indexReader);    
         } catch (Exception e) {
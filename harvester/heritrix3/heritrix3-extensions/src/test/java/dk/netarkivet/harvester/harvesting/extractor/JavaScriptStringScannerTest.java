@@ -0,0 +1,142 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.extractor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class JavaScriptStringScannerTest {
+
+    private static final Pattern STRING_EXTRACTOR = Pattern.compile(IcelandicExtractorJS.JAVASCRIPT_STRING_EXTRACTOR);
+    private static final Pattern URI_DETECTOR = Pattern.compile(IcelandicExtractorJS.STRING_URI_DETECTOR);
+
+    /** A minified Javascript statement with 2 likely URIs, one of them inside another string. */
+    private static final String STATEMENT = "f(\"<'/a/b.js'>\",'/c/d.js');";
+
+    @Test
+    public void testFindsLikelyUris() {
+        assertEquals(Arrays.asList("/images/logo.png", "page.html"),
+                scan("var a=\"/images/logo.png\";var b='foo';var c='page.html';"));
+    }
+
+    @Test
+    public void testFindsStringsInsideOtherStrings() {
+        assertEquals(Arrays.asList("a/b.html"), scan("x=\"<'a/b.html'>\";"));
+    }
+
+    @Test
+    public void testFindsBackslashQuotedStrings() {
+        assertEquals(Arrays.asList("/page/x.html"), scan("s = \"<a href=\\\"/page/x.html\\\">\";"));
+    }
+
+    /**
+     * Check that the scanner finds the same strings as the regular expression based extraction it replaces.
+     */
+    @Test
+    public void testFindsSameStringsAsRegularExpression() {
+        Random random = new Random(42);
+        String alphabet = "a/.'\"\\ <_b";
+        for (int i = 0; i < 100000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(30);
+            for (int j = 0; j < length; j++) {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String js = sb.toString();
+            List<String> expected = new ArrayList<String>();
+            scanWithRegularExpression(js, expected);
+            assertEquals("Should find the same strings in " + js, expected, scan(js));
+        }
+    }
+
+    /**
+     * Check that a large document with many nested strings, which would overflow the stack of the regular expression
+     * based extraction, is scanned.
+     */
+    @Test
+    public void testLargeDocument() {
+        CharSequence js = makeLargeDocument();
+        JavaScriptStringScanner scanner = new JavaScriptStringScanner(js, js.length(), 0);
+        int found = 0;
+        while (scanner.find()) {
+            found++;
+        }
+        assertFalse(scanner.isTimedOut());
+        assertEquals(2 * (js.length() / STATEMENT.length()), found);
+    }
+
+    @Test
+    public void testTimeBudget() {
+        CharSequence js = makeLargeDocument();
+        JavaScriptStringScanner scanner = new JavaScriptStringScanner(js, js.length(), 1);
+        while (scanner.find()) {
+            // Just scanning.
+        }
+        assertTrue("Should abandon the scan when the time budget is used", scanner.isTimedOut());
+    }
+
+    /**
+     * @return About 10 MB of Javascript made of copies of {@link #STATEMENT}.
+     */
+    private static CharSequence makeLargeDocument() {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 10 * 1024 * 1024) {
+            sb.append(STATEMENT);
+        }
+        return sb;
+    }
+
+    private static List<String> scan(CharSequence js) {
+        List<String> found = new ArrayList<String>();
+        JavaScriptStringScanner scanner = new JavaScriptStringScanner(js, js.length(), 0);
+        while (scanner.find()) {
+            found.add(js.subSequence(scanner.start(), scanner.end()).toString());
+        }
+        return found;
+    }
+
+    private static void scanWithRegularExpression(CharSequence js, List<String> found) {
+        Matcher strings = STRING_EXTRACTOR.matcher(js);
+        int startIndex = 0;
+        while (strings.find(startIndex)) {
+            CharSequence subsequence = js.subSequence(strings.start(2), strings.end(2));
+            if (URI_DETECTOR.matcher(subsequence).matches()) {
+                found.add(subsequence.toString());
+            } else {
+                scanWithRegularExpression(subsequence, found);
+            }
+            startIndex = strings.end(2);
+        }
+    }
+
+}
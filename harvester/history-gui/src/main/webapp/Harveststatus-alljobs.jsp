@@ -172,22 +172,26 @@ function resetForm() {
 	document.filtersForm.<%=HarvestStatusQuery.UI_FIELD.JOB_ID_RANGE.name()%>.value = "";
 	document.filtersForm.<%=HarvestStatusQuery.UI_FIELD.PAGE_SIZE.name()%>.value = "";	
 	document.filtersForm.<%=HarvestStatusQuery.UI_FIELD.START_PAGE_INDEX.name()%>.value = "";
+	document.filtersForm.<%=HarvestStatusQuery.UI_FIELD.AFTER_JOB_ID.name()%>.value = "";
 }
 
 // Displays the next page of results (if available).
 function previousPage() {
 	document.filtersForm.<%=HarvestStatusQuery.UI_FIELD.START_PAGE_INDEX.name()%>.value = "<%=query.getStartPageIndex() - 1%>";
+	document.filtersForm.<%=HarvestStatusQuery.UI_FIELD.AFTER_JOB_ID.name()%>.value = "";
 	document.filtersForm.submit();
 }
 
 //Displays the previous page of results (if available).
 function nextPage() {
     document.filtersForm.<%=HarvestStatusQuery.UI_FIELD.START_PAGE_INDEX.name()%>.value = "<%=query.getStartPageIndex() + 1%>";
+    document.filtersForm.<%=HarvestStatusQuery.UI_FIELD.AFTER_JOB_ID.name()%>.value = "<%=results.getLastJobId()%>";
     document.filtersForm.submit();
 }
 
 function resetPagination() {
 	document.filtersForm.<%=HarvestStatusQuery.UI_FIELD.START_PAGE_INDEX.name()%>.value = "1";
+	document.filtersForm.<%=HarvestStatusQuery.UI_FIELD.AFTER_JOB_ID.name()%>.value = "";
 }
 
 </script>
@@ -291,6 +295,9 @@ setupCalendar("<%=HarvestStatusQuery.UI_FIELD.END_DATE%>", "<%=HarvestStatusQuer
 <input type="hidden" 
        name="<%=HarvestStatusQuery.UI_FIELD.START_PAGE_INDEX%>"
        value="<%=query.getStartPageIndex()%>"/>
+<input type="hidden" 
+       name="<%=HarvestStatusQuery.UI_FIELD.AFTER_JOB_ID%>"
+       value=""/>
    
 <input type="submit" name="upload" 
        onclick="resetPagination();"
@@ -335,8 +342,7 @@ setupCalendar("<%=HarvestStatusQuery.UI_FIELD.END_DATE%>", "<%=HarvestStatusQuer
     
     boolean nextLinkActive = false;
     if (pageSize != HarvestStatusQuery.PAGE_SIZE_NONE
-    		&& totalResultsCount > 0
-            && endIndex < totalResultsCount) {
+            && results.hasMoreResults()) {
         nextLinkActive = true;
     }
 
@@ -122,6 +122,12 @@ public class WaybackSettings {
      */
     public static String WAYBACK_INDEXER_CONSUMER_THREADS = "settings.wayback.indexer.consumerThreads";
 
+    /**
+     * The maximum number of files indexed by each batch job. The files waiting in the indexing queue are indexed
+     * together, so the overhead of running a batch job is shared among them.
+     */
+    public static String WAYBACK_INDEXER_FILES_PER_BATCH = "settings.wayback.indexer.filesPerBatch";
+
     /**
      * A file containing a list of files which have been archived and therefore do not need to be archived again. This
      * key may be unset.
@@ -0,0 +1,243 @@
+/*
+ * #%L
+ * Netarchivesuite - wayback
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.wayback.batch;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.Constants;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.arc.ARCUtils;
+import dk.netarkivet.common.utils.batch.FileBatchJob;
+import dk.netarkivet.common.utils.warc.WARCUtils;
+
+/**
+ * A batch job which indexes a set of archive files in one run, using the CDX extraction job suited for each file:
+ * {@link DeduplicationCDXExtractionBatchJob} for metadata files, {@link WaybackCDXExtractionARCBatchJob} for arcfiles
+ * and {@link WaybackCDXExtractionWARCBatchJob} for warcfiles.
+ * <p>
+ * The output for each file is enclosed in a line starting with {@link #BEGIN_FILE_MARKER} followed by the filename, and
+ * a line starting with {@link #END_FILE_MARKER} followed by {@link #STATUS_OK} or {@link #STATUS_FAILED}, a space and
+ * the filename, so the output of each file can be split out of the combined output of the job. Neither marker can
+ * start a CDX line.
+ */
+@SuppressWarnings({"serial"})
+public class MultiFileCDXExtractionBatchJob extends FileBatchJob {
+
+    /** Logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(MultiFileCDXExtractionBatchJob.class);
+
+    /** The start of the line written before the output for a file. */
+    public static final String BEGIN_FILE_MARKER = "#NAS-CDX-BEGIN ";
+
+    /** The start of the line written after the output for a file. */
+    public static final String END_FILE_MARKER = "#NAS-CDX-END ";
+
+    /** The status in the end marker of a file which was indexed. */
+    public static final String STATUS_OK = "OK";
+
+    /** The status in the end marker of a file which could not be indexed. */
+    public static final String STATUS_FAILED = "FAILED";
+
+    /** The character set of the marker lines. */
+    private static final String MARKER_CHARSET = "UTF-8";
+
+    /** The job used for metadata files. */
+    private final FileBatchJob metadataJob = new DeduplicationCDXExtractionBatchJob();
+
+    /** The job used for arcfiles. */
+    private final FileBatchJob arcJob = new WaybackCDXExtractionARCBatchJob();
+
+    /** The job used for warcfiles. */
+    private final FileBatchJob warcJob = new WaybackCDXExtractionWARCBatchJob();
+
+    /** The job to use for each of the files to index. */
+    private final Map<String, FileBatchJob> jobsByFilename = new LinkedHashMap<String, FileBatchJob>();
+
+    /** The jobs which have been initialized. */
+    private transient Map<FileBatchJob, Boolean> initializedJobs;
+
+    /**
+     * Constructor which sets the timeout to one day.
+     */
+    public MultiFileCDXExtractionBatchJob() {
+        batchJobTimeout = Constants.ONE_DAY_IN_MILLIES;
+    }
+
+    /**
+     * Adds a file to the files indexed by this job, if it is of a kind which can be indexed. The job is restricted to
+     * process exactly the files added.
+     *
+     * @param filename The name of the file.
+     * @return true if the file was added, false if it cannot be indexed.
+     * @throws ArgumentNotValid if the filename is null or empty.
+     */
+    public boolean addFile(String filename) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
+        FileBatchJob job;
+        if (filename.matches("(.*)" + Settings.get(CommonSettings.METADATAFILE_REGEX_SUFFIX))) {
+            job = metadataJob;
+        } else if (ARCUtils.isARC(filename)) {
+            job = arcJob;
+        } else if (WARCUtils.isWarc(filename)) {
+            job = warcJob;
+        } else {
+            return false;
+        }
+        jobsByFilename.put(filename, job);
+        processOnlyFilesNamed(new ArrayList<String>(jobsByFilename.keySet()));
+        return true;
+    }
+
+    /**
+     * Initializes the job. The jobs used for the files are initialized when first needed.
+     *
+     * @param os unused argument.
+     */
+    @Override
+    public void initialize(OutputStream os) {
+        log.info("Starting a {} for {} files", getClass().getName(), jobsByFilename.size());
+        initializedJobs = new IdentityHashMap<FileBatchJob, Boolean>();
+    }
+
+    /**
+     * Writes the CDX lines for a file to the output, enclosed in the begin and end markers of the file. Exceptions
+     * thrown while indexing the file are added to the exceptions of this job.
+     *
+     * @param file The file to index.
+     * @param os The output stream.
+     * @return true if the file was indexed.
+     */
+    @Override
+    public boolean processFile(File file, OutputStream os) {
+        FileBatchJob job = jobsByFilename.get(file.getName());
+        if (job == null) {
+            log.warn("Not indexing '{}', which is not one of the files of this job", file.getName());
+            return false;
+        }
+        if (!initializedJobs.containsKey(job)) {
+            job.initialize(os);
+            initializedJobs.put(job, Boolean.TRUE);
+        }
+        writeMarker(os, BEGIN_FILE_MARKER + file.getName());
+        LineEndTrackingOutputStream fileOutput = new LineEndTrackingOutputStream(os);
+        int previousExceptions = job.getExceptions().size();
+        boolean success = false;
+        try {
+            success = job.processFile(file, fileOutput);
+        } finally {
+            List<ExceptionOccurrence> jobExceptions = job.getExceptions();
+            exceptions.addAll(jobExceptions.subList(previousExceptions, jobExceptions.size()));
+            if (!fileOutput.isAtLineStart()) {
+                writeMarker(os, "");
+            }
+            writeMarker(os, END_FILE_MARKER + (success ? STATUS_OK : STATUS_FAILED) + " " + file.getName());
+        }
+        return success;
+    }
+
+    /**
+     * Finishes the jobs used for the files.
+     *
+     * @param os The output stream.
+     */
+    @Override
+    public void finish(OutputStream os) {
+        for (FileBatchJob job : initializedJobs.keySet()) {
+            job.finish(os);
+        }
+        log.info("Finishing the {}", getClass().getName());
+    }
+
+    /**
+     * Writes a line to the output.
+     *
+     * @param os The output stream.
+     * @param line The line, without line end.
+     * @throws IOFailure If the line cannot be written.
+     */
+    private static void writeMarker(OutputStream os, String line) {
+        try {
+            os.write((line + "\n").getBytes(MARKER_CHARSET));
+        } catch (IOException e) {
+            throw new IOFailure("Unable to write to batch output", e);
+        }
+    }
+
+    /**
+     * An output stream which remembers whether the last byte written ended a line. Closing it does not close the
+     * underlying stream.
+     */
+    private static class LineEndTrackingOutputStream extends FilterOutputStream {
+
+        /** Whether nothing has been written or the last byte written was a newline. */
+        private boolean atLineStart = true;
+
+        /**
+         * @param out The underlying stream.
+         */
+        LineEndTrackingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            atLineStart = b == '\n';
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (len > 0) {
+                atLineStart = b[off + len - 1] == '\n';
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        /**
+         * @return Whether nothing has been written or the last byte written was a newline.
+         */
+        boolean isAtLineStart() {
+            return atLineStart;
+        }
+    }
+
+}
@@ -22,10 +22,21 @@
  */
 package dk.netarkivet.wayback.indexer;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.exceptions.IllegalState;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.wayback.WaybackSettings;
 
@@ -35,6 +46,18 @@ import dk.netarkivet.wayback.WaybackSettings;
 @SuppressWarnings({"unchecked"})
 public class ArchiveFileDAO extends GenericHibernateDAO<ArchiveFile, String> {
 
+    /** Logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(ArchiveFileDAO.class);
+
+    /**
+     * The number of files created in each transaction by {@link #createUnknown(BufferedReader)}, and saved between each
+     * flush of the session in {@link #updateAll(Collection)}.
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    /** The number of filenames fetched from the database at a time in {@link #createUnknown(BufferedReader)}. */
+    private static final int FETCH_SIZE = 10000;
+
     /**
      * Default constructor.
      */
@@ -50,7 +73,154 @@ public class ArchiveFileDAO extends GenericHibernateDAO<ArchiveFile, String> {
      */
     public boolean exists(String filename) {
         Session sess = getSession();
-        return !sess.createQuery("from ArchiveFile where filename='" + filename + "'").list().isEmpty();
+        try {
+            return !sess.createQuery("from ArchiveFile where filename = :filename").setString("filename", filename)
+                    .list().isEmpty();
+        } finally {
+            sess.close();
+        }
+    }
+
+    /**
+     * Creates a new, unindexed ArchiveFile in the object store for each of the given filenames, which is not already
+     * known. The filenames must be sorted in the order of their bytes, as Unix sort with LANG=C does. This is the order
+     * in which the object store returns the known filenames with its default collation. The two sorted lists are merged
+     * as streams, so neither list is held in memory. The new files are created in transactions of
+     * {@link #BATCH_SIZE} files.
+     *
+     * @param sortedFilenames Reader of the sorted filenames, one per line. Empty lines and repeated names are skipped.
+     * @return The number of files created.
+     * @throws IOFailure If the filenames cannot be read.
+     * @throws IllegalState If the filenames, or the filenames known in the object store, are not sorted.
+     */
+    public int createUnknown(BufferedReader sortedFilenames) throws IOFailure, IllegalState {
+        int created = 0;
+        Session readSess = getSession();
+        Session writeSess = getSession();
+        try {
+            ScrollableResults knownFilenames = readSess
+                    .createQuery("select filename from ArchiveFile order by filename").setFetchSize(FETCH_SIZE)
+                    .scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                List<String> newFilenames = new ArrayList<String>(BATCH_SIZE);
+                String knownFilename = nextKnownFilename(knownFilenames, null);
+                String previous = null;
+                String line;
+                while ((line = sortedFilenames.readLine()) != null) {
+                    String filename = line.trim();
+                    if (filename.isEmpty() || filename.equals(previous)) {
+                        continue;
+                    }
+                    if (previous != null && filename.compareTo(previous) < 0) {
+                        throw new IllegalState("The filenames are not sorted: '" + filename + "' follows '"
+                                + previous + "'");
+                    }
+                    previous = filename;
+                    while (knownFilename != null && knownFilename.compareTo(filename) < 0) {
+                        knownFilename = nextKnownFilename(knownFilenames, knownFilename);
+                    }
+                    // If a file is already known in the object store, no action needs to be taken.
+                    if (!filename.equals(knownFilename)) {
+                        newFilenames.add(filename);
+                        if (newFilenames.size() == BATCH_SIZE) {
+                            created += createBatch(writeSess, newFilenames);
+                            newFilenames.clear();
+                        }
+                    }
+                }
+                created += createBatch(writeSess, newFilenames);
+            } finally {
+                knownFilenames.close();
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Error reading the filenames", e);
+        } finally {
+            readSess.close();
+            writeSess.close();
+        }
+        log.info("Created object store entries for {} new files", created);
+        return created;
+    }
+
+    /**
+     * Reads the next filename known in the object store.
+     *
+     * @param knownFilenames The known filenames, ordered by filename.
+     * @param previous The previous known filename, or null if this is the first.
+     * @return The next known filename, or null if there are no more.
+     * @throws IllegalState If the object store does not return the filenames in the order of their bytes.
+     */
+    private static String nextKnownFilename(ScrollableResults knownFilenames, String previous) throws IllegalState {
+        if (!knownFilenames.next()) {
+            return null;
+        }
+        String filename = knownFilenames.getString(0);
+        if (previous != null && filename.compareTo(previous) < 0) {
+            throw new IllegalState("The object store does not order the filenames by their bytes: '" + filename
+                    + "' follows '" + previous + "'. It must use a binary collation");
+        }
+        return filename;
+    }
+
+    /**
+     * Creates a new, unindexed ArchiveFile in the object store for each of the given filenames in a single
+     * transaction. None of the files may already be known in the object store.
+     *
+     * @param sess The session to create the files in.
+     * @param filenames The names of the new files.
+     * @return The number of files created.
+     */
+    private static int createBatch(Session sess, List<String> filenames) {
+        if (filenames.isEmpty()) {
+            return 0;
+        }
+        Transaction transaction = sess.beginTransaction();
+        try {
+            for (String filename : filenames) {
+                ArchiveFile file = new ArchiveFile();
+                file.setFilename(filename);
+                file.setIndexed(false);
+                log.debug("Creating object store entry for '{}'", filename);
+                sess.save(file);
+            }
+            transaction.commit();
+        } catch (RuntimeException e) {
+            transaction.rollback();
+            throw e;
+        }
+        sess.clear();
+        return filenames.size();
+    }
+
+    /**
+     * Persists the state of a number of ArchiveFiles in a single transaction.
+     *
+     * @param files the files to update.
+     */
+    public void updateAll(Collection<ArchiveFile> files) {
+        if (files.isEmpty()) {
+            return;
+        }
+        Session sess = getSession();
+        try {
+            Transaction transaction = sess.beginTransaction();
+            try {
+                int count = 0;
+                for (ArchiveFile file : files) {
+                    sess.update(file);
+                    if (++count % BATCH_SIZE == 0) {
+                        sess.flush();
+                        sess.clear();
+                    }
+                }
+                transaction.commit();
+            } catch (RuntimeException e) {
+                transaction.rollback();
+                throw e;
+            }
+        } finally {
+            sess.close();
+        }
     }
 
     /**
@@ -0,0 +1,187 @@
+/*
+ * #%L
+ * Netarchivesuite - wayback
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.wayback.indexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClientFactory;
+import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
+import dk.netarkivet.common.distribute.arcrepository.PreservationArcRepositoryClient;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.batch.FileBatchJob;
+import dk.netarkivet.wayback.WaybackSettings;
+import dk.netarkivet.wayback.batch.MultiFileCDXExtractionBatchJob;
+
+/**
+ * Indexes a group of archive files with a single batch job. The output for each archive file is split out of the
+ * combined batch output while it is received, and the status of each archive file is updated according to its own
+ * outcome, so only the archive files which failed are tried again.
+ */
+final class BatchIndexer {
+
+    /** Logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(BatchIndexer.class);
+
+    /**
+     * Private constructor as this class is never instantiated.
+     */
+    private BatchIndexer() {
+    }
+
+    /**
+     * Run a batch job to index a group of archive files, storing the result locally. For each archive file indexed,
+     * the isIndexed flag is set to true and the originalIndexFileName field is set to the (arbitrary) name of the file
+     * containing its results. For each archive file which failed, the number of failed attempts is incremented. The
+     * new values are persisted to the datastore in one transaction. Archive files which are already indexed, or are
+     * not of a kind which can be indexed, are skipped.
+     *
+     * @param files The archive files.
+     */
+    static void index(List<ArchiveFile> files) {
+        MultiFileCDXExtractionBatchJob job = new MultiFileCDXExtractionBatchJob();
+        Map<String, ArchiveFile> filesToIndex = new LinkedHashMap<String, ArchiveFile>();
+        for (ArchiveFile file : files) {
+            if (file.isIndexed()) {
+                log.warn("Skipping indexing of file '{}' which is already indexed", file.getFilename());
+            } else if (job.addFile(file.getFilename())) {
+                filesToIndex.put(file.getFilename(), file);
+            } else {
+                log.warn("Skipping indexing of file with filename '{}'", file.getFilename());
+            }
+        }
+        if (filesToIndex.isEmpty()) {
+            return;
+        }
+        PreservationArcRepositoryClient client = ArcRepositoryClientFactory.getPreservationInstance();
+        String replicaId = Settings.get(WaybackSettings.WAYBACK_REPLICA);
+        log.info("Submitting {} for {} files to {}", job.getClass().getName(), filesToIndex.size(), replicaId);
+        BatchStatus batchStatus = client.batch(job, replicaId);
+        log.info("Batch job for {} files returned", filesToIndex.size());
+
+        Map<String, File> outputFiles = Collections.emptyMap();
+        if (batchStatus.hasResultFile()) {
+            try {
+                outputFiles = collectResults(batchStatus);
+            } catch (Exception e) {
+                log.error("Failed to retrieve results", e);
+            }
+        }
+        Set<String> failedFilenames = new HashSet<String>();
+        for (File failedFile : batchStatus.getFilesFailed()) {
+            failedFilenames.add(failedFile.getName());
+        }
+
+        String finalBatchOutputDir = Settings.get(WaybackSettings.WAYBACK_BATCH_OUTPUTDIR);
+        final File finalDirectory = new File(finalBatchOutputDir);
+        FileUtils.createDir(finalDirectory);
+        for (ArchiveFile file : filesToIndex.values()) {
+            File outputFile = outputFiles.get(file.getFilename());
+            if (outputFile == null || failedFilenames.contains(file.getFilename())) {
+                if (outputFile != null) {
+                    FileUtils.remove(outputFile);
+                }
+                logIndexingError(file, batchStatus);
+                file.setIndexingFailedAttempts(file.getIndexingFailedAttempts() + 1);
+            } else {
+                // Move the output file from the temporary directory to the final directory
+                File finalFile = new File(finalDirectory, outputFile.getName());
+                FileUtils.moveFile(outputFile, finalFile);
+                file.setOriginalIndexFileName(outputFile.getName());
+                file.setIndexed(true);
+                log.info("Indexed '{}' to '{}'", file.getFilename(), finalFile.getAbsolutePath());
+            }
+        }
+        // Update the file statuses in the object store
+        (new ArchiveFileDAO()).updateAll(filesToIndex.values());
+    }
+
+    /**
+     * Streams the batch results from the BatchStatus into a file for each archive file in the temporary directory
+     * WAYBACK_INDEX_TEMPDIR.
+     *
+     * @param status the status of a batch job.
+     * @return The output file of each archive file indexed, by the name of the archive file.
+     * @throws IOFailure If the output files cannot be written.
+     */
+    private static Map<String, File> collectResults(BatchStatus status) {
+        // Read the name of the temporary output directory and create it if
+        // necessary
+        String tempBatchOutputDir = Settings.get(WaybackSettings.WAYBACK_INDEX_TEMPDIR);
+        final File outDir = new File(tempBatchOutputDir);
+        FileUtils.createDir(outDir);
+
+        log.info("Collecting index to '{}'", outDir.getAbsolutePath());
+        CDXOutputSplitter splitter = new CDXOutputSplitter(outDir);
+        try {
+            status.appendResults(splitter);
+            splitter.close();
+        } catch (IOException e) {
+            throw new IOFailure("Error writing batch output to '" + outDir + "'", e);
+        } finally {
+            IOUtils.closeQuietly(splitter);
+        }
+        Map<String, File> outputFiles = splitter.getIndexedFiles();
+        log.info("Finished collecting index for {} files to '{}'", outputFiles.size(), outDir.getAbsolutePath());
+        return outputFiles;
+    }
+
+    /**
+     * Logs the failure to index an archive file, with the exceptions thrown while indexing it.
+     *
+     * @param file the archive file.
+     * @param status the status of the batch job.
+     */
+    private static void logIndexingError(ArchiveFile file, BatchStatus status) {
+        List<FileBatchJob.ExceptionOccurrence> fileExceptions = new ArrayList<FileBatchJob.ExceptionOccurrence>();
+        for (FileBatchJob.ExceptionOccurrence e : status.getExceptions()) {
+            if (file.getFilename().equals(e.getFileName())) {
+                fileExceptions.add(e);
+            }
+        }
+        String message = "Error indexing file '" + file.getFilename() + "'\n" + "Number of files processed in batch: '"
+                + status.getNoOfFilesProcessed() + "'\n" + "Number of files failed in batch '"
+                + status.getFilesFailed().size() + "'";
+        if (!fileExceptions.isEmpty()) {
+            message += "\n Exceptions thrown: " + "\n";
+            for (FileBatchJob.ExceptionOccurrence e : fileExceptions) {
+                message += e.toString() + "\n";
+            }
+        }
+        log.error(message);
+    }
+
+}
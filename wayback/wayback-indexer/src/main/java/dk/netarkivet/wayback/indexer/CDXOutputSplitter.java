@@ -0,0 +1,218 @@
+/*
+ * #%L
+ * Netarchivesuite - wayback
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.wayback.indexer;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.wayback.batch.MultiFileCDXExtractionBatchJob;
+
+/**
+ * An output stream which splits the output of a {@link MultiFileCDXExtractionBatchJob} into a file for each archive
+ * file indexed, as the output is written to it. The CDX lines are copied byte for byte.
+ * <p>
+ * An archive file counts as indexed if its output ends with a successful end marker, and no failure was marked for it.
+ * If the output for an archive file occurs more than once, e.g. because it is found on several bitarchives, all of it
+ * is written to the same file.
+ */
+class CDXOutputSplitter extends OutputStream {
+
+    /** Logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(CDXOutputSplitter.class);
+
+    /** The character set of the marker lines. */
+    private static final Charset MARKER_CHARSET = Charset.forName("UTF-8");
+
+    /** The directory the output files are written to. */
+    private final File dir;
+
+    /** The line currently being written, without its newline. */
+    private final LineBuffer line = new LineBuffer();
+
+    /** The output file for each archive file. */
+    private final Map<String, File> outputFiles = new HashMap<String, File>();
+
+    /** The names of the archive files whose output has been marked as failed, or is incomplete. */
+    private final Set<String> failed = new HashSet<String>();
+
+    /** The name of the archive file whose output is currently being written, or null. */
+    private String currentFilename;
+
+    /** The stream the output of the current archive file is written to, or null. */
+    private OutputStream currentOutput;
+
+    /** Whether lines which do not belong to any archive file have been found. */
+    private boolean strayLinesFound;
+
+    /**
+     * Create a splitter which writes the output files to a given directory, using arbitrary names.
+     *
+     * @param dir The directory, which must exist.
+     */
+    CDXOutputSplitter(File dir) {
+        this.dir = dir;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (b == '\n') {
+            endLine();
+        } else {
+            line.write(b);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int start = off;
+        for (int i = off; i < off + len; i++) {
+            if (b[i] == '\n') {
+                line.write(b, start, i - start);
+                endLine();
+                start = i + 1;
+            }
+        }
+        line.write(b, start, off + len - start);
+    }
+
+    /**
+     * Ends the output. Output of an archive file which has not been ended is considered failed.
+     *
+     * @throws IOException If the output cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (line.size() > 0) {
+            endLine();
+        }
+        if (currentFilename != null) {
+            log.warn("The batch output for '{}' is incomplete", currentFilename);
+            failed.add(currentFilename);
+            closeCurrentOutput();
+        }
+    }
+
+    /**
+     * Returns the output files of the archive files which were indexed. The output files of the archive files which
+     * failed are deleted.
+     *
+     * @return The output file of each indexed archive file, by the name of the archive file.
+     */
+    Map<String, File> getIndexedFiles() {
+        Map<String, File> indexed = new HashMap<String, File>();
+        for (Map.Entry<String, File> entry : outputFiles.entrySet()) {
+            if (failed.contains(entry.getKey())) {
+                entry.getValue().delete();
+            } else {
+                indexed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return indexed;
+    }
+
+    /**
+     * Handles a complete line, which is either a marker or output of the current archive file.
+     *
+     * @throws IOException If the output cannot be written.
+     */
+    private void endLine() throws IOException {
+        String marker = asMarker();
+        if (marker != null && marker.startsWith(MultiFileCDXExtractionBatchJob.BEGIN_FILE_MARKER)) {
+            if (currentFilename != null) {
+                log.warn("The batch output for '{}' is incomplete", currentFilename);
+                failed.add(currentFilename);
+                closeCurrentOutput();
+            }
+            currentFilename = marker.substring(MultiFileCDXExtractionBatchJob.BEGIN_FILE_MARKER.length());
+            File outputFile = outputFiles.get(currentFilename);
+            if (outputFile == null) {
+                outputFile = new File(dir, UUID.randomUUID().toString());
+                outputFiles.put(currentFilename, outputFile);
+            } else {
+                log.warn("Found more batch output for '{}'.\n This may indicate a doublet in the arcrepository. "
+                        + "Proceeding with caution.", currentFilename);
+            }
+            currentOutput = new BufferedOutputStream(new FileOutputStream(outputFile, true));
+        } else if (marker != null && marker.startsWith(MultiFileCDXExtractionBatchJob.END_FILE_MARKER)) {
+            String status = marker.substring(MultiFileCDXExtractionBatchJob.END_FILE_MARKER.length());
+            if (currentFilename != null
+                    && !status.equals(MultiFileCDXExtractionBatchJob.STATUS_OK + " " + currentFilename)) {
+                failed.add(currentFilename);
+            }
+            closeCurrentOutput();
+        } else if (currentOutput != null) {
+            line.write('\n');
+            line.writeTo(currentOutput);
+        } else if (!strayLinesFound) {
+            log.warn("Ignoring batch output which does not belong to any archive file");
+            strayLinesFound = true;
+        }
+        line.reset();
+    }
+
+    /**
+     * @return The current line, if it may be a marker, or null.
+     */
+    private String asMarker() {
+        if (!line.startsWith((byte) MultiFileCDXExtractionBatchJob.BEGIN_FILE_MARKER.charAt(0))) {
+            return null;
+        }
+        return new String(line.toByteArray(), MARKER_CHARSET);
+    }
+
+    private void closeCurrentOutput() throws IOException {
+        if (currentOutput != null) {
+            currentOutput.close();
+        }
+        currentOutput = null;
+        currentFilename = null;
+    }
+
+    /**
+     * A buffer for a line, which can check the first byte of the line without copying it.
+     */
+    private static class LineBuffer extends ByteArrayOutputStream {
+
+        /**
+         * @param b A byte.
+         * @return Whether the line starts with the byte.
+         */
+        boolean startsWith(byte b) {
+            return count > 0 && buf[0] == b;
+        }
+    }
+
+}
@@ -23,8 +23,9 @@
 package dk.netarkivet.wayback.indexer;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.Date;
 
@@ -37,6 +38,7 @@ import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClientFactory;
 import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
 import dk.netarkivet.common.distribute.arcrepository.PreservationArcRepositoryClient;
 import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.batch.DatedFileListJob;
 import dk.netarkivet.common.utils.batch.FileListJob;
@@ -52,59 +54,53 @@ public class FileNameHarvester {
      * ArchiveFile object store.
      */
     public static synchronized void harvestAllFilenames() {
-        ArchiveFileDAO dao = new ArchiveFileDAO();
         PreservationArcRepositoryClient client = ArcRepositoryClientFactory.getPreservationInstance();
         BatchStatus status = client.batch(new FileListJob(), Settings.get(WaybackSettings.WAYBACK_REPLICA));
-        RemoteFile results = status.getResultFile();
-        InputStream is = results.getInputStream();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-        String line;
-        try {
-            while ((line = reader.readLine()) != null) {
-                if (!dao.exists(line.trim())) {
-                    ArchiveFile file = new ArchiveFile();
-                    file.setFilename(line.trim());
-                    file.setIndexed(false);
-                    log.info("Creating object store entry for '{}'", file.getFilename());
-                    dao.create(file);
-                } // If the file is already known in the persistent store, no
-                  // action needs to be taken.
-            }
-        } catch (IOException e) {
-            throw new IOFailure("Error reading remote file", e);
-        } finally {
-            IOUtils.closeQuietly(reader);
-        }
+        addNewFilenames(status.getResultFile());
     }
 
     /**
      * This method harvests a list of all the recently added files in the archive.
      */
     public static synchronized void harvestRecentFilenames() {
-        ArchiveFileDAO dao = new ArchiveFileDAO();
         PreservationArcRepositoryClient client = ArcRepositoryClientFactory.getPreservationInstance();
         long timeAgo = Settings.getLong(WaybackSettings.WAYBACK_INDEXER_RECENT_PRODUCER_SINCE);
         Date since = new Date(System.currentTimeMillis() - timeAgo);
         BatchStatus status = client.batch(new DatedFileListJob(since), Settings.get(WaybackSettings.WAYBACK_REPLICA));
-        RemoteFile results = status.getResultFile();
-        InputStream is = results.getInputStream();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-        String line;
+        addNewFilenames(status.getResultFile());
+    }
+
+    /**
+     * Appends the files in a list of filenames which are not already known in the ArchiveFile object store to the
+     * store. The list is sorted with Unix sort, and then merged with the filenames known in the store, so that only a
+     * single line of each is held in memory.
+     *
+     * @param results a file with one filename per line.
+     * @throws IOFailure If the list cannot be fetched or sorted.
+     */
+    private static void addNewFilenames(RemoteFile results) throws IOFailure {
+        File unsortedFile = null;
+        File sortedFile = null;
+        BufferedReader reader = null;
         try {
-            while ((line = reader.readLine()) != null) {
-                if (!dao.exists(line.trim())) {
-                    ArchiveFile file = new ArchiveFile();
-                    file.setFilename(line.trim());
-                    file.setIndexed(false);
-                    log.info("Creating object store entry for '{}'", file.getFilename());
-                    dao.create(file);
-                } // If the file is already known in the persistent store, no
-                  // action needs to be taken.
-            }
+            unsortedFile = File.createTempFile("filenames", ".txt", FileUtils.getTempDir());
+            sortedFile = File.createTempFile("filenames", "-sorted.txt", FileUtils.getTempDir());
+            results.copyTo(unsortedFile);
+            FileUtils.sortFile(unsortedFile, sortedFile);
+            FileUtils.remove(unsortedFile);
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(sortedFile)));
+            int created = new ArchiveFileDAO().createUnknown(reader);
+            log.info("Found {} new files in the archive", created);
         } catch (IOException e) {
-            throw new IOFailure("Error reading remote file", e);
+            throw new IOFailure("Error sorting the list of files in the archive", e);
         } finally {
             IOUtils.closeQuietly(reader);
+            if (unsortedFile != null) {
+                FileUtils.remove(unsortedFile);
+            }
+            if (sortedFile != null) {
+                FileUtils.remove(sortedFile);
+            }
         }
     }
 }
@@ -22,12 +22,19 @@
  */
 package dk.netarkivet.wayback.indexer;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.wayback.WaybackSettings;
+
 /**
  * Singleton class which maintains the basic data structure and methods for the indexer.
  */
@@ -42,6 +49,12 @@ public class IndexerQueue {
     /** This is the basic underlying datastructure of the indexer - a queue of files waiting to be indexed. */
     private static LinkedBlockingQueue<ArchiveFile> queue;
 
+    /**
+     * The names of the files in the queue or being indexed, so a file is only queued once and checking whether it is
+     * queued does not require a search of the queue.
+     */
+    private static Set<String> queuedFilenames;
+
     /**
      * Factory method for obtaining the unique instance of this class.
      *
@@ -59,6 +72,7 @@ public class IndexerQueue {
      */
     private IndexerQueue() {
         queue = new LinkedBlockingQueue<ArchiveFile>();
+        queuedFilenames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
     }
 
     /**
@@ -71,7 +85,7 @@ public class IndexerQueue {
                     files.size());
         }
         for (ArchiveFile file : files) {
-            if (!queue.contains(file)) {
+            if (queuedFilenames.add(file.getFilename())) {
                 log.info("Adding file '{}' to indexing queue.", file.getFilename());
                 queue.add(file);
                 log.info("Files in queue: '{}'", queue.size());
@@ -80,23 +94,32 @@ public class IndexerQueue {
     }
 
     /**
-     * Sequentially take objects from the queue and index them, blocking indefinitely while waiting for new objects to
-     * be added to the queue. It is intended that multiple threads should run this method simultaneously.
+     * Sequentially take groups of objects from the queue and index each group with a single batch job, blocking
+     * indefinitely while waiting for new objects to be added to the queue. A group holds the objects waiting in the
+     * queue, up to the number given by the setting {@link WaybackSettings#WAYBACK_INDEXER_FILES_PER_BATCH}. It is
+     * intended that multiple threads should run this method simultaneously.
      */
     public void consume() {
+        int filesPerBatch = Math.max(1, Settings.getInt(WaybackSettings.WAYBACK_INDEXER_FILES_PER_BATCH));
         while (true) {
+            List<ArchiveFile> files = new ArrayList<ArchiveFile>();
             try {
-                ArchiveFile file = null;
                 try {
-                    file = queue.take();
-                    log.info("Taken file '{}' from indexing queue.", file.getFilename());
+                    files.add(queue.take());
+                    queue.drainTo(files, filesPerBatch - 1);
+                    log.info("Taken {} files from indexing queue, starting with '{}'.", files.size(), files.get(0)
+                            .getFilename());
                     log.info("Files in queue: '{}'", queue.size());
                 } catch (InterruptedException e) {
                     log.error("Unexpected interrupt in indexer while waiting for new elements", e);
                 }
-                file.index();
+                BatchIndexer.index(files);
             } catch (Exception e) { // Fault Barrier
                 log.warn("Caught exception at fault barrier for {}", Thread.currentThread().getName(), e);
+            } finally {
+                for (ArchiveFile file : files) {
+                    queuedFilenames.remove(file.getFilename());
+                }
             }
         }
     }
@@ -109,5 +132,8 @@ public class IndexerQueue {
         if (queue != null) {
             queue.clear();
         }
+        if (queuedFilenames != null) {
+            queuedFilenames.clear();
+        }
     }
 }
@@ -26,6 +26,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.util.Arrays;
 
 import org.junit.After;
 import org.junit.Before;
@@ -78,4 +79,25 @@ public class ArchiveFileTester extends IndexerTestCase {
 
         assertEquals("Should find all duplicates in original.", 15, FileUtils.countLines(outputFile));
     }
+
+    /**
+     * Test indexing an arcfile and a metadata arcfile with a single batch job.
+     */
+    @Test
+    public void testIndexGroup() {
+        ArchiveFile arcFile = new ArchiveFile();
+        arcFile.setFilename("arcfile_withredirects.arc");
+        ArchiveFile metadataFile = new ArchiveFile();
+        metadataFile.setFilename("12345-metadata-4.arc");
+        ArchiveFileDAO dao = new ArchiveFileDAO();
+        dao.create(arcFile);
+        dao.create(metadataFile);
+        BatchIndexer.index(Arrays.asList(arcFile, metadataFile));
+        assertTrue("Both files should be indexed", arcFile.isIndexed() && metadataFile.isIndexed());
+        assertTrue("Should have a resonable numer of lines in output file for the arcfile",
+                FileUtils.countLines(new File(destDir, arcFile.getOriginalIndexFileName())) > 5);
+        assertEquals("Should find all duplicates in original.", 15,
+                FileUtils.countLines(new File(destDir, metadataFile.getOriginalIndexFileName())));
+        assertTrue("The indexed state should be persisted", dao.read(metadataFile.getFilename()).isIndexed());
+    }
 }
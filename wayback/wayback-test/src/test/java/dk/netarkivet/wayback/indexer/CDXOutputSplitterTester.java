@@ -0,0 +1,74 @@
+/*
+ * #%L
+ * Netarchivesuite - wayback - test
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.wayback.indexer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.wayback.TestInfo;
+
+public class CDXOutputSplitterTester {
+
+    private final File outputDir = new File(TestInfo.WORKING_DIR, "splitter");
+
+    @Before
+    public void setUp() {
+        FileUtils.removeRecursively(outputDir);
+        FileUtils.createDir(outputDir);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(TestInfo.WORKING_DIR);
+    }
+
+    @Test
+    public void testSplit() throws IOException {
+        String output = "#NAS-CDX-BEGIN a.arc\n" + "a 1\n" + "a 2\n" + "#NAS-CDX-END OK a.arc\n"
+                + "#NAS-CDX-BEGIN b.warc\n" + "b 1\n" + "#NAS-CDX-END FAILED b.warc\n" + "#NAS-CDX-BEGIN c.arc\n"
+                + "#NAS-CDX-END OK c.arc\n" + "#NAS-CDX-BEGIN a.arc\n" + "a 3\n" + "#NAS-CDX-END OK a.arc\n"
+                + "#NAS-CDX-BEGIN d.arc\n" + "d 1";
+        byte[] bytes = output.getBytes("UTF-8");
+        CDXOutputSplitter splitter = new CDXOutputSplitter(outputDir);
+        // Write in small pieces, so lines are split between writes
+        for (int i = 0; i < bytes.length; i += 5) {
+            splitter.write(bytes, i, Math.min(5, bytes.length - i));
+        }
+        splitter.close();
+        Map<String, File> indexed = splitter.getIndexedFiles();
+        assertEquals("Only the files ending successfully should be indexed", 2, indexed.size());
+        assertEquals("All output for a file should be kept", "a 1\na 2\na 3\n",
+                FileUtils.readFile(indexed.get("a.arc")));
+        assertEquals("A file may have no output", 0, indexed.get("c.arc").length());
+        assertEquals("The output of failed files should be deleted", 2, outputDir.list().length);
+    }
+
+}
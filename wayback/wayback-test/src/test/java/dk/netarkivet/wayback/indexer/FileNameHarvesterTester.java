@@ -24,11 +24,15 @@ package dk.netarkivet.wayback.indexer;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.BufferedReader;
+import java.io.StringReader;
 import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import dk.netarkivet.common.exceptions.IllegalState;
+
 @SuppressWarnings({"unchecked"})
 public class FileNameHarvesterTester extends IndexerTestCase {
 
@@ -45,7 +49,24 @@ public class FileNameHarvesterTester extends IndexerTestCase {
         List<ArchiveFile> files = dao.getSession().createQuery("from ArchiveFile").list();
         assertEquals("There should be four files", 6, files.size());
         FileNameHarvester.harvestAllFilenames();
+        files = dao.getSession().createQuery("from ArchiveFile").list();
         assertEquals("There should still be four files", 6, files.size());
     }
 
+    @Test
+    public void testCreateUnknown() {
+        FileNameHarvester.harvestAllFilenames();
+        ArchiveFileDAO dao = new ArchiveFileDAO();
+        assertEquals("Only the new file should be created", 1,
+                dao.createUnknown(new BufferedReader(new StringReader("\nnew1.arc\nnew1.arc\n"))));
+        assertEquals("Only the unknown file should be created", 1,
+                dao.createUnknown(new BufferedReader(new StringReader("new1.arc\nnew2.arc\n"))));
+        assertEquals("The created files should be unindexed", 8, dao.getFilesAwaitingIndexing().size());
+    }
+
+    @Test(expected = IllegalState.class)
+    public void testCreateUnknownUnsorted() {
+        new ArchiveFileDAO().createUnknown(new BufferedReader(new StringReader("new2.arc\nnew1.arc\n")));
+    }
+
 }